@@ -0,0 +1,86 @@
+package ru.csc.bdse.kv;
+
+import org.openjdk.jmh.annotations.*;
+import ru.csc.bdse.kv.compress.Codec;
+import ru.csc.bdse.kv.compress.ValueCodec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU against space of value codecs. Time of {@code encode} and {@code decode} is the CPU side,
+ * the {@code inputBytes} and {@code storedBytes} counters of {@code encode} give the compression ratio.
+ * {@code json} payload is a typical document, {@code random} payload does not compress and is stored as is.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"NONE", "DEFLATE_FAST", "DEFLATE"})
+    private Codec codec;
+
+    @Param({"json", "random"})
+    private String payload;
+
+    @Param({"1024", "16384"})
+    private int valueSize;
+
+    private ValueCodec valueCodec;
+    private byte[] value;
+    private byte[] encoded;
+
+    /**
+     * Bytes given to and produced by the codec, totals of an iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Sizes {
+        public long inputBytes;
+        public long storedBytes;
+    }
+
+    @Setup
+    public void setup() {
+        valueCodec = new ValueCodec(codec, 0);
+        value = "json".equals(payload) ? json(valueSize) : random(valueSize);
+        encoded = valueCodec.encode(value);
+    }
+
+    @Benchmark
+    public byte[] encode(final Sizes sizes) {
+        final byte[] result = valueCodec.encode(value);
+        sizes.inputBytes += value.length;
+        sizes.storedBytes += result.length;
+        return result;
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return valueCodec.decode(encoded);
+    }
+
+    private static byte[] json(final int size) {
+        final StringBuilder json = new StringBuilder("[");
+        for (int i = 0; json.length() < size; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"id\":").append(i)
+                    .append(",\"name\":\"user-").append(ThreadLocalRandom.current().nextInt(100_000))
+                    .append("\",\"score\":").append(ThreadLocalRandom.current().nextDouble())
+                    .append(",\"active\":").append(i % 3 != 0)
+                    .append(",\"roles\":[\"reader\",\"writer\"]}");
+        }
+        json.setLength(size - 1);
+        return json.append(']').toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] random(final int size) {
+        final byte[] value = new byte[size];
+        ThreadLocalRandom.current().nextBytes(value);
+        return value;
+    }
+}
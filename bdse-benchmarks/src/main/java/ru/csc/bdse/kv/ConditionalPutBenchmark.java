@@ -0,0 +1,68 @@
+package ru.csc.bdse.kv;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.OptionalLong;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-modify-write of counters under contention: compare-and-set with {@link KeyValueApi#putIfVersion}
+ * of {@link InMemoryKeyValueApi} against serializing the cycle through one lock, as clients had to before.
+ * Every operation increments a random one of {@code hotKeys} counters, fewer keys mean more conflicts.
+ * Run with {@code -t 1}, {@code -t 4}, {@code -t 16} and so on to see how throughput scales with threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConditionalPutBenchmark {
+
+    @Param({"1", "16", "1024"})
+    private int hotKeys;
+
+    private KeyValueApi api;
+    private final Object lock = new Object();
+
+    @Setup
+    public void setup() {
+        api = new InMemoryKeyValueApi("bench");
+        for (int i = 0; i < hotKeys; i++) {
+            api.put(key(i), encode(0));
+        }
+    }
+
+    @Benchmark
+    public OptionalLong compareAndSet() {
+        final String key = key(ThreadLocalRandom.current().nextInt(hotKeys));
+        OptionalLong written;
+        do {
+            final VersionedValue current = api.getVersioned(key).get();
+            written = api.putIfVersion(key, encode(decode(current.getValue()) + 1), current.getVersion());
+        } while (!written.isPresent());
+        return written;
+    }
+
+    @Benchmark
+    public void globalLock() {
+        final String key = key(ThreadLocalRandom.current().nextInt(hotKeys));
+        synchronized (lock) {
+            api.put(key, encode(decode(api.get(key).get()) + 1));
+        }
+    }
+
+    private static String key(final int i) {
+        return "counter" + i;
+    }
+
+    private static byte[] encode(final long counter) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(counter).array();
+    }
+
+    private static long decode(final byte[] value) {
+        return ByteBuffer.wrap(value).getLong();
+    }
+}
@@ -0,0 +1,97 @@
+package ru.csc.bdse.kv;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.csc.bdse.Application;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Every public operation of a kvnode started in the same JVM, through {@link KeyValueApiHttpClient}.
+ * The node uses the engine named by {@code KVNODE_ENGINE} of the benchmark process, in-memory by default,
+ * so engines are compared end to end by running the benchmark with different environments.
+ * Sample mode gives latency percentiles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    private static final int KEY_COUNT = 10_000;
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"128", "16384"})
+    private int valueSize;
+
+    @Param({"0.9"})
+    private double readRatio;
+
+    private ConfigurableApplicationContext node;
+    private KeyValueApiHttpClient client;
+    private byte[] value;
+
+    @Setup
+    public void setup() {
+        node = SpringApplication.run(Application.class, "--server.port=0", "--logging.level.root=WARN");
+        client = new KeyValueApiHttpClient("http://localhost:" + node.getEnvironment().getProperty("local.server.port"));
+        value = new byte[valueSize];
+        ThreadLocalRandom.current().nextBytes(value);
+        for (int i = 0; i < KEY_COUNT; i++) {
+            client.put(key(i), value);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        node.close();
+    }
+
+    @Benchmark
+    public Optional<byte[]> get() {
+        return client.get(randomKey());
+    }
+
+    @Benchmark
+    public void put() {
+        client.put(randomKey(), value);
+    }
+
+    @Benchmark
+    public Optional<byte[]> mixed() {
+        final String key = randomKey();
+        if (ThreadLocalRandom.current().nextDouble() < readRatio) {
+            return client.get(key);
+        }
+        client.put(key, value);
+        return Optional.empty();
+    }
+
+    @Benchmark
+    public List<String> getKeys() {
+        return client.getKeys("key", randomKey(), PAGE_SIZE);
+    }
+
+    @Benchmark
+    public Set<NodeInfo> getInfo() {
+        return client.getInfo();
+    }
+
+    private static String randomKey() {
+        return key(ThreadLocalRandom.current().nextInt(KEY_COUNT));
+    }
+
+    private static String key(final int i) {
+        return "key" + i;
+    }
+}
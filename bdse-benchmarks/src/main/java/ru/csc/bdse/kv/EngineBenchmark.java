@@ -0,0 +1,103 @@
+package ru.csc.bdse.kv;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares storage engines on single-key operations over {@code keyCount} preloaded keys with values of
+ * {@code valueSize} bytes. {@code mixed} reads with probability {@code readRatio} and writes otherwise,
+ * {@code getKeys} lists a page of 100 keys after a random one.
+ * Run with {@code -t 1}, {@code -t 16} and so on to compare engines under contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"memory", "offheap", "compact", "log", "lsm"})
+    private String engine;
+
+    @Param({"10000", "100000"})
+    private int keyCount;
+
+    @Param({"128", "4096"})
+    private int valueSize;
+
+    @Param({"0.5", "0.95"})
+    private double readRatio;
+
+    private Path dir;
+    private KeyValueApi api;
+    private byte[] value;
+
+    @Setup
+    public void setup() {
+        dir = Engines.tempDir();
+        api = Engines.open(engine, dir);
+        value = new byte[valueSize];
+        ThreadLocalRandom.current().nextBytes(value);
+        for (int i = 0; i < keyCount; i++) {
+            api.put(key(i), value);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Engines.close(api, dir);
+    }
+
+    @Benchmark
+    public Optional<byte[]> get() {
+        return api.get(randomKey());
+    }
+
+    @Benchmark
+    public void put() {
+        api.put(randomKey(), value);
+    }
+
+    /**
+     * Deletes a key and puts it back, so that the number of keys stays the same.
+     */
+    @Benchmark
+    public void deleteAndPut() {
+        final String key = randomKey();
+        api.delete(key);
+        api.put(key, value);
+    }
+
+    @Benchmark
+    public Optional<byte[]> mixed() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final String key = key(random.nextInt(keyCount));
+        if (random.nextDouble() < readRatio) {
+            return api.get(key);
+        }
+        api.put(key, value);
+        return Optional.empty();
+    }
+
+    @Benchmark
+    public List<String> getKeys() {
+        return api.getKeys("key", randomKey(), PAGE_SIZE);
+    }
+
+    private String randomKey() {
+        return key(ThreadLocalRandom.current().nextInt(keyCount));
+    }
+
+    private static String key(final int i) {
+        return "key" + i;
+    }
+}
@@ -0,0 +1,62 @@
+package ru.csc.bdse.kv;
+
+import ru.csc.bdse.kv.compact.CompactKeyValueApi;
+import ru.csc.bdse.kv.log.FsyncPolicy;
+import ru.csc.bdse.kv.log.LogKeyValueApi;
+import ru.csc.bdse.kv.lsm.LsmKeyValueApi;
+import ru.csc.bdse.kv.offheap.OffHeapKeyValueApi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Opens storage engines by the names {@code KVNODE_ENGINE} takes, disk engines in a fresh temporary directory
+ * and without fsync, so that benchmarks measure the engine rather than the disk.
+ */
+final class Engines {
+
+    private Engines() {
+    }
+
+    static KeyValueApi open(final String engine, final Path dir) {
+        switch (engine) {
+            case "memory":
+                return new InMemoryKeyValueApi("bench");
+            case "offheap":
+                return new OffHeapKeyValueApi("bench");
+            case "compact":
+                return new CompactKeyValueApi("bench");
+            case "log":
+                return new LogKeyValueApi("bench", dir, FsyncPolicy.NEVER);
+            case "lsm":
+                return new LsmKeyValueApi("bench", dir, FsyncPolicy.NEVER);
+            default:
+                throw new IllegalArgumentException("unknown engine: " + engine);
+        }
+    }
+
+    static Path tempDir() {
+        try {
+            return Files.createTempDirectory("bdse-bench");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Closes the engine and removes its files.
+     */
+    static void close(final KeyValueApi api, final Path dir) throws IOException {
+        if (api instanceof Closeable) {
+            ((Closeable) api).close();
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package ru.csc.bdse.kv;
+
+import ru.csc.bdse.kv.load.LoadGenerator;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/**
+ * Measures heap taken per key by in-memory engines:
+ * <pre>
+ * java -Xmx8g -cp benchmarks.jar ru.csc.bdse.kv.FootprintTool [keys...]
+ * </pre>
+ * By default with 1M and 10M keys. Every key maps to the same value, so the figures are the cost of keeping
+ * a key and its entry. The heap is measured after full collections rather than by walking the object graph,
+ * which does not scale to tens of millions of objects.
+ */
+public final class FootprintTool {
+
+    private static final String[] ENGINES = {"memory", "compact"};
+    private static final byte[] VALUE = new byte[16];
+
+    private FootprintTool() {
+    }
+
+    public static void main(String[] args) {
+        final int[] keyCounts = args.length == 0 ? new int[]{1_000_000, 10_000_000} : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            keyCounts[i] = Integer.parseInt(args[i]);
+        }
+        System.out.printf("%-10s %12s %14s%n", "engine", "keys", "bytes per key");
+        for (int keyCount : keyCounts) {
+            for (String engine : ENGINES) {
+                System.out.printf("%-10s %12d %14.1f%n", engine, keyCount, bytesPerKey(engine, keyCount));
+            }
+        }
+    }
+
+    static double bytesPerKey(final String engine, final int keyCount) {
+        final long before = usedHeap();
+        final KeyValueApi api = Engines.open(engine, null);
+        for (int i = 0; i < keyCount; i++) {
+            api.put(LoadGenerator.key(i), VALUE);
+        }
+        final long after = usedHeap();
+        if (!api.get(LoadGenerator.key(keyCount - 1)).isPresent()) {
+            throw new IllegalStateException("lost key");
+        }
+        return (double) (after - before) / keyCount;
+    }
+
+    private static long usedHeap() {
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
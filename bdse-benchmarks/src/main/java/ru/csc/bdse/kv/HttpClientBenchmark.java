@@ -0,0 +1,73 @@
+package ru.csc.bdse.kv;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import ru.csc.bdse.Application;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the pooled keep-alive transport of {@link KeyValueApiHttpClient} with the former one
+ * built on {@code HttpURLConnection}. The node runs in the same JVM with the in-memory engine.
+ * Throughput mode gives requests per second, sample mode gives latency percentiles including p0.99.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class HttpClientBenchmark {
+
+    private static final int KEY_COUNT = 1000;
+
+    @Param({"url-connection", "pooled"})
+    private String transport;
+
+    @Param({"128", "65536"})
+    private int valueSize;
+
+    private ConfigurableApplicationContext node;
+    private KeyValueApiHttpClient client;
+    private byte[] value;
+
+    @Setup
+    public void setup() {
+        node = SpringApplication.run(Application.class, "--server.port=0", "--logging.level.root=WARN");
+        final String baseUrl = "http://localhost:" + node.getEnvironment().getProperty("local.server.port");
+        client = "pooled".equals(transport)
+                ? new KeyValueApiHttpClient(baseUrl)
+                : new KeyValueApiHttpClient(baseUrl, HttpClientConfig.DEFAULT, new SimpleClientHttpRequestFactory());
+        value = new byte[valueSize];
+        ThreadLocalRandom.current().nextBytes(value);
+        for (int i = 0; i < KEY_COUNT; i++) {
+            client.put(key(i), value);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.close();
+        node.close();
+    }
+
+    @Benchmark
+    public Optional<byte[]> get() {
+        return client.get(key(ThreadLocalRandom.current().nextInt(KEY_COUNT)));
+    }
+
+    @Benchmark
+    public void put() {
+        client.put(key(ThreadLocalRandom.current().nextInt(KEY_COUNT)), value);
+    }
+
+    private static String key(final int i) {
+        return "key" + i;
+    }
+}
@@ -0,0 +1,57 @@
+package ru.csc.bdse.kv;
+
+import ru.csc.bdse.kv.load.KeyDistribution;
+import ru.csc.bdse.kv.load.LoadGenerator;
+import ru.csc.bdse.kv.load.Workload;
+
+import java.io.IOException;
+
+/**
+ * Runs {@link LoadGenerator} against a kvnode from the command line:
+ * <pre>
+ * java -cp benchmarks.jar ru.csc.bdse.kv.LoadTool url workload ops-per-second seconds [threads [keys [distribution]]]
+ * </pre>
+ * where workload is {@code read-heavy}, {@code write-heavy} or {@code scan-heavy}
+ * and distribution is {@code zipfian} (by default) or {@code uniform}.
+ */
+public final class LoadTool {
+
+    private LoadTool() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.err.println("usage: LoadTool url read-heavy|write-heavy|scan-heavy ops-per-second seconds "
+                    + "[threads [keys [zipfian|uniform]]]");
+            System.exit(1);
+        }
+        Workload workload = workload(args[1]);
+        if (args.length > 5) {
+            workload = workload.withKeyCount(Integer.parseInt(args[5]));
+        }
+        if (args.length > 6) {
+            workload = workload.withKeyDistribution(KeyDistribution.valueOf(args[6].toUpperCase()));
+        }
+        final int threads = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+
+        try (KeyValueApiHttpClient client = new KeyValueApiHttpClient(args[0])) {
+            final LoadGenerator generator = new LoadGenerator(client, workload, threads);
+            System.out.println("loading " + workload.getKeyCount() + " keys");
+            generator.load();
+            System.out.print(generator.run(Double.parseDouble(args[2]), Long.parseLong(args[3]) * 1000));
+        }
+    }
+
+    private static Workload workload(final String name) {
+        switch (name) {
+            case "read-heavy":
+                return Workload.READ_HEAVY;
+            case "write-heavy":
+                return Workload.WRITE_HEAVY;
+            case "scan-heavy":
+                return Workload.SCAN_HEAVY;
+            default:
+                throw new IllegalArgumentException("unknown workload: " + name);
+        }
+    }
+}
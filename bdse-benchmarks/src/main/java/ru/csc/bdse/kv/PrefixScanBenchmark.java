@@ -0,0 +1,59 @@
+package ru.csc.bdse.kv;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares listing keys by prefix in {@link InMemoryKeyValueApi} with the former full scan
+ * over a {@link ConcurrentHashMap}. Only {@code matches} keys out of {@code keyCount} share the queried prefix.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrefixScanBenchmark {
+
+    private static final String PREFIX = "hot:";
+
+    @Param({"100000", "1000000"})
+    private int keyCount;
+
+    @Param({"10", "1000"})
+    private int matches;
+
+    private final byte[] value = new byte[16];
+
+    private KeyValueApi sorted;
+    private ConcurrentMap<String, byte[]> hashed;
+
+    @Setup
+    public void setup() {
+        sorted = new InMemoryKeyValueApi("bench");
+        hashed = new ConcurrentHashMap<>();
+        for (int i = 0; i < keyCount; i++) {
+            final String key = (i < matches ? PREFIX : "cold:") + i;
+            sorted.put(key, value);
+            hashed.put(key, value);
+        }
+    }
+
+    @Benchmark
+    public Set<String> sortedRangeScan() {
+        return sorted.getKeys(PREFIX);
+    }
+
+    @Benchmark
+    public Set<String> hashFullScan() {
+        return hashed.keySet()
+                .stream()
+                .filter(key -> key.startsWith(PREFIX))
+                .collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,96 @@
+package ru.csc.bdse.kv;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of {@code getKeys} and {@code getInfo} responses without the network.
+ * Keys are written by a streaming generator as the controller does and compared with binding the whole list,
+ * they are read by the streaming parser of the clients and compared with binding to an array.
+ * Node info is bound both ways by the same {@link ObjectMapper} as in Spring and the clients.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    @Param({"10", "1000", "100000"})
+    private int keyCount;
+
+    @Param({"1", "16"})
+    private int nodeCount;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private List<String> keys;
+    private byte[] keysJson;
+    private Set<NodeInfo> info;
+    private byte[] infoJson;
+
+    @Setup
+    public void setup() throws IOException {
+        keys = new ArrayList<>(keyCount);
+        for (int i = 0; i < keyCount; i++) {
+            keys.add("user:" + UUID.randomUUID());
+        }
+        keysJson = objectMapper.writeValueAsBytes(keys);
+        info = new HashSet<>();
+        for (int i = 0; i < nodeCount; i++) {
+            info.add(new NodeInfo("kvnode-" + i, i % 4 == 3 ? NodeStatus.DOWN : NodeStatus.UP));
+        }
+        infoJson = objectMapper.writeValueAsBytes(info);
+    }
+
+    @Benchmark
+    public byte[] writeKeysStreaming() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator json = JSON.createGenerator(out)) {
+            json.writeStartArray();
+            for (String key : keys) {
+                json.writeString(key);
+            }
+            json.writeEndArray();
+        }
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] writeKeysBound() throws IOException {
+        return objectMapper.writeValueAsBytes(keys);
+    }
+
+    @Benchmark
+    public List<String> readKeysStreaming() throws IOException {
+        final List<String> result = new ArrayList<>(keyCount);
+        HttpSupport.readKeys(new ByteArrayInputStream(keysJson), result);
+        return result;
+    }
+
+    @Benchmark
+    public String[] readKeysBound() throws IOException {
+        return objectMapper.readValue(keysJson, String[].class);
+    }
+
+    @Benchmark
+    public byte[] writeInfo() throws IOException {
+        return objectMapper.writeValueAsBytes(info);
+    }
+
+    @Benchmark
+    public NodeInfo[] readInfo() throws IOException {
+        return objectMapper.readValue(infoJson, NodeInfo[].class);
+    }
+}
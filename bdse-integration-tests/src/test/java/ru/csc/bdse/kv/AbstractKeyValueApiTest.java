@@ -1,14 +1,13 @@
 package ru.csc.bdse.kv;
 
 import org.assertj.core.api.SoftAssertions;
+import org.junit.Assume;
 import org.junit.Test;
 import ru.csc.bdse.util.Constants;
 import ru.csc.bdse.util.Random;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Optional;
-import java.util.Set;
+import java.util.*;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Java6Assertions.assertThat;
 
@@ -129,4 +128,104 @@ public abstract class AbstractKeyValueApiTest {
 
         softAssert.assertAll();
     }
+
+    @Test
+    public void getKeysByNestedPrefix() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        String outer = "nested" + Random.nextKey();
+        String inner = outer + "z";
+        String outerKey = outer + "a";
+        String innerKey = inner + "a";
+        String neighbourKey = outer.substring(0, outer.length() - 1) + "_";
+        byte[] value = Random.nextValue();
+
+        api.put(outerKey, value);
+        api.put(innerKey, value);
+        api.put(neighbourKey, value);
+
+        Set<String> expectedOuterKeys = new HashSet<>();
+        expectedOuterKeys.add(outerKey);
+        expectedOuterKeys.add(innerKey);
+
+        softAssert.assertThat(api.getKeys(outer)).as("outer").isEqualTo(expectedOuterKeys);
+        softAssert.assertThat(api.getKeys(inner)).as("inner").isEqualTo(Collections.singleton(innerKey));
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void batchOperations() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        Map<String, byte[]> entries = new HashMap<>();
+        for (int i = 0; i < 10; i++) {
+            entries.put(Random.nextKey(), Random.nextValue());
+        }
+        String absentKey = Random.nextKey();
+
+        api.putAll(entries);
+        List<String> keys = new ArrayList<>(entries.keySet());
+        keys.add(absentKey);
+        Map<String, byte[]> actual = api.getAll(keys);
+        softAssert.assertThat(actual.keySet()).as("keys").isEqualTo(entries.keySet());
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            softAssert.assertThat(actual.get(entry.getKey())).as("value").isEqualTo(entry.getValue());
+        }
+        Map<String, byte[]> heads = api.getAllHeads(keys, 4);
+        softAssert.assertThat(heads.keySet()).as("keys of heads").isEqualTo(entries.keySet());
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            softAssert.assertThat(heads.get(entry.getKey())).as("head").isEqualTo(Arrays.copyOf(entry.getValue(), 4));
+        }
+
+        api.deleteAll(keys);
+        softAssert.assertThat(api.getAll(keys)).as("after delete").isEmpty();
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void getKeysByPages() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        String prefix = "paged" + Random.nextKey() + ":";
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            String key = prefix + i;
+            api.put(key, Random.nextValue());
+            expected.add(key);
+        }
+        api.put(prefix.substring(0, prefix.length() - 1), Random.nextValue());
+        Collections.sort(expected);
+
+        List<String> firstPage = api.getKeys(prefix, null, 10);
+        softAssert.assertThat(firstPage).as("first page").isEqualTo(expected.subList(0, 10));
+        List<String> lastPage = api.getKeys(prefix, expected.get(19), 10);
+        softAssert.assertThat(lastPage).as("last page").isEqualTo(expected.subList(20, 25));
+        softAssert.assertThat(api.getKeys(prefix, expected.get(24), 10)).as("after last").isEmpty();
+
+        List<String> streamed = api.streamKeys(prefix, 7).collect(Collectors.toList());
+        softAssert.assertThat(streamed).as("streamed").isEqualTo(expected);
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void keyCountFollowsWrites() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        Assume.assumeTrue("storage counts keys", api.getKeyCount().isPresent());
+        long before = api.getKeyCount().getAsLong();
+        String key = Random.nextKey();
+        api.put(key, Random.nextValue());
+        softAssert.assertThat(api.getKeyCount().getAsLong()).as("after put").isEqualTo(before + 1);
+        api.put(key, Random.nextValue());
+        softAssert.assertThat(api.getKeyCount().getAsLong()).as("after overwrite").isEqualTo(before + 1);
+        api.delete(key);
+        softAssert.assertThat(api.getKeyCount().getAsLong()).as("after delete").isEqualTo(before);
+        api.delete(key);
+        softAssert.assertThat(api.getKeyCount().getAsLong()).as("after repeated delete").isEqualTo(before);
+
+        softAssert.assertAll();
+    }
 }
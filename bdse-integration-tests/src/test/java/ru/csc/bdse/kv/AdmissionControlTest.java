@@ -0,0 +1,145 @@
+package ru.csc.bdse.kv;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.csc.bdse.Application;
+import ru.csc.bdse.kv.admission.AdmissionControl;
+import ru.csc.bdse.kv.admission.ConcurrencyLimit;
+import ru.csc.bdse.kv.admission.RequestClass;
+import ru.csc.bdse.util.Random;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks limits of requests in flight and their effect on a kvnode started in the same JVM with small limits.
+ */
+public class AdmissionControlTest {
+
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static ConfigurableApplicationContext node;
+
+    @BeforeClass
+    public static void startNode() {
+        node = SpringApplication.run(Application.class, "--server.port=0", "--kvnode.admission-limits=2,2,1");
+    }
+
+    @AfterClass
+    public static void stopNode() {
+        node.close();
+    }
+
+    private static String baseUrl() {
+        return "http://localhost:" + node.getEnvironment().getProperty("local.server.port");
+    }
+
+    @Test
+    public void limitAdaptsToLatency() throws InterruptedException {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        ConcurrencyLimit limit = new ConcurrencyLimit(2, 32, 10);
+        for (int i = 0; i < 32; i++) {
+            limit.tryAcquire();
+        }
+        softAssert.assertThat(limit.tryAcquire()).as("acquired above limit").isFalse();
+        softAssert.assertThat(limit.getRejected()).as("rejected").isEqualTo(1);
+        for (int i = 0; i < 32; i++) {
+            limit.release(50 * MILLIS);
+        }
+        softAssert.assertThat(limit.getLimit()).as("limit after a period of slow requests").isEqualTo(28);
+
+        for (int period = 0; period < 50; period++) {
+            Thread.sleep(11);
+            limit.tryAcquire();
+            limit.release(50 * MILLIS);
+        }
+        softAssert.assertThat(limit.getLimit()).as("limit after long slowness").isEqualTo(2);
+
+        for (int round = 0; round < 100; round++) {
+            int acquired = 0;
+            while (limit.tryAcquire()) {
+                acquired++;
+            }
+            for (int i = 0; i < acquired; i++) {
+                limit.release(MILLIS);
+            }
+        }
+        softAssert.assertThat(limit.getLimit()).as("limit after fast requests").isGreaterThan(10);
+        softAssert.assertThat(limit.getInFlight()).as("in flight").isZero();
+
+        ConcurrencyLimit idle = new ConcurrencyLimit(2, 32, 10);
+        idle.tryAcquire();
+        idle.release(50 * MILLIS);
+        for (int i = 0; i < 1000; i++) {
+            idle.tryAcquire();
+            idle.release(MILLIS);
+        }
+        softAssert.assertThat(idle.getLimit()).as("limit of a mostly idle node").isEqualTo(28);
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void scansAreIsolated() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        AdmissionControl admission = new AdmissionControl(16, 16, 1, 100);
+        AdmissionControl.Permit scan = admission.acquire(RequestClass.SCAN);
+        softAssert.assertThatThrownBy(() -> admission.acquire(RequestClass.SCAN)).as("second scan")
+                .isInstanceOf(NodeOverloadedException.class);
+        admission.acquire(RequestClass.READ).release();
+        scan.release();
+        scan.release();
+        softAssert.assertThat(admission.getLimits().get(RequestClass.SCAN).getInFlight()).as("scans in flight").isZero();
+        admission.acquire(RequestClass.SCAN).release();
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void clientBacksOff() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        AdmissionControl admission = node.getBean(AdmissionControl.class);
+        String key = Random.nextKey();
+        byte[] value = Random.nextValue();
+        KeyValueApiHttpClient impatient = new KeyValueApiHttpClient(baseUrl(), HttpClientConfig.DEFAULT.withRetries(0, 1));
+        impatient.put(key, value);
+
+        List<AdmissionControl.Permit> reads = new ArrayList<>();
+        for (int i = 0; i < admission.getLimits().get(RequestClass.READ).getLimit(); i++) {
+            reads.add(admission.acquire(RequestClass.READ));
+        }
+        AdmissionControl.Permit scan = admission.acquire(RequestClass.SCAN);
+        softAssert.assertThatThrownBy(() -> impatient.get(key)).as("read above limit")
+                .isInstanceOf(NodeOverloadedException.class)
+                .hasFieldOrPropertyWithValue("retryAfterMillis", 0L);
+        softAssert.assertThatThrownBy(() -> impatient.getKeys("")).as("scan above limit")
+                .isInstanceOf(NodeOverloadedException.class);
+        impatient.put(Random.nextKey(), value);
+
+        KeyValueApiHttpClient patient = new KeyValueApiHttpClient(baseUrl(), HttpClientConfig.DEFAULT.withRetries(20, 10));
+        CompletableFuture.runAsync(() -> {
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            reads.forEach(AdmissionControl.Permit::release);
+            scan.release();
+        });
+        softAssert.assertThat(patient.get(key).orElse(null)).as("read after backoff").isEqualTo(value);
+        softAssert.assertThat(patient.getKeys("")).as("keys after backoff").contains(key);
+        softAssert.assertThat(admission.getLimits().get(RequestClass.READ).getRejected()).as("rejected reads")
+                .isGreaterThanOrEqualTo(2);
+
+        softAssert.assertAll();
+    }
+}
@@ -0,0 +1,105 @@
+package ru.csc.bdse.kv;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.csc.bdse.Application;
+import ru.csc.bdse.util.Random;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Runs the asynchronous http client against the kvnode started in the same JVM.
+ */
+public class AsyncKeyValueApiHttpClientTest {
+
+    private static ConfigurableApplicationContext node;
+    private static AsyncKeyValueApiHttpClient api;
+
+    @BeforeClass
+    public static void startNode() {
+        node = SpringApplication.run(Application.class, "--server.port=0");
+        api = new AsyncKeyValueApiHttpClient("http://localhost:" + node.getEnvironment().getProperty("local.server.port"),
+                HttpClientConfig.DEFAULT.withBatchLimits(7, 1024));
+    }
+
+    @AfterClass
+    public static void stopNode() throws Exception {
+        api.close();
+        node.close();
+    }
+
+    @Test
+    public void putGetDelete() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        String key = Random.nextKey();
+        byte[] value = Random.nextValue();
+
+        softAssert.assertThat(api.getAsync(key).join().isPresent()).as("before put").isFalse();
+        api.putAsync(key, value).join();
+        softAssert.assertThat(api.getAsync(key).join().orElse(null)).as("after put").isEqualTo(value);
+        api.deleteAsync(key).join();
+        softAssert.assertThat(api.getAsync(key).join().isPresent()).as("after delete").isFalse();
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void fanOut() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        String prefix = Random.nextKey();
+        Map<String, byte[]> entries = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            entries.put(prefix + i, Random.nextValue());
+        }
+
+        List<CompletableFuture<Void>> puts = new ArrayList<>();
+        entries.forEach((key, value) -> puts.add(api.putAsync(key, value)));
+        CompletableFuture.allOf(puts.toArray(new CompletableFuture<?>[0])).join();
+
+        Map<String, CompletableFuture<Optional<byte[]>>> gets = new HashMap<>();
+        entries.keySet().forEach(key -> gets.put(key, api.getAsync(key)));
+        gets.forEach((key, value) -> softAssert.assertThat(value.join().orElse(null)).as(key).isEqualTo(entries.get(key)));
+
+        softAssert.assertThat(api.getKeysAsync(prefix).join()).as("keys").isEqualTo(entries.keySet());
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void batches() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        Map<String, byte[]> entries = new HashMap<>();
+        for (int i = 0; i < 30; i++) {
+            entries.put(Random.nextKey(), Random.nextValue());
+        }
+
+        api.putAllAsync(entries).join();
+        Map<String, byte[]> actual = api.getAllAsync(entries.keySet()).join();
+        softAssert.assertThat(actual.keySet()).as("keys").isEqualTo(entries.keySet());
+        entries.forEach((key, value) -> softAssert.assertThat(actual.get(key)).as(key).isEqualTo(value));
+
+        api.deleteAllAsync(entries.keySet()).join();
+        softAssert.assertThat(api.getAllAsync(entries.keySet()).join()).as("after delete").isEmpty();
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void getInfo() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        Set<NodeInfo> info = api.getInfoAsync().join();
+        softAssert.assertThat(info).as("size").hasSize(1);
+        softAssert.assertThat(info.iterator().next().getStatus()).as("status").isEqualTo(NodeStatus.UP);
+
+        softAssert.assertAll();
+    }
+}
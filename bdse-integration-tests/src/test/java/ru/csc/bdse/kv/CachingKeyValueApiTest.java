@@ -0,0 +1,158 @@
+package ru.csc.bdse.kv;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.Test;
+import ru.csc.bdse.kv.cache.CacheConfig;
+import ru.csc.bdse.kv.cache.CacheStats;
+import ru.csc.bdse.kv.cache.CachingKeyValueApi;
+import ru.csc.bdse.kv.cache.EvictionPolicy;
+import ru.csc.bdse.util.Random;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+/**
+ * Runs the read cache over the in-memory storage, which counts reads reaching it.
+ */
+public class CachingKeyValueApiTest extends AbstractKeyValueApiTest {
+
+    @Override
+    protected KeyValueApi newKeyValueApi() {
+        return new CachingKeyValueApi(new CountingKeyValueApi());
+    }
+
+    @Test
+    public void hitsAndMisses() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        CountingKeyValueApi storage = new CountingKeyValueApi();
+        CachingKeyValueApi cache = new CachingKeyValueApi(storage);
+        String key = Random.nextKey();
+        byte[] value = Random.nextValue();
+        storage.put(key, value);
+
+        softAssert.assertThat(cache.get(key).orElse(null)).as("miss").isEqualTo(value);
+        softAssert.assertThat(cache.get(key).orElse(null)).as("hit").isEqualTo(value);
+        softAssert.assertThat(storage.reads.get()).as("storage reads").isEqualTo(1);
+
+        CacheStats stats = cache.getStats();
+        softAssert.assertThat(stats.getHits()).as("hits").isEqualTo(1);
+        softAssert.assertThat(stats.getMisses()).as("misses").isEqualTo(1);
+        softAssert.assertThat(stats.getEntries()).as("entries").isEqualTo(1);
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void missesAreCached() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        CountingKeyValueApi storage = new CountingKeyValueApi();
+        CachingKeyValueApi cache = new CachingKeyValueApi(storage);
+        String key = Random.nextKey();
+        byte[] value = Random.nextValue();
+
+        softAssert.assertThat(cache.get(key).isPresent()).as("first miss").isFalse();
+        softAssert.assertThat(cache.getAll(Collections.singleton(key))).as("cached miss").isEmpty();
+        softAssert.assertThat(storage.reads.get()).as("storage reads").isEqualTo(1);
+        softAssert.assertThat(cache.getStats().getNegativeHits()).as("negative hits").isEqualTo(1);
+
+        cache.put(key, value);
+        softAssert.assertThat(cache.get(key).orElse(null)).as("value after put").isEqualTo(value);
+        cache.delete(key);
+        softAssert.assertThat(cache.get(key).isPresent()).as("value after delete").isFalse();
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void entriesExpire() throws InterruptedException {
+        CountingKeyValueApi storage = new CountingKeyValueApi();
+        CachingKeyValueApi cache = new CachingKeyValueApi(storage, CacheConfig.DEFAULT.withTtl(50, 50));
+        String key = Random.nextKey();
+        storage.put(key, Random.nextValue());
+
+        cache.get(key);
+        cache.get(key);
+        Thread.sleep(100);
+        cache.get(key);
+
+        assertThat(storage.reads.get()).as("storage reads").isEqualTo(2);
+    }
+
+    @Test
+    public void sizeIsBounded() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        for (EvictionPolicy policy : EvictionPolicy.values()) {
+            long maxBytes = 64 * 1024;
+            CachingKeyValueApi cache = new CachingKeyValueApi(new CountingKeyValueApi(),
+                    CacheConfig.DEFAULT.withMaxBytes(maxBytes).withEvictionPolicy(policy));
+            Map<String, byte[]> entries = new HashMap<>();
+            for (int i = 0; i < 1000; i++) {
+                entries.put("key" + i, new byte[1024]);
+            }
+            cache.putAll(entries);
+            entries.keySet().forEach(cache::get);
+
+            CacheStats stats = cache.getStats();
+            softAssert.assertThat(stats.getBytes()).as(policy + " bytes").isLessThanOrEqualTo(maxBytes);
+            softAssert.assertThat(stats.getEvictions()).as(policy + " evictions").isPositive();
+            softAssert.assertThat(stats.getEntries()).as(policy + " entries").isPositive();
+        }
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void tinyLfuKeepsHotKeysThroughScan() {
+        Map<EvictionPolicy, Long> hotHits = new EnumMap<>(EvictionPolicy.class);
+        for (EvictionPolicy policy : EvictionPolicy.values()) {
+            CountingKeyValueApi storage = new CountingKeyValueApi();
+            CachingKeyValueApi cache = new CachingKeyValueApi(storage,
+                    CacheConfig.DEFAULT.withMaxBytes(64 * 1024).withEvictionPolicy(policy));
+            List<String> hot = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                hot.add("hot" + i);
+                storage.put("hot" + i, new byte[100]);
+            }
+            for (int round = 0; round < 10; round++) {
+                hot.forEach(cache::get);
+            }
+            for (int i = 0; i < 2000; i++) {
+                storage.put("scan" + i, new byte[100]);
+                cache.get("scan" + i);
+            }
+
+            long before = cache.getStats().getHits();
+            hot.forEach(cache::get);
+            hotHits.put(policy, cache.getStats().getHits() - before);
+        }
+
+        assertThat(hotHits.get(EvictionPolicy.TINY_LFU)).as("hot keys kept by tiny lfu").isGreaterThanOrEqualTo(15L);
+        assertThat(hotHits.get(EvictionPolicy.LRU)).as("hot keys kept by lru").isLessThan(hotHits.get(EvictionPolicy.TINY_LFU));
+    }
+
+    private static class CountingKeyValueApi extends InMemoryKeyValueApi {
+
+        private final AtomicInteger reads = new AtomicInteger();
+
+        private CountingKeyValueApi() {
+            super("node");
+        }
+
+        @Override
+        public Optional<byte[]> get(String key) {
+            reads.incrementAndGet();
+            return super.get(key);
+        }
+
+        @Override
+        public Map<String, byte[]> getAll(Collection<String> keys) {
+            reads.incrementAndGet();
+            return super.getAll(keys);
+        }
+    }
+}
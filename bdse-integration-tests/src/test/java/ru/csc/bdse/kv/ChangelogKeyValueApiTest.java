@@ -0,0 +1,140 @@
+package ru.csc.bdse.kv;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.Test;
+import ru.csc.bdse.kv.changelog.*;
+import ru.csc.bdse.util.Random;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class ChangelogKeyValueApiTest extends AbstractKeyValueApiTest {
+
+    @Override
+    protected KeyValueApi newKeyValueApi() {
+        return new ChangelogKeyValueApi(new InMemoryKeyValueApi("node"), new Changelog());
+    }
+
+    @Test
+    public void changesAreRecordedInOrder() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        ChangelogKeyValueApi api = new ChangelogKeyValueApi(new InMemoryKeyValueApi("node"), new Changelog());
+        String key = Random.nextKey();
+        byte[] value = Random.nextValue();
+        api.put(key, value);
+        api.putIfAbsent(key, Random.nextValue());
+        api.delete(key);
+        Map<String, byte[]> batch = new LinkedHashMap<>();
+        batch.put(Random.nextKey(), Random.nextValue());
+        batch.put(Random.nextKey(), Random.nextValue());
+        api.putAll(batch);
+
+        ChangeBatch changes = api.getChangelog().read(1, 100);
+        softAssert.assertThat(changes.getChanges().stream().map(Change::getSequence).collect(Collectors.toList()))
+                .as("sequences").containsExactly(1L, 2L, 3L, 4L);
+        softAssert.assertThat(changes.getChanges().stream().map(Change::getType).collect(Collectors.toList()))
+                .as("types").containsExactly(ChangeType.PUT, ChangeType.DELETE, ChangeType.PUT, ChangeType.PUT);
+        softAssert.assertThat(changes.getChanges().get(0).getValue()).as("value put").isEqualTo(value);
+        softAssert.assertThat(changes.getChanges().get(1).getValue()).as("value of deletion").isNull();
+        softAssert.assertThat(changes.getNextSequence()).as("next sequence").isEqualTo(5);
+        softAssert.assertThat(api.getChangelog().read(3, 1).getChanges().get(0).getKey()).as("resumed batch")
+                .isEqualTo(batch.keySet().iterator().next());
+        softAssert.assertThat(api.getChangelog().read(5, 100).getChanges()).as("batch at the end").isEmpty();
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void pollWaitsForChanges() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        ChangelogKeyValueApi api = new ChangelogKeyValueApi(new InMemoryKeyValueApi("node"), new Changelog());
+        Changelog changelog = api.getChangelog();
+        softAssert.assertThat(changelog.poll(1, 100, 100).join().getChanges()).as("changes after timeout").isEmpty();
+
+        CompletableFuture<ChangeBatch> waiting = changelog.poll(1, 100, 10_000);
+        softAssert.assertThat(waiting.isDone()).as("done before change").isFalse();
+        String key = Random.nextKey();
+        api.put(key, Random.nextValue());
+        ChangeBatch batch = waiting.join();
+        softAssert.assertThat(batch.getChanges()).as("changes").hasSize(1);
+        softAssert.assertThat(batch.getChanges().get(0).getKey()).as("changed key").isEqualTo(key);
+        softAssert.assertThat(batch.getNextSequence()).as("next sequence").isEqualTo(2);
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void droppedChangesAreReported() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        Changelog changelog = new Changelog(10, 1024 * 1024);
+        for (int i = 0; i < 25; i++) {
+            changelog.append(ChangeType.PUT, Random.nextKey(), Random.nextValue());
+        }
+        softAssert.assertThat(changelog.getOldestSequence()).as("oldest sequence").isEqualTo(16);
+        softAssert.assertThatThrownBy(() -> changelog.read(15, 100)).as("dropped change")
+                .isInstanceOf(TruncatedChangelogException.class);
+        softAssert.assertThat(changelog.read(16, 100).getChanges()).as("retained changes").hasSize(10);
+        softAssert.assertThatThrownBy(() -> changelog.read(27, 100)).as("change beyond the end")
+                .isInstanceOf(IllegalArgumentException.class);
+
+        Changelog small = new Changelog(10, 1000);
+        small.append(ChangeType.PUT, Random.nextKey(), new byte[600]);
+        small.append(ChangeType.PUT, Random.nextKey(), new byte[600]);
+        softAssert.assertThat(small.getOldestSequence()).as("oldest sequence within size limit").isEqualTo(2);
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void fileKeepsChangesAcrossRestarts() throws Exception {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        Path file = Files.createTempDirectory("changelog").resolve("changelog.bin");
+        Changelog changelog = new Changelog(10, 1024 * 1024, file);
+        for (int i = 0; i < 25; i++) {
+            changelog.append(ChangeType.PUT, "key" + i, Random.nextValue());
+        }
+        changelog.append(ChangeType.DELETE, "key0", null);
+        changelog.close();
+        Files.write(file, new byte[]{0, 0, 0}, StandardOpenOption.APPEND);
+
+        Changelog reopened = new Changelog(10, 1024 * 1024, file);
+        softAssert.assertThat(reopened.getNextSequence()).as("next sequence").isEqualTo(27);
+        softAssert.assertThat(reopened.getOldestSequence()).as("oldest sequence").isEqualTo(17);
+        List<Change> changes = reopened.read(17, 100).getChanges();
+        softAssert.assertThat(changes.get(0).getKey()).as("oldest key").isEqualTo("key16");
+        softAssert.assertThat(changes.get(changes.size() - 1).getType()).as("last change").isEqualTo(ChangeType.DELETE);
+        softAssert.assertThat(reopened.append(ChangeType.PUT, "key", new byte[0])).as("appended sequence").isEqualTo(27);
+        reopened.close();
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void logFollowsStorageOrder() {
+        ChangelogKeyValueApi api = new ChangelogKeyValueApi(new InMemoryKeyValueApi("node"), new Changelog());
+        String key = Random.nextKey();
+        List<CompletableFuture<Void>> writers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            writers.add(CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    api.put(key, Random.nextValue());
+                }
+            }));
+        }
+        CompletableFuture.allOf(writers.toArray(new CompletableFuture<?>[0])).join();
+
+        List<Change> changes = api.getChangelog().read(1, 10_000).getChanges();
+        assertThat(changes).as("changes").hasSize(4000);
+        assertThat(changes.get(changes.size() - 1).getValue()).as("last value").isEqualTo(api.get(key).orElse(null));
+    }
+}
@@ -0,0 +1,163 @@
+package ru.csc.bdse.kv;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.Test;
+import ru.csc.bdse.kv.compact.CompactKeyValueApi;
+import ru.csc.bdse.kv.merkle.MerkleKeyValueApi;
+import ru.csc.bdse.kv.metrics.MetricsKeyValueApi;
+import ru.csc.bdse.util.Random;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class CompactKeyValueApiTest extends AbstractKeyValueApiTest {
+
+    private static final int MILLION = 1_000_000;
+
+    @Override
+    protected KeyValueApi newKeyValueApi() {
+        return new CompactKeyValueApi("node");
+    }
+
+    @Test
+    public void pagesAreSorted() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        KeyValueApi api = newKeyValueApi();
+        String prefix = Random.nextKey();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            keys.add(prefix + Random.nextKey());
+            api.put(keys.get(i), Random.nextValue());
+            api.put(Random.nextKey(), Random.nextValue());
+        }
+        Collections.sort(keys);
+
+        softAssert.assertThat(api.getKeys(prefix, null, 10)).as("first page").isEqualTo(keys.subList(0, 10));
+        softAssert.assertThat(api.getKeys(prefix, keys.get(9), 10)).as("second page").isEqualTo(keys.subList(10, 20));
+        softAssert.assertThat(api.getKeys(prefix, keys.get(995), 10)).as("last page").isEqualTo(keys.subList(996, 1000));
+        softAssert.assertThat(api.getKeys(prefix)).as("all keys").containsOnlyElementsOf(keys).hasSize(keys.size());
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void decoratedNodeListsWithoutPaging() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        AtomicInteger pages = new AtomicInteger();
+        CompactKeyValueApi engine = new CompactKeyValueApi("node") {
+            @Override
+            public List<String> getKeys(String prefix, String after, int limit) {
+                pages.incrementAndGet();
+                return super.getKeys(prefix, after, limit);
+            }
+        };
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            keys.add(Random.nextKey());
+            engine.put(keys.get(i), Random.nextValue());
+        }
+        Collections.sort(keys);
+        KeyValueApi node = new MetricsKeyValueApi(new ManagedKeyValueApi("node", new MerkleKeyValueApi(engine)));
+
+        softAssert.assertThat(node.streamKeys("", 100).collect(Collectors.toList())).as("all keys").isEqualTo(keys);
+        softAssert.assertThat(node.streamKeys("", keys.get(99), 100).collect(Collectors.toList()))
+                .as("keys after").isEqualTo(keys.subList(100, keys.size()));
+        softAssert.assertThat(pages.get()).as("pages listed by the engine").isZero();
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void keysSurviveRemovalsAndRewrites() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        CompactKeyValueApi api = new CompactKeyValueApi("node");
+        Map<String, byte[]> kept = new HashMap<>();
+        for (int round = 0; round < 5; round++) {
+            List<String> removed = new ArrayList<>();
+            for (int i = 0; i < 20_000; i++) {
+                String key = Random.nextKey();
+                api.put(key, Random.nextValue());
+                if (i % 4 == 0) {
+                    kept.put(key, Random.nextValue());
+                    api.put(key, kept.get(key));
+                } else {
+                    removed.add(key);
+                }
+            }
+            removed.forEach(api::delete);
+        }
+
+        softAssert.assertThat(api.size()).as("size").isEqualTo(kept.size());
+        kept.forEach((key, value) -> softAssert.assertThat(api.get(key).orElse(null)).as(key).isEqualTo(value));
+        softAssert.assertThat(api.getKeys("")).as("keys").isEqualTo(kept.keySet());
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void concurrentReadsAndWrites() {
+        CompactKeyValueApi api = new CompactKeyValueApi("node");
+        String stable = Random.nextKey();
+        byte[] value = Random.nextValue();
+        api.put(stable, value);
+
+        List<CompletableFuture<Void>> workers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            workers.add(CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    String key = Random.nextKey();
+                    api.put(key, value);
+                    api.delete(key);
+                }
+            }));
+            workers.add(CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < 200_000; i++) {
+                    if (!Arrays.equals(api.get(stable).orElse(null), value)) {
+                        throw new AssertionError("lost stable key");
+                    }
+                }
+            }));
+        }
+        CompletableFuture.allOf(workers.toArray(new CompletableFuture<?>[0])).join();
+
+        assertThat(api.size()).as("size").isEqualTo(1);
+    }
+
+    @Test
+    public void takesLessHeapThanSortedMap() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        long compact = heapPerKey(new CompactKeyValueApi("node"));
+        long memory = heapPerKey(new InMemoryKeyValueApi("node"));
+        softAssert.assertThat(compact).as("compact heap bytes per key").isLessThan(64);
+        softAssert.assertThat(compact * 2).as("twice compact heap bytes per key").isLessThan(memory);
+
+        softAssert.assertAll();
+    }
+
+    private static long heapPerKey(KeyValueApi api) {
+        byte[] value = new byte[16];
+        long before = usedHeap();
+        for (int i = 0; i < MILLION; i++) {
+            api.put(String.format("user%010d", i), value);
+        }
+        long heapPerKey = (usedHeap() - before) / MILLION;
+        assertThat(api.get("user0000000000").isPresent()).as("first key").isTrue();
+        return heapPerKey;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,96 @@
+package ru.csc.bdse.kv;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.Test;
+import ru.csc.bdse.kv.compress.Codec;
+import ru.csc.bdse.kv.compress.CompressingKeyValueApi;
+import ru.csc.bdse.kv.compress.ValueCodec;
+import ru.csc.bdse.util.Random;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+/**
+ * Runs value compression over the in-memory storage with a threshold low enough to compress test values.
+ */
+public class CompressingKeyValueApiTest extends AbstractKeyValueApiTest {
+
+    @Override
+    protected KeyValueApi newKeyValueApi() {
+        return new CompressingKeyValueApi(new InMemoryKeyValueApi("node"), Codec.DEFLATE_FAST, 0);
+    }
+
+    private static byte[] json(int records) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < records; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"id\":").append(i)
+                    .append(",\"name\":\"user-").append(i)
+                    .append("\",\"email\":\"user").append(i).append("@example.com\"")
+                    .append(",\"active\":").append(i % 3 != 0)
+                    .append(",\"roles\":[\"reader\",\"writer\"]}");
+        }
+        return json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void jsonTakesLessThanHalf() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        for (Codec codec : new Codec[]{Codec.DEFLATE_FAST, Codec.DEFLATE}) {
+            InMemoryKeyValueApi storage = new InMemoryKeyValueApi("node");
+            CompressingKeyValueApi api = new CompressingKeyValueApi(storage, codec);
+            String key = Random.nextKey();
+            byte[] value = json(20);
+            api.put(key, value);
+
+            byte[] stored = storage.get(key).get();
+            softAssert.assertThat(ValueCodec.codecOf(stored)).as(codec + " header").isEqualTo(codec);
+            softAssert.assertThat(stored.length).as(codec + " stored size").isLessThan(value.length / 2);
+            softAssert.assertThat(api.getCompressionRatio()).as(codec + " ratio").isLessThan(0.5);
+            softAssert.assertThat(api.get(key).orElse(null)).as(codec + " value").isEqualTo(value);
+            softAssert.assertThat(api.getVersioned(key).get().getValue()).as(codec + " versioned value").isEqualTo(value);
+            softAssert.assertThat(api.getAll(Collections.singleton(key)).get(key)).as(codec + " batch value").isEqualTo(value);
+        }
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void smallAndIncompressibleValuesAreStoredAsIs() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        InMemoryKeyValueApi storage = new InMemoryKeyValueApi("node");
+        KeyValueApi api = new CompressingKeyValueApi(storage, Codec.DEFLATE, 256);
+        String small = Random.nextKey();
+        String random = Random.nextKey();
+        byte[] randomValue = new byte[4096];
+        new java.util.Random().nextBytes(randomValue);
+        api.put(small, json(1));
+        api.put(random, randomValue);
+
+        softAssert.assertThat(ValueCodec.codecOf(storage.get(small).get())).as("small value").isEqualTo(Codec.NONE);
+        softAssert.assertThat(ValueCodec.codecOf(storage.get(random).get())).as("random value").isEqualTo(Codec.NONE);
+        softAssert.assertThat(storage.get(random).get().length).as("stored random value").isEqualTo(4097);
+        softAssert.assertThat(api.get(random).orElse(null)).as("random value").isEqualTo(randomValue);
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void codecMayChange() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        InMemoryKeyValueApi storage = new InMemoryKeyValueApi("node");
+        String key = Random.nextKey();
+        byte[] value = json(20);
+        new CompressingKeyValueApi(storage, Codec.DEFLATE).put(key, value);
+
+        softAssert.assertThat(new CompressingKeyValueApi(storage, Codec.NONE).get(key).orElse(null))
+                .as("value read without compression").isEqualTo(value);
+        softAssert.assertThatThrownBy(() -> new ValueCodec(Codec.NONE, 0).decode(new byte[]{42}))
+                .as("unknown codec").isInstanceOf(IllegalArgumentException.class);
+
+        softAssert.assertAll();
+    }
+}
@@ -0,0 +1,153 @@
+package ru.csc.bdse.kv;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.Test;
+import ru.csc.bdse.kv.cluster.HedgedKeyValueApi;
+import ru.csc.bdse.util.Random;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+/**
+ * Runs hedged reads over in-memory storages standing in for coordinators, some of them slow.
+ */
+public class HedgedKeyValueApiTest extends AbstractKeyValueApiTest {
+
+    @Override
+    protected KeyValueApi newKeyValueApi() {
+        InMemoryKeyValueApi storage = new InMemoryKeyValueApi("node");
+        return new HedgedKeyValueApi(Arrays.asList(storage, storage));
+    }
+
+    @Test
+    public void slowEndpointIsHedged() throws Exception {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        SlowKeyValueApi slow = new SlowKeyValueApi("slow", 500);
+        SlowKeyValueApi fast = new SlowKeyValueApi("fast", 0);
+        String key = Random.nextKey();
+        byte[] value = Random.nextValue();
+        slow.put(key, value);
+        fast.put(key, value);
+        try (HedgedKeyValueApi api = new HedgedKeyValueApi(Arrays.asList(slow, fast), 2000, 0.95, 20)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 10; i++) {
+                softAssert.assertThat(api.get(key).orElse(null)).as("value").isEqualTo(value);
+            }
+            softAssert.assertThat((System.nanoTime() - start) / 1_000_000).as("millis of reads").isLessThan(500);
+            softAssert.assertThat(api.getReadCount()).as("reads").isEqualTo(10);
+            softAssert.assertThat(api.getHedgedReadCount()).as("hedged reads").isEqualTo(5);
+            softAssert.assertThat(api.getHedgeWinCount()).as("hedges won").isEqualTo(5);
+        }
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void fastEndpointsAreNotHedged() throws Exception {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        InMemoryKeyValueApi storage = new InMemoryKeyValueApi("node");
+        try (HedgedKeyValueApi api = new HedgedKeyValueApi(Arrays.asList(storage, storage), 5000, 0.99, 1000)) {
+            String key = Random.nextKey();
+            api.put(key, Random.nextValue());
+            for (int i = 0; i < 100; i++) {
+                api.getVersioned(key);
+            }
+            softAssert.assertThat(api.getHedgedReadCount()).as("hedged reads").isEqualTo(0);
+        }
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void hedgeDelayFollowsLatency() throws Exception {
+        InMemoryKeyValueApi storage = new InMemoryKeyValueApi("node");
+        try (HedgedKeyValueApi api = new HedgedKeyValueApi(Arrays.asList(storage, storage), 5000, 0.95, 1000)) {
+            String key = Random.nextKey();
+            api.put(key, Random.nextValue());
+            assertThat(api.getHedgeDelayMicros()).as("initial delay").isEqualTo(1_000_000);
+            for (int i = 0; i < 2000; i++) {
+                api.get(key);
+            }
+            assertThat(api.getHedgeDelayMicros()).as("measured delay").isLessThan(100_000)
+                    .isGreaterThanOrEqualTo(HedgedKeyValueApi.MIN_HEDGE_DELAY_MICROS);
+        }
+    }
+
+    @Test
+    public void failedReadIsHedgedAtOnce() throws Exception {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        SlowKeyValueApi broken = new SlowKeyValueApi("broken", SlowKeyValueApi.DOWN);
+        SlowKeyValueApi working = new SlowKeyValueApi("working", 0);
+        String key = Random.nextKey();
+        byte[] value = Random.nextValue();
+        working.put(key, value);
+        try (HedgedKeyValueApi api = new HedgedKeyValueApi(Arrays.asList(broken, working), 2000, 0.95, 1000)) {
+            long start = System.nanoTime();
+            softAssert.assertThat(api.get(key).orElse(null)).as("value").isEqualTo(value);
+            softAssert.assertThat((System.nanoTime() - start) / 1_000_000).as("millis of read").isLessThan(500);
+            softAssert.assertThat(api.getHedgeWinCount()).as("hedges won").isEqualTo(1);
+        }
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void readsEndAtDeadline() throws Exception {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        SlowKeyValueApi slow = new SlowKeyValueApi("slow", 1000);
+        try (HedgedKeyValueApi api = new HedgedKeyValueApi(Arrays.asList(slow, slow), 100, 0.95, 10)) {
+            long start = System.nanoTime();
+            softAssert.assertThatThrownBy(() -> api.get(Random.nextKey())).as("read of slow endpoints")
+                    .isInstanceOf(DeadlineExceededException.class);
+            softAssert.assertThat((System.nanoTime() - start) / 1_000_000).as("millis of read").isLessThan(500);
+            softAssert.assertThat(api.getHedgedReadCount()).as("hedged reads").isEqualTo(1);
+            softAssert.assertThat(api.getHedgeWinCount()).as("hedges won").isEqualTo(0);
+        }
+
+        softAssert.assertAll();
+    }
+
+    /**
+     * Storage which takes a fixed time to answer a read, or fails reads if it is down.
+     */
+    private static final class SlowKeyValueApi extends InMemoryKeyValueApi {
+
+        private static final long DOWN = -1;
+
+        private final long readMillis;
+
+        private SlowKeyValueApi(final String name, final long readMillis) {
+            super(name);
+            this.readMillis = readMillis;
+        }
+
+        @Override
+        public Optional<byte[]> get(final String key) {
+            pause();
+            return super.get(key);
+        }
+
+        @Override
+        public Optional<VersionedValue> getVersioned(final String key) {
+            pause();
+            return super.getVersioned(key);
+        }
+
+        private void pause() {
+            if (readMillis == DOWN) {
+                throw new NodeDownException(getClass().getSimpleName());
+            }
+            try {
+                Thread.sleep(readMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
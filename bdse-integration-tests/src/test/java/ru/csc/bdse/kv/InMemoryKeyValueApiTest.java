@@ -1,5 +1,27 @@
 package ru.csc.bdse.kv;
 
+import org.assertj.core.api.SoftAssertions;
+import org.junit.Test;
+import ru.csc.bdse.kv.expiry.TimingWheel;
+import ru.csc.bdse.kv.snapshot.SnapshotInfo;
+import ru.csc.bdse.util.Random;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
 /**
  * @author semkagtn
  */
@@ -9,4 +31,208 @@ public class InMemoryKeyValueApiTest extends AbstractKeyValueApiTest {
     protected KeyValueApi newKeyValueApi() {
         return new InMemoryKeyValueApi("node");
     }
+
+    @Test
+    public void conditionalPuts() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        KeyValueApi api = newKeyValueApi();
+        String key = Random.nextKey();
+        byte[] first = Random.nextValue();
+        byte[] second = Random.nextValue();
+
+        OptionalLong created = api.putIfAbsent(key, first);
+        softAssert.assertThat(created.isPresent()).as("put to absent key").isTrue();
+        softAssert.assertThat(api.putIfAbsent(key, second).isPresent()).as("put to present key").isFalse();
+        softAssert.assertThat(api.getVersioned(key).get().getVersion()).as("version").isEqualTo(created.getAsLong());
+
+        OptionalLong replaced = api.putIfVersion(key, second, created.getAsLong());
+        softAssert.assertThat(replaced.isPresent()).as("put of current version").isTrue();
+        softAssert.assertThat(api.putIfVersion(key, first, created.getAsLong()).isPresent()).as("put of stale version").isFalse();
+        softAssert.assertThat(api.get(key).orElse(null)).as("value").isEqualTo(second);
+
+        api.delete(key);
+        softAssert.assertThat(api.putIfVersion(key, first, replaced.getAsLong()).isPresent()).as("put to deleted key").isFalse();
+        softAssert.assertThat(api.putIfAbsent(key, first).getAsLong()).as("version after delete")
+                .isGreaterThan(replaced.getAsLong());
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void concurrentIncrements() {
+        KeyValueApi api = newKeyValueApi();
+        String key = Random.nextKey();
+        api.put(key, ByteBuffer.allocate(Long.BYTES).putLong(0).array());
+
+        int threads = 8;
+        int increments = 1000;
+        List<CompletableFuture<Void>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < increments; i++) {
+                    OptionalLong written;
+                    do {
+                        VersionedValue current = api.getVersioned(key).get();
+                        long counter = ByteBuffer.wrap(current.getValue()).getLong();
+                        written = api.putIfVersion(key, ByteBuffer.allocate(Long.BYTES).putLong(counter + 1).array(),
+                                current.getVersion());
+                    } while (!written.isPresent());
+                }
+            }));
+        }
+        CompletableFuture.allOf(workers.toArray(new CompletableFuture<?>[0])).join();
+
+        assertThat(ByteBuffer.wrap(api.get(key).get()).getLong()).as("counter").isEqualTo(threads * increments);
+    }
+
+    @Test
+    public void snapshotAndRestore() throws Exception {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        Path file = Files.createTempDirectory("snapshot").resolve("snapshot.bin");
+        InMemoryKeyValueApi api = new InMemoryKeyValueApi("node");
+        Map<String, byte[]> stable = new HashMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            stable.put(Random.nextKey(), Random.nextValue());
+        }
+        api.putAll(stable);
+        String versioned = Random.nextKey();
+        long lastVersion = api.putIfAbsent(versioned, Random.nextValue()).getAsLong();
+
+        AtomicBoolean writing = new AtomicBoolean(true);
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+            while (writing.get()) {
+                api.put("concurrent" + Random.nextKey(), Random.nextValue());
+            }
+        });
+        SnapshotInfo written = api.snapshot(file);
+        writing.set(false);
+        writer.join();
+        softAssert.assertThat(written.getEntries()).as("written entries").isGreaterThan(stable.size());
+
+        InMemoryKeyValueApi restored = new InMemoryKeyValueApi("node");
+        restored.put(Random.nextKey(), Random.nextValue());
+        SnapshotInfo read = restored.restore(file);
+        softAssert.assertThat(read.getEntries()).as("restored entries").isEqualTo(written.getEntries());
+        softAssert.assertThat(restored.getAll(stable.keySet()).keySet()).as("restored keys").isEqualTo(stable.keySet());
+        String key = stable.keySet().iterator().next();
+        softAssert.assertThat(restored.get(key).orElse(null)).as("restored value").isEqualTo(stable.get(key));
+        softAssert.assertThat(restored.getVersioned(versioned).get().getVersion()).as("restored version")
+                .isEqualTo(lastVersion);
+        softAssert.assertThat(restored.putIfAbsent(Random.nextKey(), Random.nextValue()).getAsLong())
+                .as("version after restore").isGreaterThan(lastVersion);
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void corruptedSnapshotIsRejected() throws Exception {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        Path file = Files.createTempDirectory("snapshot").resolve("snapshot.bin");
+        InMemoryKeyValueApi api = new InMemoryKeyValueApi("node");
+        for (int i = 0; i < 1000; i++) {
+            api.put(Random.nextKey(), Random.nextValue());
+        }
+        api.snapshot(file);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file, bytes);
+
+        InMemoryKeyValueApi restored = new InMemoryKeyValueApi("node");
+        String key = Random.nextKey();
+        restored.put(key, Random.nextValue());
+        softAssert.assertThatThrownBy(() -> restored.restore(file)).as("corrupted snapshot")
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("corrupted");
+        softAssert.assertThat(restored.get(key).isPresent()).as("content after failed restore").isTrue();
+
+        Files.write(file, Arrays.copyOf(bytes, 10));
+        softAssert.assertThatThrownBy(() -> restored.restore(file)).as("truncated snapshot")
+                .isInstanceOf(IOException.class);
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void keysExpire() throws InterruptedException {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        InMemoryKeyValueApi api = new InMemoryKeyValueApi("node");
+        String prefix = Random.nextKey();
+        String expiring = prefix + "expiring";
+        String swept = prefix + "swept";
+        String kept = prefix + "kept";
+        api.put(expiring, Random.nextValue(), 100);
+        api.put(swept, Random.nextValue(), 100);
+        api.put(kept, Random.nextValue(), 60_000);
+        softAssert.assertThat(api.get(expiring).isPresent()).as("value before expiry").isTrue();
+
+        Thread.sleep(150);
+        softAssert.assertThat(api.get(expiring).isPresent()).as("value after expiry").isFalse();
+        softAssert.assertThat(api.getKeys(prefix)).as("keys after expiry").containsOnly(kept);
+        softAssert.assertThat(api.putIfAbsent(expiring, Random.nextValue()).isPresent()).as("put to expired key").isTrue();
+        for (int i = 0; i < 50 && api.getExpiredCount() < 2; i++) {
+            Thread.sleep(20);
+        }
+        softAssert.assertThat(api.getExpiredCount()).as("expired keys").isEqualTo(2);
+        softAssert.assertThat(api.get(expiring).isPresent()).as("value put after expiry").isTrue();
+
+        api.put(kept, Random.nextValue());
+        Thread.sleep(150);
+        softAssert.assertThat(api.getExpiredCount()).as("expired keys after overwrite").isEqualTo(2);
+
+        api.close();
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void snapshotKeepsExpiry() throws Exception {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        Path file = Files.createTempDirectory("snapshot").resolve("snapshot.bin");
+        InMemoryKeyValueApi api = new InMemoryKeyValueApi("node");
+        String expiring = Random.nextKey();
+        String kept = Random.nextKey();
+        api.put(expiring, Random.nextValue(), 200);
+        api.put(kept, Random.nextValue());
+        api.snapshot(file);
+
+        InMemoryKeyValueApi restored = new InMemoryKeyValueApi("node");
+        restored.restore(file);
+        softAssert.assertThat(restored.get(expiring).isPresent()).as("restored expiring value").isTrue();
+        Thread.sleep(300);
+        softAssert.assertThat(restored.get(expiring).isPresent()).as("expired restored value").isFalse();
+        softAssert.assertThat(restored.get(kept).isPresent()).as("restored value without ttl").isTrue();
+
+        api.close();
+        restored.close();
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void timingWheel() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        TimingWheel<Long> wheel = new TimingWheel<>(10, 0);
+        List<Long> deadlines = Arrays.asList(5L, 10L, 25L, 640L, 700L, 41_000L, 3_000_000L);
+        deadlines.forEach(deadline -> wheel.schedule(deadline, deadline));
+        List<Long> due = new ArrayList<>();
+        for (long now = 10; now <= 3_000_000; now += 10) {
+            for (Long deadline : wheel.advance(now)) {
+                softAssert.assertThat(now).as("time of " + deadline)
+                        .isGreaterThanOrEqualTo(deadline)
+                        .isLessThan(deadline + 20);
+                due.add(deadline);
+            }
+        }
+        softAssert.assertThat(due).as("due items").isEqualTo(deadlines);
+        softAssert.assertThat(wheel.size()).as("left items").isEqualTo(0);
+
+        wheel.schedule(-1L, 0);
+        softAssert.assertThat(wheel.advance(3_000_010)).as("overdue item").isEqualTo(Collections.singletonList(-1L));
+
+        softAssert.assertAll();
+    }
 }
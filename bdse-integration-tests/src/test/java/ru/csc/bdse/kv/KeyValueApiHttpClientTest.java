@@ -19,7 +19,7 @@ public class KeyValueApiHttpClientTest extends AbstractKeyValueApiTest {
     public static final GenericContainer node = new GenericContainer(
             new ImageFromDockerfile()
                     .withFileFromFile("target/bdse-kvnode-0.0.1-SNAPSHOT.jar", new File
-                            ("../bdse-kvnode/target/bdse-kvnode-0.0.1-SNAPSHOT.jar"))
+                            ("../bdse-kvnode/target/bdse-kvnode-0.0.1-SNAPSHOT-exec.jar"))
                     .withFileFromClasspath("Dockerfile", "kvnode/Dockerfile"))
             .withEnv(Env.KVNODE_NAME, "node-0")
             .withExposedPorts(8080)
@@ -2,14 +2,33 @@ package ru.csc.bdse.kv;
 
 import org.junit.ClassRule;
 import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.testcontainers.containers.GenericContainer;
 import org.testcontainers.images.builder.ImageFromDockerfile;
+import ru.csc.bdse.kv.cluster.ReplicatedKeyValueApi;
+import ru.csc.bdse.kv.load.KeyDistribution;
+import ru.csc.bdse.kv.load.LoadGenerator;
+import ru.csc.bdse.kv.load.LoadReport;
+import ru.csc.bdse.kv.load.Workload;
+import ru.csc.bdse.kv.metrics.Operation;
 import ru.csc.bdse.util.Env;
+import ru.csc.bdse.util.Random;
 
 import java.io.File;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static java.time.temporal.ChronoUnit.SECONDS;
+import static org.assertj.core.api.Java6Assertions.assertThat;
 
 /**
  * Test have to be implemented
@@ -18,15 +37,28 @@ import static java.time.temporal.ChronoUnit.SECONDS;
  */
 public class KeyValueApiHttpClientTest2 {
 
+    private static final Logger log = LoggerFactory.getLogger(KeyValueApiHttpClientTest2.class);
+
+    @ClassRule
+    public static final GenericContainer node = newNode("node-0");
+
     @ClassRule
-    public static final GenericContainer node = new GenericContainer(
-            new ImageFromDockerfile()
-                    .withFileFromFile("target/bdse-kvnode-0.0.1-SNAPSHOT.jar", new File
-                            ("../bdse-kvnode/target/bdse-kvnode-0.0.1-SNAPSHOT.jar"))
-                    .withFileFromClasspath("Dockerfile", "kvnode/Dockerfile"))
-            .withEnv(Env.KVNODE_NAME, "node-0")
-            .withExposedPorts(8080)
-            .withStartupTimeout(Duration.of(30, SECONDS));
+    public static final GenericContainer replica1 = newNode("node-1");
+
+    @ClassRule
+    public static final GenericContainer replica2 = newNode("node-2");
+
+    private static GenericContainer newNode(String name) {
+        return new GenericContainer(
+                new ImageFromDockerfile()
+                        .withFileFromFile("target/bdse-kvnode-0.0.1-SNAPSHOT.jar", new File
+                                ("../bdse-kvnode/target/bdse-kvnode-0.0.1-SNAPSHOT-exec.jar"))
+                        .withFileFromClasspath("Dockerfile", "kvnode/Dockerfile"))
+                .withEnv(Env.KVNODE_NAME, name)
+                .withEnv(Env.KVNODE_ENGINE, "lsm")
+                .withExposedPorts(8080)
+                .withStartupTimeout(Duration.of(30, SECONDS));
+    }
 
     private KeyValueApi api = newKeyValueApi();
 
@@ -35,9 +67,46 @@ public class KeyValueApiHttpClientTest2 {
         return new KeyValueApiHttpClient(baseUrl);
     }
 
+    /**
+     * Coordinator replicating every key to all three nodes with majority quorums.
+     */
+    private static ReplicatedKeyValueApi newReplicatedApi() {
+        Map<String, KeyValueApi> replicas = new LinkedHashMap<>();
+        for (GenericContainer container : Arrays.asList(node, replica1, replica2)) {
+            String baseUrl = "http://localhost:" + container.getMappedPort(8080);
+            replicas.put(baseUrl, new KeyValueApiHttpClient(baseUrl));
+        }
+        return new ReplicatedKeyValueApi(replicas, 3, 2, 2);
+    }
+
+    /**
+     * Freezes the node for the duration of the action. Unlike stop, pause keeps the mapped port,
+     * and requests to the node hang instead of being refused, which is the harder case for a coordinator.
+     */
+    private static void withStoppedNode(GenericContainer container, Runnable action) {
+        container.getDockerClient().pauseContainerCmd(container.getContainerId()).exec();
+        try {
+            action.run();
+        } finally {
+            container.getDockerClient().unpauseContainerCmd(container.getContainerId()).exec();
+        }
+    }
+
     @Test
     public void concurrentPuts() {
-        // TODO simultanious puts for the same key value
+        String key = Random.nextKey();
+        List<byte[]> values = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            values.add(Random.nextValue());
+        }
+
+        CompletableFuture.allOf(values.stream()
+                .map(value -> CompletableFuture.runAsync(() -> api.put(key, value)))
+                .toArray(CompletableFuture<?>[]::new))
+                .join();
+
+        byte[] actual = api.get(key).orElse(null);
+        assertThat(values.stream().anyMatch(value -> Arrays.equals(value, actual))).as("one of written values").isTrue();
     }
 
     @Test
@@ -46,18 +115,68 @@ public class KeyValueApiHttpClientTest2 {
     }
 
     @Test
-    public void actionUpDown() {
-        //TODO test up/down actions
+    public void actionUpDown() throws Exception {
+        try (ReplicatedKeyValueApi replicated = newReplicatedApi()) {
+            String key = Random.nextKey();
+            byte[] value = Random.nextValue();
+            String down = "node-2";
+
+            replicated.action(down, NodeAction.DOWN);
+            try {
+                replicated.put(key, value);
+                assertThat(replicated.getInfo().stream()
+                        .filter(info -> info.getName().equals(down))
+                        .map(NodeInfo::getStatus)
+                        .collect(Collectors.toList()))
+                        .as("status").containsExactly(NodeStatus.DOWN);
+            } finally {
+                replicated.action(down, NodeAction.UP);
+            }
+
+            KeyValueApi rejoined = new KeyValueApiHttpClient("http://localhost:" + replica2.getMappedPort(8080));
+            for (int i = 0; i < 50 && replicated.getPendingHintCount() > 0; i++) {
+                Thread.sleep(100);
+            }
+            assertThat(rejoined.get(key).isPresent()).as("missed write replayed").isTrue();
+        }
     }
 
     @Test
-    public void putWithStoppedNode() {
-        //TODO test put if node/container was stopped
+    public void putWithStoppedNode() throws Exception {
+        try (ReplicatedKeyValueApi replicated = newReplicatedApi()) {
+            String key = Random.nextKey();
+            byte[] value = Random.nextValue();
+
+            withStoppedNode(replica2, () -> {
+                long start = System.nanoTime();
+                replicated.put(key, value);
+                long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                log.info("put with stopped node took {} ms", latencyMillis);
+
+                assertThat(latencyMillis).as("put latency").isLessThan(HttpClientConfig.DEFAULT.getReadTimeoutMillis());
+                assertThat(replicated.get(key).orElse(null)).as("value").isEqualTo(value);
+            });
+            assertThat(replicated.get(key).orElse(null)).as("value after restart").isEqualTo(value);
+        }
     }
 
     @Test
-    public void getWithStoppedNode() {
-        //TODO test get if node/container was stopped
+    public void getWithStoppedNode() throws Exception {
+        try (ReplicatedKeyValueApi replicated = newReplicatedApi()) {
+            String key = Random.nextKey();
+            byte[] value = Random.nextValue();
+            replicated.put(key, value);
+
+            withStoppedNode(node, () -> {
+                long start = System.nanoTime();
+                Optional<byte[]> actual = replicated.get(key);
+                long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                log.info("get with stopped node took {} ms", latencyMillis);
+
+                assertThat(latencyMillis).as("get latency").isLessThan(HttpClientConfig.DEFAULT.getReadTimeoutMillis());
+                assertThat(actual.orElse(null)).as("value").isEqualTo(value);
+            });
+        }
     }
 
     @Test
@@ -67,12 +186,30 @@ public class KeyValueApiHttpClientTest2 {
 
     @Test
     public void deleteByTombstone() {
-        // TODO use tombstones to mark as deleted (optional)
+        String key = Random.nextKey();
+        api.put(key, Random.nextValue());
+        api.delete(key);
+
+        assertThat(api.get(key).isPresent()).as("deleted value").isFalse();
+        assertThat(api.getKeys(key)).as("deleted key").isEmpty();
     }
 
     @Test
-    public void loadMillionKeys()  {
-        //TODO load too many data (optional)
+    public void loadMillionKeys() {
+        Workload workload = Workload.SCAN_HEAVY
+                .withKeyCount(1_000_000)
+                .withValueSize(16)
+                .withKeyDistribution(KeyDistribution.UNIFORM);
+        LoadGenerator generator = new LoadGenerator(api, workload, 4);
+        generator.load();
+        generator.run(200, 1000); // warm-up
+        LoadReport report = generator.run(200, 5000);
+        log.info("load of a million keys:\n{}", report);
+
+        assertThat(api.get(LoadGenerator.key(999_999)).isPresent()).as("last key").isTrue();
+        assertThat(report.getErrors()).as("errors").isEqualTo(0);
+        assertThat(report.getOperations().get(Operation.GET_KEYS).getP99Micros()).as("getKeys p99")
+                .isLessThan(100_000);
     }
 }
 
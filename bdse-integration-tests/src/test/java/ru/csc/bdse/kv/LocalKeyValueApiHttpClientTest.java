@@ -0,0 +1,381 @@
+package ru.csc.bdse.kv;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.client.RestTemplate;
+import ru.csc.bdse.Application;
+import ru.csc.bdse.kv.changelog.Change;
+import ru.csc.bdse.kv.changelog.ChangeType;
+import ru.csc.bdse.kv.cluster.HedgedKeyValueApi;
+import ru.csc.bdse.kv.merkle.AntiEntropySync;
+import ru.csc.bdse.kv.merkle.MerkleKeyValueApi;
+import ru.csc.bdse.kv.merkle.SyncMode;
+import ru.csc.bdse.kv.merkle.SyncReport;
+import ru.csc.bdse.util.Random;
+
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Runs the http client against the kvnode started in the same JVM, so it does not need docker.
+ */
+public class LocalKeyValueApiHttpClientTest extends AbstractKeyValueApiTest {
+
+    private static final int MAX_VALUE_BYTES = 1024 * 1024;
+    private static final int MAX_BATCH_BYTES = MAX_VALUE_BYTES + 64 * 1024;
+
+    private static ConfigurableApplicationContext node;
+
+    @BeforeClass
+    public static void startNode() {
+        node = SpringApplication.run(Application.class, "--server.port=0",
+                "--kvnode.max-value-bytes=" + MAX_VALUE_BYTES,
+                "--kvnode.max-batch-bytes=" + MAX_BATCH_BYTES,
+                "--kvnode.max-inflated-bytes=" + MAX_BATCH_BYTES,
+                "--kvnode.changelog=memory",
+                "--kvnode.merkle-depth=" + MerkleKeyValueApi.DEFAULT_DEPTH);
+    }
+
+    @AfterClass
+    public static void stopNode() {
+        node.close();
+    }
+
+    static String baseUrl() {
+        return "http://localhost:" + node.getEnvironment().getProperty("local.server.port");
+    }
+
+    @Override
+    protected KeyValueApi newKeyValueApi() {
+        return new KeyValueApiHttpClient(baseUrl());
+    }
+
+    @Test
+    public void splitBatches() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        KeyValueApi client = new KeyValueApiHttpClient(baseUrl(), 3, 64);
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (int i = 0; i < 10; i++) {
+            entries.put(Random.nextKey(), i == 5 ? new byte[100] : Random.nextValue());
+        }
+
+        client.putAll(entries);
+        Map<String, byte[]> actual = client.getAll(entries.keySet());
+        softAssert.assertThat(actual.keySet()).as("keys").isEqualTo(entries.keySet());
+        softAssert.assertThat(actual.get(new ArrayList<>(entries.keySet()).get(5))).as("large value").hasSize(100);
+
+        client.deleteAll(entries.keySet());
+        softAssert.assertThat(client.getAll(entries.keySet())).as("after delete").isEmpty();
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void gzipLargeValues() throws Exception {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        HttpClientConfig config = HttpClientConfig.DEFAULT.withGzipThresholdBytes(1024);
+        try (KeyValueApiHttpClient client = new KeyValueApiHttpClient(baseUrl(), config)) {
+            String key = Random.nextKey();
+            byte[] value = new byte[256 * 1024];
+            Arrays.fill(value, (byte) 'x');
+            byte[] small = Random.nextValue();
+
+            client.put(key, value);
+            softAssert.assertThat(client.get(key).orElse(null)).as("large value").isEqualTo(value);
+
+            client.put(key, small);
+            softAssert.assertThat(client.get(key).orElse(null)).as("small value").isEqualTo(small);
+
+            client.putAll(Collections.singletonMap(key, value));
+            softAssert.assertThat(client.getAll(Collections.singleton(key)).get(key)).as("batch value").isEqualTo(value);
+        }
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void gzipBombIsRefused() throws Exception {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        HttpClientConfig config = HttpClientConfig.DEFAULT.withGzipThresholdBytes(1024);
+        try (KeyValueApiHttpClient client = new KeyValueApiHttpClient(baseUrl(), config)) {
+            // zeros pack into a few kilobytes, far below any limit before unpacking
+            Map<String, byte[]> zeros = new HashMap<>();
+            for (int i = 0; i < 4; i++) {
+                zeros.put(Random.nextKey(), new byte[MAX_VALUE_BYTES]);
+            }
+            softAssert.assertThatThrownBy(() -> client.putAll(zeros)).as("batch unpacking above limit")
+                    .hasMessageContaining("413");
+            softAssert.assertThat(client.getAll(zeros.keySet())).as("values of refused batch").isEmpty();
+        }
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void actionUpDown() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        KeyValueApiHttpClient api = new KeyValueApiHttpClient(baseUrl());
+        String name = api.getInfo().iterator().next().getName();
+        String key = Random.nextKey();
+        byte[] value = Random.nextValue();
+        api.put(key, value);
+
+        api.action(name, NodeAction.DOWN);
+        try {
+            softAssert.assertThat(api.getInfo().iterator().next().getStatus()).as("status").isEqualTo(NodeStatus.DOWN);
+            softAssert.assertThatThrownBy(() -> api.put(key, Random.nextValue())).as("put to down node")
+                    .isInstanceOf(NodeDownException.class);
+            softAssert.assertThatThrownBy(() -> api.get(key)).as("get from down node")
+                    .isInstanceOf(NodeDownException.class);
+            softAssert.assertThatThrownBy(() -> api.getChanges(null, 100, 0)).as("changes of down node")
+                    .isInstanceOf(NodeDownException.class);
+            softAssert.assertThatThrownBy(api::getMerkleDepth).as("Merkle tree of down node")
+                    .isInstanceOf(NodeDownException.class);
+        } finally {
+            api.action(name, NodeAction.UP);
+        }
+        softAssert.assertThat(api.getInfo().iterator().next().getStatus()).as("status after up").isEqualTo(NodeStatus.UP);
+        softAssert.assertThat(api.get(key).orElse(null)).as("value after up").isEqualTo(value);
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void conditionalPuts() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        KeyValueApi api = newKeyValueApi();
+        String key = Random.nextKey();
+        byte[] first = Random.nextValue();
+        byte[] second = Random.nextValue();
+
+        OptionalLong created = api.putIfAbsent(key, first);
+        softAssert.assertThat(created.isPresent()).as("put to absent key").isTrue();
+        softAssert.assertThat(api.putIfAbsent(key, second).isPresent()).as("put to present key").isFalse();
+
+        VersionedValue read = api.getVersioned(key).orElse(null);
+        softAssert.assertThat(read.getValue()).as("value").isEqualTo(first);
+        softAssert.assertThat(read.getVersion()).as("version").isEqualTo(created.getAsLong());
+
+        softAssert.assertThat(api.putIfVersion(key, second, read.getVersion()).isPresent()).as("put of current version").isTrue();
+        softAssert.assertThat(api.putIfVersion(key, first, read.getVersion()).isPresent()).as("put of stale version").isFalse();
+        softAssert.assertThat(api.get(key).orElse(null)).as("value after put").isEqualTo(second);
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void valueSizeLimit() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        KeyValueApi api = newKeyValueApi();
+        String key = Random.nextKey();
+        byte[] largest = new byte[MAX_VALUE_BYTES];
+        largest[largest.length - 1] = 42;
+
+        api.put(key, largest);
+        softAssert.assertThat(api.get(key).orElse(null)).as("largest value").isEqualTo(largest);
+        softAssert.assertThatThrownBy(() -> api.put(key, new byte[MAX_VALUE_BYTES + 1])).as("too large value")
+                .hasMessageContaining("413");
+        softAssert.assertThat(api.get(key).orElse(null)).as("value after refused put").isEqualTo(largest);
+
+        api.put(key, new byte[0]);
+        softAssert.assertThat(api.get(key).orElse(null)).as("empty value").isEmpty();
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void batchSizeLimit() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        KeyValueApi api = new KeyValueApiHttpClient(baseUrl(), 1000, Integer.MAX_VALUE);
+        Map<String, byte[]> largest = Collections.singletonMap(Random.nextKey(), new byte[MAX_VALUE_BYTES]);
+        api.putAll(largest);
+        softAssert.assertThat(api.getAll(largest.keySet()).keySet()).as("batch of the largest value")
+                .isEqualTo(largest.keySet());
+
+        Map<String, byte[]> tooLarge = new HashMap<>();
+        tooLarge.put(Random.nextKey(), new byte[MAX_VALUE_BYTES]);
+        tooLarge.put(Random.nextKey(), new byte[MAX_BATCH_BYTES - MAX_VALUE_BYTES]);
+        softAssert.assertThatThrownBy(() -> api.putAll(tooLarge)).as("too large batch")
+                .hasMessageContaining("413");
+        softAssert.assertThat(api.getAll(tooLarge.keySet())).as("values of refused batch").isEmpty();
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void ttl() throws InterruptedException {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        KeyValueApi api = newKeyValueApi();
+        String key = Random.nextKey();
+        api.put(key, Random.nextValue(), 100);
+        softAssert.assertThat(api.get(key).isPresent()).as("value before expiry").isTrue();
+        Thread.sleep(150);
+        softAssert.assertThat(api.get(key).isPresent()).as("value after expiry").isFalse();
+        softAssert.assertThat(new AsyncKeyValueApiHttpClient(baseUrl()).putAsync(key, Random.nextValue(), 60_000).join())
+                .as("async put with ttl").isNull();
+        softAssert.assertThat(api.get(key).isPresent()).as("value put with ttl").isTrue();
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void changes() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        KeyValueApiHttpClient api = new KeyValueApiHttpClient(baseUrl());
+        long position = api.getChanges(null, 100, 0).getNextSequence();
+        String key = Random.nextKey();
+        byte[] value = Random.nextValue();
+        api.put(key, value);
+        api.delete(key);
+
+        List<Change> changes = api.getChanges(position, 100, 1000).getChanges().stream()
+                .filter(change -> change.getKey().equals(key))
+                .collect(Collectors.toList());
+        softAssert.assertThat(changes).as("changes of the key").hasSize(2);
+        softAssert.assertThat(changes.get(0).getValue()).as("value put").isEqualTo(value);
+        softAssert.assertThat(changes.get(1).getType()).as("deletion").isEqualTo(ChangeType.DELETE);
+        softAssert.assertThatThrownBy(() -> api.getChanges(Long.MAX_VALUE, 100, 0)).as("changes beyond the end")
+                .hasMessageContaining("400");
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void merkleSync() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        KeyValueApiHttpClient api = new KeyValueApiHttpClient(baseUrl());
+        for (int i = 0; i < 100; i++) {
+            api.put(Random.nextKey(), Random.nextValue());
+        }
+        MerkleKeyValueApi replica = new MerkleKeyValueApi(new InMemoryKeyValueApi("replica"), api.getMerkleDepth());
+        replica.put(Random.nextKey(), Random.nextValue());
+        SyncReport report = new AntiEntropySync(api, api, replica, replica, SyncMode.SOURCE_WINS).run();
+        softAssert.assertThat(report.getKeysCopied()).as("keys copied").isGreaterThanOrEqualTo(100);
+        softAssert.assertThat(report.getKeysDeleted()).as("keys deleted").isEqualTo(1);
+        softAssert.assertThat(replica.getMerkleHashes(new int[]{1})).as("replica root")
+                .isEqualTo(api.getMerkleHashes(new int[]{1}));
+        softAssert.assertThatThrownBy(() -> api.getMerkleHashes(new int[]{0})).as("no such node")
+                .hasMessageContaining("400");
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void deadlines() throws Exception {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        KeyValueApiHttpClient api = new KeyValueApiHttpClient(baseUrl());
+        String key = Random.nextKey();
+        byte[] value = Random.nextValue();
+        api.put(key, value);
+        softAssert.assertThat(api.get(key, 1000).orElse(null)).as("value read in time").isEqualTo(value);
+        softAssert.assertThat(api.getVersioned(Random.nextKey(), 1000).isPresent()).as("absent key").isFalse();
+        softAssert.assertThatThrownBy(() -> api.getVersioned(key, 0)).as("read without time")
+                .isInstanceOf(DeadlineExceededException.class);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(Deadline.HEADER, "0");
+        softAssert.assertThatThrownBy(() -> new RestTemplate().exchange(baseUrl() + "/key-value/" + key,
+                HttpMethod.GET, new HttpEntity<>(headers), byte[].class)).as("request without time")
+                .hasMessageContaining("504");
+
+        try (HedgedKeyValueApi hedged = new HedgedKeyValueApi(
+                Arrays.asList(new KeyValueApiHttpClient(baseUrl()), new KeyValueApiHttpClient(baseUrl())))) {
+            softAssert.assertThat(hedged.get(key).orElse(null)).as("hedged read").isEqualTo(value);
+            softAssert.assertThat(hedged.getReadCount()).as("hedged reads").isEqualTo(1);
+        }
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void deadlineOfStalledNode() throws Exception {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        try (ServerSocket stalled = new ServerSocket(0);
+             KeyValueApiHttpClient api = new KeyValueApiHttpClient("http://localhost:" + stalled.getLocalPort())) {
+            long start = System.nanoTime();
+            softAssert.assertThatThrownBy(() -> api.get(Random.nextKey(), 200)).as("read of stalled node")
+                    .isInstanceOf(DeadlineExceededException.class);
+            softAssert.assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).as("wait millis")
+                    .isLessThan(HttpClientConfig.DEFAULT.getReadTimeoutMillis());
+        }
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void metrics() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        KeyValueApi api = newKeyValueApi();
+        String key = Random.nextKey();
+        api.put(key, new byte[100]);
+        api.get(key);
+
+        Map<String, Object> metrics = new RestTemplate().getForObject(baseUrl() + "/metrics", Map.class);
+        Map<String, Map<String, Number>> operations = (Map<String, Map<String, Number>>) metrics.get("operations");
+        softAssert.assertThat(operations).as("operations").containsKeys("put", "get_versioned");
+        softAssert.assertThat(operations.get("put").get("count").longValue()).as("puts").isGreaterThanOrEqualTo(1);
+        softAssert.assertThat(operations.get("put").get("p99Micros").longValue()).as("put p99").isPositive();
+        Map<String, Map<String, Number>> valueBytes = (Map<String, Map<String, Number>>) metrics.get("valueBytes");
+        softAssert.assertThat(valueBytes.get("written").get("max").longValue()).as("largest written value")
+                .isGreaterThanOrEqualTo(100);
+        softAssert.assertThat(((Number) metrics.get("keys")).longValue()).as("keys").isGreaterThanOrEqualTo(1);
+        Map<String, Map<String, Number>> admission = (Map<String, Map<String, Number>>) metrics.get("admission");
+        softAssert.assertThat(admission).as("admission").containsKeys("read", "write", "scan");
+        softAssert.assertThat(admission.get("write").get("admitted").longValue()).as("admitted writes")
+                .isGreaterThanOrEqualTo(1);
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void snapshotAndRestore() throws Exception {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        KeyValueApi api = newKeyValueApi();
+        RestTemplate rest = new RestTemplate();
+        Path snapshotFile = node.getBean("snapshotFile", Path.class);
+        String key = Random.nextKey();
+        byte[] value = Random.nextValue();
+        api.put(key, value);
+        try {
+            Map<String, Number> written = rest.postForObject(baseUrl() + "/admin/snapshot", null, Map.class);
+            softAssert.assertThat(written.get("entries").longValue()).as("written entries").isGreaterThanOrEqualTo(1);
+            softAssert.assertThat(Files.exists(snapshotFile)).as("snapshot file").isTrue();
+
+            api.delete(key);
+            Map<String, Number> restored = rest.postForObject(baseUrl() + "/admin/restore", null, Map.class);
+            softAssert.assertThat(restored.get("entries")).as("restored entries").isEqualTo(written.get("entries"));
+            softAssert.assertThat(api.get(key).orElse(null)).as("restored value").isEqualTo(value);
+        } finally {
+            Files.deleteIfExists(snapshotFile);
+        }
+
+        softAssert.assertAll();
+    }
+}
@@ -0,0 +1,110 @@
+package ru.csc.bdse.kv;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import ru.csc.bdse.Application;
+import ru.csc.bdse.kv.load.KeyDistribution;
+import ru.csc.bdse.kv.load.LoadGenerator;
+import ru.csc.bdse.kv.load.LoadReport;
+import ru.csc.bdse.kv.load.Workload;
+import ru.csc.bdse.kv.load.ZipfianGenerator;
+import ru.csc.bdse.kv.metrics.Operation;
+
+import java.io.IOException;
+
+/**
+ * Runs the load generator against the kvnode started in the same JVM, so heap of the node can be measured.
+ */
+public class LocalLoadTest {
+
+    private static final int MILLION = 1_000_000;
+    private static final long MAX_HEAP_BYTES_PER_KEY = 400;
+    private static final double MAX_GET_KEYS_P99_MICROS = 100_000;
+
+    private static ConfigurableApplicationContext node;
+    private static KeyValueApiHttpClient client;
+
+    @BeforeClass
+    public static void startNode() {
+        node = SpringApplication.run(Application.class, "--server.port=0");
+        client = new KeyValueApiHttpClient("http://localhost:" + node.getEnvironment().getProperty("local.server.port"));
+    }
+
+    @AfterClass
+    public static void stopNode() throws IOException {
+        client.close();
+        node.close();
+    }
+
+    @Test
+    public void workloads() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        for (Workload workload : new Workload[]{Workload.READ_HEAVY, Workload.WRITE_HEAVY, Workload.SCAN_HEAVY}) {
+            LoadGenerator generator = new LoadGenerator(client, workload.withKeyCount(10_000), 8);
+            generator.load();
+            LoadReport report = generator.run(500, 1000);
+            softAssert.assertThat(report.getCount()).as("operations").isEqualTo(500);
+            softAssert.assertThat(report.getErrors()).as("errors").isEqualTo(0);
+            softAssert.assertThat(report.getElapsedMillis()).as("elapsed").isGreaterThanOrEqualTo(990);
+            softAssert.assertThat(report.getOperations()).as("operations run").containsKey(Operation.PUT);
+        }
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void zipfianKeysAreSkewed() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        ZipfianGenerator zipfian = new ZipfianGenerator(1000);
+        int[] ranks = new int[1000];
+        for (int i = 0; i < 100_000; i++) {
+            ranks[(int) zipfian.nextRank()]++;
+            long item = zipfian.next();
+            softAssert.assertThat(item).as("item").isBetween(0L, 999L);
+        }
+        softAssert.assertThat(ranks[0]).as("most popular").isGreaterThan(10_000);
+        softAssert.assertThat(ranks[0]).as("first over second").isGreaterThan(ranks[1]);
+        softAssert.assertThat(ranks[1]).as("second over tenth").isGreaterThan(ranks[9]);
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void loadMillionKeys() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        long heapBefore = usedHeap();
+        Workload workload = Workload.SCAN_HEAVY
+                .withKeyCount(MILLION)
+                .withValueSize(16)
+                .withKeyDistribution(KeyDistribution.UNIFORM);
+        LoadGenerator generator = new LoadGenerator(client, workload, 4);
+        generator.load();
+        long heapPerKey = (usedHeap() - heapBefore) / MILLION;
+
+        softAssert.assertThat(client.get(LoadGenerator.key(MILLION - 1)).isPresent()).as("last key").isTrue();
+        softAssert.assertThat(heapPerKey).as("heap bytes per key").isLessThan(MAX_HEAP_BYTES_PER_KEY);
+
+        generator.run(200, 1000); // warm-up
+        LoadReport report = generator.run(200, 3000);
+        softAssert.assertThat(report.getErrors()).as("errors").isEqualTo(0);
+        softAssert.assertThat(report.getOperations().get(Operation.GET_KEYS).getP99Micros()).as("getKeys p99")
+                .isLessThan(MAX_GET_KEYS_P99_MICROS);
+
+        softAssert.assertAll();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,123 @@
+package ru.csc.bdse.kv;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.After;
+import org.junit.Test;
+import ru.csc.bdse.kv.log.FsyncPolicy;
+import ru.csc.bdse.kv.log.LogKeyValueApi;
+import ru.csc.bdse.util.Random;
+import ru.csc.bdse.util.TempDirs;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class LogKeyValueApiTest extends AbstractKeyValueApiTest {
+
+    private Path dir;
+    private LogKeyValueApi api;
+
+    @Override
+    protected KeyValueApi newKeyValueApi() {
+        dir = TempDirs.create("log-kv");
+        api = new LogKeyValueApi("node", dir, FsyncPolicy.ALWAYS, 4096, 100);
+        return api;
+    }
+
+    @After
+    public void removeFiles() throws IOException {
+        api.close();
+        TempDirs.delete(dir);
+    }
+
+    @Test
+    public void restoreAfterRestart() throws IOException {
+        Path dir = TempDirs.create("log-kv");
+        String key = Random.nextKey();
+        String deletedKey = Random.nextKey();
+        byte[] value = Random.nextValue();
+        byte[] largeValue = new byte[10_000];
+
+        try (LogKeyValueApi api = new LogKeyValueApi("node", dir, FsyncPolicy.INTERVAL, 4096, 100)) {
+            api.put(key, largeValue);
+            api.put(key, value);
+            api.put(deletedKey, value);
+            api.delete(deletedKey);
+        }
+
+        try (LogKeyValueApi api = new LogKeyValueApi("node", dir, FsyncPolicy.NEVER, 4096, 100)) {
+            assertThat(api.get(key).orElse(null)).as("value").isEqualTo(value);
+            assertThat(api.get(deletedKey).isPresent()).as("deleted").isFalse();
+        } finally {
+            TempDirs.delete(dir);
+        }
+    }
+
+    @Test
+    public void versionedValueIsViewOfSegment() {
+        String key = Random.nextKey();
+        byte[] value = Random.nextValue();
+        api.put(key, value);
+
+        VersionedValue versioned = api.getVersioned(key).orElse(null);
+        assertThat(versioned.getBuffer().isDirect()).as("mapped").isTrue();
+        assertThat(versioned.getBuffer().isReadOnly()).as("read-only").isTrue();
+        assertThat(versioned.getValue()).as("value").isEqualTo(value);
+        assertThat(versioned.hasVersion()).as("versioned").isFalse();
+    }
+
+    @Test
+    public void viewOutlivesClose() throws IOException {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        String key = Random.nextKey();
+        byte[] value = Random.nextValue();
+        api.put(key, value);
+        VersionedValue versioned = api.getVersioned(key).orElse(null);
+
+        api.close();
+        softAssert.assertThat(versioned.getValue()).as("value of view after close").isEqualTo(value);
+        softAssert.assertThatThrownBy(() -> api.get(key)).as("read after close")
+                .isInstanceOf(IllegalStateException.class);
+        softAssert.assertThatThrownBy(() -> api.getVersioned(key)).as("versioned read after close")
+                .isInstanceOf(IllegalStateException.class);
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void closeWhileWriting() throws Exception {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        ExecutorService writers = Executors.newFixedThreadPool(8);
+        CountDownLatch started = new CountDownLatch(8);
+        List<Future<Throwable>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(writers.submit(() -> {
+                started.countDown();
+                try {
+                    while (true) {
+                        api.put(Random.nextKey(), Random.nextValue());
+                    }
+                } catch (RuntimeException e) {
+                    return e;
+                }
+            }));
+        }
+        started.await();
+        Thread.sleep(50);
+        api.close();
+
+        for (Future<Throwable> result : results) {
+            softAssert.assertThat(result.get(5, TimeUnit.SECONDS)).as("failure of a write after close")
+                    .isInstanceOf(IllegalStateException.class);
+        }
+        writers.shutdown();
+
+        softAssert.assertAll();
+    }
+}
@@ -0,0 +1,121 @@
+package ru.csc.bdse.kv;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.After;
+import org.junit.Test;
+import ru.csc.bdse.kv.log.FsyncPolicy;
+import ru.csc.bdse.kv.lsm.LsmKeyValueApi;
+import ru.csc.bdse.util.Random;
+import ru.csc.bdse.util.TempDirs;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+public class LsmKeyValueApiTest extends AbstractKeyValueApiTest {
+
+    private static final long MEMTABLE_SIZE = 4096;
+
+    private Path dir;
+    private LsmKeyValueApi api;
+
+    @Override
+    protected KeyValueApi newKeyValueApi() {
+        dir = TempDirs.create("lsm-kv");
+        api = new LsmKeyValueApi("node", dir, FsyncPolicy.NEVER, MEMTABLE_SIZE, 2);
+        return api;
+    }
+
+    @After
+    public void removeFiles() throws IOException {
+        api.close();
+        TempDirs.delete(dir);
+    }
+
+    @Test
+    public void deleteByTombstone() throws IOException {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        String prefix = "tombstone" + Random.nextKey();
+        Set<String> liveKeys = new HashSet<>();
+        Set<String> deletedKeys = new HashSet<>();
+
+        Path dir = TempDirs.create("lsm-kv");
+        // enough data for several flushes and compactions, deletes land in newer tables than values
+        try (LsmKeyValueApi api = new LsmKeyValueApi("node", dir, FsyncPolicy.NEVER, MEMTABLE_SIZE, 2)) {
+            for (int i = 0; i < 2000; i++) {
+                String key = prefix + i;
+                api.put(key, Random.nextValue());
+                (i % 3 == 0 ? deletedKeys : liveKeys).add(key);
+            }
+            for (String key : deletedKeys) {
+                api.delete(key);
+            }
+            softAssert.assertThat(api.getKeys(prefix)).as("keys before restart").isEqualTo(liveKeys);
+        }
+
+        try (LsmKeyValueApi api = new LsmKeyValueApi("node", dir, FsyncPolicy.NEVER, MEMTABLE_SIZE, 2)) {
+            softAssert.assertThat(api.getKeys(prefix)).as("keys after restart").isEqualTo(liveKeys);
+            for (String key : deletedKeys) {
+                softAssert.assertThat(api.get(key).isPresent()).as("deleted " + key).isFalse();
+            }
+            for (String key : liveKeys) {
+                softAssert.assertThat(api.get(key).isPresent()).as("live " + key).isTrue();
+            }
+        } finally {
+            TempDirs.delete(dir);
+        }
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void flushedLogIsNotReplayed() throws IOException {
+        Path dir = TempDirs.create("lsm-kv");
+        Path backup = TempDirs.create("lsm-wal");
+        String key = Random.nextKey();
+        byte[] newValue = Random.nextValue();
+
+        try (LsmKeyValueApi api = new LsmKeyValueApi("node", dir, FsyncPolicy.ALWAYS, MEMTABLE_SIZE, 2)) {
+            api.put(key, Random.nextValue());
+            Path wal = onlyLog(dir);
+            Files.copy(wal, backup.resolve(wal.getFileName()));
+            fill(api, "first");
+            api.put(key, newValue);
+            fill(api, "second");
+        }
+        // as if the delete of the flushed log had failed
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(backup)) {
+            for (Path wal : logs) {
+                Files.copy(wal, dir.resolve(wal.getFileName()));
+            }
+        }
+
+        try (LsmKeyValueApi api = new LsmKeyValueApi("node", dir, FsyncPolicy.NEVER, MEMTABLE_SIZE, 2)) {
+            assertThat(api.get(key).orElse(null)).as("value written after the flushed log").isEqualTo(newValue);
+        } finally {
+            TempDirs.delete(dir);
+            TempDirs.delete(backup);
+        }
+    }
+
+    /**
+     * Writes enough to flush the current memtable.
+     */
+    private static void fill(LsmKeyValueApi api, String prefix) {
+        for (int i = 0; i < 100; i++) {
+            api.put(prefix + i, new byte[100]);
+        }
+    }
+
+    private static Path onlyLog(Path dir) throws IOException {
+        try (DirectoryStream<Path> logs = Files.newDirectoryStream(dir, "*.wal")) {
+            return logs.iterator().next();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package ru.csc.bdse.kv;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.Test;
+import ru.csc.bdse.util.Random;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the maintenance decorator over the in-memory storage.
+ */
+public class ManagedKeyValueApiTest extends AbstractKeyValueApiTest {
+
+    @Override
+    protected KeyValueApi newKeyValueApi() {
+        return new ManagedKeyValueApi("node", new InMemoryKeyValueApi("node"));
+    }
+
+    @Test
+    public void downRejectsNewRequests() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        KeyValueApi api = newKeyValueApi();
+        String key = Random.nextKey();
+        byte[] value = Random.nextValue();
+        api.put(key, value);
+
+        api.action("node", NodeAction.DOWN);
+        softAssert.assertThat(api.getInfo().iterator().next().getStatus()).as("status").isEqualTo(NodeStatus.DOWN);
+        softAssert.assertThatThrownBy(() -> api.put(key, Random.nextValue())).as("put")
+                .isInstanceOf(NodeDownException.class);
+        softAssert.assertThatThrownBy(() -> api.getKeys("")).as("keys")
+                .isInstanceOf(NodeDownException.class);
+
+        api.action("node", NodeAction.UP);
+        softAssert.assertThat(api.getInfo().iterator().next().getStatus()).as("status after up").isEqualTo(NodeStatus.UP);
+        softAssert.assertThat(api.get(key).orElse(null)).as("value after up").isEqualTo(value);
+        softAssert.assertThatThrownBy(() -> api.action("other", NodeAction.DOWN)).as("unknown node")
+                .isInstanceOf(IllegalArgumentException.class);
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void downWaitsForRequestsInFlight() throws Exception {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        KeyValueApi api = new ManagedKeyValueApi("node", new InMemoryKeyValueApi("node") {
+            @Override
+            public Optional<byte[]> get(String key) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.get(key);
+            }
+        });
+
+        CompletableFuture<Optional<byte[]>> slowGet = CompletableFuture.supplyAsync(() -> api.get(Random.nextKey()));
+        started.await();
+        CompletableFuture<Void> down = CompletableFuture.runAsync(() -> api.action("node", NodeAction.DOWN));
+        Thread.sleep(200);
+        softAssert.assertThat(down.isDone()).as("down before drain").isFalse();
+
+        release.countDown();
+        down.get(5, TimeUnit.SECONDS);
+        softAssert.assertThat(slowGet.get(5, TimeUnit.SECONDS).isPresent()).as("request in flight").isFalse();
+
+        softAssert.assertAll();
+    }
+}
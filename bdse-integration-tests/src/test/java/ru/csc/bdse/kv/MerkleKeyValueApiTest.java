@@ -0,0 +1,206 @@
+package ru.csc.bdse.kv;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.Test;
+import ru.csc.bdse.kv.cluster.ReplicatedKeyValueApi;
+import ru.csc.bdse.kv.merkle.AntiEntropySync;
+import ru.csc.bdse.kv.merkle.MerkleKeyValueApi;
+import ru.csc.bdse.kv.merkle.MerkleTreeApi;
+import ru.csc.bdse.kv.merkle.SyncMode;
+import ru.csc.bdse.kv.merkle.SyncReport;
+import ru.csc.bdse.util.Random;
+import ru.csc.bdse.util.TempDirs;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MerkleKeyValueApiTest extends AbstractKeyValueApiTest {
+
+    @Override
+    protected KeyValueApi newKeyValueApi() {
+        return new MerkleKeyValueApi(new InMemoryKeyValueApi("node"));
+    }
+
+    @Test
+    public void treeDependsOnEntriesOnly() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        MerkleKeyValueApi first = new MerkleKeyValueApi(new InMemoryKeyValueApi("first"), 8);
+        MerkleKeyValueApi second = new MerkleKeyValueApi(new InMemoryKeyValueApi("second"), 8);
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            entries.put(Random.nextKey(), Random.nextValue());
+        }
+        entries.forEach(first::put);
+        List<String> reversed = new ArrayList<>(entries.keySet());
+        Collections.reverse(reversed);
+        for (String key : reversed) {
+            second.put(key, Random.nextValue());
+            second.put(Random.nextKey(), Random.nextValue());
+            second.put(key, entries.get(key));
+        }
+        List<String> extra = new ArrayList<>(second.getKeys(""));
+        extra.removeAll(entries.keySet());
+        second.deleteAll(extra);
+        softAssert.assertThat(root(second)).as("root after other writes").isEqualTo(root(first));
+
+        String ttlKey = Random.nextKey();
+        second.put(ttlKey, Random.nextValue(), 60_000);
+        softAssert.assertThat(root(second)).as("root with ttl key").isEqualTo(root(first));
+        second.put(ttlKey, Random.nextValue());
+        softAssert.assertThat(root(second)).as("root with ttl key made persistent").isNotEqualTo(root(first));
+        second.delete(ttlKey);
+        softAssert.assertThat(root(second)).as("root with ttl key deleted").isEqualTo(root(first));
+
+        MerkleKeyValueApi rebuilt = new MerkleKeyValueApi(second.getStorage(), 8);
+        softAssert.assertThat(root(rebuilt)).as("root of rebuilt tree").isEqualTo(root(first));
+        softAssert.assertThat(first.getLeafEntries(new int[]{256, 300, 511}))
+                .as("leaf entries").isEqualTo(second.getLeafEntries(new int[]{256, 300, 511}));
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void restoredTtlKeysAreLeftOut() throws Exception {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        Path dir = TempDirs.create("merkle-snapshot");
+        InMemoryKeyValueApi storage = new InMemoryKeyValueApi("node");
+        MerkleKeyValueApi node = new MerkleKeyValueApi(storage, 8);
+        try {
+            node.put(Random.nextKey(), Random.nextValue());
+            long persistentRoot = root(node);
+            node.put(Random.nextKey(), Random.nextValue(), 300);
+            storage.snapshot(dir.resolve("snapshot"));
+
+            InMemoryKeyValueApi restoredStorage = new InMemoryKeyValueApi("restored");
+            restoredStorage.restore(dir.resolve("snapshot"));
+            MerkleKeyValueApi restored = new MerkleKeyValueApi(restoredStorage, 8);
+            storage.restore(dir.resolve("snapshot"));
+            node.rebuild();
+            softAssert.assertThat(root(restored)).as("root of restored node").isEqualTo(persistentRoot);
+            softAssert.assertThat(root(node)).as("root of rebuilt node").isEqualTo(persistentRoot);
+
+            Thread.sleep(300 + 3 * InMemoryKeyValueApi.SWEEP_TICK_MILLIS);
+            softAssert.assertThat(restoredStorage.getExpiredCount()).as("expired keys").isEqualTo(1);
+            softAssert.assertThat(root(restored)).as("root of restored node after expiry").isEqualTo(persistentRoot);
+            softAssert.assertThat(root(node)).as("root of rebuilt node after expiry").isEqualTo(persistentRoot);
+            restored.close();
+            node.close();
+        } finally {
+            TempDirs.delete(dir);
+        }
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void syncMovesOnlyDifferingEntries() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        MerkleKeyValueApi source = new MerkleKeyValueApi(new InMemoryKeyValueApi("source"));
+        MerkleKeyValueApi target = new MerkleKeyValueApi(new InMemoryKeyValueApi("target"));
+        Map<String, byte[]> entries = new HashMap<>();
+        for (int i = 0; i < 50_000; i++) {
+            entries.put(Random.nextKey(), Random.nextValue());
+        }
+        source.putAll(entries);
+        target.putAll(entries);
+        List<String> keys = new ArrayList<>(entries.keySet());
+        for (int i = 0; i < 10; i++) {
+            source.put(keys.get(i), Random.nextValue());
+            source.put(Random.nextKey(), Random.nextValue());
+            target.put(Random.nextKey(), Random.nextValue());
+            target.delete(keys.get(10 + i));
+        }
+
+        CountingTree sourceTree = new CountingTree(source);
+        SyncReport report = new AntiEntropySync(source, sourceTree, target, target, SyncMode.SOURCE_WINS).run();
+        softAssert.assertThat(report.getKeysCopied()).as("keys copied").isEqualTo(30);
+        softAssert.assertThat(report.getKeysDeleted()).as("keys deleted").isEqualTo(10);
+        softAssert.assertThat(report.getDifferingLeaves()).as("differing leaves").isLessThanOrEqualTo(40);
+        softAssert.assertThat(report.getNodesCompared()).as("nodes compared").isLessThan(40 * 2 * 17);
+        softAssert.assertThat(sourceTree.entries.get()).as("leaf entries fetched from source").isLessThan(200);
+        softAssert.assertThat(root(target)).as("target root").isEqualTo(root(source));
+        softAssert.assertThat(target.getKeys("")).as("target keys").isEqualTo(source.getKeys(""));
+        source.getAll(source.getKeys("")).forEach((key, value) ->
+                softAssert.assertThat(target.get(key).orElse(null)).as(key).isEqualTo(value));
+
+        SyncReport again = new AntiEntropySync(source, source, target, target, SyncMode.SOURCE_WINS).run();
+        softAssert.assertThat(again.getNodesCompared()).as("nodes compared when in sync").isEqualTo(1);
+        softAssert.assertThat(again.getKeysCopied() + again.getKeysDeleted()).as("keys moved when in sync").isZero();
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void syncKeepsNewerVersions() throws Exception {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        MerkleKeyValueApi source = new MerkleKeyValueApi(new InMemoryKeyValueApi("source"));
+        MerkleKeyValueApi target = new MerkleKeyValueApi(new InMemoryKeyValueApi("target"));
+        try (ReplicatedKeyValueApi toSource = new ReplicatedKeyValueApi(Collections.singletonMap("replica", source), 1, 1, 1);
+             ReplicatedKeyValueApi toTarget = new ReplicatedKeyValueApi(Collections.singletonMap("replica", target), 1, 1, 1)) {
+            String newerOnTarget = Random.nextKey();
+            String newerOnSource = Random.nextKey();
+            String deletedOnSource = Random.nextKey();
+            String targetOnly = Random.nextKey();
+            byte[] value = Random.nextValue();
+            toSource.put(newerOnTarget, Random.nextValue());
+            toTarget.put(newerOnSource, Random.nextValue());
+            toTarget.put(deletedOnSource, Random.nextValue());
+            Thread.sleep(2);
+            toTarget.put(newerOnTarget, value);
+            toSource.put(newerOnSource, value);
+            toSource.delete(deletedOnSource);
+            toTarget.put(targetOnly, value);
+
+            SyncReport report = new AntiEntropySync(source, source, target, target).run();
+            softAssert.assertThat(report.getKeysCopied()).as("keys copied").isEqualTo(2);
+            softAssert.assertThat(report.getKeysDeleted()).as("keys deleted").isZero();
+            softAssert.assertThat(toTarget.get(newerOnTarget).orElse(null)).as("newer on target").isEqualTo(value);
+            softAssert.assertThat(toTarget.get(newerOnSource).orElse(null)).as("newer on source").isEqualTo(value);
+            softAssert.assertThat(toTarget.get(deletedOnSource).isPresent()).as("deleted on source").isFalse();
+            softAssert.assertThat(toTarget.get(targetOnly).orElse(null)).as("target only").isEqualTo(value);
+
+            new AntiEntropySync(target, target, source, source).run();
+            softAssert.assertThat(root(source)).as("roots after syncing both ways").isEqualTo(root(target));
+            softAssert.assertThat(toSource.get(newerOnTarget).orElse(null)).as("newer on target, on source")
+                    .isEqualTo(value);
+        }
+
+        softAssert.assertAll();
+    }
+
+    private static long root(MerkleTreeApi tree) {
+        return tree.getMerkleHashes(new int[]{1})[0];
+    }
+
+    private static final class CountingTree implements MerkleTreeApi {
+
+        private final MerkleTreeApi tree;
+        private final AtomicLong entries = new AtomicLong();
+
+        private CountingTree(MerkleTreeApi tree) {
+            this.tree = tree;
+        }
+
+        @Override
+        public int getMerkleDepth() {
+            return tree.getMerkleDepth();
+        }
+
+        @Override
+        public long[] getMerkleHashes(int[] nodes) {
+            return tree.getMerkleHashes(nodes);
+        }
+
+        @Override
+        public Map<String, Long> getLeafEntries(int[] leaves) {
+            Map<String, Long> leafEntries = tree.getLeafEntries(leaves);
+            entries.addAndGet(leafEntries.size());
+            return leafEntries;
+        }
+    }
+}
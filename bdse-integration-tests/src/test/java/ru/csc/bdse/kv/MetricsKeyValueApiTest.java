@@ -0,0 +1,92 @@
+package ru.csc.bdse.kv;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.Test;
+import ru.csc.bdse.kv.metrics.HistogramSnapshot;
+import ru.csc.bdse.kv.metrics.LogLinearHistogram;
+import ru.csc.bdse.kv.metrics.MetricsKeyValueApi;
+import ru.csc.bdse.kv.metrics.Operation;
+import ru.csc.bdse.kv.metrics.OperationStats;
+import ru.csc.bdse.util.Random;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Runs the measuring decorator over the in-memory storage and checks precision of its histograms.
+ */
+public class MetricsKeyValueApiTest extends AbstractKeyValueApiTest {
+
+    @Override
+    protected KeyValueApi newKeyValueApi() {
+        return new MetricsKeyValueApi(new InMemoryKeyValueApi("node"));
+    }
+
+    @Test
+    public void operationsAreCounted() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        MetricsKeyValueApi api = new MetricsKeyValueApi(new InMemoryKeyValueApi("node"));
+        String key = Random.nextKey();
+        api.put(key, new byte[10]);
+        api.put(key, new byte[1000]);
+        api.get(key);
+        api.get(Random.nextKey());
+        softAssert.assertThatThrownBy(() -> api.put(null, new byte[1])).as("invalid put")
+                .isInstanceOf(IllegalArgumentException.class);
+
+        Map<Operation, OperationStats> stats = api.getOperationStats();
+        softAssert.assertThat(stats).as("called operations").containsOnlyKeys(Operation.PUT, Operation.GET);
+        softAssert.assertThat(stats.get(Operation.PUT).getCount()).as("puts").isEqualTo(3);
+        softAssert.assertThat(stats.get(Operation.PUT).getErrors()).as("failed puts").isEqualTo(1);
+        softAssert.assertThat(stats.get(Operation.GET).getCount()).as("gets").isEqualTo(2);
+        softAssert.assertThat(stats.get(Operation.GET).getErrors()).as("failed gets").isEqualTo(0);
+        softAssert.assertThat(stats.get(Operation.GET).getPerSecond()).as("gets per second").isPositive();
+
+        HistogramSnapshot written = api.getWrittenValueBytes();
+        softAssert.assertThat(written.getCount()).as("written values").isEqualTo(2);
+        softAssert.assertThat(written.getMax()).as("largest written value").isEqualTo(1000);
+        softAssert.assertThat(api.getReadValueBytes().getCount()).as("read values").isEqualTo(1);
+        softAssert.assertThat(api.getKeyCount().getAsLong()).as("keys").isEqualTo(1);
+        softAssert.assertThat(api.getOperationStats().get(Operation.GET_KEYS)).as("unmeasured key count").isNull();
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        for (long value = 1; value <= 100_000; value++) {
+            histogram.record(value);
+        }
+        HistogramSnapshot snapshot = histogram.snapshot();
+        softAssert.assertThat(snapshot.getCount()).as("count").isEqualTo(100_000);
+        softAssert.assertThat(snapshot.getMax()).as("max").isEqualTo(100_000);
+        softAssert.assertThat(snapshot.getMean()).as("mean").isEqualTo(50_000.5);
+        assertClose(softAssert, snapshot.getP50(), 50_000, "p50");
+        assertClose(softAssert, snapshot.getP99(), 99_000, "p99");
+        assertClose(softAssert, snapshot.getP999(), 99_900, "p999");
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void precisionDoesNotDependOnMagnitude() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        for (int i = 0; i < 1000; i++) {
+            long value = ThreadLocalRandom.current().nextLong(LogLinearHistogram.MAX_VALUE);
+            LogLinearHistogram histogram = new LogLinearHistogram();
+            histogram.record(value);
+            assertClose(softAssert, histogram.snapshot().getP50(), value, "single value " + value);
+        }
+
+        softAssert.assertAll();
+    }
+
+    private static void assertClose(SoftAssertions softAssert, long actual, long expected, String description) {
+        softAssert.assertThat(actual).as(description).isBetween(expected, expected + expected / 32);
+    }
+}
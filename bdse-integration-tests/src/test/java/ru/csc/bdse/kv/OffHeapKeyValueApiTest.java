@@ -0,0 +1,54 @@
+package ru.csc.bdse.kv;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.Test;
+import ru.csc.bdse.kv.offheap.ArenaStats;
+import ru.csc.bdse.kv.offheap.OffHeapKeyValueApi;
+
+import java.util.Arrays;
+
+public class OffHeapKeyValueApiTest extends AbstractKeyValueApiTest {
+
+    @Override
+    protected KeyValueApi newKeyValueApi() {
+        return new OffHeapKeyValueApi("node");
+    }
+
+    @Test
+    public void compactSparseSlabs() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        OffHeapKeyValueApi api = new OffHeapKeyValueApi("node");
+        int count = 100_000;
+        for (int i = 0; i < count; i++) {
+            api.put("key" + i, value(i, 20));
+        }
+        api.put("large", value(7, 3 * 1024 * 1024));
+        for (int i = 0; i < count; i++) {
+            if (i % 10 != 0) {
+                api.delete("key" + i);
+            }
+        }
+        ArenaStats before = api.getArenaStats();
+
+        api.compact();
+        ArenaStats after = api.getArenaStats();
+
+        softAssert.assertThat(after.getReservedBytes()).as("reserved").isLessThan(before.getReservedBytes());
+        softAssert.assertThat(after.getPayloadBytes()).as("payload").isEqualTo(before.getPayloadBytes());
+        softAssert.assertThat(after.getExternalFragmentation()).as("external fragmentation")
+                .isLessThan(before.getExternalFragmentation());
+        for (int i = 0; i < count; i += 10) {
+            softAssert.assertThat(api.get("key" + i).orElse(null)).as("key" + i).isEqualTo(value(i, 20));
+        }
+        softAssert.assertThat(api.get("large").orElse(null)).as("large").isEqualTo(value(7, 3 * 1024 * 1024));
+
+        softAssert.assertAll();
+    }
+
+    private static byte[] value(int seed, int length) {
+        byte[] value = new byte[length];
+        Arrays.fill(value, (byte) seed);
+        return value;
+    }
+}
@@ -0,0 +1,288 @@
+package ru.csc.bdse.kv;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.Test;
+import ru.csc.bdse.kv.cluster.ReplicatedKeyValueApi;
+import ru.csc.bdse.util.Random;
+
+import java.util.*;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+import static org.assertj.core.api.Java6Assertions.fail;
+
+/**
+ * Runs the replicating coordinator with n = 3, w = 2, r = 2 over in-memory storages
+ * which can be switched off to imitate a stopped node.
+ */
+public class ReplicatedKeyValueApiTest extends AbstractKeyValueApiTest {
+
+    private static Map<String, SwitchableKeyValueApi> newReplicas() {
+        Map<String, SwitchableKeyValueApi> replicas = new LinkedHashMap<>();
+        for (int i = 0; i < 3; i++) {
+            replicas.put("replica-" + i, new SwitchableKeyValueApi(new InMemoryKeyValueApi("node-" + i)));
+        }
+        return replicas;
+    }
+
+    @Override
+    protected KeyValueApi newKeyValueApi() {
+        return new ReplicatedKeyValueApi(newReplicas(), 3, 2, 2);
+    }
+
+    @Override
+    @Test
+    public void getClusterInfoValue() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        Map<String, SwitchableKeyValueApi> replicas = newReplicas();
+        KeyValueApi api = new ReplicatedKeyValueApi(replicas, 3, 2, 2);
+        replicas.get("replica-1").down = true;
+
+        Map<String, NodeStatus> statuses = new HashMap<>();
+        api.getInfo().forEach(info -> statuses.put(info.getName(), info.getStatus()));
+        softAssert.assertThat(statuses).as("statuses").containsOnlyKeys("node-0", "replica-1", "node-2");
+        softAssert.assertThat(statuses.get("node-0")).as("up replica").isEqualTo(NodeStatus.UP);
+        softAssert.assertThat(statuses.get("replica-1")).as("down replica").isEqualTo(NodeStatus.DOWN);
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void putAndGetWithStoppedReplica() throws InterruptedException {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        Map<String, SwitchableKeyValueApi> replicas = newReplicas();
+        ReplicatedKeyValueApi api = new ReplicatedKeyValueApi(replicas, 3, 2, 2);
+        SwitchableKeyValueApi stopped = replicas.get("replica-2");
+        String key = Random.nextKey();
+        byte[] value = Random.nextValue();
+
+        stopped.down = true;
+        api.put(key, value);
+        softAssert.assertThat(api.get(key).orElse(null)).as("value with stopped replica").isEqualTo(value);
+
+        stopped.down = false;
+        softAssert.assertThat(stopped.get(key).isPresent()).as("missed write").isFalse();
+        softAssert.assertThat(api.get(key).orElse(null)).as("value after restart").isEqualTo(value);
+        for (int i = 0; i < 100 && !stopped.get(key).isPresent(); i++) {
+            Thread.sleep(10);
+        }
+        softAssert.assertThat(stopped.get(key).isPresent()).as("repaired replica").isTrue();
+        softAssert.assertThat(api.getReadRepairCount()).as("read repairs").isEqualTo(1);
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void missedWritesAreHandedOff() throws InterruptedException {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        Map<String, SwitchableKeyValueApi> replicas = newReplicas();
+        ReplicatedKeyValueApi api = new ReplicatedKeyValueApi(replicas, 3, 2, 2);
+        SwitchableKeyValueApi stopped = replicas.get("replica-1");
+        String key = Random.nextKey();
+        String deleted = Random.nextKey();
+        byte[] value = Random.nextValue();
+
+        api.put(deleted, Random.nextValue());
+        stopped.down = true;
+        api.put(key, value);
+        api.delete(deleted);
+        Thread.sleep(1500);
+        softAssert.assertThat(api.getPendingHintCount()).as("hints while down").isEqualTo(2);
+
+        stopped.down = false;
+        for (int i = 0; i < 50 && api.getPendingHintCount() > 0; i++) {
+            Thread.sleep(100);
+        }
+        softAssert.assertThat(api.getPendingHintCount()).as("hints after restart").isEqualTo(0);
+        softAssert.assertThat(api.getReplayedHintCount()).as("replayed hints").isEqualTo(2);
+        softAssert.assertThat(api.getReadRepairCount()).as("read repairs").isEqualTo(0);
+
+        replicas.get("replica-0").down = true;
+        softAssert.assertThat(api.get(key).orElse(null)).as("value from rejoined replica").isEqualTo(value);
+        softAssert.assertThat(api.get(deleted).isPresent()).as("deletion on rejoined replica").isFalse();
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void handoffKeepsNewerWrite() throws InterruptedException {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        Map<String, SwitchableKeyValueApi> replicas = newReplicas();
+        ReplicatedKeyValueApi api = new ReplicatedKeyValueApi(replicas, 3, 2, 2);
+        ReplicatedKeyValueApi other = new ReplicatedKeyValueApi(replicas, 3, 2, 2);
+        SwitchableKeyValueApi stopped = replicas.get("replica-1");
+        String key = Random.nextKey();
+        byte[] newer = Random.nextValue();
+
+        stopped.down = true;
+        api.put(key, Random.nextValue());
+        // versions come from the wall clocks of the coordinators
+        Thread.sleep(10);
+        // another coordinator writes after the replay read the replica and before it writes the hint
+        stopped.afterVersionedRead = () -> other.put(key, newer);
+        stopped.down = false;
+        for (int i = 0; i < 50 && api.getPendingHintCount() > 0; i++) {
+            Thread.sleep(100);
+        }
+        softAssert.assertThat(api.getPendingHintCount()).as("hints after restart").isEqualTo(0);
+        softAssert.assertThat(api.getReplayedHintCount()).as("replayed hints").isEqualTo(0);
+
+        KeyValueApi rejoined = new ReplicatedKeyValueApi(Collections.singletonMap("replica-1", stopped), 1, 1, 1);
+        softAssert.assertThat(rejoined.get(key).orElse(null)).as("value on rejoined replica").isEqualTo(newer);
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void lateWriteKeepsNewerVersion() throws InterruptedException {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        Map<String, SwitchableKeyValueApi> replicas = newReplicas();
+        ReplicatedKeyValueApi api = new ReplicatedKeyValueApi(replicas, 3, 2, 2);
+        ReplicatedKeyValueApi other = new ReplicatedKeyValueApi(replicas, 3, 2, 2);
+        SwitchableKeyValueApi slow = replicas.get("replica-0");
+        String key = Random.nextKey();
+        byte[] newer = Random.nextValue();
+
+        // another coordinator writes a newer version before the older write reaches the replica
+        slow.afterVersionedRead = () -> {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            other.put(key, newer);
+        };
+        api.put(key, Random.nextValue());
+
+        KeyValueApi single = new ReplicatedKeyValueApi(Collections.singletonMap("replica-0", slow), 1, 1, 1);
+        for (int i = 0; i < 50 && !Arrays.equals(single.get(key).orElse(null), newer); i++) {
+            Thread.sleep(100);
+        }
+        softAssert.assertThat(single.get(key).orElse(null)).as("value on slow replica").isEqualTo(newer);
+        softAssert.assertThat(api.get(key).orElse(null)).as("value").isEqualTo(newer);
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void deleteIsNotUndoneByStaleReplica() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        Map<String, SwitchableKeyValueApi> replicas = newReplicas();
+        KeyValueApi api = new ReplicatedKeyValueApi(replicas, 3, 2, 2);
+        String key = Random.nextKey();
+
+        api.put(key, Random.nextValue());
+        replicas.get("replica-0").down = true;
+        api.delete(key);
+        replicas.get("replica-0").down = false;
+        replicas.get("replica-1").down = true;
+
+        softAssert.assertThat(api.get(key).isPresent()).as("deleted value").isFalse();
+        softAssert.assertThat(api.getKeys(key)).as("deleted key").isEmpty();
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void failWithoutQuorum() {
+        Map<String, SwitchableKeyValueApi> replicas = newReplicas();
+        KeyValueApi api = new ReplicatedKeyValueApi(replicas, 3, 2, 2);
+        replicas.get("replica-0").down = true;
+        replicas.get("replica-1").down = true;
+
+        try {
+            api.put(Random.nextKey(), Random.nextValue());
+            fail("put without quorum");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage()).as("error").contains("quorum not reached");
+        }
+    }
+
+    /**
+     * Fails every call while it is down, as a client of a stopped node does.
+     */
+    private static class SwitchableKeyValueApi implements KeyValueApi {
+
+        private final KeyValueApi delegate;
+        private volatile boolean down;
+        /**
+         * Run once after the next versioned read, e.g. to slip a write in before a conditional put.
+         */
+        private volatile Runnable afterVersionedRead;
+
+        private SwitchableKeyValueApi(KeyValueApi delegate) {
+            this.delegate = delegate;
+        }
+
+        private KeyValueApi delegate() {
+            if (down) throw new RuntimeException("node is down");
+            return delegate;
+        }
+
+        @Override
+        public void put(String key, byte[] value) {
+            delegate().put(key, value);
+        }
+
+        @Override
+        public Optional<byte[]> get(String key) {
+            return delegate().get(key);
+        }
+
+        @Override
+        public Optional<VersionedValue> getVersioned(String key) {
+            Optional<VersionedValue> value = delegate().getVersioned(key);
+            Runnable hook = afterVersionedRead;
+            afterVersionedRead = null;
+            if (hook != null) {
+                hook.run();
+            }
+            return value;
+        }
+
+        @Override
+        public OptionalLong putIfAbsent(String key, byte[] value) {
+            return delegate().putIfAbsent(key, value);
+        }
+
+        @Override
+        public OptionalLong putIfVersion(String key, byte[] value, long version) {
+            return delegate().putIfVersion(key, value, version);
+        }
+
+        @Override
+        public Set<String> getKeys(String prefix) {
+            return delegate().getKeys(prefix);
+        }
+
+        @Override
+        public List<String> getKeys(String prefix, String after, int limit) {
+            return delegate().getKeys(prefix, after, limit);
+        }
+
+        @Override
+        public void delete(String key) {
+            delegate().delete(key);
+        }
+
+        @Override
+        public Map<String, byte[]> getAll(Collection<String> keys) {
+            return delegate().getAll(keys);
+        }
+
+        @Override
+        public Set<NodeInfo> getInfo() {
+            return delegate().getInfo();
+        }
+
+        @Override
+        public void action(String node, NodeAction action) {
+            delegate().action(node, action);
+        }
+    }
+}
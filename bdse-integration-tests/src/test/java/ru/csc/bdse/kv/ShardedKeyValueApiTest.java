@@ -0,0 +1,85 @@
+package ru.csc.bdse.kv;
+
+import org.assertj.core.api.SoftAssertions;
+import org.junit.Test;
+import ru.csc.bdse.kv.cluster.ConsistentHashRing;
+import ru.csc.bdse.kv.cluster.ShardedKeyValueApi;
+import ru.csc.bdse.util.Random;
+
+import java.util.*;
+
+import static org.assertj.core.api.Java6Assertions.assertThat;
+
+/**
+ * Runs the sharding coordinator over in-memory storages standing in for remote nodes.
+ */
+public class ShardedKeyValueApiTest extends AbstractKeyValueApiTest {
+
+    private static Map<String, KeyValueApi> newShards(int count) {
+        Map<String, KeyValueApi> shards = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            shards.put("shard-" + i, new InMemoryKeyValueApi("node-" + i));
+        }
+        return shards;
+    }
+
+    @Override
+    protected KeyValueApi newKeyValueApi() {
+        return new ShardedKeyValueApi(newShards(4));
+    }
+
+    @Test
+    public void keysAreSpreadAcrossShards() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        Map<String, KeyValueApi> shards = newShards(4);
+        ShardedKeyValueApi api = new ShardedKeyValueApi(shards);
+        Set<String> keys = new HashSet<>();
+        for (int i = 0; i < 4000; i++) {
+            String key = Random.nextKey();
+            keys.add(key);
+            api.put(key, Random.nextValue());
+        }
+
+        for (Map.Entry<String, KeyValueApi> shard : shards.entrySet()) {
+            Set<String> shardKeys = shard.getValue().getKeys("");
+            softAssert.assertThat(shardKeys.size()).as(shard.getKey() + " size").isBetween(600, 1400);
+            shardKeys.forEach(key -> softAssert.assertThat(api.shardIdFor(key)).as(key).isEqualTo(shard.getKey()));
+        }
+        softAssert.assertThat(api.getKeys("")).as("all keys").isEqualTo(keys);
+
+        softAssert.assertAll();
+    }
+
+    @Test
+    public void addingNodeMovesFewKeys() {
+        ConsistentHashRing before = new ConsistentHashRing(Arrays.asList("a", "b", "c", "d"), 128);
+        ConsistentHashRing after = new ConsistentHashRing(Arrays.asList("a", "b", "c", "d", "e"), 128);
+
+        int moved = 0;
+        for (int i = 0; i < 10000; i++) {
+            String key = Random.nextKey();
+            String owner = after.nodeFor(key);
+            if (!owner.equals(before.nodeFor(key))) {
+                moved++;
+                assertThat(owner).as("new owner").isEqualTo("e");
+            }
+        }
+        assertThat(moved).as("moved keys").isBetween(1200, 2800);
+    }
+
+    /**
+     * The coordinator reports every node of every shard.
+     */
+    @Override
+    @Test
+    public void getClusterInfoValue() {
+        SoftAssertions softAssert = new SoftAssertions();
+
+        Set<NodeInfo> info = newKeyValueApi().getInfo();
+        softAssert.assertThat(info).as("size").hasSize(4);
+        info.forEach(node -> softAssert.assertThat(node.getStatus()).as(node.getName()).isEqualTo(NodeStatus.UP));
+
+        softAssert.assertAll();
+    }
+}
@@ -1,13 +1,43 @@
 package ru.csc.bdse;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import ru.csc.bdse.kv.AsyncKeyValueApi;
+import ru.csc.bdse.kv.ExecutorAsyncKeyValueApi;
 import ru.csc.bdse.kv.InMemoryKeyValueApi;
 import ru.csc.bdse.kv.KeyValueApi;
+import ru.csc.bdse.kv.KeyValueApiHttpClient;
+import ru.csc.bdse.kv.ManagedKeyValueApi;
+import ru.csc.bdse.kv.admission.AdmissionControl;
+import ru.csc.bdse.kv.changelog.Changelog;
+import ru.csc.bdse.kv.changelog.ChangelogKeyValueApi;
+import ru.csc.bdse.kv.cluster.ReplicatedKeyValueApi;
+import ru.csc.bdse.kv.cluster.ShardedKeyValueApi;
+import ru.csc.bdse.kv.compact.CompactKeyValueApi;
+import ru.csc.bdse.kv.compress.Codec;
+import ru.csc.bdse.kv.compress.CompressingKeyValueApi;
+import ru.csc.bdse.kv.log.FsyncPolicy;
+import ru.csc.bdse.kv.log.LogKeyValueApi;
+import ru.csc.bdse.kv.merkle.MerkleKeyValueApi;
+import ru.csc.bdse.kv.metrics.MetricsKeyValueApi;
+import ru.csc.bdse.kv.lsm.LsmKeyValueApi;
+import ru.csc.bdse.kv.offheap.OffHeapKeyValueApi;
 import ru.csc.bdse.util.Env;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @SpringBootApplication
 public class Application {
@@ -20,9 +50,196 @@ public class Application {
         return "kvnode-" + UUID.randomUUID().toString().substring(4);
     }
 
+    private static Path dataDir() {
+        return Paths.get(Env.get(Env.KVNODE_DATA_DIR).orElse("data"));
+    }
+
+    /**
+     * File of {@link Env#KVNODE_SNAPSHOT}, {@code snapshot.bin} in the data directory by default.
+     */
+    @Bean
+    Path snapshotFile() {
+        return Env.get(Env.KVNODE_SNAPSHOT).map(Paths::get).orElseGet(() -> dataDir().resolve("snapshot.bin"));
+    }
+
+    /**
+     * Limits of reads, writes and scans in flight, {@code kvnode.admission-limits} is {@code reads,writes,scans}
+     * or {@code none}, see {@link AdmissionControl}.
+     */
+    @Bean
+    AdmissionControl admissionControl(@Value("${kvnode.admission-limits:1024,512,8}") String limits,
+                                      @Value("${kvnode.admission-latency-millis:100}") long latencyTargetMillis) {
+        if (limits.trim().equals("none")) {
+            return AdmissionControl.unlimited();
+        }
+        String[] parts = limits.split(",");
+        if (parts.length != 3) throw new IllegalArgumentException("admission limits should be reads,writes,scans");
+        return new AdmissionControl(Integer.parseInt(parts[0].trim()),
+                Integer.parseInt(parts[1].trim()),
+                Integer.parseInt(parts[2].trim()),
+                latencyTargetMillis);
+    }
+
+    private static FsyncPolicy fsyncPolicy() {
+        return FsyncPolicy.valueOf(Env.get(Env.KVNODE_FSYNC).orElse("interval").toUpperCase());
+    }
+
+    /**
+     * Coordinator over remote nodes listed in {@link Env#KVNODE_SHARDS}, their urls are ids of shards.
+     */
+    private static KeyValueApi shardedNode(String shards) {
+        Map<String, KeyValueApi> clients = new LinkedHashMap<>();
+        for (String url : shards.split(",")) {
+            if (!url.trim().isEmpty()) {
+                clients.put(url.trim(), new KeyValueApiHttpClient(url.trim()));
+            }
+        }
+        return new ShardedKeyValueApi(clients);
+    }
+
+    /**
+     * Coordinator over remote replicas listed in {@link Env#KVNODE_REPLICAS}, their urls are ids of replicas.
+     * {@link Env#KVNODE_QUORUM} is {@code n,w,r}, by default every key is on all replicas and quorums are majorities.
+     */
+    private static KeyValueApi replicatedNode(String replicas) {
+        Map<String, KeyValueApi> clients = new LinkedHashMap<>();
+        for (String url : replicas.split(",")) {
+            if (!url.trim().isEmpty()) {
+                clients.put(url.trim(), new KeyValueApiHttpClient(url.trim()));
+            }
+        }
+        int majority = clients.size() / 2 + 1;
+        String[] quorum = Env.get(Env.KVNODE_QUORUM).orElse(clients.size() + "," + majority + "," + majority).split(",");
+        if (quorum.length != 3) throw new IllegalArgumentException("quorum should be n,w,r");
+        return new ReplicatedKeyValueApi(clients,
+                Integer.parseInt(quorum[0].trim()),
+                Integer.parseInt(quorum[1].trim()),
+                Integer.parseInt(quorum[2].trim()));
+    }
+
+    /**
+     * The node is measured as a whole, see {@link MetricsKeyValueApi}, whatever it is.
+     */
     @Bean
-    KeyValueApi node() {
+    MetricsKeyValueApi node(Path snapshotFile,
+                            @Value("${kvnode.changelog:none}") String changelog,
+                            @Value("${kvnode.merkle-depth:0}") int merkleDepth) {
+        return new MetricsKeyValueApi(unmeasuredNode(snapshotFile, changelog, merkleDepth));
+    }
+
+    private static KeyValueApi unmeasuredNode(Path snapshotFile, String changelog, int merkleDepth) {
+        Optional<String> shards = Env.get(Env.KVNODE_SHARDS);
+        if (shards.isPresent()) {
+            return shardedNode(shards.get());
+        }
+        Optional<String> replicas = Env.get(Env.KVNODE_REPLICAS);
+        if (replicas.isPresent()) {
+            return replicatedNode(replicas.get());
+        }
         String nodeName = Env.get(Env.KVNODE_NAME).orElseGet(Application::randomNodeName);
-        return new InMemoryKeyValueApi(nodeName);
+        return new ManagedKeyValueApi(nodeName, merkled(changelogged(compressed(storage(nodeName, snapshotFile)), changelog), merkleDepth));
+    }
+
+    private static KeyValueApi storage(String nodeName, Path snapshotFile) {
+        String engine = Env.get(Env.KVNODE_ENGINE).orElse("memory");
+        switch (engine) {
+            case "memory":
+                return restored(new InMemoryKeyValueApi(nodeName), snapshotFile);
+            case "offheap":
+                return new OffHeapKeyValueApi(nodeName);
+            case "compact":
+                return new CompactKeyValueApi(nodeName);
+            case "log":
+                return new LogKeyValueApi(nodeName, dataDir(), fsyncPolicy());
+            case "lsm":
+                return new LsmKeyValueApi(nodeName, dataDir(), fsyncPolicy());
+            default:
+                throw new IllegalArgumentException("unknown engine: " + engine);
+        }
+    }
+
+    /**
+     * Compresses values with {@link Env#KVNODE_COMPRESSION}: {@code none} (by default), {@code deflate-fast}
+     * or {@code deflate}, values shorter than {@link Env#KVNODE_COMPRESSION_THRESHOLD} bytes stay as they are.
+     */
+    private static KeyValueApi compressed(KeyValueApi storage) {
+        Codec codec = Codec.valueOf(Env.get(Env.KVNODE_COMPRESSION).orElse("none").toUpperCase().replace('-', '_'));
+        if (codec == Codec.NONE) {
+            return storage;
+        }
+        int threshold = Env.get(Env.KVNODE_COMPRESSION_THRESHOLD)
+                .map(Integer::parseInt)
+                .orElse(CompressingKeyValueApi.DEFAULT_THRESHOLD_BYTES);
+        return new CompressingKeyValueApi(storage, codec, threshold);
+    }
+
+    /**
+     * Records changes for {@code GET /changes} with {@code kvnode.changelog}, {@link Env#KVNODE_CHANGELOG}
+     * in the environment: {@code none} (by default), {@code memory}, or {@code disk} to keep the log
+     * in {@code changelog.bin} of the data directory across restarts. The log serializes writes and keeps
+     * overwritten values alive, so it is turned on only for nodes whose changes are followed.
+     */
+    private static KeyValueApi changelogged(KeyValueApi storage, String changelog) {
+        switch (changelog) {
+            case "none":
+                return storage;
+            case "memory":
+                return new ChangelogKeyValueApi(storage, new Changelog());
+            case "disk":
+                try {
+                    return new ChangelogKeyValueApi(storage, new Changelog(Changelog.DEFAULT_CAPACITY,
+                            Changelog.DEFAULT_MAX_BYTES, dataDir().resolve("changelog.bin")));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            default:
+                throw new IllegalArgumentException("unknown changelog: " + changelog);
+        }
+    }
+
+    /**
+     * Keeps a Merkle tree of {@code kvnode.merkle-depth} levels, {@link Env#KVNODE_MERKLE_DEPTH} in the environment,
+     * for anti-entropy sync of replicas. The tree costs a read of the old value on every write, so it is off
+     * ({@code 0}) by default and should be turned on only on nodes which take part in the sync,
+     * e.g. with {@link MerkleKeyValueApi#DEFAULT_DEPTH}.
+     */
+    private static KeyValueApi merkled(KeyValueApi storage, int depth) {
+        return depth == 0 ? storage : new MerkleKeyValueApi(storage, depth);
+    }
+
+    /**
+     * Loads the snapshot if there is one, so that the node starts with the state it had when the snapshot was taken.
+     */
+    private static KeyValueApi restored(InMemoryKeyValueApi storage, Path snapshotFile) {
+        if (Files.exists(snapshotFile)) {
+            try {
+                storage.restore(snapshotFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return storage;
+    }
+
+    /**
+     * Runs operations of blocking engines, so that request threads are not held while the engine works.
+     */
+    @Bean(destroyMethod = "shutdown")
+    ExecutorService storageExecutor() {
+        int threads = Integer.parseInt(Env.get(Env.KVNODE_STORAGE_THREADS).orElse("64"));
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "storage-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Bean
+    AsyncKeyValueApi asyncNode(KeyValueApi node, ExecutorService storageExecutor) {
+        if (node instanceof AsyncKeyValueApi) {
+            return (AsyncKeyValueApi) node;
+        }
+        return new ExecutorAsyncKeyValueApi(node, storageExecutor);
     }
 }
@@ -0,0 +1,98 @@
+package ru.csc.bdse.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import ru.csc.bdse.kv.KeyValueApi;
+import ru.csc.bdse.kv.KeyValueApiHttpClient;
+import ru.csc.bdse.kv.merkle.AntiEntropySync;
+import ru.csc.bdse.kv.merkle.MerkleKeyValueApi;
+import ru.csc.bdse.kv.merkle.SyncMode;
+import ru.csc.bdse.kv.merkle.SyncReport;
+import ru.csc.bdse.kv.metrics.MetricsKeyValueApi;
+import ru.csc.bdse.kv.snapshot.SnapshotInfo;
+import ru.csc.bdse.kv.snapshot.Snapshottable;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * Provides HTTP API for administration of the storage unit: snapshot and restore of the whole state
+ * to and from the snapshot file of the node, {@code KVNODE_SNAPSHOT} in the environment, and anti-entropy sync
+ * with another replica.
+ */
+@RestController
+public class AdminController {
+
+    private final MetricsKeyValueApi node;
+    private final Path snapshotFile;
+
+    public AdminController(final MetricsKeyValueApi node, final Path snapshotFile) {
+        this.node = node;
+        this.snapshotFile = snapshotFile;
+    }
+
+    @RequestMapping(method = RequestMethod.POST, value = "/admin/snapshot", produces = MediaType.APPLICATION_JSON_VALUE)
+    public SnapshotInfo snapshot() throws IOException {
+        return snapshottable().snapshot(snapshotFile);
+    }
+
+    /**
+     * Replaces the state of the node with the snapshot, the node should be taken down with {@code /action} first.
+     */
+    @RequestMapping(method = RequestMethod.POST, value = "/admin/restore", produces = MediaType.APPLICATION_JSON_VALUE)
+    public SnapshotInfo restore() throws IOException {
+        final SnapshotInfo info = snapshottable().restore(snapshotFile);
+        Storages.find(node, MerkleKeyValueApi.class).ifPresent(MerkleKeyValueApi::rebuild);
+        return info;
+    }
+
+    /**
+     * Repairs the node from the replica at {@code from}, see {@link AntiEntropySync}: by default entries which
+     * are newer there are copied from it, {@code mode=source_wins} makes the node a copy of it for unversioned
+     * values, see {@link SyncMode}. Both nodes have to keep Merkle trees of the same depth.
+     */
+    @RequestMapping(method = RequestMethod.POST, value = "/admin/sync", produces = MediaType.APPLICATION_JSON_VALUE)
+    public SyncReport sync(@RequestParam("from") final String from,
+                           @RequestParam(value = "mode", defaultValue = "newer_wins") final String mode)
+            throws IOException {
+        final SyncMode syncMode = SyncMode.valueOf(mode.toUpperCase().replace('-', '_'));
+        final MerkleKeyValueApi merkle = Storages.find(node, MerkleKeyValueApi.class)
+                .orElseThrow(() -> new UnsupportedOperationException("anti-entropy is off"));
+        try (KeyValueApiHttpClient source = new KeyValueApiHttpClient(from)) {
+            return new AntiEntropySync(source, source, node, merkle, syncMode).run();
+        }
+    }
+
+    private Snapshottable snapshottable() {
+        final KeyValueApi engine = Storages.engine(node);
+        if (!(engine instanceof Snapshottable)) {
+            throw new UnsupportedOperationException("snapshots are not supported by " + engine.getClass().getSimpleName());
+        }
+        return (Snapshottable) engine;
+    }
+
+    @ExceptionHandler(NoSuchFileException.class)
+    @ResponseStatus(HttpStatus.NOT_FOUND)
+    public String handle(NoSuchFileException e) {
+        return "no snapshot: " + e.getMessage();
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public String handle(IllegalArgumentException e) {
+        return e.getMessage();
+    }
+
+    @ExceptionHandler(UnsupportedOperationException.class)
+    @ResponseStatus(HttpStatus.NOT_IMPLEMENTED)
+    public String handle(UnsupportedOperationException e) {
+        return e.getMessage();
+    }
+}
@@ -0,0 +1,14 @@
+package ru.csc.bdse.controller;
+
+/**
+ * Thrown when a request carries a value or a body above the configured limit, answered with 413.
+ */
+class BodyTooLargeException extends RuntimeException {
+
+    /**
+     * @param what what is too large, e.g. {@code "value"}
+     */
+    BodyTooLargeException(final String what, final long limit) {
+        super(what + " is larger than " + limit + " bytes");
+    }
+}
@@ -0,0 +1,54 @@
+package ru.csc.bdse.controller;
+
+import org.springframework.core.io.AbstractResource;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Resource over a buffer, lets the response be written straight from the storage's memory
+ * by {@code ResourceHttpMessageConverter} in small chunks instead of an intermediate array of the whole value.
+ */
+final class ByteBufferResource extends AbstractResource {
+
+    private final ByteBuffer buffer;
+
+    ByteBufferResource(final ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public String getDescription() {
+        return "value of " + buffer.remaining() + " bytes";
+    }
+
+    @Override
+    public long contentLength() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        final ByteBuffer view = buffer.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return view.hasRemaining() ? view.get() & 0xFF : -1;
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) {
+                if (len == 0) return 0;
+                if (!view.hasRemaining()) return -1;
+                final int count = Math.min(len, view.remaining());
+                view.get(b, off, count);
+                return count;
+            }
+
+            @Override
+            public int available() {
+                return view.remaining();
+            }
+        };
+    }
+}
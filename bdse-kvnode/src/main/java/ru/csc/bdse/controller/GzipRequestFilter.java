@@ -0,0 +1,168 @@
+package ru.csc.bdse.controller;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Unpacks request bodies sent with {@code Content-Encoding: gzip}, so controllers always see plain bytes.
+ * Unpacking stops with 413 past the limit, so a small compressed body can not fill the heap.
+ * Responses are compressed by the servlet container, see {@code server.compression} properties.
+ */
+@Component
+public class GzipRequestFilter extends OncePerRequestFilter {
+
+    private final long maxInflatedBytes;
+
+    /**
+     * @param maxInflatedBytes limit of an unpacked body, {@code KVNODE_MAX_INFLATED_BYTES} in the environment
+     */
+    public GzipRequestFilter(@Value("${kvnode.max-inflated-bytes:" + KeyValueApiController.DEFAULT_MAX_BATCH_BYTES + "}")
+                             final long maxInflatedBytes) {
+        if (maxInflatedBytes <= 0) throw new IllegalArgumentException("non-positive inflated limit");
+        this.maxInflatedBytes = maxInflatedBytes;
+    }
+
+    @Override
+    protected void doFilterInternal(final HttpServletRequest request,
+                                    final HttpServletResponse response,
+                                    final FilterChain chain) throws ServletException, IOException {
+        if ("gzip".equalsIgnoreCase(request.getHeader(HttpHeaders.CONTENT_ENCODING))) {
+            chain.doFilter(new GzipRequest(request, maxInflatedBytes), response);
+        } else {
+            chain.doFilter(request, response);
+        }
+    }
+
+    private static final class GzipRequest extends HttpServletRequestWrapper {
+
+        private final long maxInflatedBytes;
+
+        private GzipRequest(final HttpServletRequest request, final long maxInflatedBytes) {
+            super(request);
+            this.maxInflatedBytes = maxInflatedBytes;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            return new GzipInputStream(new GZIPInputStream(super.getInputStream(), 8192), maxInflatedBytes);
+        }
+
+        @Override
+        public int getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return -1;
+        }
+
+        @Override
+        public String getHeader(final String name) {
+            return isHidden(name) ? null : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(final String name) {
+            return isHidden(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            final Enumeration<String> names = super.getHeaderNames();
+            final List<String> visible = new ArrayList<>();
+            while (names.hasMoreElements()) {
+                final String name = names.nextElement();
+                if (!isHidden(name)) {
+                    visible.add(name);
+                }
+            }
+            return Collections.enumeration(visible);
+        }
+
+        /**
+         * Length and encoding describe the compressed body, they are wrong for the unpacked one.
+         */
+        private static boolean isHidden(final String name) {
+            return HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)
+                    || HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name);
+        }
+    }
+
+    private static final class GzipInputStream extends ServletInputStream {
+
+        private final InputStream in;
+        private final long maxInflatedBytes;
+        private long inflated;
+        private boolean finished;
+
+        private GzipInputStream(final InputStream in, final long maxInflatedBytes) {
+            this.in = in;
+            this.maxInflatedBytes = maxInflatedBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = in.read();
+            finished = b < 0;
+            if (!finished) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = in.read(b, off, len);
+            finished = read < 0;
+            if (!finished) {
+                count(read);
+            }
+            return read;
+        }
+
+        private void count(final int read) {
+            inflated += read;
+            if (inflated > maxInflatedBytes) {
+                throw new BodyTooLargeException("unpacked body", maxInflatedBytes);
+            }
+        }
+
+        @Override
+        public boolean isFinished() {
+            return finished;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(final ReadListener readListener) {
+            throw new UnsupportedOperationException("non-blocking reads of gzipped body");
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
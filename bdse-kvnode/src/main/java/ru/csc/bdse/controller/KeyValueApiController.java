@@ -1,59 +1,439 @@
 package ru.csc.bdse.controller;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import ru.csc.bdse.kv.AsyncKeyValueApi;
+import ru.csc.bdse.kv.BatchCodec;
+import ru.csc.bdse.kv.Deadline;
+import ru.csc.bdse.kv.DeadlineExceededException;
 import ru.csc.bdse.kv.KeyValueApi;
+import ru.csc.bdse.kv.ManagedKeyValueApi;
 import ru.csc.bdse.kv.NodeAction;
+import ru.csc.bdse.kv.NodeDownException;
 import ru.csc.bdse.kv.NodeInfo;
+import ru.csc.bdse.kv.NodeOverloadedException;
+import ru.csc.bdse.kv.VersionedValue;
+import ru.csc.bdse.kv.admission.AdmissionControl;
+import ru.csc.bdse.kv.admission.RequestClass;
+import ru.csc.bdse.kv.changelog.Changelog;
+import ru.csc.bdse.kv.changelog.ChangelogKeyValueApi;
+import ru.csc.bdse.kv.changelog.TruncatedChangelogException;
+import ru.csc.bdse.kv.merkle.MerkleKeyValueApi;
+import ru.csc.bdse.util.ETag;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * Provides HTTP API for the storage unit
+ * <p>
+ * Single-key, batch, info and action requests are served asynchronously: the request thread is released
+ * as soon as the operation is submitted to {@link AsyncKeyValueApi}, and the response is written when it completes.
+ * Key listing streams the response by pages, so it keeps the request thread. Consumers follow changes of the node
+ * by long polling, see {@link #getChanges}. Replicas find where they diverge through the Merkle tree endpoints.
+ * These reach decorators of the storage directly, but are refused with 503 while the node is down, as other requests
+ * are, see {@link ManagedKeyValueApi}.
+ * Values are read into an array of their declared size and written back from the storage's buffer,
+ * see {@link #put} and {@link #get}.
+ * Reads, writes and scans are admitted under separate limits of {@link AdmissionControl}, requests above them are
+ * refused with 429 at once.
  *
  * @author semkagtn
  */
 @RestController
 public class KeyValueApiController {
 
+    public static final int DEFAULT_MAX_VALUE_BYTES = 64 * 1024 * 1024;
+    public static final int DEFAULT_MAX_BATCH_BYTES = DEFAULT_MAX_VALUE_BYTES + 16 * 1024 * 1024;
+
+    public static final long MAX_CHANGES_TIMEOUT_MILLIS = 20_000;
+
+    private static final int KEYS_PAGE_SIZE = 1000;
+    private static final JsonFactory JSON = new JsonFactory();
+
     private final KeyValueApi keyValueApi;
+    private final AsyncKeyValueApi asyncKeyValueApi;
+    private final AdmissionControl admission;
+    private final int maxValueBytes;
+    private final int maxBatchBytes;
 
-    public KeyValueApiController(final KeyValueApi keyValueApi) {
+    /**
+     * @param maxValueBytes limit of a single value, {@code KVNODE_MAX_VALUE_BYTES} in the environment
+     * @param maxBatchBytes limit of a batch body, {@code KVNODE_MAX_BATCH_BYTES} in the environment, it should leave
+     *                      room for a value at its limit, which clients send as a batch of its own
+     */
+    public KeyValueApiController(final KeyValueApi keyValueApi,
+                                 final AsyncKeyValueApi asyncKeyValueApi,
+                                 final AdmissionControl admission,
+                                 @Value("${kvnode.max-value-bytes:" + DEFAULT_MAX_VALUE_BYTES + "}") final int maxValueBytes,
+                                 @Value("${kvnode.max-batch-bytes:" + DEFAULT_MAX_BATCH_BYTES + "}") final int maxBatchBytes) {
+        if (maxValueBytes <= 0) throw new IllegalArgumentException("non-positive value limit");
+        if (maxBatchBytes <= 0) throw new IllegalArgumentException("non-positive batch limit");
         this.keyValueApi = keyValueApi;
+        this.asyncKeyValueApi = asyncKeyValueApi;
+        this.admission = admission;
+        this.maxValueBytes = maxValueBytes;
+        this.maxBatchBytes = maxBatchBytes;
     }
 
+    /**
+     * Puts the value unconditionally or, with {@code If-None-Match: *}, only if the key has no value,
+     * or, with {@code If-Match} of a version returned by GET, only if the value was not changed since.
+     * A conditional put answers with the new version in {@code ETag} or with 412 if the condition failed.
+     * With {@code ttl} in milliseconds the key expires after that time, the ttl cannot be combined with conditions.
+     * Values above the limit are refused with 413 before their body is read when the length is declared.
+     */
     @RequestMapping(method = RequestMethod.PUT, value = "/key-value/{key}")
-    public void put(@PathVariable final String key,
-                    @RequestBody final byte[] value) {
-        keyValueApi.put(key, value);
+    public DeferredResult<ResponseEntity<Void>> put(@PathVariable final String key,
+                                                    @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) final String ifMatch,
+                                                    @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) final String ifNoneMatch,
+                                                    @RequestParam(value = "ttl", required = false) final Long ttlMillis,
+                                                    final HttpServletRequest request) throws IOException {
+        if (ifMatch != null && ifNoneMatch != null) {
+            throw new IllegalArgumentException("both If-Match and If-None-Match");
+        }
+        if (ttlMillis != null && (ifMatch != null || ifNoneMatch != null)) {
+            throw new IllegalArgumentException("ttl of a conditional put");
+        }
+        if (ifNoneMatch != null && !"*".equals(ifNoneMatch.trim())) {
+            throw new IllegalArgumentException("If-None-Match other than *");
+        }
+        final Long version = ifMatch == null ? null : ETag.parse(ifMatch);
+        final AdmissionControl.Permit permit = admission.acquire(RequestClass.WRITE);
+        final CompletableFuture<ResponseEntity<Void>> put;
+        try {
+            final byte[] value = readBody(request, maxValueBytes, "value");
+            if (ifNoneMatch != null) {
+                put = asyncKeyValueApi.putIfAbsentAsync(key, value).thenApply(KeyValueApiController::conditional);
+            } else if (version != null) {
+                put = asyncKeyValueApi.putIfVersionAsync(key, value, version).thenApply(KeyValueApiController::conditional);
+            } else {
+                put = (ttlMillis == null
+                        ? asyncKeyValueApi.putAsync(key, value)
+                        : asyncKeyValueApi.putAsync(key, value, ttlMillis)).thenApply(ignored -> ResponseEntity.ok().build());
+            }
+        } catch (IOException | RuntimeException e) {
+            permit.release();
+            throw e;
+        }
+        return deferred(put.whenComplete((result, e) -> permit.release()));
     }
 
+    /**
+     * Returns the value with its version in {@code ETag} if the storage versions values.
+     * The value is written from the buffer the storage returned, e.g. straight from a memory-mapped file.
+     * With a timeout in {@value Deadline#HEADER} the read is abandoned with 504 once the timeout passes,
+     * the client has given up on it by then.
+     */
     @RequestMapping(method = RequestMethod.GET, value = "/key-value/{key}")
-    public byte[] get(@PathVariable final String key) {
-        return keyValueApi.get(key)
-                .orElseThrow(() -> new NoSuchElementException(key));
+    public DeferredResult<ResponseEntity<Resource>> get(@PathVariable final String key,
+                                                        @RequestHeader(value = Deadline.HEADER, required = false) final Long timeoutMillis) {
+        final Deadline deadline = deadline(timeoutMillis);
+        final AsyncKeyValueApi reads = deadline == null ? asyncKeyValueApi : asyncKeyValueApi.withDeadline(deadline);
+        return deferred(admitted(RequestClass.READ, () -> reads.getVersionedAsync(key)).thenApply(versioned -> {
+            final VersionedValue value = versioned.orElseThrow(() -> new NoSuchElementException(key));
+            final ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .contentLength(value.getLength());
+            if (value.hasVersion()) {
+                response.eTag(ETag.format(value.getVersion()));
+            }
+            return response.body(new ByteBufferResource(value.getBuffer()));
+        }), deadline);
     }
 
+    /**
+     * Writes JSON array of keys with specified prefix in ascending order. Keys are streamed from the storage,
+     * see {@link KeyValueApi#streamKeys(String, String, int)}, and written by pages, so the response is streamed and
+     * only storages which cannot page cheaply hold the whole listing in memory.
+     * With {@code limit} only one page is returned, the next one starts after the last returned key.
+     * The listing keeps a request thread, so only a few of them are admitted at a time.
+     */
     @RequestMapping(method = RequestMethod.GET, value = "/key-value")
-    public Set<String> getKeys(@RequestParam("prefix") String prefix) {
-        return keyValueApi.getKeys(prefix);
+    public void getKeys(@RequestParam("prefix") final String prefix,
+                        @RequestParam(value = "after", required = false) final String after,
+                        @RequestParam(value = "limit", required = false) final Integer limit,
+                        final HttpServletResponse response) throws IOException {
+        if (limit != null && limit <= 0) throw new IllegalArgumentException("non-positive limit");
+        final AdmissionControl.Permit permit = admission.acquire(RequestClass.SCAN);
+        try {
+            writeKeys(prefix, after, limit, response);
+        } finally {
+            permit.release();
+        }
+    }
+
+    private void writeKeys(final String prefix,
+                           final String after,
+                           final Integer limit,
+                           final HttpServletResponse response) throws IOException {
+        final int pageSize = limit == null ? KEYS_PAGE_SIZE : Math.min(limit, KEYS_PAGE_SIZE);
+        try (Stream<String> listed = keyValueApi.streamKeys(prefix, after, pageSize)) {
+            final Iterator<String> keys = (limit == null ? listed : listed.limit(limit)).iterator();
+            // the first page is fetched before the response is committed, so its failure gets its own status
+            keys.hasNext();
+
+            response.setContentType(MediaType.APPLICATION_JSON_UTF8_VALUE);
+            try (JsonGenerator json = JSON.createGenerator(response.getOutputStream())) {
+                json.writeStartArray();
+                for (int written = 1; keys.hasNext(); written++) {
+                    json.writeString(keys.next());
+                    if (written % KEYS_PAGE_SIZE == 0) {
+                        json.flush();
+                    }
+                }
+                json.writeEndArray();
+            }
+        }
     }
 
     @RequestMapping(method = RequestMethod.DELETE, value = "/key-value/{key}")
-    public void delete(@PathVariable final String key) {
-        keyValueApi.delete(key);
+    public DeferredResult<Void> delete(@PathVariable final String key) {
+        return deferred(admitted(RequestClass.WRITE, () -> asyncKeyValueApi.deleteAsync(key)));
+    }
+
+    /**
+     * Batch bodies above the limit are refused with 413, before they are read when the length is declared.
+     */
+    @RequestMapping(method = RequestMethod.POST, value = "/batch/put")
+    public DeferredResult<Void> putAll(final HttpServletRequest request) throws IOException {
+        final byte[] entries = readBody(request, maxBatchBytes, "batch");
+        return deferred(admitted(RequestClass.WRITE, () -> asyncKeyValueApi.putAllAsync(BatchCodec.decodeEntries(entries))));
+    }
+
+    /**
+     * Returns values of the keys, with {@code head} only that many first bytes of each value,
+     * see {@link KeyValueApi#getAllHeads}.
+     */
+    @RequestMapping(method = RequestMethod.POST, value = "/batch/get", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public DeferredResult<byte[]> getAll(@RequestParam(value = "head", required = false) final Integer headBytes,
+                                         @RequestHeader(value = Deadline.HEADER, required = false) final Long timeoutMillis,
+                                         final HttpServletRequest request) throws IOException {
+        if (headBytes != null && headBytes < 0) throw new IllegalArgumentException("negative head");
+        final byte[] keys = readBody(request, maxBatchBytes, "batch");
+        final Deadline deadline = deadline(timeoutMillis);
+        final AsyncKeyValueApi reads = deadline == null ? asyncKeyValueApi : asyncKeyValueApi.withDeadline(deadline);
+        return deferred(admitted(RequestClass.READ, () -> reads.getAllAsync(BatchCodec.decodeKeys(keys)))
+                .thenApply(values -> BatchCodec.encodeEntries(headBytes == null ? values : heads(values, headBytes))),
+                deadline);
+    }
+
+    @RequestMapping(method = RequestMethod.POST, value = "/batch/delete")
+    public DeferredResult<Void> deleteAll(final HttpServletRequest request) throws IOException {
+        final byte[] keys = readBody(request, maxBatchBytes, "batch");
+        return deferred(admitted(RequestClass.WRITE, () -> asyncKeyValueApi.deleteAllAsync(BatchCodec.decodeKeys(keys))));
+    }
+
+    /**
+     * Returns changes of the node starting from the sequence number {@code from} in the format of
+     * {@link BatchCodec#encodeChanges}, the batch tells the number to continue from. Without {@code from}
+     * the changes start at the current end of the log. At the end of the log the request waits up to {@code timeout}
+     * milliseconds for the next change and gets an empty batch if there is none. Answers 410 if the changes were
+     * already dropped from the log and 501 if the node keeps no log. Taking the node down does not wait for
+     * a poll already waiting.
+     */
+    @RequestMapping(method = RequestMethod.GET, value = "/changes", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public DeferredResult<byte[]> getChanges(@RequestParam(value = "from", required = false) final Long from,
+                                             @RequestParam(value = "limit", defaultValue = "1000") final int limit,
+                                             @RequestParam(value = "timeout", defaultValue = "0") final long timeoutMillis) {
+        if (timeoutMillis > MAX_CHANGES_TIMEOUT_MILLIS) {
+            throw new IllegalArgumentException("timeout above " + MAX_CHANGES_TIMEOUT_MILLIS + " ms");
+        }
+        return deferred(served(() -> {
+            final Changelog changelog = Storages.find(keyValueApi, ChangelogKeyValueApi.class)
+                    .map(ChangelogKeyValueApi::getChangelog)
+                    .orElseThrow(() -> new UnsupportedOperationException("changelog is off"));
+            return changelog.poll(from == null ? changelog.getNextSequence() : from, limit, timeoutMillis);
+        }).thenApply(BatchCodec::encodeChanges));
+    }
+
+    /**
+     * Returns depth and root hash of the Merkle tree of the node, nodes with the same entries have the same root.
+     * The tree endpoints answer 501 if the node keeps no tree.
+     */
+    @RequestMapping(method = RequestMethod.GET, value = "/merkle")
+    public Map<String, Long> getMerkleRoot() {
+        return served(() -> {
+            final MerkleKeyValueApi merkle = merkle();
+            final Map<String, Long> root = new LinkedHashMap<>();
+            root.put("depth", (long) merkle.getMerkleDepth());
+            root.put("root", merkle.getMerkleHashes(new int[]{1})[0]);
+            return root;
+        });
+    }
+
+    /**
+     * Returns hashes of the tree nodes whose numbers are given as a JSON array, in the same order.
+     */
+    @RequestMapping(method = RequestMethod.POST, value = "/merkle/hashes")
+    public long[] getMerkleHashes(@RequestBody final int[] nodes) {
+        return served(() -> merkle().getMerkleHashes(nodes));
+    }
+
+    /**
+     * Returns keys of the leaves whose numbers are given as a JSON array with hashes of their entries.
+     * The node scans all its keys for that, but reads only values of the keys returned.
+     */
+    @RequestMapping(method = RequestMethod.POST, value = "/merkle/leaves")
+    public Map<String, Long> getLeafEntries(@RequestBody final int[] leaves) {
+        final MerkleKeyValueApi merkle = merkle();
+        final AdmissionControl.Permit permit = admission.acquire(RequestClass.SCAN);
+        try {
+            return served(() -> merkle.getLeafEntries(leaves));
+        } finally {
+            permit.release();
+        }
     }
 
     @RequestMapping(method = RequestMethod.GET, value = "/info")
-    public Set<NodeInfo> getInfo() {
-        return keyValueApi.getInfo();
+    public DeferredResult<Set<NodeInfo>> getInfo() {
+        return deferred(asyncKeyValueApi.getInfoAsync());
     }
 
     @RequestMapping(method = RequestMethod.POST, value = "/action/{node}/{action}")
-    public void action(@PathVariable final String node,
-                       @PathVariable final NodeAction action) { keyValueApi.action(node, action); }
+    public DeferredResult<Void> action(@PathVariable final String node,
+                                       @PathVariable final NodeAction action) {
+        return deferred(asyncKeyValueApi.actionAsync(node, action));
+    }
+
+    /**
+     * Serves the operation on a decorator of the storage as a request to the node, so it is refused while the node
+     * is down, see {@link ManagedKeyValueApi#serve}.
+     */
+    private <T> T served(final Supplier<T> operation) {
+        final Optional<ManagedKeyValueApi> managed = Storages.find(keyValueApi, ManagedKeyValueApi.class);
+        return managed.isPresent() ? managed.get().serve(operation) : operation.get();
+    }
+
+    private MerkleKeyValueApi merkle() {
+        return Storages.find(keyValueApi, MerkleKeyValueApi.class)
+                .orElseThrow(() -> new UnsupportedOperationException("anti-entropy is off"));
+    }
+
+    /**
+     * Reads the body into an array of its declared length, which the storage keeps or copies from,
+     * so there is no growing buffer and no extra copy of it. Bodies of unknown length are read up to the limit.
+     *
+     * @param what what the body is, for the error
+     */
+    private static byte[] readBody(final HttpServletRequest request, final int maxBytes, final String what) throws IOException {
+        final long length = request.getContentLengthLong();
+        if (length > maxBytes) {
+            throw new BodyTooLargeException(what, maxBytes);
+        }
+        final InputStream in = request.getInputStream();
+        if (length >= 0) {
+            final byte[] value = new byte[(int) length];
+            int read = 0;
+            while (read < value.length) {
+                final int count = in.read(value, read, value.length - read);
+                if (count < 0) throw new IllegalArgumentException("body is shorter than its declared length");
+                read += count;
+            }
+            return value;
+        }
+        final ByteArrayOutputStream value = new ByteArrayOutputStream();
+        final byte[] chunk = new byte[8192];
+        int count;
+        while ((count = in.read(chunk)) >= 0) {
+            if (value.size() + count > maxBytes) {
+                throw new BodyTooLargeException(what, maxBytes);
+            }
+            value.write(chunk, 0, count);
+        }
+        return value.toByteArray();
+    }
+
+    private static Map<String, byte[]> heads(final Map<String, byte[]> values, final int headBytes) {
+        final Map<String, byte[]> heads = new LinkedHashMap<>();
+        values.forEach((key, value) -> heads.put(key, value.length > headBytes ? Arrays.copyOf(value, headBytes) : value));
+        return heads;
+    }
+
+    private static ResponseEntity<Void> conditional(final OptionalLong version) {
+        return version.isPresent()
+                ? ResponseEntity.ok().eTag(ETag.format(version.getAsLong())).build()
+                : ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+    }
+
+    /**
+     * Starts the operation under a place of its request class, which is released when the operation completes.
+     *
+     * @throws NodeOverloadedException if the limit of the class is reached
+     */
+    private <T> CompletableFuture<T> admitted(final RequestClass requestClass,
+                                              final Supplier<CompletableFuture<T>> operation) {
+        final AdmissionControl.Permit permit = admission.acquire(requestClass);
+        final CompletableFuture<T> future;
+        try {
+            future = operation.get();
+        } catch (RuntimeException e) {
+            permit.release();
+            throw e;
+        }
+        return future.whenComplete((value, e) -> permit.release());
+    }
+
+    /**
+     * Returns the deadline of a request which arrived with the timeout, refusing it at once if nothing is left.
+     */
+    private static Deadline deadline(final Long timeoutMillis) {
+        if (timeoutMillis == null) {
+            return null;
+        }
+        if (timeoutMillis <= 0) throw new DeadlineExceededException("no time left");
+        return Deadline.after(timeoutMillis);
+    }
+
+    /**
+     * Failures are passed to the exception handlers below, as if the handler method threw them.
+     */
+    private static <T> DeferredResult<T> deferred(final CompletableFuture<T> future) {
+        return deferred(future, null);
+    }
+
+    /**
+     * With a deadline the response is completed with 504 when it passes, whether or not the operation is done.
+     */
+    private static <T> DeferredResult<T> deferred(final CompletableFuture<T> future, final Deadline deadline) {
+        final DeferredResult<T> result = deadline == null
+                ? new DeferredResult<>()
+                : new DeferredResult<>(Math.max(1, deadline.remainingMillis()));
+        if (deadline != null) {
+            result.onTimeout(() -> result.setErrorResult(new DeadlineExceededException("response not ready in time")));
+        }
+        future.whenComplete((value, e) -> {
+            if (e == null) {
+                result.setResult(value);
+            } else {
+                result.setErrorResult(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+        });
+        return result;
+    }
 
     @ExceptionHandler(NoSuchElementException.class)
     @ResponseStatus(HttpStatus.NOT_FOUND)
@@ -61,6 +441,51 @@ public class KeyValueApiController {
         return Optional.ofNullable(e.getMessage()).orElse("");
     }
 
+    /**
+     * The node is taken down for maintenance, clients may retry it later or go to another replica.
+     */
+    @ExceptionHandler(NodeDownException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public String handle(NodeDownException e, HttpServletResponse response) {
+        response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+        return Optional.ofNullable(e.getMessage()).orElse("");
+    }
+
+    /**
+     * The node serves as many requests of the kind as its limit allows, clients should back off and retry.
+     * There is no {@code Retry-After}: a slot frees up within the latency of a request, far sooner than the second
+     * the header could name, so clients are better off with their own short jittered pauses.
+     */
+    @ExceptionHandler(NodeOverloadedException.class)
+    @ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+    public String handle(NodeOverloadedException e) {
+        return Optional.ofNullable(e.getMessage()).orElse("");
+    }
+
+    @ExceptionHandler(DeadlineExceededException.class)
+    @ResponseStatus(HttpStatus.GATEWAY_TIMEOUT)
+    public String handle(DeadlineExceededException e) {
+        return Optional.ofNullable(e.getMessage()).orElse("");
+    }
+
+    @ExceptionHandler(TruncatedChangelogException.class)
+    @ResponseStatus(HttpStatus.GONE)
+    public String handle(TruncatedChangelogException e) {
+        return Optional.ofNullable(e.getMessage()).orElse("");
+    }
+
+    @ExceptionHandler(BodyTooLargeException.class)
+    @ResponseStatus(HttpStatus.PAYLOAD_TOO_LARGE)
+    public String handle(BodyTooLargeException e) {
+        return Optional.ofNullable(e.getMessage()).orElse("");
+    }
+
+    @ExceptionHandler(UnsupportedOperationException.class)
+    @ResponseStatus(HttpStatus.NOT_IMPLEMENTED)
+    public String handle(UnsupportedOperationException e) {
+        return Optional.ofNullable(e.getMessage()).orElse("");
+    }
+
     @ExceptionHandler(IllegalArgumentException.class)
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     public String handle(IllegalArgumentException e) {
@@ -0,0 +1,108 @@
+package ru.csc.bdse.controller;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import ru.csc.bdse.kv.InMemoryKeyValueApi;
+import ru.csc.bdse.kv.NodeDownException;
+import ru.csc.bdse.kv.NodeOverloadedException;
+import ru.csc.bdse.kv.admission.AdmissionControl;
+import ru.csc.bdse.kv.admission.RequestClass;
+import ru.csc.bdse.kv.changelog.ChangelogKeyValueApi;
+import ru.csc.bdse.kv.compress.CompressingKeyValueApi;
+import ru.csc.bdse.kv.metrics.MetricsKeyValueApi;
+import ru.csc.bdse.kv.offheap.OffHeapKeyValueApi;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.OptionalLong;
+
+/**
+ * Provides statistics of the storage unit collected by {@link MetricsKeyValueApi} as JSON
+ */
+@RestController
+public class MetricsController {
+
+    private static final int KEY_COUNT_PAGE_SIZE = 1000;
+
+    private final MetricsKeyValueApi metrics;
+    private final AdmissionControl admission;
+
+    public MetricsController(final MetricsKeyValueApi metrics, final AdmissionControl admission) {
+        this.metrics = metrics;
+        this.admission = admission;
+    }
+
+    /**
+     * Returns latencies and counts per operation, sizes of values and the number of keys.
+     * The key count is absent while the node is down, or while scans are at their limit if the storage
+     * does not count keys itself. Compression ratio is reported when values are compressed,
+     * the number of expired keys and arena usage are reported by the in-memory and off-heap engines.
+     * Sequence numbers of the oldest retained and the next change tell consumers of the changelog how far behind they are.
+     * Current limits, requests in flight and refused requests are reported per class of requests.
+     */
+    @RequestMapping(method = RequestMethod.GET, value = "/metrics", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Object> metrics() {
+        final Map<String, Object> result = new LinkedHashMap<>();
+
+        final Map<String, Object> operations = new LinkedHashMap<>();
+        metrics.getOperationStats().forEach((operation, stats) ->
+                operations.put(operation.name().toLowerCase(Locale.ROOT), stats));
+        result.put("operations", operations);
+
+        final Map<String, Object> valueBytes = new LinkedHashMap<>();
+        valueBytes.put("written", metrics.getWrittenValueBytes());
+        valueBytes.put("read", metrics.getReadValueBytes());
+        result.put("valueBytes", valueBytes);
+
+        final Map<String, Object> admitted = new LinkedHashMap<>();
+        admission.getLimits().forEach((requestClass, limit) -> {
+            final Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("limit", limit.getLimit());
+            stats.put("inFlight", limit.getInFlight());
+            stats.put("admitted", limit.getAdmitted());
+            stats.put("rejected", limit.getRejected());
+            admitted.put(requestClass.name().toLowerCase(Locale.ROOT), stats);
+        });
+        result.put("admission", admitted);
+
+        try {
+            result.put("keys", keyCount());
+        } catch (NodeDownException | NodeOverloadedException e) {
+            result.put("keys", null);
+        }
+
+        Storages.find(metrics, ChangelogKeyValueApi.class).ifPresent(changelogged -> {
+            final Map<String, Object> changelog = new LinkedHashMap<>();
+            changelog.put("oldestSequence", changelogged.getChangelog().getOldestSequence());
+            changelog.put("nextSequence", changelogged.getChangelog().getNextSequence());
+            result.put("changelog", changelog);
+        });
+        Storages.find(metrics, CompressingKeyValueApi.class)
+                .ifPresent(compressing -> result.put("compressionRatio", compressing.getCompressionRatio()));
+        Storages.find(metrics, InMemoryKeyValueApi.class)
+                .ifPresent(inMemory -> result.put("expiredKeys", inMemory.getExpiredCount()));
+        Storages.find(metrics, OffHeapKeyValueApi.class)
+                .ifPresent(offHeap -> result.put("arena", offHeap.getArenaStats()));
+        return result;
+    }
+
+    /**
+     * Takes the count the storage keeps, storages without one are counted by an unmeasured listing
+     * which is admitted as a scan.
+     */
+    private long keyCount() {
+        final OptionalLong count = metrics.getKeyCount();
+        if (count.isPresent()) {
+            return count.getAsLong();
+        }
+        final AdmissionControl.Permit permit = admission.acquire(RequestClass.SCAN);
+        try {
+            return metrics.getStorage().streamKeys("", KEY_COUNT_PAGE_SIZE).count();
+        } finally {
+            permit.release();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package ru.csc.bdse.controller;
+
+import ru.csc.bdse.kv.KeyValueApi;
+import ru.csc.bdse.kv.ManagedKeyValueApi;
+import ru.csc.bdse.kv.changelog.ChangelogKeyValueApi;
+import ru.csc.bdse.kv.compress.CompressingKeyValueApi;
+import ru.csc.bdse.kv.merkle.MerkleKeyValueApi;
+import ru.csc.bdse.kv.metrics.MetricsKeyValueApi;
+
+import java.util.Optional;
+
+/**
+ * Reaches the storage engine of the node through decorators the application wraps it in.
+ */
+final class Storages {
+
+    private Storages() {
+    }
+
+    static KeyValueApi engine(final KeyValueApi node) {
+        KeyValueApi storage = node;
+        for (KeyValueApi next = unwrap(storage); next != null; next = unwrap(storage)) {
+            storage = next;
+        }
+        return storage;
+    }
+
+    /**
+     * Returns the first of the node, its decorators and its engine which is of the type.
+     */
+    static <T> Optional<T> find(final KeyValueApi node, final Class<T> type) {
+        for (KeyValueApi storage = node; storage != null; storage = unwrap(storage)) {
+            if (type.isInstance(storage)) {
+                return Optional.of(type.cast(storage));
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static KeyValueApi unwrap(final KeyValueApi storage) {
+        if (storage instanceof MetricsKeyValueApi) {
+            return ((MetricsKeyValueApi) storage).getStorage();
+        }
+        if (storage instanceof ManagedKeyValueApi) {
+            return ((ManagedKeyValueApi) storage).getStorage();
+        }
+        if (storage instanceof MerkleKeyValueApi) {
+            return ((MerkleKeyValueApi) storage).getStorage();
+        }
+        if (storage instanceof ChangelogKeyValueApi) {
+            return ((ChangelogKeyValueApi) storage).getStorage();
+        }
+        if (storage instanceof CompressingKeyValueApi) {
+            return ((CompressingKeyValueApi) storage).getStorage();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,131 @@
+package ru.csc.bdse.kv;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * Non-blocking counterpart of {@link KeyValueApi}: every operation returns immediately and completes
+ * its future when the storage responds. Methods have the {@code Async} suffix, so one class may implement
+ * both interfaces. Futures complete exceptionally with the same exceptions the blocking methods throw.
+ */
+public interface AsyncKeyValueApi {
+
+    /**
+     * Puts value to the storage by specified key.
+     */
+    CompletableFuture<Void> putAsync(String key, byte[] value);
+
+    /**
+     * Puts value which expires after {@code ttlMillis}, see {@link KeyValueApi#put(String, byte[], long)}.
+     */
+    default CompletableFuture<Void> putAsync(String key, byte[] value, long ttlMillis) {
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        result.completeExceptionally(new UnsupportedOperationException("ttl is not supported"));
+        return result;
+    }
+
+    /**
+     * Returns value associated with specified key.
+     */
+    CompletableFuture<Optional<byte[]>> getAsync(String key);
+
+    /**
+     * Returns value with its version, see {@link KeyValueApi#getVersioned(String)}.
+     */
+    default CompletableFuture<Optional<VersionedValue>> getVersionedAsync(String key) {
+        return getAsync(key).thenApply(value -> value.map(bytes -> new VersionedValue(bytes, VersionedValue.NO_VERSION)));
+    }
+
+    /**
+     * Puts value if there is no value yet, see {@link KeyValueApi#putIfAbsent(String, byte[])}.
+     */
+    default CompletableFuture<OptionalLong> putIfAbsentAsync(String key, byte[] value) {
+        final CompletableFuture<OptionalLong> result = new CompletableFuture<>();
+        result.completeExceptionally(new UnsupportedOperationException("conditional put is not supported"));
+        return result;
+    }
+
+    /**
+     * Replaces value of the given version, see {@link KeyValueApi#putIfVersion(String, byte[], long)}.
+     */
+    default CompletableFuture<OptionalLong> putIfVersionAsync(String key, byte[] value, long version) {
+        final CompletableFuture<OptionalLong> result = new CompletableFuture<>();
+        result.completeExceptionally(new UnsupportedOperationException("conditional put is not supported"));
+        return result;
+    }
+
+    /**
+     * Returns all keys with specified prefix.
+     */
+    CompletableFuture<Set<String>> getKeysAsync(String prefix);
+
+    /**
+     * Returns a page of keys with specified prefix, see {@link KeyValueApi#getKeys(String, String, int)}.
+     */
+    default CompletableFuture<List<String>> getKeysAsync(String prefix, String after, int limit) {
+        if (limit <= 0) throw new IllegalArgumentException("non-positive limit");
+        return getKeysAsync(prefix).thenApply(keys -> keys.stream()
+                .filter(key -> after == null || key.compareTo(after) > 0)
+                .sorted()
+                .limit(limit)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Deletes value associated with specified key from the storage.
+     */
+    CompletableFuture<Void> deleteAsync(String key);
+
+    /**
+     * Puts all values to the storage by their keys, the default implementation issues all puts at once.
+     */
+    default CompletableFuture<Void> putAllAsync(Map<String, byte[]> entries) {
+        final List<CompletableFuture<Void>> puts = new ArrayList<>(entries.size());
+        entries.forEach((key, value) -> puts.add(putAsync(key, value)));
+        return CompletableFuture.allOf(puts.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Returns values associated with specified keys, keys without value are omitted.
+     * The default implementation issues all gets at once.
+     */
+    default CompletableFuture<Map<String, byte[]>> getAllAsync(Collection<String> keys) {
+        final Map<String, CompletableFuture<Optional<byte[]>>> gets = new LinkedHashMap<>();
+        for (String key : keys) {
+            gets.put(key, getAsync(key));
+        }
+        return CompletableFuture.allOf(gets.values().toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            final Map<String, byte[]> values = new HashMap<>();
+            gets.forEach((key, value) -> value.join().ifPresent(bytes -> values.put(key, bytes)));
+            return values;
+        });
+    }
+
+    /**
+     * Deletes values associated with specified keys, the default implementation issues all deletes at once.
+     */
+    default CompletableFuture<Void> deleteAllAsync(Collection<String> keys) {
+        return CompletableFuture.allOf(keys.stream()
+                .map(this::deleteAsync)
+                .toArray(CompletableFuture<?>[]::new));
+    }
+
+    /**
+     * Returns info about all nodes.
+     */
+    CompletableFuture<Set<NodeInfo>> getInfoAsync();
+
+    /**
+     * Do action on specified node.
+     */
+    CompletableFuture<Void> actionAsync(String node, NodeAction action);
+
+    /**
+     * Returns a view which abandons operations not started before the deadline, completing them with
+     * {@link DeadlineExceededException}. The default implementation starts every operation at once and returns itself.
+     */
+    default AsyncKeyValueApi withDeadline(Deadline deadline) {
+        return this;
+    }
+}
@@ -0,0 +1,335 @@
+package ru.csc.bdse.kv;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.HttpComponentsAsyncClientHttpRequestFactory;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.client.AsyncRestTemplate;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
+import ru.csc.bdse.util.Constants;
+import ru.csc.bdse.util.Require;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Non-blocking http client for storage unit.
+ * <p>
+ * Requests are multiplexed over a pool of keep-alive connections by a few I/O threads, so the number of requests
+ * in flight does not depend on the number of caller threads. Futures are completed on the I/O threads,
+ * dependent stages without an explicit executor run there too and should be short.
+ * Batches bigger than the limits of {@link HttpClientConfig} are split into chunks which are sent concurrently.
+ * Responses are never gzipped, only requests above the gzip threshold are.
+ * Requests refused by an overloaded node fail with {@link NodeOverloadedException} without retries,
+ * the caller decides when to come back, the exception carries the pause the node asked for.
+ */
+public class AsyncKeyValueApiHttpClient implements AsyncKeyValueApi, Closeable {
+
+    private final String baseUrl;
+    private final HttpClientConfig config;
+    private final HttpComponentsAsyncClientHttpRequestFactory requestFactory;
+    private final AsyncRestTemplate rest;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final URI infoUri;
+    private final URI batchPutUri;
+    private final URI batchGetUri;
+    private final URI batchDeleteUri;
+
+    public AsyncKeyValueApiHttpClient(final String baseUrl) {
+        this(baseUrl, HttpClientConfig.DEFAULT);
+    }
+
+    public AsyncKeyValueApiHttpClient(final String baseUrl, final HttpClientConfig config) {
+        Require.nonEmpty(baseUrl, "empty base url");
+        Require.nonNull(config, "null config");
+        this.baseUrl = baseUrl;
+        this.config = config;
+        this.requestFactory = new HttpComponentsAsyncClientHttpRequestFactory(HttpAsyncClients.custom()
+                .setMaxConnTotal(config.getMaxConnections())
+                .setMaxConnPerRoute(config.getMaxConnections())
+                // requests queued for a connection wait without limit, every request in flight is bounded by timeouts
+                .setDefaultRequestConfig(RequestConfig.copy(HttpSupport.requestConfig(config))
+                        .setConnectionRequestTimeout(0)
+                        .build())
+                .setDefaultIOReactorConfig(IOReactorConfig.custom()
+                        .setConnectTimeout(config.getConnectTimeoutMillis())
+                        .setSoTimeout(config.getReadTimeoutMillis())
+                        .setTcpNoDelay(true)
+                        .build())
+                .setKeepAliveStrategy(HttpSupport.keepAliveStrategy(config))
+                .disableCookieManagement()
+                .build());
+        this.requestFactory.afterPropertiesSet();
+        this.rest = new AsyncRestTemplate(requestFactory);
+        this.infoUri = URI.create(baseUrl + "/info");
+        this.batchPutUri = URI.create(baseUrl + "/batch/put");
+        this.batchGetUri = URI.create(baseUrl + "/batch/get");
+        this.batchDeleteUri = URI.create(baseUrl + "/batch/delete");
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(final String key, final byte[] value) {
+        Require.nonNull(key, "null key");
+        Require.nonNull(value, "null value");
+
+        return request(HttpSupport.keyUri(baseUrl, key), HttpMethod.PUT, value).thenApply(AsyncKeyValueApiHttpClient::ok);
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(final String key, final byte[] value, final long ttlMillis) {
+        Require.nonNull(key, "null key");
+        Require.nonNull(value, "null value");
+
+        return request(HttpSupport.keyUri(baseUrl, key, ttlMillis), HttpMethod.PUT, value).thenApply(AsyncKeyValueApiHttpClient::ok);
+    }
+
+    @Override
+    public CompletableFuture<Optional<byte[]>> getAsync(final String key) {
+        Require.nonNull(key, "null key");
+
+        return request(HttpSupport.keyUri(baseUrl, key), HttpMethod.GET, Constants.EMPTY_BYTE_ARRAY).thenApply(responseEntity -> {
+            switch (responseEntity.getStatusCode()) {
+                case OK:
+                    return Optional.of(Optional.ofNullable(responseEntity.getBody()).orElse(Constants.EMPTY_BYTE_ARRAY));
+                case NOT_FOUND:
+                    return Optional.empty();
+                default:
+                    throw new RuntimeException("Response error: " + responseEntity);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Optional<VersionedValue>> getVersionedAsync(final String key) {
+        Require.nonNull(key, "null key");
+
+        return request(HttpSupport.keyUri(baseUrl, key), HttpMethod.GET, Constants.EMPTY_BYTE_ARRAY).thenApply(responseEntity -> {
+            switch (responseEntity.getStatusCode()) {
+                case OK:
+                    return Optional.of(HttpSupport.versioned(responseEntity));
+                case NOT_FOUND:
+                    return Optional.empty();
+                default:
+                    throw new RuntimeException("Response error: " + responseEntity);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<OptionalLong> putIfAbsentAsync(final String key, final byte[] value) {
+        return conditionalPut(key, value, null);
+    }
+
+    @Override
+    public CompletableFuture<OptionalLong> putIfVersionAsync(final String key, final byte[] value, final long version) {
+        return conditionalPut(key, value, version);
+    }
+
+    @Override
+    public CompletableFuture<Set<String>> getKeysAsync(final String prefix) {
+        Require.nonNull(prefix, "null prefix");
+
+        return readKeys(HttpSupport.keysUri(baseUrl, prefix, null, null), new HashSet<>());
+    }
+
+    @Override
+    public CompletableFuture<List<String>> getKeysAsync(final String prefix, final String after, final int limit) {
+        Require.nonNull(prefix, "null prefix");
+        if (limit <= 0) throw new IllegalArgumentException("non-positive limit");
+
+        return readKeys(HttpSupport.keysUri(baseUrl, prefix, after, limit), new ArrayList<>(Math.min(limit, 1024)));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(final String key) {
+        Require.nonNull(key, "null key");
+
+        return request(HttpSupport.keyUri(baseUrl, key), HttpMethod.DELETE, Constants.EMPTY_BYTE_ARRAY)
+                .thenApply(AsyncKeyValueApiHttpClient::ok);
+    }
+
+    @Override
+    public CompletableFuture<Void> putAllAsync(final Map<String, byte[]> entries) {
+        Require.nonNull(entries, "null entries");
+
+        return CompletableFuture.allOf(HttpSupport.entryChunks(entries, config.getMaxBatchKeys(), config.getMaxBatchBytes())
+                .stream()
+                .map(chunk -> sendBatch(batchPutUri, BatchCodec.encodeEntries(chunk)))
+                .toArray(CompletableFuture<?>[]::new));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, byte[]>> getAllAsync(final Collection<String> keys) {
+        Require.nonNull(keys, "null keys");
+
+        final Map<String, byte[]> values = new ConcurrentHashMap<>();
+        return CompletableFuture.allOf(HttpSupport.keyChunks(keys, config.getMaxBatchKeys())
+                .stream()
+                .map(chunk -> sendBatch(batchGetUri, BatchCodec.encodeKeys(chunk))
+                        .thenAccept(body -> values.putAll(BatchCodec.decodeEntries(body))))
+                .toArray(CompletableFuture<?>[]::new))
+                .thenApply(ignored -> new HashMap<>(values));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAllAsync(final Collection<String> keys) {
+        Require.nonNull(keys, "null keys");
+
+        return CompletableFuture.allOf(HttpSupport.keyChunks(keys, config.getMaxBatchKeys())
+                .stream()
+                .map(chunk -> sendBatch(batchDeleteUri, BatchCodec.encodeKeys(chunk)))
+                .toArray(CompletableFuture<?>[]::new));
+    }
+
+    @Override
+    public CompletableFuture<Set<NodeInfo>> getInfoAsync() {
+        return request(infoUri, HttpMethod.GET, Constants.EMPTY_BYTE_ARRAY).thenApply(responseEntity -> {
+            if (responseEntity.getStatusCode() != HttpStatus.OK) {
+                throw new RuntimeException("Response error: " + responseEntity);
+            }
+            try {
+                return new HashSet<>(Arrays.asList(objectMapper.readValue(responseEntity.getBody(), NodeInfo[].class)));
+            } catch (IOException e) {
+                throw new RuntimeException("Response error: " + e.getMessage());
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> actionAsync(final String node, final NodeAction action) {
+        Require.nonNull(node, "null node");
+        Require.nonNull(action, "null action");
+
+        return request(HttpSupport.actionUri(baseUrl, node, action), HttpMethod.POST, Constants.EMPTY_BYTE_ARRAY)
+                .thenApply(AsyncKeyValueApiHttpClient::ok);
+    }
+
+    /**
+     * Stops I/O threads and closes all connections, requests in flight fail.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            requestFactory.destroy();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private <C extends Collection<String>> CompletableFuture<C> readKeys(final URI uri, final C keys) {
+        return completable(rest.execute(uri, HttpMethod.GET, null, response -> {
+            HttpSupport.readKeys(response.getBody(), keys);
+            return keys;
+        })).exceptionally(e -> {
+            final Throwable cause = unwrap(e);
+            if (isServiceUnavailable(cause)) {
+                throw new NodeDownException(baseUrl);
+            }
+            if (isTooManyRequests(cause)) {
+                throw new NodeOverloadedException(baseUrl,
+                        HttpSupport.retryAfterMillis(((HttpStatusCodeException) cause).getResponseHeaders()));
+            }
+            if (cause instanceof HttpStatusCodeException) {
+                final HttpStatusCodeException statusException = (HttpStatusCodeException) cause;
+                throw new RuntimeException("Response error: " + statusException.getStatusCode() + " "
+                        + statusException.getResponseBodyAsString());
+            }
+            throw rethrow(cause);
+        });
+    }
+
+    private CompletableFuture<OptionalLong> conditionalPut(final String key, final byte[] value, final Long version) {
+        Require.nonNull(key, "null key");
+        Require.nonNull(value, "null value");
+
+        return request(HttpSupport.keyUri(baseUrl, key), HttpMethod.PUT,
+                HttpSupport.entity(config, value, HttpSupport.putCondition(version)))
+                .thenApply(HttpSupport::putResult);
+    }
+
+    private CompletableFuture<byte[]> sendBatch(final URI uri, final byte[] body) {
+        return request(uri, HttpMethod.POST, body).thenApply(responseEntity -> {
+            ok(responseEntity);
+            return Optional.ofNullable(responseEntity.getBody()).orElse(Constants.EMPTY_BYTE_ARRAY);
+        });
+    }
+
+    /**
+     * Like the blocking client, turns client errors into responses and leaves other failures as they are.
+     */
+    private CompletableFuture<ResponseEntity<byte[]>> request(final URI uri, final HttpMethod method, final byte[] body) {
+        return request(uri, method, HttpSupport.entity(config, body));
+    }
+
+    private CompletableFuture<ResponseEntity<byte[]>> request(final URI uri,
+                                                              final HttpMethod method,
+                                                              final HttpEntity<byte[]> entity) {
+        return completable(rest.exchange(uri, method, entity, byte[].class)).exceptionally(e -> {
+            final Throwable cause = unwrap(e);
+            if (isTooManyRequests(cause)) {
+                throw new NodeOverloadedException(baseUrl,
+                        HttpSupport.retryAfterMillis(((HttpStatusCodeException) cause).getResponseHeaders()));
+            }
+            if (cause instanceof HttpClientErrorException) {
+                return new ResponseEntity<>(Constants.EMPTY_BYTE_ARRAY, ((HttpClientErrorException) cause).getStatusCode());
+            }
+            if (isServiceUnavailable(cause)) {
+                throw new NodeDownException(baseUrl);
+            }
+            if (cause instanceof HttpStatusCodeException
+                    && ((HttpStatusCodeException) cause).getStatusCode() == HttpStatus.GATEWAY_TIMEOUT) {
+                throw new DeadlineExceededException(baseUrl);
+            }
+            if (cause instanceof HttpStatusCodeException
+                    && ((HttpStatusCodeException) cause).getStatusCode() == HttpStatus.NOT_IMPLEMENTED) {
+                throw new UnsupportedOperationException(((HttpStatusCodeException) cause).getResponseBodyAsString());
+            }
+            throw rethrow(cause);
+        });
+    }
+
+    private static boolean isServiceUnavailable(final Throwable e) {
+        return e instanceof HttpStatusCodeException
+                && ((HttpStatusCodeException) e).getStatusCode() == HttpStatus.SERVICE_UNAVAILABLE;
+    }
+
+    private static boolean isTooManyRequests(final Throwable e) {
+        return e instanceof HttpStatusCodeException
+                && ((HttpStatusCodeException) e).getStatusCode() == HttpStatus.TOO_MANY_REQUESTS;
+    }
+
+    private static Void ok(final ResponseEntity<byte[]> responseEntity) {
+        if (responseEntity.getStatusCode() != HttpStatus.OK) {
+            throw new RuntimeException("Response error: " + responseEntity);
+        }
+        return null;
+    }
+
+    private static <T> CompletableFuture<T> completable(final ListenableFuture<T> future) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        future.addCallback(result::complete, result::completeExceptionally);
+        return result;
+    }
+
+    private static Throwable unwrap(final Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    private static RuntimeException rethrow(final Throwable e) {
+        return e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+    }
+}
@@ -0,0 +1,186 @@
+package ru.csc.bdse.kv;
+
+import ru.csc.bdse.kv.changelog.Change;
+import ru.csc.bdse.kv.changelog.ChangeBatch;
+import ru.csc.bdse.kv.changelog.ChangeType;
+import ru.csc.bdse.util.Require;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Binary format of batch requests and responses.
+ * <p>
+ * Keys are encoded as {@code count | (keyLength | key)*}, entries as {@code count | (keyLength | key | valueLength | value)*},
+ * where lengths and count are big-endian ints and keys are UTF-8. Changes are encoded as
+ * {@code nextSequence | count | (sequence | type | keyLength | key | valueLength | value)*} with a one byte type
+ * and the value length of -1 for a deletion.
+ */
+public class BatchCodec {
+
+    private BatchCodec() {
+
+    }
+
+    public static byte[] encodeKeys(final Collection<String> keys) {
+        final List<byte[]> encoded = new ArrayList<>(keys.size());
+        int size = 4;
+        for (String key : keys) {
+            Require.nonNull(key, "null key");
+            final byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            size += 4 + bytes.length;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(encoded.size());
+        for (byte[] key : encoded) {
+            buffer.putInt(key.length);
+            buffer.put(key);
+        }
+        return buffer.array();
+    }
+
+    public static List<String> decodeKeys(final byte[] bytes) {
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            final int count = readCount(buffer, 4);
+            final List<String> keys = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                keys.add(new String(readBytes(buffer), StandardCharsets.UTF_8));
+            }
+            requireFullyRead(buffer);
+            return keys;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated batch");
+        }
+    }
+
+    public static byte[] encodeEntries(final Map<String, byte[]> entries) {
+        final List<byte[]> encodedKeys = new ArrayList<>(entries.size());
+        int size = 4;
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            Require.nonNull(entry.getKey(), "null key");
+            Require.nonNull(entry.getValue(), "null value");
+            final byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            encodedKeys.add(key);
+            size += 8 + key.length + entry.getValue().length;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(entries.size());
+        final Iterator<byte[]> keys = encodedKeys.iterator();
+        for (byte[] value : entries.values()) {
+            final byte[] key = keys.next();
+            buffer.putInt(key.length);
+            buffer.put(key);
+            buffer.putInt(value.length);
+            buffer.put(value);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Decodes entries preserving their order.
+     */
+    public static Map<String, byte[]> decodeEntries(final byte[] bytes) {
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            final int count = readCount(buffer, 8);
+            final Map<String, byte[]> entries = new LinkedHashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                final String key = new String(readBytes(buffer), StandardCharsets.UTF_8);
+                entries.put(key, readBytes(buffer));
+            }
+            requireFullyRead(buffer);
+            return entries;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated batch");
+        }
+    }
+
+    public static byte[] encodeChanges(final ChangeBatch batch) {
+        final List<byte[]> encodedKeys = new ArrayList<>(batch.getChanges().size());
+        int size = 12;
+        for (Change change : batch.getChanges()) {
+            final byte[] key = change.getKey().getBytes(StandardCharsets.UTF_8);
+            encodedKeys.add(key);
+            size += 17 + key.length + (change.getValue() == null ? 0 : change.getValue().length);
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putLong(batch.getNextSequence());
+        buffer.putInt(batch.getChanges().size());
+        final Iterator<byte[]> keys = encodedKeys.iterator();
+        for (Change change : batch.getChanges()) {
+            final byte[] key = keys.next();
+            buffer.putLong(change.getSequence());
+            buffer.put((byte) change.getType().ordinal());
+            buffer.putInt(key.length);
+            buffer.put(key);
+            if (change.getValue() == null) {
+                buffer.putInt(-1);
+            } else {
+                buffer.putInt(change.getValue().length);
+                buffer.put(change.getValue());
+            }
+        }
+        return buffer.array();
+    }
+
+    public static ChangeBatch decodeChanges(final byte[] bytes) {
+        try {
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            final long nextSequence = buffer.getLong();
+            final int count = readCount(buffer, 17);
+            final List<Change> changes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                final long sequence = buffer.getLong();
+                final int type = buffer.get();
+                if (type < 0 || type >= ChangeType.values().length) {
+                    throw new IllegalArgumentException("invalid change type in batch: " + type);
+                }
+                final String key = new String(readBytes(buffer), StandardCharsets.UTF_8);
+                final boolean deleted = buffer.getInt(buffer.position()) == -1;
+                if (deleted) {
+                    buffer.getInt();
+                }
+                changes.add(new Change(sequence, ChangeType.values()[type], key, deleted ? null : readBytes(buffer)));
+            }
+            requireFullyRead(buffer);
+            return new ChangeBatch(changes, nextSequence);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("truncated batch");
+        }
+    }
+
+    /**
+     * Returns upper bound of the entry size in encoded form.
+     */
+    public static int encodedSize(final String key, final byte[] value) {
+        return 8 + key.length() * 3 + value.length;
+    }
+
+    private static int readCount(final ByteBuffer buffer, final int minItemSize) {
+        final int count = buffer.getInt();
+        if (count < 0 || (long) count * minItemSize > buffer.remaining()) {
+            throw new IllegalArgumentException("invalid batch size: " + count);
+        }
+        return count;
+    }
+
+    private static byte[] readBytes(final ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("invalid length in batch: " + length);
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static void requireFullyRead(final ByteBuffer buffer) {
+        if (buffer.hasRemaining()) {
+            throw new IllegalArgumentException("trailing bytes in batch");
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package ru.csc.bdse.kv;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moment after which the caller no longer needs the result of a request.
+ * <p>
+ * Clients send the time left in {@value #HEADER}, rather than the moment itself, so clocks of the client and the node
+ * do not have to agree. The node counts its deadline from the arrival of the request and abandons work which did not
+ * start before it, see {@link AsyncKeyValueApi#withDeadline}.
+ */
+public final class Deadline {
+
+    public static final String HEADER = "X-Timeout-Millis";
+
+    private final long expiresAtNanos;
+
+    private Deadline(final long expiresAtNanos) {
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    public static Deadline after(final long timeoutMillis) {
+        if (timeoutMillis < 0) throw new IllegalArgumentException("negative timeout");
+        return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+    }
+
+    public boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+
+    /**
+     * Returns the time left, zero once the deadline passed.
+     */
+    public long remainingNanos() {
+        return Math.max(0, expiresAtNanos - System.nanoTime());
+    }
+
+    public long remainingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(remainingNanos());
+    }
+
+    /**
+     * @throws DeadlineExceededException if the deadline passed
+     */
+    public void check(final String detail) {
+        if (isExpired()) {
+            throw new DeadlineExceededException(detail);
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package ru.csc.bdse.kv;
+
+/**
+ * Thrown when a request is abandoned because its {@link Deadline} passed.
+ * The node answers such requests with 504, clients turn the status back into this exception.
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    /**
+     * @param detail url of the node on the client side, the abandoned operation on the node side
+     */
+    public DeadlineExceededException(final String detail) {
+        super("deadline exceeded: " + detail);
+    }
+}
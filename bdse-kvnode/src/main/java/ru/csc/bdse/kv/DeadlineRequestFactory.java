@@ -0,0 +1,68 @@
+package ru.csc.bdse.kv;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.protocol.HttpContext;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Pooled request factory which bounds the wait for a request sent within {@link #before} by the time left to its
+ * deadline, rather than by the timeouts of the whole pool, so a stalled node does not hold the caller past it.
+ * Other requests keep the timeouts of the pool.
+ */
+class DeadlineRequestFactory extends HttpComponentsClientHttpRequestFactory {
+
+    private static final ThreadLocal<Deadline> DEADLINE = new ThreadLocal<>();
+
+    private final RequestConfig requestConfig;
+
+    DeadlineRequestFactory(final HttpClient httpClient, final RequestConfig requestConfig) {
+        super(httpClient);
+        this.requestConfig = requestConfig;
+    }
+
+    /**
+     * Sends the requests made by the supplier on this thread with the timeouts cut to the time left.
+     */
+    static <T> T before(final Deadline deadline, final Supplier<T> request) {
+        final Deadline outer = DEADLINE.get();
+        DEADLINE.set(deadline);
+        try {
+            return request.get();
+        } finally {
+            if (outer == null) {
+                DEADLINE.remove();
+            } else {
+                DEADLINE.set(outer);
+            }
+        }
+    }
+
+    @Override
+    protected HttpContext createHttpContext(final HttpMethod httpMethod, final URI uri) {
+        final Deadline deadline = DEADLINE.get();
+        if (deadline == null) {
+            return null;
+        }
+        // rounded up, so a timeout means the deadline passed, and zero would mean no timeout at all
+        final long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline.remainingNanos() + 999_999);
+        final int timeoutMillis = (int) Math.min(Integer.MAX_VALUE, Math.max(1, remainingMillis));
+        final HttpClientContext context = HttpClientContext.create();
+        context.setRequestConfig(RequestConfig.copy(requestConfig)
+                .setConnectTimeout(bound(requestConfig.getConnectTimeout(), timeoutMillis))
+                .setConnectionRequestTimeout(bound(requestConfig.getConnectionRequestTimeout(), timeoutMillis))
+                .setSocketTimeout(timeoutMillis)
+                .build());
+        return context;
+    }
+
+    private static int bound(final int configuredMillis, final int timeoutMillis) {
+        return configuredMillis > 0 ? Math.min(configuredMillis, timeoutMillis) : timeoutMillis;
+    }
+}
@@ -0,0 +1,124 @@
+package ru.csc.bdse.kv;
+
+import ru.csc.bdse.util.Require;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Runs operations of a blocking storage on the given executor. A slow storage then occupies threads
+ * of that executor instead of the caller's ones, batches still go to the storage as one call.
+ * With a deadline an operation which waited in the queue of the executor past it is not run at all.
+ */
+public class ExecutorAsyncKeyValueApi implements AsyncKeyValueApi {
+
+    private final KeyValueApi keyValueApi;
+    private final Executor executor;
+    private final Deadline deadline;
+
+    public ExecutorAsyncKeyValueApi(final KeyValueApi keyValueApi, final Executor executor) {
+        this(keyValueApi, executor, null);
+    }
+
+    private ExecutorAsyncKeyValueApi(final KeyValueApi keyValueApi, final Executor executor, final Deadline deadline) {
+        Require.nonNull(keyValueApi, "null key value api");
+        Require.nonNull(executor, "null executor");
+        this.keyValueApi = keyValueApi;
+        this.executor = executor;
+        this.deadline = deadline;
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(final String key, final byte[] value) {
+        return run(() -> keyValueApi.put(key, value));
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(final String key, final byte[] value, final long ttlMillis) {
+        return run(() -> keyValueApi.put(key, value, ttlMillis));
+    }
+
+    @Override
+    public CompletableFuture<Optional<byte[]>> getAsync(final String key) {
+        return supply(() -> keyValueApi.get(key));
+    }
+
+    @Override
+    public CompletableFuture<Optional<VersionedValue>> getVersionedAsync(final String key) {
+        return supply(() -> keyValueApi.getVersioned(key));
+    }
+
+    @Override
+    public CompletableFuture<OptionalLong> putIfAbsentAsync(final String key, final byte[] value) {
+        return supply(() -> keyValueApi.putIfAbsent(key, value));
+    }
+
+    @Override
+    public CompletableFuture<OptionalLong> putIfVersionAsync(final String key, final byte[] value, final long version) {
+        return supply(() -> keyValueApi.putIfVersion(key, value, version));
+    }
+
+    @Override
+    public CompletableFuture<Set<String>> getKeysAsync(final String prefix) {
+        return supply(() -> keyValueApi.getKeys(prefix));
+    }
+
+    @Override
+    public CompletableFuture<List<String>> getKeysAsync(final String prefix, final String after, final int limit) {
+        return supply(() -> keyValueApi.getKeys(prefix, after, limit));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(final String key) {
+        return run(() -> keyValueApi.delete(key));
+    }
+
+    @Override
+    public CompletableFuture<Void> putAllAsync(final Map<String, byte[]> entries) {
+        return run(() -> keyValueApi.putAll(entries));
+    }
+
+    @Override
+    public CompletableFuture<Map<String, byte[]>> getAllAsync(final Collection<String> keys) {
+        return supply(() -> keyValueApi.getAll(keys));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAllAsync(final Collection<String> keys) {
+        return run(() -> keyValueApi.deleteAll(keys));
+    }
+
+    @Override
+    public CompletableFuture<Set<NodeInfo>> getInfoAsync() {
+        return supply(keyValueApi::getInfo);
+    }
+
+    @Override
+    public CompletableFuture<Void> actionAsync(final String node, final NodeAction action) {
+        return run(() -> keyValueApi.action(node, action));
+    }
+
+    @Override
+    public AsyncKeyValueApi withDeadline(final Deadline deadline) {
+        Require.nonNull(deadline, "null deadline");
+        return new ExecutorAsyncKeyValueApi(keyValueApi, executor, deadline);
+    }
+
+    private CompletableFuture<Void> run(final Runnable operation) {
+        return supply(() -> {
+            operation.run();
+            return null;
+        });
+    }
+
+    private <T> CompletableFuture<T> supply(final Supplier<T> operation) {
+        return CompletableFuture.supplyAsync(() -> {
+            if (deadline != null) {
+                deadline.check("queued past the deadline");
+            }
+            return operation.get();
+        }, executor);
+    }
+}
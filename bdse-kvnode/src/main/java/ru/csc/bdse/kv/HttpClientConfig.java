@@ -0,0 +1,163 @@
+package ru.csc.bdse.kv;
+
+/**
+ * Transport settings of {@link KeyValueApiHttpClient}. Instances are immutable,
+ * every {@code with*} method returns a modified copy.
+ */
+public final class HttpClientConfig {
+
+    public static final HttpClientConfig DEFAULT = new HttpClientConfig(
+            200, 1000, 5000, 30_000, -1, 1000, 4 * 1024 * 1024, 4, 50);
+
+    private final int maxConnections;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final long keepAliveMillis;
+    private final int gzipThresholdBytes;
+    private final int maxBatchKeys;
+    private final int maxBatchBytes;
+    private final int maxRetries;
+    private final long retryBackoffMillis;
+
+    private HttpClientConfig(final int maxConnections,
+                             final int connectTimeoutMillis,
+                             final int readTimeoutMillis,
+                             final long keepAliveMillis,
+                             final int gzipThresholdBytes,
+                             final int maxBatchKeys,
+                             final int maxBatchBytes,
+                             final int maxRetries,
+                             final long retryBackoffMillis) {
+        if (maxConnections <= 0) throw new IllegalArgumentException("non-positive max connections");
+        if (connectTimeoutMillis < 0) throw new IllegalArgumentException("negative connect timeout");
+        if (readTimeoutMillis < 0) throw new IllegalArgumentException("negative read timeout");
+        if (keepAliveMillis <= 0) throw new IllegalArgumentException("non-positive keep-alive");
+        if (maxBatchKeys <= 0) throw new IllegalArgumentException("non-positive max batch keys");
+        if (maxBatchBytes <= 0) throw new IllegalArgumentException("non-positive max batch bytes");
+        if (maxRetries < 0) throw new IllegalArgumentException("negative max retries");
+        if (retryBackoffMillis <= 0) throw new IllegalArgumentException("non-positive retry backoff");
+        this.maxConnections = maxConnections;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.keepAliveMillis = keepAliveMillis;
+        this.gzipThresholdBytes = gzipThresholdBytes;
+        this.maxBatchKeys = maxBatchKeys;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxRetries = maxRetries;
+        this.retryBackoffMillis = retryBackoffMillis;
+    }
+
+    /**
+     * Maximum number of pooled connections, i.e. of requests in flight at the same time.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Zero means no timeout.
+     */
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * Maximum inactivity while waiting for response data, zero means no timeout.
+     */
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    /**
+     * How long an idle connection is kept in the pool unless the server asks for less.
+     */
+    public long getKeepAliveMillis() {
+        return keepAliveMillis;
+    }
+
+    /**
+     * Request bodies of this size or bigger are gzipped, negative value disables compression
+     * of both requests and responses.
+     */
+    public int getGzipThresholdBytes() {
+        return gzipThresholdBytes;
+    }
+
+    public boolean isGzipEnabled() {
+        return gzipThresholdBytes >= 0;
+    }
+
+    /**
+     * Batches with more keys are split into several requests.
+     */
+    public int getMaxBatchKeys() {
+        return maxBatchKeys;
+    }
+
+    /**
+     * Batches of puts bigger than this are split into several requests,
+     * a single bigger entry is still sent as one request.
+     */
+    public int getMaxBatchBytes() {
+        return maxBatchBytes;
+    }
+
+    /**
+     * How many times a request refused by an overloaded node is retried, zero disables retries.
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Pause before the first retry is random up to this, every next retry doubles the bound.
+     */
+    public long getRetryBackoffMillis() {
+        return retryBackoffMillis;
+    }
+
+    public HttpClientConfig withMaxConnections(final int maxConnections) {
+        return new HttpClientConfig(maxConnections, connectTimeoutMillis, readTimeoutMillis,
+                keepAliveMillis, gzipThresholdBytes, maxBatchKeys, maxBatchBytes, maxRetries, retryBackoffMillis);
+    }
+
+    public HttpClientConfig withTimeouts(final int connectTimeoutMillis, final int readTimeoutMillis) {
+        return new HttpClientConfig(maxConnections, connectTimeoutMillis, readTimeoutMillis,
+                keepAliveMillis, gzipThresholdBytes, maxBatchKeys, maxBatchBytes, maxRetries, retryBackoffMillis);
+    }
+
+    public HttpClientConfig withKeepAliveMillis(final long keepAliveMillis) {
+        return new HttpClientConfig(maxConnections, connectTimeoutMillis, readTimeoutMillis,
+                keepAliveMillis, gzipThresholdBytes, maxBatchKeys, maxBatchBytes, maxRetries, retryBackoffMillis);
+    }
+
+    public HttpClientConfig withGzipThresholdBytes(final int gzipThresholdBytes) {
+        return new HttpClientConfig(maxConnections, connectTimeoutMillis, readTimeoutMillis,
+                keepAliveMillis, gzipThresholdBytes, maxBatchKeys, maxBatchBytes, maxRetries, retryBackoffMillis);
+    }
+
+    public HttpClientConfig withBatchLimits(final int maxBatchKeys, final int maxBatchBytes) {
+        return new HttpClientConfig(maxConnections, connectTimeoutMillis, readTimeoutMillis,
+                keepAliveMillis, gzipThresholdBytes, maxBatchKeys, maxBatchBytes, maxRetries, retryBackoffMillis);
+    }
+
+    public HttpClientConfig withRetries(final int maxRetries, final long retryBackoffMillis) {
+        return new HttpClientConfig(maxConnections, connectTimeoutMillis, readTimeoutMillis,
+                keepAliveMillis, gzipThresholdBytes, maxBatchKeys, maxBatchBytes, maxRetries, retryBackoffMillis);
+    }
+
+    @Override
+    public String toString() {
+        return "HttpClientConfig{" +
+                "maxConnections=" + maxConnections +
+                ", connectTimeoutMillis=" + connectTimeoutMillis +
+                ", readTimeoutMillis=" + readTimeoutMillis +
+                ", keepAliveMillis=" + keepAliveMillis +
+                ", gzipThresholdBytes=" + gzipThresholdBytes +
+                ", maxBatchKeys=" + maxBatchKeys +
+                ", maxBatchBytes=" + maxBatchBytes +
+                ", maxRetries=" + maxRetries +
+                ", retryBackoffMillis=" + retryBackoffMillis +
+                '}';
+    }
+}
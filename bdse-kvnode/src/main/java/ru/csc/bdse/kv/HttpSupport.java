@@ -0,0 +1,245 @@
+package ru.csc.bdse.kv;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.util.UriUtils;
+import ru.csc.bdse.util.Constants;
+import ru.csc.bdse.util.ETag;
+import ru.csc.bdse.util.Encoding;
+import ru.csc.bdse.util.Require;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Request building and response parsing shared by the blocking and asynchronous http clients.
+ */
+final class HttpSupport {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private HttpSupport() {
+
+    }
+
+    static URI keyUri(final String baseUrl, final String key) {
+        try {
+            return URI.create(baseUrl + "/key-value/" + UriUtils.encodePathSegment(key, "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Uri of a put which expires after the ttl.
+     */
+    static URI keyUri(final String baseUrl, final String key, final long ttlMillis) {
+        return URI.create(keyUri(baseUrl, key) + "?ttl=" + ttlMillis);
+    }
+
+    static URI actionUri(final String baseUrl, final String node, final NodeAction action) {
+        try {
+            return URI.create(baseUrl + "/action/" + UriUtils.encodePathSegment(node, "UTF-8") + "/" + action.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static URI keysUri(final String baseUrl, final String prefix, final String after, final Integer limit) {
+        final StringBuilder url = new StringBuilder(baseUrl).append("/key-value?prefix=").append(Encoding.encodeUrl(prefix));
+        if (after != null) {
+            url.append("&after=").append(Encoding.encodeUrl(after));
+        }
+        if (limit != null) {
+            url.append("&limit=").append(limit);
+        }
+        return URI.create(url.toString());
+    }
+
+    static URI changesUri(final String baseUrl, final Long from, final int limit, final long timeoutMillis) {
+        final StringBuilder url = new StringBuilder(baseUrl).append("/changes?limit=").append(limit)
+                .append("&timeout=").append(timeoutMillis);
+        if (from != null) {
+            url.append("&from=").append(from);
+        }
+        return URI.create(url.toString());
+    }
+
+    /**
+     * Returns the pause before the retry with that number, counting from zero: exponential backoff with full jitter,
+     * so clients refused at the same moment do not come back at the same moment.
+     */
+    static long retryBackoffMillis(final HttpClientConfig config, final int retry) {
+        final long bound = config.getRetryBackoffMillis() << Math.min(retry, 20);
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    /**
+     * Returns the pause asked for in {@code Retry-After}, zero if there is no such header or it is not a number
+     * of seconds.
+     */
+    static long retryAfterMillis(final HttpHeaders headers) {
+        final String retryAfter = headers == null ? null : headers.getFirst(HttpHeaders.RETRY_AFTER);
+        if (retryAfter == null) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(retryAfter.trim())));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Gzips big bodies, the node unpacks them in {@code GzipRequestFilter}.
+     */
+    static HttpEntity<byte[]> entity(final HttpClientConfig config, final byte[] body) {
+        return entity(config, body, new HttpHeaders());
+    }
+
+    static HttpEntity<byte[]> entity(final HttpClientConfig config, final byte[] body, final HttpHeaders headers) {
+        if (!config.isGzipEnabled() || body.length == 0 || body.length < config.getGzipThresholdBytes()) {
+            return new HttpEntity<>(body, headers);
+        }
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 2 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        final HttpHeaders gzipHeaders = new HttpHeaders();
+        gzipHeaders.putAll(headers);
+        gzipHeaders.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+        return new HttpEntity<>(compressed.toByteArray(), gzipHeaders);
+    }
+
+    /**
+     * Headers making a put conditional: on absence of the key or, for a real version, on the version.
+     */
+    static HttpHeaders putCondition(final Long version) {
+        final HttpHeaders headers = new HttpHeaders();
+        if (version == null) {
+            headers.setIfNoneMatch("*");
+        } else {
+            headers.setIfMatch(ETag.format(version));
+        }
+        return headers;
+    }
+
+    static VersionedValue versioned(final ResponseEntity<byte[]> responseEntity) {
+        final String tag = responseEntity.getHeaders().getETag();
+        final byte[] body = responseEntity.getBody() == null ? Constants.EMPTY_BYTE_ARRAY : responseEntity.getBody();
+        return new VersionedValue(body, tag == null ? VersionedValue.NO_VERSION : ETag.parse(tag));
+    }
+
+    /**
+     * Turns the answer to a conditional put into its result, 412 means the condition did not hold.
+     */
+    static OptionalLong putResult(final ResponseEntity<byte[]> responseEntity) {
+        switch (responseEntity.getStatusCode()) {
+            case OK:
+                final String tag = responseEntity.getHeaders().getETag();
+                if (tag == null) throw new RuntimeException("Response error: no version of written value");
+                return OptionalLong.of(ETag.parse(tag));
+            case PRECONDITION_FAILED:
+                return OptionalLong.empty();
+            default:
+                throw new RuntimeException("Response error: " + responseEntity);
+        }
+    }
+
+    /**
+     * Parses JSON array of keys straight from the stream, without buffering the whole body.
+     */
+    static void readKeys(final InputStream in, final Collection<String> keys) throws IOException {
+        try (JsonParser parser = JSON.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new RuntimeException("Response error: array of keys expected");
+            }
+            while (parser.nextToken() == JsonToken.VALUE_STRING) {
+                keys.add(parser.getText());
+            }
+        }
+    }
+
+    /**
+     * Splits entries into chunks of at most {@code maxKeys} entries and about {@code maxBytes} encoded bytes,
+     * a single bigger entry makes its own chunk.
+     */
+    static List<Map<String, byte[]>> entryChunks(final Map<String, byte[]> entries, final int maxKeys, final int maxBytes) {
+        final List<Map<String, byte[]>> chunks = new ArrayList<>();
+        Map<String, byte[]> chunk = new LinkedHashMap<>();
+        int chunkBytes = 0;
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            Require.nonNull(entry.getKey(), "null key");
+            Require.nonNull(entry.getValue(), "null value");
+            final int entryBytes = BatchCodec.encodedSize(entry.getKey(), entry.getValue());
+            if (!chunk.isEmpty() && (chunk.size() >= maxKeys || chunkBytes + entryBytes > maxBytes)) {
+                chunks.add(chunk);
+                chunk = new LinkedHashMap<>();
+                chunkBytes = 0;
+            }
+            chunk.put(entry.getKey(), entry.getValue());
+            chunkBytes += entryBytes;
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    static List<List<String>> keyChunks(final Collection<String> keys, final int maxKeys) {
+        final List<List<String>> chunks = new ArrayList<>();
+        List<String> chunk = new ArrayList<>();
+        for (String key : keys) {
+            Require.nonNull(key, "null key");
+            if (chunk.size() >= maxKeys) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+            }
+            chunk.add(key);
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    static RequestConfig requestConfig(final HttpClientConfig config) {
+        return RequestConfig.custom()
+                .setConnectTimeout(config.getConnectTimeoutMillis())
+                .setConnectionRequestTimeout(config.getConnectTimeoutMillis())
+                .setSocketTimeout(config.getReadTimeoutMillis())
+                .build();
+    }
+
+    /**
+     * Keeps idle connections for the configured period unless the server asks for less.
+     */
+    static ConnectionKeepAliveStrategy keepAliveStrategy(final HttpClientConfig config) {
+        return (response, context) -> {
+            final long suggested = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return suggested > 0 ? Math.min(suggested, config.getKeepAliveMillis()) : config.getKeepAliveMillis();
+        };
+    }
+}
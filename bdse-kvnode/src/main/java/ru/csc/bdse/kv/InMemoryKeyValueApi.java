@@ -1,23 +1,62 @@
 package ru.csc.bdse.kv;
 
+import ru.csc.bdse.kv.expiry.TimingWheel;
+import ru.csc.bdse.kv.snapshot.SnapshotFile;
+import ru.csc.bdse.kv.snapshot.SnapshotInfo;
+import ru.csc.bdse.kv.snapshot.Snapshottable;
+import ru.csc.bdse.util.Prefix;
 import ru.csc.bdse.util.Require;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 /**
  * Trivial in-memory implementation of the storage unit.
+ * Keys are kept sorted, so listing by prefix is a range scan over matching keys only.
+ * <p>
+ * Every write gets a new version from a storage-wide counter, so a version is never reused for a key even after
+ * its deletion. Conditional writes are compare-and-set of the map entry and take no locks.
+ * <p>
+ * Keys put with a ttl are never returned after their expiry: reads remove expired entries they meet,
+ * and a sweeper thread, started with the first such put, removes the rest in batches as a {@link TimingWheel}
+ * hands them out, without scanning the map.
+ * <p>
+ * State survives restarts only as a snapshot, see {@link #snapshot(Path)}.
  *
  * @author semkagtn
  */
-public class InMemoryKeyValueApi implements KeyValueApi {
+public class InMemoryKeyValueApi implements KeyValueApi, Snapshottable, Closeable {
+
+    public static final long SWEEP_TICK_MILLIS = 100;
+
+    private static final long NEVER = 0;
 
     private final String name;
-    private final ConcurrentMap<String, byte[]> map = new ConcurrentHashMap<>();
+    private volatile ConcurrentNavigableMap<String, Entry> map = new ConcurrentSkipListMap<>();
+    private final AtomicLong versions = new AtomicLong();
+    private final TimingWheel<String> expiryWheel = new TimingWheel<>(SWEEP_TICK_MILLIS, System.currentTimeMillis());
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder keyCount = new LongAdder();
+    private volatile ScheduledExecutorService sweeper;
 
     public InMemoryKeyValueApi(final String name) {
         Require.nonEmpty(name, "empty name");
@@ -28,28 +67,114 @@ public class InMemoryKeyValueApi implements KeyValueApi {
     public void put(final String key, final byte[] value) {
         Require.nonEmpty(key, "empty key");
         Require.nonNull(value, "null value");
-        map.put(key, value);
+        if (map.put(key, new Entry(value, versions.incrementAndGet(), NEVER)) == null) {
+            keyCount.increment();
+        }
+    }
+
+    @Override
+    public void put(final String key, final byte[] value, final long ttlMillis) {
+        Require.nonEmpty(key, "empty key");
+        Require.nonNull(value, "null value");
+        if (ttlMillis <= 0) throw new IllegalArgumentException("non-positive ttl");
+        final long expiresAt = System.currentTimeMillis() + ttlMillis;
+        if (map.put(key, new Entry(value, versions.incrementAndGet(), expiresAt)) == null) {
+            keyCount.increment();
+        }
+        scheduleExpiry(key, expiresAt);
     }
 
     @Override
     public Optional<byte[]> get(final String key) {
         Require.nonEmpty(key, "empty key");
-        return Optional.ofNullable(map.get(key));
+        final Entry entry = live(key, map.get(key));
+        return entry == null ? Optional.empty() : Optional.of(entry.value);
+    }
+
+    @Override
+    public Optional<VersionedValue> getVersioned(final String key) {
+        Require.nonEmpty(key, "empty key");
+        final Entry entry = live(key, map.get(key));
+        return entry == null ? Optional.empty() : Optional.of(new VersionedValue(entry.value, entry.version));
+    }
+
+    /**
+     * An expired value counts as absent, the new value has no ttl.
+     */
+    @Override
+    public OptionalLong putIfAbsent(final String key, final byte[] value) {
+        Require.nonEmpty(key, "empty key");
+        Require.nonNull(value, "null value");
+        final Entry entry = new Entry(value, versions.incrementAndGet(), NEVER);
+        while (true) {
+            final Entry current = map.putIfAbsent(key, entry);
+            if (current == null) {
+                keyCount.increment();
+                return OptionalLong.of(entry.version);
+            }
+            if (!current.isExpired(System.currentTimeMillis())) {
+                return OptionalLong.empty();
+            }
+            if (map.replace(key, current, entry)) {
+                expired.increment();
+                return OptionalLong.of(entry.version);
+            }
+        }
+    }
+
+    /**
+     * The new value has no ttl.
+     */
+    @Override
+    public OptionalLong putIfVersion(final String key, final byte[] value, final long version) {
+        Require.nonEmpty(key, "empty key");
+        Require.nonNull(value, "null value");
+        final Entry current = live(key, map.get(key));
+        if (current == null || current.version != version) {
+            return OptionalLong.empty();
+        }
+        // entries are compared by identity, so a concurrent write in between fails the replace
+        final Entry entry = new Entry(value, versions.incrementAndGet(), NEVER);
+        return map.replace(key, current, entry) ? OptionalLong.of(entry.version) : OptionalLong.empty();
     }
 
     @Override
     public Set<String> getKeys(String prefix) {
         Require.nonNull(prefix, "null prefix");
-        return map.keySet()
-                .stream()
-                .filter(key -> key.startsWith(prefix))
+        final long now = System.currentTimeMillis();
+        return Prefix.subMap(map, prefix).entrySet().stream()
+                .filter(entry -> !entry.getValue().isExpired(now))
+                .map(Map.Entry::getKey)
                 .collect(Collectors.toSet());
     }
 
+    @Override
+    public List<String> getKeys(String prefix, String after, int limit) {
+        Require.nonNull(prefix, "null prefix");
+        final long now = System.currentTimeMillis();
+        return Prefix.keys(map, prefix, after, limit, entry -> !entry.isExpired(now));
+    }
+
     @Override
     public void delete(final String key) {
         Require.nonEmpty(key, "empty key");
-        map.remove(key);
+        if (map.remove(key) != null) {
+            keyCount.decrement();
+        }
+    }
+
+    @Override
+    public Map<String, Long> getExpiryTimes(final Collection<String> keys) {
+        Require.nonNull(keys, "null keys");
+        final long now = System.currentTimeMillis();
+        final Map<String, Long> expiryTimes = new HashMap<>();
+        for (String key : keys) {
+            final Entry entry = map.get(key);
+            if (entry != null && entry.expiresAt != NEVER && !entry.isExpired(now)) {
+                expiryTimes.put(key, entry.expiresAt);
+            }
+        }
+        return expiryTimes;
     }
 
     @Override
@@ -62,4 +187,136 @@ public class InMemoryKeyValueApi implements KeyValueApi {
         throw new RuntimeException("action not implemented now");
     }
 
+    /**
+     * Keys whose ttl has just passed are counted until a read or the sweeper removes them.
+     */
+    @Override
+    public OptionalLong getKeyCount() {
+        return OptionalLong.of(keyCount.sum());
+    }
+
+    /**
+     * Returns the number of keys removed because their ttl passed.
+     */
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    /**
+     * Writes entries by a weakly consistent iteration: every entry is saved as it was at some moment during
+     * the snapshot, entries written meanwhile may be missed. Take the node down first for an exact point in time.
+     * Expired entries are skipped, the others keep their expiry time.
+     */
+    @Override
+    public synchronized SnapshotInfo snapshot(final Path file) throws IOException {
+        final long now = System.currentTimeMillis();
+        final Iterator<Map.Entry<String, Entry>> entries = map.entrySet().stream()
+                .filter(entry -> !entry.getValue().isExpired(now))
+                .iterator();
+        return SnapshotFile.write(file, new Iterator<SnapshotFile.Entry>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public SnapshotFile.Entry next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                final Map.Entry<String, Entry> entry = entries.next();
+                final Entry value = entry.getValue();
+                return new SnapshotFile.Entry(entry.getKey(), value.value, value.version, value.expiresAt);
+            }
+        });
+    }
+
+    /**
+     * Loads the snapshot aside and then replaces the content at once, so a corrupted file changes nothing.
+     * Writes which arrive during the restore are lost. Versions continue after the largest restored one,
+     * entries which expired since the snapshot are dropped.
+     */
+    @Override
+    public synchronized SnapshotInfo restore(final Path file) throws IOException {
+        final long now = System.currentTimeMillis();
+        final ConcurrentNavigableMap<String, Entry> restored = new ConcurrentSkipListMap<>();
+        final SnapshotInfo info = SnapshotFile.read(file, (key, value, version, expiresAt) -> {
+            versions.accumulateAndGet(version, Math::max);
+            final Entry entry = new Entry(value, version, expiresAt);
+            if (!entry.isExpired(now)) {
+                restored.put(key, entry);
+                if (expiresAt != NEVER) {
+                    scheduleExpiry(key, expiresAt);
+                }
+            }
+        });
+        map = restored;
+        keyCount.reset();
+        keyCount.add(restored.size());
+        return info;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the entry if it is not expired, an expired one is removed.
+     */
+    private Entry live(final String key, final Entry entry) {
+        if (entry == null || !entry.isExpired(System.currentTimeMillis())) {
+            return entry;
+        }
+        if (map.remove(key, entry)) {
+            keyCount.decrement();
+            expired.increment();
+        }
+        return null;
+    }
+
+    private void scheduleExpiry(final String key, final long expiresAt) {
+        expiryWheel.schedule(key, expiresAt);
+        if (sweeper == null) {
+            startSweeper();
+        }
+    }
+
+    private synchronized void startSweeper() {
+        if (sweeper != null) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "expiry-sweeper-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_TICK_MILLIS, SWEEP_TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Removes keys the wheel hands out unless they were rewritten with a later expiry or without one.
+     */
+    private void sweep() {
+        for (String key : expiryWheel.advance(System.currentTimeMillis())) {
+            live(key, map.get(key));
+        }
+    }
+
+    private static final class Entry {
+
+        private final byte[] value;
+        private final long version;
+        private final long expiresAt;
+
+        private Entry(final byte[] value, final long version, final long expiresAt) {
+            this.value = value;
+            this.version = version;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(final long now) {
+            return expiresAt != NEVER && expiresAt <= now;
+        }
+    }
 }
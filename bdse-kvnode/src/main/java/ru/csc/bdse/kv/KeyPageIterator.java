@@ -0,0 +1,43 @@
+package ru.csc.bdse.kv;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over keys with a prefix requesting the next page only when the current one is exhausted.
+ */
+class KeyPageIterator implements Iterator<String> {
+
+    private final KeyValueApi api;
+    private final String prefix;
+    private final int pageSize;
+    private List<String> page;
+    private int position;
+
+    KeyPageIterator(final KeyValueApi api, final String prefix, final String after, final int pageSize) {
+        this.api = api;
+        this.prefix = prefix;
+        this.pageSize = pageSize;
+        this.page = api.getKeys(prefix, after, pageSize);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (position < page.size()) {
+            return true;
+        }
+        if (page.size() < pageSize) {
+            return false;
+        }
+        page = api.getKeys(prefix, page.get(page.size() - 1), pageSize);
+        position = 0;
+        return !page.isEmpty();
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return page.get(position++);
+    }
+}
@@ -1,7 +1,9 @@
 package ru.csc.bdse.kv;
 
-import java.util.Optional;
-import java.util.Set;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * @author semkagtn
@@ -13,21 +15,147 @@ public interface KeyValueApi {
      */
     void put(String key, byte[] value);
 
+    /**
+     * Puts value by specified key for {@code ttlMillis}, after that the key is gone as if it was deleted.
+     * A later put without ttl makes the key permanent again.
+     *
+     * @throws UnsupportedOperationException if the storage does not expire keys
+     */
+    default void put(String key, byte[] value, long ttlMillis) {
+        throw new UnsupportedOperationException("ttl is not supported");
+    }
+
     /**
      * Returns value associated with specified key.
      */
     Optional<byte[]> get(String key);
 
+    /**
+     * Returns value associated with specified key together with its version, which changes on every write
+     * of the key. Storages which do not version values report {@link VersionedValue#NO_VERSION}.
+     */
+    default Optional<VersionedValue> getVersioned(String key) {
+        return get(key).map(value -> new VersionedValue(value, VersionedValue.NO_VERSION));
+    }
+
+    /**
+     * Atomically puts value by specified key if there is no value yet.
+     *
+     * @return version of the written value or empty if the key already has a value
+     * @throws UnsupportedOperationException if the storage has no conditional writes
+     */
+    default OptionalLong putIfAbsent(String key, byte[] value) {
+        throw new UnsupportedOperationException("conditional put is not supported");
+    }
+
+    /**
+     * Atomically replaces value by specified key if its current version is the given one,
+     * so read-modify-write cycles of concurrent clients do not overwrite each other.
+     *
+     * @return version of the written value or empty if the key has no value or a different version
+     * @throws UnsupportedOperationException if the storage has no conditional writes
+     */
+    default OptionalLong putIfVersion(String key, byte[] value, long version) {
+        throw new UnsupportedOperationException("conditional put is not supported");
+    }
+
     /**
      * Returns all keys with specified prefix.
      */
     Set<String> getKeys(String prefix);
 
+    /**
+     * Returns up to {@code limit} keys with specified prefix which are greater than {@code after},
+     * in ascending order. Null {@code after} means the page starts from the first key with the prefix.
+     * Implementations with sorted keys should override this, the default one sorts all matching keys.
+     */
+    default List<String> getKeys(String prefix, String after, int limit) {
+        if (limit <= 0) throw new IllegalArgumentException("non-positive limit");
+        return getKeys(prefix).stream()
+                .filter(key -> after == null || key.compareTo(after) > 0)
+                .sorted()
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns all keys with specified prefix in ascending order, fetching them lazily by pages of specified size.
+     * Keys added or deleted during the iteration may be missed.
+     */
+    default Stream<String> streamKeys(String prefix, int pageSize) {
+        return streamKeys(prefix, null, pageSize);
+    }
+
+    /**
+     * Returns keys with specified prefix which are greater than {@code after} in ascending order, see
+     * {@link #streamKeys(String, int)}. Storages whose pages cost a pass over all keys should override this
+     * to list in one pass, decorators should pass it to the storage they wrap.
+     */
+    default Stream<String> streamKeys(String prefix, String after, int pageSize) {
+        if (pageSize <= 0) throw new IllegalArgumentException("non-positive page size");
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new KeyPageIterator(this, prefix, after, pageSize),
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
     /**
      * Deletes value associated with specified key from the storage.
      */
     void delete(String key);
 
+    /**
+     * Puts all values to the storage by their keys.
+     */
+    default void putAll(Map<String, byte[]> entries) {
+        entries.forEach(this::put);
+    }
+
+    /**
+     * Returns values associated with specified keys, keys without value are omitted.
+     */
+    default Map<String, byte[]> getAll(Collection<String> keys) {
+        final Map<String, byte[]> values = new HashMap<>();
+        for (String key : keys) {
+            get(key).ifPresent(value -> values.put(key, value));
+        }
+        return values;
+    }
+
+    /**
+     * Returns up to {@code headBytes} first bytes of values associated with specified keys, keys without value
+     * are omitted. Meant for callers which need only a header of values, e.g. their versions;
+     * remote storages should override this to send only the heads.
+     */
+    default Map<String, byte[]> getAllHeads(Collection<String> keys, int headBytes) {
+        if (headBytes < 0) throw new IllegalArgumentException("negative head bytes");
+        final Map<String, byte[]> heads = new HashMap<>();
+        getAll(keys).forEach((key, value) ->
+                heads.put(key, value.length > headBytes ? Arrays.copyOf(value, headBytes) : value));
+        return heads;
+    }
+
+    /**
+     * Deletes values associated with specified keys from the storage.
+     */
+    default void deleteAll(Collection<String> keys) {
+        keys.forEach(this::delete);
+    }
+
+    /**
+     * Returns the times, in milliseconds since the epoch, at which keys put with a ttl expire, keys without
+     * a ttl or without value are omitted. Storages which do not expire keys return an empty map.
+     */
+    default Map<String, Long> getExpiryTimes(Collection<String> keys) {
+        return new HashMap<>();
+    }
+
+    /**
+     * Returns the number of keys if the storage keeps count of them, so that asking is cheap,
+     * or empty if only a listing of all keys would tell.
+     */
+    default OptionalLong getKeyCount() {
+        return OptionalLong.empty();
+    }
+
     /**
      * Returns info about all nodes.
      */
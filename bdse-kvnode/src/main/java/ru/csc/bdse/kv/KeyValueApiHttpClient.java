@@ -1,35 +1,143 @@
 package ru.csc.bdse.kv;
 
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
+import ru.csc.bdse.kv.changelog.ChangeBatch;
+import ru.csc.bdse.kv.changelog.TruncatedChangelogException;
+import ru.csc.bdse.kv.merkle.MerkleTreeApi;
 import ru.csc.bdse.util.Constants;
-import ru.csc.bdse.util.Encoding;
 import ru.csc.bdse.util.Require;
 
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Optional;
-import java.util.Set;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
  * Http client for storage unit.
+ * <p>
+ * By default requests go through a pool of keep-alive connections, see {@link HttpClientConfig}
+ * for its settings. The client owns the pool, so it should be closed when it is not needed anymore.
+ * Requests refused by an overloaded node with 429 are retried after random pauses growing exponentially,
+ * but not shorter than the node asked for in {@code Retry-After}; the node refuses them before doing anything,
+ * so this is safe for conditional puts too.
+ * {@link NodeOverloadedException} is thrown when the retries run out.
  *
  * @author semkagtn
  */
-public class KeyValueApiHttpClient implements KeyValueApi {
+public class KeyValueApiHttpClient implements KeyValueApi, MerkleTreeApi, Closeable {
+
+    public static final int DEFAULT_MAX_BATCH_KEYS = HttpClientConfig.DEFAULT.getMaxBatchKeys();
+    public static final int DEFAULT_MAX_BATCH_BYTES = HttpClientConfig.DEFAULT.getMaxBatchBytes();
 
     private final String baseUrl;
-    private final RestTemplate rest = new RestTemplate();
+    private final HttpClientConfig config;
+    private final ClientHttpRequestFactory requestFactory;
+    private final boolean ownsRequestFactory;
+    private final RestTemplate rest;
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final URI infoUri;
+    private final URI batchPutUri;
+    private final URI batchGetUri;
+    private final URI batchDeleteUri;
+    private final URI merkleUri;
+    private final URI merkleHashesUri;
+    private final URI merkleLeavesUri;
 
     public KeyValueApiHttpClient(final String baseUrl) {
+        this(baseUrl, HttpClientConfig.DEFAULT);
+    }
+
+    /**
+     * @param maxBatchKeys  batches with more keys are split into several requests
+     * @param maxBatchBytes batches of puts bigger than this are split into several requests,
+     *                      a single bigger entry is still sent as one request
+     */
+    public KeyValueApiHttpClient(final String baseUrl, final int maxBatchKeys, final int maxBatchBytes) {
+        this(baseUrl, HttpClientConfig.DEFAULT.withBatchLimits(maxBatchKeys, maxBatchBytes));
+    }
+
+    public KeyValueApiHttpClient(final String baseUrl, final HttpClientConfig config) {
+        this(baseUrl, config, pooledRequestFactory(config), true);
+    }
+
+    /**
+     * Sends requests through the given factory, e.g. to share one connection pool between several clients.
+     * The factory is not closed together with the client.
+     * Only batch limits and the gzip threshold of the config take effect.
+     * Reads with a timeout stop waiting for the node in time only with a factory from {@link #pooledRequestFactory},
+     * other factories wait as long as their own timeouts allow.
+     */
+    public KeyValueApiHttpClient(final String baseUrl,
+                                 final HttpClientConfig config,
+                                 final ClientHttpRequestFactory requestFactory) {
+        this(baseUrl, config, requestFactory, false);
+    }
+
+    private KeyValueApiHttpClient(final String baseUrl,
+                                  final HttpClientConfig config,
+                                  final ClientHttpRequestFactory requestFactory,
+                                  final boolean ownsRequestFactory) {
         Require.nonEmpty(baseUrl, "empty base url");
+        Require.nonNull(config, "null config");
+        Require.nonNull(requestFactory, "null request factory");
         this.baseUrl = baseUrl;
+        this.config = config;
+        this.requestFactory = requestFactory;
+        this.ownsRequestFactory = ownsRequestFactory;
+        this.rest = new RestTemplate(requestFactory);
+        this.infoUri = URI.create(baseUrl + "/info");
+        this.batchPutUri = URI.create(baseUrl + "/batch/put");
+        this.batchGetUri = URI.create(baseUrl + "/batch/get");
+        this.batchDeleteUri = URI.create(baseUrl + "/batch/delete");
+        this.merkleUri = URI.create(baseUrl + "/merkle");
+        this.merkleHashesUri = URI.create(baseUrl + "/merkle/hashes");
+        this.merkleLeavesUri = URI.create(baseUrl + "/merkle/leaves");
+    }
+
+    /**
+     * Creates request factory backed by a pool of keep-alive connections to any number of nodes.
+     * Idle connections are evicted by a background thread after the keep-alive period.
+     * Reads with a timeout wait for the node no longer than the time left, see {@link #get(String, long)}.
+     */
+    public static HttpComponentsClientHttpRequestFactory pooledRequestFactory(final HttpClientConfig config) {
+        final PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager();
+        pool.setMaxTotal(config.getMaxConnections());
+        pool.setDefaultMaxPerRoute(config.getMaxConnections());
+
+        final RequestConfig requestConfig = HttpSupport.requestConfig(config);
+        final HttpClientBuilder builder = HttpClients.custom()
+                .setConnectionManager(pool)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(HttpSupport.keepAliveStrategy(config))
+                .evictIdleConnections(config.getKeepAliveMillis(), TimeUnit.MILLISECONDS)
+                .disableCookieManagement()
+                .disableAuthCaching();
+        if (!config.isGzipEnabled()) {
+            builder.disableContentCompression();
+        }
+        return new DeadlineRequestFactory(builder.build(), requestConfig);
     }
 
     @Override
@@ -37,8 +145,18 @@ public class KeyValueApiHttpClient implements KeyValueApi {
         Require.nonNull(key, "null key");
         Require.nonNull(value, "null value");
 
-        final String url = baseUrl + "/key-value/" + key;
-        final ResponseEntity<byte[]> responseEntity = request(url, HttpMethod.PUT, value);
+        final ResponseEntity<byte[]> responseEntity = request(HttpSupport.keyUri(baseUrl, key), HttpMethod.PUT, value);
+        if (responseEntity.getStatusCode() != HttpStatus.OK) {
+            throw new RuntimeException("Response error: " + responseEntity);
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] value, long ttlMillis) {
+        Require.nonNull(key, "null key");
+        Require.nonNull(value, "null value");
+
+        final ResponseEntity<byte[]> responseEntity = request(HttpSupport.keyUri(baseUrl, key, ttlMillis), HttpMethod.PUT, value);
         if (responseEntity.getStatusCode() != HttpStatus.OK) {
             throw new RuntimeException("Response error: " + responseEntity);
         }
@@ -48,11 +166,26 @@ public class KeyValueApiHttpClient implements KeyValueApi {
     public Optional<byte[]> get(String key) {
         Require.nonNull(key, "null key");
 
-        final String url = baseUrl + "/key-value/" + key;
-        final ResponseEntity<byte[]> responseEntity = request(url, HttpMethod.GET, Constants.EMPTY_BYTE_ARRAY);
+        return value(request(HttpSupport.keyUri(baseUrl, key), HttpMethod.GET, Constants.EMPTY_BYTE_ARRAY));
+    }
+
+    /**
+     * Same as {@link #get(String)}, but gives up after the timeout, which is passed to the node too, so it abandons
+     * the read instead of finishing it for nobody. The wait for the answer is bounded by the time left rather than
+     * by the read timeout of the pool, so a node stalled, e.g. in a GC pause, does not hold the caller longer.
+     *
+     * @throws DeadlineExceededException if the node did not answer in time
+     */
+    public Optional<byte[]> get(final String key, final long timeoutMillis) {
+        Require.nonNull(key, "null key");
+
+        return value(readBefore(HttpSupport.keyUri(baseUrl, key), Deadline.after(timeoutMillis)));
+    }
+
+    private Optional<byte[]> value(final ResponseEntity<byte[]> responseEntity) {
         switch (responseEntity.getStatusCode()) {
             case OK:
-                return Optional.of(responseEntity.getBody());
+                return Optional.of(Optional.ofNullable(responseEntity.getBody()).orElse(Constants.EMPTY_BYTE_ARRAY));
             case NOT_FOUND:
                 return Optional.empty();
             default:
@@ -60,34 +193,120 @@ public class KeyValueApiHttpClient implements KeyValueApi {
         }
     }
 
+    @Override
+    public Optional<VersionedValue> getVersioned(String key) {
+        Require.nonNull(key, "null key");
+
+        return versioned(request(HttpSupport.keyUri(baseUrl, key), HttpMethod.GET, Constants.EMPTY_BYTE_ARRAY));
+    }
+
+    /**
+     * Same as {@link #getVersioned(String)} with a timeout, see {@link #get(String, long)}.
+     */
+    public Optional<VersionedValue> getVersioned(final String key, final long timeoutMillis) {
+        Require.nonNull(key, "null key");
+
+        return versioned(readBefore(HttpSupport.keyUri(baseUrl, key), Deadline.after(timeoutMillis)));
+    }
+
+    private Optional<VersionedValue> versioned(final ResponseEntity<byte[]> responseEntity) {
+        switch (responseEntity.getStatusCode()) {
+            case OK:
+                return Optional.of(HttpSupport.versioned(responseEntity));
+            case NOT_FOUND:
+                return Optional.empty();
+            default:
+                throw new RuntimeException("Response error: " + responseEntity);
+        }
+    }
+
+    @Override
+    public OptionalLong putIfAbsent(String key, byte[] value) {
+        return conditionalPut(key, value, null);
+    }
+
+    @Override
+    public OptionalLong putIfVersion(String key, byte[] value, long version) {
+        return conditionalPut(key, value, version);
+    }
+
     @Override
     public Set<String> getKeys(String prefix) {
         Require.nonNull(prefix, "null prefix");
 
-        final String url = baseUrl + "/key-value?prefix=" + Encoding.encodeUrl(prefix);
-        final ResponseEntity<byte[]> responseEntity = request(url, HttpMethod.GET, Constants.EMPTY_BYTE_ARRAY);
-        if (responseEntity.getStatusCode() == HttpStatus.OK) {
-            return new HashSet<>(Arrays.asList(readAs(responseEntity.getBody(), String[].class)));
-        } else {
-            throw new RuntimeException("Response error: " + responseEntity);
-        }
+        final Set<String> keys = new HashSet<>();
+        readKeys(HttpSupport.keysUri(baseUrl, prefix, null, null), keys);
+        return keys;
+    }
+
+    @Override
+    public List<String> getKeys(String prefix, String after, int limit) {
+        Require.nonNull(prefix, "null prefix");
+        if (limit <= 0) throw new IllegalArgumentException("non-positive limit");
+
+        final List<String> keys = new ArrayList<>(Math.min(limit, 1024));
+        readKeys(HttpSupport.keysUri(baseUrl, prefix, after, limit), keys);
+        return keys;
     }
 
     @Override
     public void delete(String key) {
         Require.nonNull(key, "null key");
 
-        final String url = baseUrl + "/key-value/" + key;
-        final ResponseEntity<byte[]> responseEntity = request(url, HttpMethod.DELETE, Constants.EMPTY_BYTE_ARRAY);
+        final ResponseEntity<byte[]> responseEntity = request(HttpSupport.keyUri(baseUrl, key), HttpMethod.DELETE, Constants.EMPTY_BYTE_ARRAY);
         if (responseEntity.getStatusCode() != HttpStatus.OK) {
             throw new RuntimeException("Response error: " + responseEntity);
         }
     }
 
+    @Override
+    public void putAll(Map<String, byte[]> entries) {
+        Require.nonNull(entries, "null entries");
+
+        for (Map<String, byte[]> chunk : HttpSupport.entryChunks(entries, config.getMaxBatchKeys(), config.getMaxBatchBytes())) {
+            sendBatch(batchPutUri, BatchCodec.encodeEntries(chunk));
+        }
+    }
+
+    @Override
+    public Map<String, byte[]> getAll(Collection<String> keys) {
+        Require.nonNull(keys, "null keys");
+
+        final Map<String, byte[]> values = new HashMap<>();
+        for (List<String> chunk : HttpSupport.keyChunks(keys, config.getMaxBatchKeys())) {
+            values.putAll(BatchCodec.decodeEntries(sendBatch(batchGetUri, BatchCodec.encodeKeys(chunk))));
+        }
+        return values;
+    }
+
+    /**
+     * Asks the node to cut values to their heads, so only the heads are sent.
+     */
+    @Override
+    public Map<String, byte[]> getAllHeads(Collection<String> keys, int headBytes) {
+        Require.nonNull(keys, "null keys");
+        if (headBytes < 0) throw new IllegalArgumentException("negative head bytes");
+
+        final URI uri = URI.create(batchGetUri + "?head=" + headBytes);
+        final Map<String, byte[]> heads = new HashMap<>();
+        for (List<String> chunk : HttpSupport.keyChunks(keys, config.getMaxBatchKeys())) {
+            heads.putAll(BatchCodec.decodeEntries(sendBatch(uri, BatchCodec.encodeKeys(chunk))));
+        }
+        return heads;
+    }
+
+    @Override
+    public void deleteAll(Collection<String> keys) {
+        Require.nonNull(keys, "null keys");
+
+        for (List<String> chunk : HttpSupport.keyChunks(keys, config.getMaxBatchKeys())) {
+            sendBatch(batchDeleteUri, BatchCodec.encodeKeys(chunk));
+        }
+    }
+
     @Override
     public Set<NodeInfo> getInfo() {
-        final String url = baseUrl + "/info";
-        final ResponseEntity<byte[]> responseEntity = request(url, HttpMethod.GET, Constants.EMPTY_BYTE_ARRAY);
+        final ResponseEntity<byte[]> responseEntity = request(infoUri, HttpMethod.GET, Constants.EMPTY_BYTE_ARRAY);
         if (responseEntity.getStatusCode() == HttpStatus.OK) {
             return new HashSet<>(Arrays.asList(readAs(responseEntity.getBody(), NodeInfo[].class)));
         } else {
@@ -97,16 +316,201 @@ public class KeyValueApiHttpClient implements KeyValueApi {
 
     @Override
     public void action(String node, NodeAction action) {
-        throw new RuntimeException("action not implemented now");
+        Require.nonNull(node, "null node");
+        Require.nonNull(action, "null action");
+
+        final ResponseEntity<byte[]> responseEntity =
+                request(HttpSupport.actionUri(baseUrl, node, action), HttpMethod.POST, Constants.EMPTY_BYTE_ARRAY);
+        if (responseEntity.getStatusCode() != HttpStatus.OK) {
+            throw new RuntimeException("Response error: " + responseEntity);
+        }
+    }
+
+    /**
+     * Long-polls changes of the node starting from the sequence number, or from the current end of its log if it is
+     * null, see {@code GET /changes}. The timeout has to be shorter than the read timeout of the client.
+     *
+     * @throws TruncatedChangelogException   if the node already dropped the change with that number
+     * @throws UnsupportedOperationException if the node keeps no changelog
+     */
+    public ChangeBatch getChanges(final Long from, final int limit, final long timeoutMillis) {
+        final ResponseEntity<byte[]> responseEntity =
+                request(HttpSupport.changesUri(baseUrl, from, limit, timeoutMillis), HttpMethod.GET, Constants.EMPTY_BYTE_ARRAY);
+        switch (responseEntity.getStatusCode()) {
+            case OK:
+                return BatchCodec.decodeChanges(Optional.ofNullable(responseEntity.getBody()).orElse(Constants.EMPTY_BYTE_ARRAY));
+            case GONE:
+                throw new TruncatedChangelogException("change " + from + " is dropped by " + baseUrl);
+            default:
+                throw new RuntimeException("Response error: " + responseEntity);
+        }
+    }
+
+    /**
+     * @throws UnsupportedOperationException if the node keeps no Merkle tree, as do the other tree requests
+     */
+    @Override
+    public int getMerkleDepth() {
+        final ResponseEntity<byte[]> responseEntity = request(merkleUri, HttpMethod.GET, Constants.EMPTY_BYTE_ARRAY);
+        if (responseEntity.getStatusCode() != HttpStatus.OK) {
+            throw new RuntimeException("Response error: " + responseEntity);
+        }
+        return this.<Map<String, Long>>readAs(responseEntity.getBody(), longMapType()).get("depth").intValue();
+    }
+
+    @Override
+    public long[] getMerkleHashes(final int[] nodes) {
+        Require.nonNull(nodes, "null nodes");
+        return readAs(sendJson(merkleHashesUri, nodes), long[].class);
+    }
+
+    @Override
+    public Map<String, Long> getLeafEntries(final int[] leaves) {
+        Require.nonNull(leaves, "null leaves");
+        return readAs(sendJson(merkleLeavesUri, leaves), longMapType());
+    }
+
+    /**
+     * Closes the connection pool unless the request factory was passed from outside.
+     */
+    @Override
+    public void close() throws IOException {
+        if (ownsRequestFactory && requestFactory instanceof DisposableBean) {
+            try {
+                ((DisposableBean) requestFactory).destroy();
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private void readKeys(final URI uri, final Collection<String> keys) {
+        retrying(null, () -> {
+            try {
+                return rest.execute(uri, HttpMethod.GET, null, response -> {
+                    HttpSupport.readKeys(response.getBody(), keys);
+                    return null;
+                });
+            } catch (HttpStatusCodeException e) {
+                if (e.getStatusCode() == HttpStatus.SERVICE_UNAVAILABLE) throw new NodeDownException(baseUrl);
+                if (e.getStatusCode() == HttpStatus.TOO_MANY_REQUESTS) {
+                    throw new NodeOverloadedException(baseUrl, HttpSupport.retryAfterMillis(e.getResponseHeaders()));
+                }
+                throw new RuntimeException("Response error: " + e.getStatusCode() + " " + e.getResponseBodyAsString());
+            }
+        });
     }
 
-    private ResponseEntity<byte[]> request(final String url,
+    private OptionalLong conditionalPut(final String key, final byte[] value, final Long version) {
+        Require.nonNull(key, "null key");
+        Require.nonNull(value, "null value");
+
+        return HttpSupport.putResult(request(HttpSupport.keyUri(baseUrl, key), HttpMethod.PUT,
+                HttpSupport.entity(config, value, HttpSupport.putCondition(version))));
+    }
+
+    private byte[] sendBatch(final URI uri, final byte[] body) {
+        final ResponseEntity<byte[]> responseEntity = request(uri, HttpMethod.POST, body);
+        if (responseEntity.getStatusCode() != HttpStatus.OK) {
+            throw new RuntimeException("Response error: " + responseEntity);
+        }
+        return Optional.ofNullable(responseEntity.getBody()).orElse(Constants.EMPTY_BYTE_ARRAY);
+    }
+
+    private byte[] sendJson(final URI uri, final Object body) {
+        final byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(body);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+        final HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        final ResponseEntity<byte[]> responseEntity = request(uri, HttpMethod.POST, HttpSupport.entity(config, json, headers));
+        if (responseEntity.getStatusCode() != HttpStatus.OK) {
+            throw new RuntimeException("Response error: " + responseEntity);
+        }
+        return responseEntity.getBody();
+    }
+
+    private ResponseEntity<byte[]> request(final URI uri,
                                            final HttpMethod method,
                                            final byte[] body) {
+        return request(uri, method, HttpSupport.entity(config, body));
+    }
+
+    /**
+     * Sends a read with the time left to the node and waits for the answer no longer than that,
+     * retries stop at the deadline too.
+     */
+    private ResponseEntity<byte[]> readBefore(final URI uri, final Deadline deadline) {
+        return retrying(deadline, () -> {
+            final long timeoutMillis = deadline.remainingMillis();
+            if (timeoutMillis <= 0) throw new DeadlineExceededException(baseUrl);
+            final HttpHeaders headers = new HttpHeaders();
+            headers.set(Deadline.HEADER, Long.toString(timeoutMillis));
+            try {
+                return DeadlineRequestFactory.before(deadline, () ->
+                        exchange(uri, HttpMethod.GET, HttpSupport.entity(config, Constants.EMPTY_BYTE_ARRAY, headers)));
+            } catch (ResourceAccessException e) {
+                if (e.getCause() instanceof InterruptedIOException && deadline.isExpired()) {
+                    throw new DeadlineExceededException(baseUrl);
+                }
+                throw e;
+            }
+        });
+    }
+
+    private ResponseEntity<byte[]> request(final URI uri,
+                                           final HttpMethod method,
+                                           final HttpEntity<byte[]> entity) {
+        return retrying(null, () -> exchange(uri, method, entity));
+    }
+
+    private ResponseEntity<byte[]> exchange(final URI uri,
+                                            final HttpMethod method,
+                                            final HttpEntity<byte[]> entity) {
         try {
-            return rest.exchange(url, method, new HttpEntity<>(body), byte[].class);
+            return rest.exchange(uri, method, entity, byte[].class);
         } catch (HttpClientErrorException e) {
+            if (e.getStatusCode() == HttpStatus.TOO_MANY_REQUESTS) {
+                throw new NodeOverloadedException(baseUrl, HttpSupport.retryAfterMillis(e.getResponseHeaders()));
+            }
             return new ResponseEntity<>(Constants.EMPTY_BYTE_ARRAY, e.getStatusCode());
+        } catch (HttpServerErrorException e) {
+            if (e.getStatusCode() == HttpStatus.SERVICE_UNAVAILABLE) throw new NodeDownException(baseUrl);
+            if (e.getStatusCode() == HttpStatus.GATEWAY_TIMEOUT) throw new DeadlineExceededException(baseUrl);
+            if (e.getStatusCode() == HttpStatus.NOT_IMPLEMENTED) throw new UnsupportedOperationException(e.getResponseBodyAsString());
+            throw e;
+        }
+    }
+
+    /**
+     * Repeats the request while the node is overloaded, up to the retries of the config and, if there is one,
+     * not past the deadline. The random pause is added to the one the node asked for, so refused clients neither
+     * come back before the node is ready nor all at once.
+     */
+    private <T> T retrying(final Deadline deadline, final Supplier<T> request) {
+        for (int retry = 0; ; retry++) {
+            final long retryAfterMillis;
+            try {
+                return request.get();
+            } catch (NodeOverloadedException e) {
+                if (retry >= config.getMaxRetries()) throw e;
+                retryAfterMillis = e.getRetryAfterMillis();
+            }
+            final long pauseMillis = retryAfterMillis + HttpSupport.retryBackoffMillis(config, retry);
+            if (deadline != null && pauseMillis >= deadline.remainingMillis()) {
+                throw new DeadlineExceededException(baseUrl);
+            }
+            try {
+                Thread.sleep(pauseMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NodeOverloadedException(baseUrl);
+            }
         }
     }
 
@@ -117,4 +521,16 @@ public class KeyValueApiHttpClient implements KeyValueApi {
             throw new RuntimeException("Response error: " + e.getMessage());
         }
     }
+
+    private <T> T readAs(byte[] src, JavaType valueType) {
+        try {
+            return objectMapper.readValue(src, valueType);
+        } catch (Exception e) {
+            throw new RuntimeException("Response error: " + e.getMessage());
+        }
+    }
+
+    private JavaType longMapType() {
+        return objectMapper.getTypeFactory().constructMapType(HashMap.class, String.class, Long.class);
+    }
 }
@@ -0,0 +1,229 @@
+package ru.csc.bdse.kv;
+
+import ru.csc.bdse.util.Require;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Storage unit which can be taken down for maintenance with {@link #action(String, NodeAction)}.
+ * <p>
+ * {@link NodeAction#DOWN} makes the node reject new requests with {@link NodeDownException} at once
+ * and waits until requests already being served complete, so the storage may be stopped afterwards
+ * without failing anybody. Reads are rejected as well as writes: a down node misses writes, so it would
+ * answer stale values, and its storage may be stopped or restored meanwhile. Requests reaching decorators
+ * of the storage past this node, e.g. to its changelog or Merkle tree, follow the same rule through
+ * {@link #serve}. {@link NodeAction#UP} brings the node back. Writes missed while the node was
+ * down are not recovered by the node itself, coordinators replay them, see
+ * {@link ru.csc.bdse.kv.cluster.ReplicatedKeyValueApi}. {@link #getInfo()} reports the current status.
+ */
+public class ManagedKeyValueApi implements KeyValueApi, Closeable {
+
+    public static final long DEFAULT_DRAIN_TIMEOUT_MILLIS = 10_000;
+
+    private final String name;
+    private final KeyValueApi storage;
+    private final long drainTimeoutMillis;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Object drained = new Object();
+    private volatile NodeStatus status = NodeStatus.UP;
+
+    public ManagedKeyValueApi(final String name, final KeyValueApi storage) {
+        this(name, storage, DEFAULT_DRAIN_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param drainTimeoutMillis how long {@link NodeAction#DOWN} waits for requests being served
+     */
+    public ManagedKeyValueApi(final String name, final KeyValueApi storage, final long drainTimeoutMillis) {
+        Require.nonEmpty(name, "empty name");
+        Require.nonNull(storage, "null storage");
+        if (drainTimeoutMillis < 0) throw new IllegalArgumentException("negative drain timeout");
+        this.name = name;
+        this.storage = storage;
+        this.drainTimeoutMillis = drainTimeoutMillis;
+    }
+
+    @Override
+    public void put(final String key, final byte[] value) {
+        serve(() -> {
+            storage.put(key, value);
+            return null;
+        });
+    }
+
+    @Override
+    public void put(final String key, final byte[] value, final long ttlMillis) {
+        serve(() -> {
+            storage.put(key, value, ttlMillis);
+            return null;
+        });
+    }
+
+    @Override
+    public Optional<byte[]> get(final String key) {
+        return serve(() -> storage.get(key));
+    }
+
+    @Override
+    public Optional<VersionedValue> getVersioned(final String key) {
+        return serve(() -> storage.getVersioned(key));
+    }
+
+    @Override
+    public OptionalLong putIfAbsent(final String key, final byte[] value) {
+        return serve(() -> storage.putIfAbsent(key, value));
+    }
+
+    @Override
+    public OptionalLong putIfVersion(final String key, final byte[] value, final long version) {
+        return serve(() -> storage.putIfVersion(key, value, version));
+    }
+
+    @Override
+    public Set<String> getKeys(final String prefix) {
+        return serve(() -> storage.getKeys(prefix));
+    }
+
+    @Override
+    public List<String> getKeys(final String prefix, final String after, final int limit) {
+        return serve(() -> storage.getKeys(prefix, after, limit));
+    }
+
+    /**
+     * Pages a storage fetches lazily are not served as requests, so the drain does not wait for them,
+     * but the stream fails with {@link NodeDownException} once the node is down, as a next page would.
+     */
+    @Override
+    public Stream<String> streamKeys(final String prefix, final String after, final int pageSize) {
+        return serve(() -> storage.streamKeys(prefix, after, pageSize)).peek(key -> {
+            if (status != NodeStatus.UP) {
+                throw new NodeDownException(name);
+            }
+        });
+    }
+
+    @Override
+    public void delete(final String key) {
+        serve(() -> {
+            storage.delete(key);
+            return null;
+        });
+    }
+
+    @Override
+    public void putAll(final Map<String, byte[]> entries) {
+        serve(() -> {
+            storage.putAll(entries);
+            return null;
+        });
+    }
+
+    @Override
+    public Map<String, byte[]> getAll(final Collection<String> keys) {
+        return serve(() -> storage.getAll(keys));
+    }
+
+    @Override
+    public void deleteAll(final Collection<String> keys) {
+        serve(() -> {
+            storage.deleteAll(keys);
+            return null;
+        });
+    }
+
+    @Override
+    public Map<String, Long> getExpiryTimes(final Collection<String> keys) {
+        return serve(() -> storage.getExpiryTimes(keys));
+    }
+
+    @Override
+    public OptionalLong getKeyCount() {
+        return serve(storage::getKeyCount);
+    }
+
+    @Override
+    public Set<NodeInfo> getInfo() {
+        return Collections.singleton(new NodeInfo(name, status));
+    }
+
+    /**
+     * Changes status of this node, the action is idempotent.
+     *
+     * @throws IllegalArgumentException if the node is not this one
+     */
+    @Override
+    public void action(final String node, final NodeAction action) {
+        Require.nonNull(action, "null action");
+        if (!name.equals(node)) throw new IllegalArgumentException("unknown node: " + node);
+        switch (action) {
+            case UP:
+                status = NodeStatus.UP;
+                break;
+            case DOWN:
+                status = NodeStatus.DOWN;
+                awaitDrained();
+                break;
+            default:
+                throw new IllegalArgumentException("unknown action: " + action);
+        }
+    }
+
+    /**
+     * Returns the wrapped storage, e.g. to reach statistics of a particular engine.
+     */
+    public KeyValueApi getStorage() {
+        return storage;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (storage instanceof Closeable) {
+            ((Closeable) storage).close();
+        }
+    }
+
+    /**
+     * Serves the operation as a request to this node: it is rejected while the node is down,
+     * and {@link NodeAction#DOWN} waits for it to complete.
+     *
+     * @throws NodeDownException if the node is down
+     */
+    public <T> T serve(final Supplier<T> operation) {
+        inFlight.incrementAndGet();
+        try {
+            if (status != NodeStatus.UP) {
+                throw new NodeDownException(name);
+            }
+            return operation.get();
+        } finally {
+            if (inFlight.decrementAndGet() == 0 && status != NodeStatus.UP) {
+                synchronized (drained) {
+                    drained.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until requests started before the status changed complete, at most for the drain timeout.
+     */
+    private void awaitDrained() {
+        final long deadline = System.currentTimeMillis() + drainTimeoutMillis;
+        synchronized (drained) {
+            long remaining;
+            while (inFlight.get() > 0 && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    drained.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
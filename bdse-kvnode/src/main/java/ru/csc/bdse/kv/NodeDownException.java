@@ -0,0 +1,12 @@
+package ru.csc.bdse.kv;
+
+/**
+ * Thrown when a node is taken down by {@link NodeAction#DOWN} and does not serve requests.
+ * The node answers such requests with 503, clients turn the status back into this exception.
+ */
+public class NodeDownException extends RuntimeException {
+
+    public NodeDownException(final String node) {
+        super("node is down: " + node);
+    }
+}
@@ -0,0 +1,32 @@
+package ru.csc.bdse.kv;
+
+/**
+ * Thrown when a node refuses a request because it already serves as many requests of that kind as it can.
+ * The node answers such requests with 429 before doing anything, so they are safe to retry after a pause.
+ */
+public class NodeOverloadedException extends RuntimeException {
+
+    private final long retryAfterMillis;
+
+    /**
+     * @param detail url of the node on the client side, the limit reached on the node side
+     */
+    public NodeOverloadedException(final String detail) {
+        this(detail, 0);
+    }
+
+    /**
+     * @param retryAfterMillis pause the node asked for in {@code Retry-After}, zero if it did not
+     */
+    public NodeOverloadedException(final String detail, final long retryAfterMillis) {
+        super("node is overloaded: " + detail);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * Returns the pause the node asked for before a retry, zero if it did not ask for any.
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
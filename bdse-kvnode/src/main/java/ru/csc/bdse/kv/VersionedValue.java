@@ -0,0 +1,69 @@
+package ru.csc.bdse.kv;
+
+import ru.csc.bdse.util.Require;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Value together with its version, see {@link KeyValueApi#getVersioned(String)}.
+ * <p>
+ * Storages may pass a view of their own memory, e.g. a region of a memory-mapped file, so the value is copied
+ * to the heap only if {@link #getValue()} is called. Such a view stays valid as long as the storage is open.
+ */
+public class VersionedValue {
+
+    /**
+     * Version reported by storages which do not version values.
+     */
+    public static final long NO_VERSION = 0;
+
+    private final ByteBuffer value;
+    private final long version;
+
+    public VersionedValue(final byte[] value, final long version) {
+        this(wrap(value), version);
+    }
+
+    public VersionedValue(final ByteBuffer value, final long version) {
+        Require.nonNull(value, "null value");
+        if (version < 0) throw new IllegalArgumentException("negative version");
+        this.value = value.slice();
+        this.version = version;
+    }
+
+    /**
+     * Returns the value as an array, which is copied unless the value is a whole heap array.
+     */
+    public byte[] getValue() {
+        if (value.hasArray() && value.arrayOffset() == 0 && value.array().length == value.remaining()) {
+            return value.array();
+        }
+        final byte[] copy = new byte[value.remaining()];
+        value.duplicate().get(copy);
+        return copy;
+    }
+
+    /**
+     * Returns read-only view of the value, the view is independent for every call.
+     */
+    public ByteBuffer getBuffer() {
+        return value.asReadOnlyBuffer();
+    }
+
+    public int getLength() {
+        return value.remaining();
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean hasVersion() {
+        return version != NO_VERSION;
+    }
+
+    private static ByteBuffer wrap(final byte[] value) {
+        Require.nonNull(value, "null value");
+        return ByteBuffer.wrap(value);
+    }
+}
@@ -0,0 +1,85 @@
+package ru.csc.bdse.kv.admission;
+
+import ru.csc.bdse.kv.NodeOverloadedException;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Admits requests of the node under a {@link ConcurrencyLimit} per {@link RequestClass}, so a burst is refused
+ * at the door instead of piling up in thread pools and the heap until every request is slow.
+ * <p>
+ * Reads and writes get adaptive limits between a sixteenth of their maximum and the maximum. Scans get a fixed
+ * limit: each one holds a request thread for a pass over the keys, so a few of them must not starve point reads.
+ */
+public final class AdmissionControl {
+
+    private static final int ADAPTIVE_RANGE = 16;
+
+    private final Map<RequestClass, ConcurrencyLimit> limits = new EnumMap<>(RequestClass.class);
+
+    public AdmissionControl(final int maxReads,
+                            final int maxWrites,
+                            final int maxScans,
+                            final long latencyTargetMillis) {
+        limits.put(RequestClass.READ, adaptive(maxReads, latencyTargetMillis));
+        limits.put(RequestClass.WRITE, adaptive(maxWrites, latencyTargetMillis));
+        limits.put(RequestClass.SCAN, new ConcurrencyLimit(maxScans, maxScans, latencyTargetMillis));
+    }
+
+    /**
+     * Admits every request, only counting them.
+     */
+    public static AdmissionControl unlimited() {
+        return new AdmissionControl(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 1000);
+    }
+
+    /**
+     * Takes a place for the request, which has to be released when the request completes.
+     *
+     * @throws NodeOverloadedException if the limit of the request class is reached
+     */
+    public Permit acquire(final RequestClass requestClass) {
+        final ConcurrencyLimit limit = limits.get(requestClass);
+        if (!limit.tryAcquire()) {
+            throw new NodeOverloadedException(limit.getLimit() + " " + requestClass.name().toLowerCase(Locale.ROOT)
+                    + " requests in flight");
+        }
+        return new Permit(limit);
+    }
+
+    public Map<RequestClass, ConcurrencyLimit> getLimits() {
+        return Collections.unmodifiableMap(limits);
+    }
+
+    private static ConcurrencyLimit adaptive(final int maxLimit, final long latencyTargetMillis) {
+        return new ConcurrencyLimit(Math.max(1, maxLimit / ADAPTIVE_RANGE), maxLimit, latencyTargetMillis);
+    }
+
+    /**
+     * Place of an admitted request, measures the request from its admission.
+     */
+    public static final class Permit {
+
+        private final ConcurrencyLimit limit;
+        private final long startNanos = System.nanoTime();
+        private boolean released;
+
+        private Permit(final ConcurrencyLimit limit) {
+            this.limit = limit;
+        }
+
+        /**
+         * Releases the place, repeated calls do nothing.
+         */
+        public void release() {
+            synchronized (this) {
+                if (released) return;
+                released = true;
+            }
+            limit.release(System.nanoTime() - startNanos);
+        }
+    }
+}
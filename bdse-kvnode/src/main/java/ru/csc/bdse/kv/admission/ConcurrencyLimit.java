@@ -0,0 +1,91 @@
+package ru.csc.bdse.kv.admission;
+
+/**
+ * Limit of requests in flight which adapts to their latency by additive increase and multiplicative decrease.
+ * <p>
+ * A request which took longer than the latency target means a queue is building up somewhere behind the limit,
+ * so the limit is cut by {@value #DECREASE_RATIO} at most once per target period, to let the queue drain before
+ * the next cut. A faster request, while at least half of the limit is in use, raises the limit by {@code 1 / limit},
+ * i.e. by one per limit's worth of requests. The limit stays between the minimum and the maximum, equal ones make it
+ * fixed. Requests above the limit are refused at once rather than queued.
+ */
+public final class ConcurrencyLimit {
+
+    static final double DECREASE_RATIO = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyTargetNanos;
+
+    private double limit;
+    private int inFlight;
+    private long admitted;
+    private long rejected;
+    private long lastDecreaseNanos;
+
+    /**
+     * Starts at the maximum.
+     */
+    public ConcurrencyLimit(final int minLimit, final int maxLimit, final long latencyTargetMillis) {
+        if (minLimit <= 0) throw new IllegalArgumentException("non-positive min limit");
+        if (maxLimit < minLimit) throw new IllegalArgumentException("max limit below min limit");
+        if (latencyTargetMillis <= 0) throw new IllegalArgumentException("non-positive latency target");
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTargetNanos = latencyTargetMillis * 1_000_000;
+        this.limit = maxLimit;
+        this.lastDecreaseNanos = System.nanoTime() - latencyTargetNanos;
+    }
+
+    /**
+     * Takes a place for a request if the limit allows.
+     *
+     * @return false if the request should be refused
+     */
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            rejected++;
+            return false;
+        }
+        inFlight++;
+        admitted++;
+        return true;
+    }
+
+    /**
+     * Frees the place of a completed request and adapts the limit to its latency.
+     */
+    public synchronized void release(final long latencyNanos) {
+        if (inFlight <= 0) throw new IllegalStateException("release without acquire");
+        final boolean busy = inFlight * 2 >= limit;
+        inFlight--;
+        if (minLimit == maxLimit) {
+            return;
+        }
+        if (latencyNanos > latencyTargetNanos) {
+            final long now = System.nanoTime();
+            if (now - lastDecreaseNanos >= latencyTargetNanos) {
+                limit = Math.max(minLimit, limit * DECREASE_RATIO);
+                lastDecreaseNanos = now;
+            }
+        } else if (busy) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized long getAdmitted() {
+        return admitted;
+    }
+
+    public synchronized long getRejected() {
+        return rejected;
+    }
+}
@@ -0,0 +1,19 @@
+package ru.csc.bdse.kv.admission;
+
+/**
+ * Kinds of requests admitted under separate limits, so that one kind cannot take the capacity of another.
+ */
+public enum RequestClass {
+    /**
+     * Point and batch reads.
+     */
+    READ,
+    /**
+     * Puts and deletes, single and batch.
+     */
+    WRITE,
+    /**
+     * Key listings and other requests which go through all keys of the node.
+     */
+    SCAN
+}
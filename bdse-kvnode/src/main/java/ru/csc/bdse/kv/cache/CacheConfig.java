@@ -0,0 +1,67 @@
+package ru.csc.bdse.kv.cache;
+
+import ru.csc.bdse.util.Require;
+
+/**
+ * Settings of {@link CachingKeyValueApi}. Instances are immutable, every {@code with*} method returns a modified copy.
+ */
+public final class CacheConfig {
+
+    public static final CacheConfig DEFAULT = new CacheConfig(64 * 1024 * 1024, EvictionPolicy.TINY_LFU, 60_000, 1000);
+
+    private final long maxBytes;
+    private final EvictionPolicy evictionPolicy;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+
+    private CacheConfig(final long maxBytes,
+                        final EvictionPolicy evictionPolicy,
+                        final long ttlMillis,
+                        final long negativeTtlMillis) {
+        if (maxBytes <= 0) throw new IllegalArgumentException("non-positive max bytes");
+        Require.nonNull(evictionPolicy, "null eviction policy");
+        if (ttlMillis <= 0) throw new IllegalArgumentException("non-positive ttl");
+        if (negativeTtlMillis < 0) throw new IllegalArgumentException("negative ttl of misses");
+        this.maxBytes = maxBytes;
+        this.evictionPolicy = evictionPolicy;
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+    }
+
+    /**
+     * Bound of the estimated memory taken by cached keys and values.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public EvictionPolicy getEvictionPolicy() {
+        return evictionPolicy;
+    }
+
+    /**
+     * How long a value is served from the cache after it was read from the storage.
+     */
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    /**
+     * How long the absence of a key is remembered, zero disables caching of misses.
+     */
+    public long getNegativeTtlMillis() {
+        return negativeTtlMillis;
+    }
+
+    public CacheConfig withMaxBytes(final long maxBytes) {
+        return new CacheConfig(maxBytes, evictionPolicy, ttlMillis, negativeTtlMillis);
+    }
+
+    public CacheConfig withEvictionPolicy(final EvictionPolicy evictionPolicy) {
+        return new CacheConfig(maxBytes, evictionPolicy, ttlMillis, negativeTtlMillis);
+    }
+
+    public CacheConfig withTtl(final long ttlMillis, final long negativeTtlMillis) {
+        return new CacheConfig(maxBytes, evictionPolicy, ttlMillis, negativeTtlMillis);
+    }
+}
@@ -0,0 +1,32 @@
+package ru.csc.bdse.kv.cache;
+
+/**
+ * Cached value or remembered absence of a key.
+ */
+final class CacheEntry {
+
+    /**
+     * Rough per-entry overhead of the maps and objects holding it.
+     */
+    private static final int OVERHEAD_BYTES = 96;
+
+    final String key;
+    final byte[] value;
+    final long expiresAtNanos;
+    final int weight;
+
+    CacheEntry(final String key, final byte[] value, final long expiresAtNanos) {
+        this.key = key;
+        this.value = value;
+        this.expiresAtNanos = expiresAtNanos;
+        this.weight = OVERHEAD_BYTES + 2 * key.length() + (value == null ? 0 : value.length);
+    }
+
+    boolean isAbsent() {
+        return value == null;
+    }
+
+    boolean isExpired(final long nowNanos) {
+        return nowNanos - expiresAtNanos >= 0;
+    }
+}
@@ -0,0 +1,38 @@
+package ru.csc.bdse.kv.cache;
+
+/**
+ * Entries of one stripe of the cache with their eviction order. Not thread-safe, the stripe guards it.
+ */
+interface CachePolicy {
+
+    /**
+     * Returns the entry and records the access, or returns null.
+     */
+    CacheEntry get(String key);
+
+    /**
+     * Adds or replaces the entry and evicts others if the bound is exceeded.
+     *
+     * @return number of evicted entries, the new one included if it was not admitted
+     */
+    int put(CacheEntry entry);
+
+    void remove(String key);
+
+    void clear();
+
+    int size();
+
+    long weight();
+
+    static CachePolicy create(final EvictionPolicy policy, final long maxBytes) {
+        switch (policy) {
+            case LRU:
+                return new LruPolicy(maxBytes);
+            case TINY_LFU:
+                return new TinyLfuPolicy(maxBytes);
+            default:
+                throw new IllegalArgumentException("unknown eviction policy: " + policy);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package ru.csc.bdse.kv.cache;
+
+/**
+ * Snapshot of counters of {@link CachingKeyValueApi}, counters grow from the creation of the cache.
+ */
+public final class CacheStats {
+
+    private final long hits;
+    private final long negativeHits;
+    private final long misses;
+    private final long evictions;
+    private final long entries;
+    private final long bytes;
+
+    CacheStats(final long hits,
+               final long negativeHits,
+               final long misses,
+               final long evictions,
+               final long entries,
+               final long bytes) {
+        this.hits = hits;
+        this.negativeHits = negativeHits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.entries = entries;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Keys answered by the cache, including remembered misses.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Hits which answered that the key has no value.
+     */
+    public long getNegativeHits() {
+        return negativeHits;
+    }
+
+    /**
+     * Keys which went to the storage, because they were not cached or expired.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Entries dropped to keep the cache within its size, expired and invalidated ones are not counted.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getEntries() {
+        return entries;
+    }
+
+    /**
+     * Estimated memory taken by cached entries.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    public double getHitRate() {
+        final long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{" +
+                "hits=" + hits +
+                ", negativeHits=" + negativeHits +
+                ", misses=" + misses +
+                ", evictions=" + evictions +
+                ", entries=" + entries +
+                ", bytes=" + bytes +
+                '}';
+    }
+}
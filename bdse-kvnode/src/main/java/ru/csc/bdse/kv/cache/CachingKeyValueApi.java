@@ -0,0 +1,304 @@
+package ru.csc.bdse.kv.cache;
+
+import ru.csc.bdse.kv.KeyValueApi;
+import ru.csc.bdse.kv.NodeAction;
+import ru.csc.bdse.kv.NodeInfo;
+import ru.csc.bdse.kv.VersionedValue;
+import ru.csc.bdse.util.Require;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Read cache in front of a storage, usually a remote one behind {@link ru.csc.bdse.kv.KeyValueApiHttpClient}.
+ * <p>
+ * Values and, for a shorter time, absence of keys are cached for a fixed time after they were read.
+ * The cache is bounded by the estimated size of entries and split into stripes with their own locks and eviction
+ * order, see {@link EvictionPolicy}. Writes through this instance invalidate the written keys, a read which
+ * started before such a write does not cache its result. Writes made by other clients are seen after the ttl
+ * or after {@link #invalidate(String)}. Versioned reads and key listing always go to the storage.
+ */
+public class CachingKeyValueApi implements KeyValueApi, Closeable {
+
+    private static final int STRIPES = 16;
+
+    private final KeyValueApi storage;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public CachingKeyValueApi(final KeyValueApi storage) {
+        this(storage, CacheConfig.DEFAULT);
+    }
+
+    public CachingKeyValueApi(final KeyValueApi storage, final CacheConfig config) {
+        Require.nonNull(storage, "null storage");
+        Require.nonNull(config, "null config");
+        this.storage = storage;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(config.getTtlMillis());
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(config.getNegativeTtlMillis());
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(CachePolicy.create(config.getEvictionPolicy(),
+                    Math.max(1, config.getMaxBytes() / STRIPES)));
+        }
+    }
+
+    @Override
+    public void put(final String key, final byte[] value) {
+        Require.nonNull(key, "null key");
+        storage.put(key, value);
+        invalidate(key);
+    }
+
+    /**
+     * Once read back, the value is cached for the cache ttl like any other, it may outlive its own ttl by that much.
+     */
+    @Override
+    public void put(final String key, final byte[] value, final long ttlMillis) {
+        Require.nonNull(key, "null key");
+        storage.put(key, value, ttlMillis);
+        invalidate(key);
+    }
+
+    @Override
+    public Optional<byte[]> get(final String key) {
+        Require.nonNull(key, "null key");
+        final Stripe stripe = stripeFor(key);
+        final CacheEntry cached = stripe.get(key, System.nanoTime());
+        if (cached != null) {
+            return Optional.ofNullable(cached.value);
+        }
+        final long generation = stripe.generation();
+        final Optional<byte[]> value = storage.get(key);
+        stripe.putIfUnchanged(generation, newEntry(key, value.orElse(null)));
+        return value;
+    }
+
+    /**
+     * Not cached: a version is asked for to write conditionally and should be the current one.
+     */
+    @Override
+    public Optional<VersionedValue> getVersioned(final String key) {
+        return storage.getVersioned(key);
+    }
+
+    @Override
+    public OptionalLong putIfAbsent(final String key, final byte[] value) {
+        Require.nonNull(key, "null key");
+        try {
+            return storage.putIfAbsent(key, value);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public OptionalLong putIfVersion(final String key, final byte[] value, final long version) {
+        Require.nonNull(key, "null key");
+        try {
+            return storage.putIfVersion(key, value, version);
+        } finally {
+            invalidate(key);
+        }
+    }
+
+    @Override
+    public Set<String> getKeys(final String prefix) {
+        return storage.getKeys(prefix);
+    }
+
+    @Override
+    public List<String> getKeys(final String prefix, final String after, final int limit) {
+        return storage.getKeys(prefix, after, limit);
+    }
+
+    @Override
+    public Stream<String> streamKeys(final String prefix, final String after, final int pageSize) {
+        return storage.streamKeys(prefix, after, pageSize);
+    }
+
+    @Override
+    public void delete(final String key) {
+        Require.nonNull(key, "null key");
+        storage.delete(key);
+        invalidate(key);
+    }
+
+    @Override
+    public void putAll(final Map<String, byte[]> entries) {
+        Require.nonNull(entries, "null entries");
+        storage.putAll(entries);
+        entries.keySet().forEach(this::invalidate);
+    }
+
+    /**
+     * Serves cached keys and fetches the rest from the storage in one batch.
+     */
+    @Override
+    public Map<String, byte[]> getAll(final Collection<String> keys) {
+        Require.nonNull(keys, "null keys");
+        final long now = System.nanoTime();
+        final Map<String, byte[]> values = new HashMap<>();
+        final Set<String> missing = new LinkedHashSet<>();
+        for (String key : keys) {
+            Require.nonNull(key, "null key");
+            final CacheEntry cached = stripeFor(key).get(key, now);
+            if (cached == null) {
+                missing.add(key);
+            } else if (!cached.isAbsent()) {
+                values.put(key, cached.value);
+            }
+        }
+        if (missing.isEmpty()) {
+            return values;
+        }
+
+        final long[] generations = new long[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            generations[i] = stripes[i].generation();
+        }
+        final Map<String, byte[]> loaded = storage.getAll(missing);
+        for (String key : missing) {
+            final int index = stripeIndex(key);
+            stripes[index].putIfUnchanged(generations[index], newEntry(key, loaded.get(key)));
+        }
+        values.putAll(loaded);
+        return values;
+    }
+
+    @Override
+    public void deleteAll(final Collection<String> keys) {
+        Require.nonNull(keys, "null keys");
+        storage.deleteAll(keys);
+        keys.forEach(this::invalidate);
+    }
+
+    @Override
+    public Map<String, Long> getExpiryTimes(final Collection<String> keys) {
+        return storage.getExpiryTimes(keys);
+    }
+
+    @Override
+    public OptionalLong getKeyCount() {
+        return storage.getKeyCount();
+    }
+
+    @Override
+    public Set<NodeInfo> getInfo() {
+        return storage.getInfo();
+    }
+
+    @Override
+    public void action(final String node, final NodeAction action) {
+        storage.action(node, action);
+    }
+
+    /**
+     * Drops the cached entry of the key, e.g. when it is known to be changed by another client.
+     */
+    public void invalidate(final String key) {
+        stripeFor(key).invalidate(key);
+    }
+
+    public void invalidateAll() {
+        for (Stripe stripe : stripes) {
+            stripe.invalidateAll();
+        }
+    }
+
+    public CacheStats getStats() {
+        long entries = 0;
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                entries += stripe.policy.size();
+                bytes += stripe.policy.weight();
+            }
+        }
+        return new CacheStats(hits.sum(), negativeHits.sum(), misses.sum(), evictions.sum(), entries, bytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (storage instanceof Closeable) {
+            ((Closeable) storage).close();
+        }
+    }
+
+    /**
+     * Returns null if absence of the key should not be cached.
+     */
+    private CacheEntry newEntry(final String key, final byte[] value) {
+        if (value == null && negativeTtlNanos == 0) {
+            return null;
+        }
+        return new CacheEntry(key, value, System.nanoTime() + (value == null ? negativeTtlNanos : ttlNanos));
+    }
+
+    private Stripe stripeFor(final String key) {
+        return stripes[stripeIndex(key)];
+    }
+
+    private static int stripeIndex(final String key) {
+        final int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    /**
+     * Part of the cache under one lock. The generation grows on every invalidation, so a read started before
+     * an invalidation can tell that its result may be stale.
+     */
+    private final class Stripe {
+
+        private final CachePolicy policy;
+        private long generation;
+
+        private Stripe(final CachePolicy policy) {
+            this.policy = policy;
+        }
+
+        private synchronized CacheEntry get(final String key, final long nowNanos) {
+            final CacheEntry entry = policy.get(key);
+            if (entry == null || entry.isExpired(nowNanos)) {
+                if (entry != null) {
+                    policy.remove(key);
+                }
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            if (entry.isAbsent()) {
+                negativeHits.increment();
+            }
+            return entry;
+        }
+
+        private synchronized long generation() {
+            return generation;
+        }
+
+        private synchronized void putIfUnchanged(final long generation, final CacheEntry entry) {
+            if (entry != null && this.generation == generation) {
+                evictions.add(policy.put(entry));
+            }
+        }
+
+        private synchronized void invalidate(final String key) {
+            generation++;
+            policy.remove(key);
+        }
+
+        private synchronized void invalidateAll() {
+            generation++;
+            policy.clear();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package ru.csc.bdse.kv.cache;
+
+/**
+ * Chooses which entries {@link CachingKeyValueApi} drops when it is full.
+ */
+public enum EvictionPolicy {
+
+    /**
+     * Least recently used entry goes first. Cheap, but a single scan over many keys flushes hot ones.
+     */
+    LRU,
+
+    /**
+     * Window TinyLFU: new entries pass a small LRU window, then are admitted to the main area only if they
+     * were requested more often than the entry they would replace, by an approximate frequency sketch.
+     * Keeps hot keys through scans and bursts of one-off keys.
+     */
+    TINY_LFU
+}
@@ -0,0 +1,61 @@
+package ru.csc.bdse.kv.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Evicts the least recently used entries.
+ */
+final class LruPolicy implements CachePolicy {
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+
+    LruPolicy(final long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public CacheEntry get(final String key) {
+        return entries.get(key);
+    }
+
+    @Override
+    public int put(final CacheEntry entry) {
+        final CacheEntry previous = entries.put(entry.key, entry);
+        weight += entry.weight - (previous == null ? 0 : previous.weight);
+        int evicted = 0;
+        final Iterator<CacheEntry> eldest = entries.values().iterator();
+        while (weight > maxBytes && eldest.hasNext()) {
+            weight -= eldest.next().weight;
+            eldest.remove();
+            evicted++;
+        }
+        return evicted;
+    }
+
+    @Override
+    public void remove(final String key) {
+        final CacheEntry removed = entries.remove(key);
+        if (removed != null) {
+            weight -= removed.weight;
+        }
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public long weight() {
+        return weight;
+    }
+}
@@ -0,0 +1,159 @@
+package ru.csc.bdse.kv.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Window TinyLFU over weighted entries.
+ * <p>
+ * New entries go to an LRU window of 1% of the capacity. An entry pushed out of the window competes with
+ * the eldest entry of the main area and replaces it only if the sketch says it was requested more often.
+ * The main area is a segmented LRU: entries start in probation and are promoted to the protected segment
+ * of 80% of the main area on their next hit, the eldest protected entries are demoted back to probation.
+ */
+final class TinyLfuPolicy implements CachePolicy {
+
+    private static final double WINDOW_SHARE = 0.01;
+    private static final double PROTECTED_SHARE = 0.8;
+    private static final int EXPECTED_ENTRY_BYTES = 256;
+
+    private final long windowMax;
+    private final long mainMax;
+    private final long protectedMax;
+    private final FrequencySketch sketch;
+
+    private final LinkedHashMap<String, CacheEntry> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, CacheEntry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, CacheEntry> protectedArea = new LinkedHashMap<>(16, 0.75f, true);
+    private long windowWeight;
+    private long probationWeight;
+    private long protectedWeight;
+
+    TinyLfuPolicy(final long maxBytes) {
+        this.windowMax = Math.max(1, (long) (maxBytes * WINDOW_SHARE));
+        this.mainMax = Math.max(1, maxBytes - windowMax);
+        this.protectedMax = (long) (mainMax * PROTECTED_SHARE);
+        this.sketch = new FrequencySketch((int) Math.min(Integer.MAX_VALUE, maxBytes / EXPECTED_ENTRY_BYTES));
+    }
+
+    /**
+     * Counts the request in the sketch whether the key is cached or not, entries are added after misses.
+     */
+    @Override
+    public CacheEntry get(final String key) {
+        sketch.increment(key);
+        final CacheEntry inWindow = window.get(key);
+        if (inWindow != null) {
+            return inWindow;
+        }
+        final CacheEntry inProbation = probation.remove(key);
+        if (inProbation != null) {
+            probationWeight -= inProbation.weight;
+            protectedArea.put(key, inProbation);
+            protectedWeight += inProbation.weight;
+            demoteProtected();
+            return inProbation;
+        }
+        return protectedArea.get(key);
+    }
+
+    @Override
+    public int put(final CacheEntry entry) {
+        remove(entry.key);
+        window.put(entry.key, entry);
+        windowWeight += entry.weight;
+
+        int evicted = 0;
+        while (windowWeight > windowMax && !window.isEmpty()) {
+            final CacheEntry candidate = removeEldest(window);
+            windowWeight -= candidate.weight;
+            evicted += admit(candidate);
+        }
+        return evicted;
+    }
+
+    @Override
+    public void remove(final String key) {
+        CacheEntry removed;
+        if ((removed = window.remove(key)) != null) {
+            windowWeight -= removed.weight;
+        } else if ((removed = probation.remove(key)) != null) {
+            probationWeight -= removed.weight;
+        } else if ((removed = protectedArea.remove(key)) != null) {
+            protectedWeight -= removed.weight;
+        }
+    }
+
+    @Override
+    public void clear() {
+        window.clear();
+        probation.clear();
+        protectedArea.clear();
+        windowWeight = 0;
+        probationWeight = 0;
+        protectedWeight = 0;
+    }
+
+    @Override
+    public int size() {
+        return window.size() + probation.size() + protectedArea.size();
+    }
+
+    @Override
+    public long weight() {
+        return windowWeight + probationWeight + protectedWeight;
+    }
+
+    /**
+     * Moves the candidate from the window to probation if it is more popular than the entry it displaces.
+     *
+     * @return number of entries evicted, the candidate itself included if it was rejected
+     */
+    private int admit(final CacheEntry candidate) {
+        if (candidate.weight > mainMax) {
+            return 1;
+        }
+        if (mainWeight() + candidate.weight > mainMax) {
+            final CacheEntry victim = eldest(probation.isEmpty() ? protectedArea : probation);
+            if (sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                return 1;
+            }
+        }
+        int evicted = 0;
+        while (mainWeight() + candidate.weight > mainMax) {
+            if (!probation.isEmpty()) {
+                probationWeight -= removeEldest(probation).weight;
+            } else {
+                protectedWeight -= removeEldest(protectedArea).weight;
+            }
+            evicted++;
+        }
+        probation.put(candidate.key, candidate);
+        probationWeight += candidate.weight;
+        return evicted;
+    }
+
+    private void demoteProtected() {
+        while (protectedWeight > protectedMax && protectedArea.size() > 1) {
+            final CacheEntry demoted = removeEldest(protectedArea);
+            protectedWeight -= demoted.weight;
+            probation.put(demoted.key, demoted);
+            probationWeight += demoted.weight;
+        }
+    }
+
+    private long mainWeight() {
+        return probationWeight + protectedWeight;
+    }
+
+    private static CacheEntry eldest(final LinkedHashMap<String, CacheEntry> segment) {
+        return segment.values().iterator().next();
+    }
+
+    private static CacheEntry removeEldest(final LinkedHashMap<String, CacheEntry> segment) {
+        final Iterator<CacheEntry> iterator = segment.values().iterator();
+        final CacheEntry eldest = iterator.next();
+        iterator.remove();
+        return eldest;
+    }
+}
@@ -0,0 +1,53 @@
+package ru.csc.bdse.kv.changelog;
+
+import ru.csc.bdse.util.Require;
+
+/**
+ * Mutation of a key with its position in the {@link Changelog}.
+ */
+public final class Change {
+
+    private final long sequence;
+    private final ChangeType type;
+    private final String key;
+    private final byte[] value;
+
+    /**
+     * @param value the value put, null for a deletion
+     */
+    public Change(final long sequence, final ChangeType type, final String key, final byte[] value) {
+        Require.nonNull(type, "null type");
+        Require.nonNull(key, "null key");
+        if ((type == ChangeType.PUT) != (value != null)) throw new IllegalArgumentException("value of " + type);
+        this.sequence = sequence;
+        this.type = type;
+        this.key = key;
+        this.value = value;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public ChangeType getType() {
+        return type;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the value put, null for a deletion.
+     */
+    public byte[] getValue() {
+        return value;
+    }
+
+    /**
+     * Returns an estimate of the memory taken by the change, used to bound the log and batches.
+     */
+    long sizeBytes() {
+        return 64 + key.length() * 2L + (value == null ? 0 : value.length);
+    }
+}
@@ -0,0 +1,32 @@
+package ru.csc.bdse.kv.changelog;
+
+import ru.csc.bdse.util.Require;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Consecutive changes read from the {@link Changelog} and the sequence number to continue from.
+ */
+public final class ChangeBatch {
+
+    private final List<Change> changes;
+    private final long nextSequence;
+
+    public ChangeBatch(final List<Change> changes, final long nextSequence) {
+        Require.nonNull(changes, "null changes");
+        this.changes = Collections.unmodifiableList(changes);
+        this.nextSequence = nextSequence;
+    }
+
+    public List<Change> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Returns the sequence number of the change following the batch, the one to read next.
+     */
+    public long getNextSequence() {
+        return nextSequence;
+    }
+}
@@ -0,0 +1,9 @@
+package ru.csc.bdse.kv.changelog;
+
+/**
+ * Kind of a mutation recorded in the {@link Changelog}.
+ */
+public enum ChangeType {
+    PUT,
+    DELETE
+}
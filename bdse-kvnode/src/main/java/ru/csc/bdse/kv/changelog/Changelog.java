@@ -0,0 +1,332 @@
+package ru.csc.bdse.kv.changelog;
+
+import ru.csc.bdse.util.Require;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded log of mutations numbered by consecutive sequence numbers starting from 1.
+ * <p>
+ * The latest changes are kept in a ring of at most {@code capacity} changes and {@code maxBytes} bytes, older ones
+ * are dropped. Consumers read batches from a sequence number they remember and either get the changes at once or,
+ * at the end of the log, wait for the next append, see {@link #poll(long, int, long)}, so one request per batch
+ * is enough to follow a busy node.
+ * <p>
+ * With a file the log is also appended to it, so sequence numbers and the retained changes survive a restart of
+ * the process. Every change is flushed to the operating system before {@link #append} returns, but not fsynced.
+ * The file is rewritten with the retained changes only once it holds twice the capacity.
+ */
+public class Changelog implements Closeable {
+
+    public static final int DEFAULT_CAPACITY = 100_000;
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    public static final int MAX_BATCH_CHANGES = 10_000;
+    public static final long MAX_BATCH_BYTES = 4 * 1024 * 1024;
+
+    private static final int DELETED = -1;
+
+    private final int capacity;
+    private final long maxBytes;
+    private final Change[] ring;
+    private int head;
+    private int count;
+    private long bytes;
+    private long nextSequence = 1;
+    private List<CompletableFuture<Void>> waiters = new ArrayList<>();
+    private final ScheduledExecutorService poller;
+
+    private final Path file;
+    private DataOutputStream out;
+    private long fileChanges;
+
+    public Changelog() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_BYTES);
+    }
+
+    public Changelog(final int capacity, final long maxBytes) {
+        if (capacity <= 0) throw new IllegalArgumentException("non-positive capacity");
+        if (maxBytes <= 0) throw new IllegalArgumentException("non-positive size limit");
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+        this.ring = new Change[capacity];
+        this.file = null;
+        this.poller = newPoller();
+    }
+
+    /**
+     * Loads changes kept in the file, if it exists, and continues it.
+     */
+    public Changelog(final int capacity, final long maxBytes, final Path file) throws IOException {
+        if (capacity <= 0) throw new IllegalArgumentException("non-positive capacity");
+        if (maxBytes <= 0) throw new IllegalArgumentException("non-positive size limit");
+        Require.nonNull(file, "null file");
+        this.capacity = capacity;
+        this.maxBytes = maxBytes;
+        this.ring = new Change[capacity];
+        this.file = file;
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        if (Files.exists(file)) {
+            load();
+        }
+        this.out = open(file, true);
+        this.poller = newPoller();
+    }
+
+    /**
+     * Records the change and wakes consumers waiting at the end of the log.
+     *
+     * @param value the value put, null for a deletion
+     * @return sequence number of the change
+     */
+    public long append(final ChangeType type, final String key, final byte[] value) {
+        final List<CompletableFuture<Void>> woken;
+        final long sequence;
+        synchronized (this) {
+            sequence = nextSequence;
+            final Change change = new Change(sequence, type, key, value);
+            try {
+                if (out != null) {
+                    write(out, change);
+                    out.flush();
+                }
+                add(change);
+                nextSequence++;
+                if (out != null && ++fileChanges >= 2L * capacity) {
+                    rewrite();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            woken = waiters;
+            waiters = woken.isEmpty() ? woken : new ArrayList<>();
+        }
+        woken.forEach(waiter -> waiter.complete(null));
+        return sequence;
+    }
+
+    /**
+     * Returns up to {@code limit} changes starting from the sequence number at once, an empty batch at the end
+     * of the log.
+     *
+     * @throws TruncatedChangelogException if the change with that number was dropped
+     * @throws IllegalArgumentException    if the number is beyond the end of the log
+     */
+    public synchronized ChangeBatch read(final long from, final int limit) {
+        if (limit <= 0 || limit > MAX_BATCH_CHANGES) throw new IllegalArgumentException("invalid limit: " + limit);
+        final long oldest = getOldestSequence();
+        if (from < oldest) {
+            throw new TruncatedChangelogException("change " + from + " is dropped, the oldest one is " + oldest);
+        }
+        if (from > nextSequence) {
+            throw new IllegalArgumentException("change " + from + " is beyond the end of the log at " + nextSequence);
+        }
+        final List<Change> changes = new ArrayList<>(Math.min(limit, (int) (nextSequence - from)));
+        long batchBytes = 0;
+        for (int i = (int) (from - oldest); i < count && changes.size() < limit; i++) {
+            final Change change = ring[(head + i) % capacity];
+            batchBytes += change.sizeBytes();
+            if (!changes.isEmpty() && batchBytes > MAX_BATCH_BYTES) {
+                break;
+            }
+            changes.add(change);
+        }
+        return new ChangeBatch(changes, from + changes.size());
+    }
+
+    /**
+     * Same as {@link #read(long, int)}, but at the end of the log waits up to {@code timeoutMillis} for changes.
+     * The batch is completed by the first append, further changes go to the next batch.
+     */
+    public CompletableFuture<ChangeBatch> poll(final long from, final int limit, final long timeoutMillis) {
+        if (timeoutMillis < 0) throw new IllegalArgumentException("negative timeout");
+        final CompletableFuture<Void> waiter = new CompletableFuture<>();
+        synchronized (this) {
+            if (from != nextSequence || timeoutMillis == 0) {
+                return CompletableFuture.completedFuture(read(from, limit));
+            }
+            waiters.add(waiter);
+        }
+        poller.schedule(() -> {
+            synchronized (this) {
+                waiters.remove(waiter);
+            }
+            waiter.complete(null);
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        return waiter.thenApplyAsync(ignored -> read(from, limit), poller);
+    }
+
+    /**
+     * Returns the sequence number the next change will get.
+     */
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * Returns the sequence number of the oldest retained change, or the next one if none are retained.
+     */
+    public synchronized long getOldestSequence() {
+        return count == 0 ? nextSequence : ring[head].getSequence();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        poller.shutdownNow();
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    private void add(final Change change) {
+        if (count == capacity) {
+            dropOldest();
+        }
+        ring[(head + count) % capacity] = change;
+        count++;
+        bytes += change.sizeBytes();
+        while (bytes > maxBytes && count > 1) {
+            dropOldest();
+        }
+    }
+
+    private void dropOldest() {
+        bytes -= ring[head].sizeBytes();
+        ring[head] = null;
+        head = (head + 1) % capacity;
+        count--;
+    }
+
+    /**
+     * Reads changes up to the first incomplete one, which a crash may leave at the end, and cuts it off.
+     */
+    private void load() throws IOException {
+        long valid = 0;
+        try (CountingInputStream counting = new CountingInputStream(Files.newInputStream(file));
+             DataInputStream in = new DataInputStream(counting)) {
+            while (true) {
+                final Change change;
+                try {
+                    change = readChange(in);
+                } catch (EOFException e) {
+                    break;
+                }
+                if (change.getSequence() != nextSequence && fileChanges > 0) {
+                    throw new IOException("changelog " + file + " is corrupted at change " + change.getSequence());
+                }
+                add(change);
+                nextSequence = change.getSequence() + 1;
+                fileChanges++;
+                valid = counting.count;
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(valid);
+        }
+    }
+
+    /**
+     * Replaces the file by one with the retained changes only.
+     */
+    private void rewrite() throws IOException {
+        out.close();
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream rewritten = open(tmp, false)) {
+            for (int i = 0; i < count; i++) {
+                write(rewritten, ring[(head + i) % capacity]);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        out = open(file, true);
+        fileChanges = count;
+    }
+
+    /**
+     * Writes {@code sequence | type | keyLength | key (UTF-8) | valueLength | value}, the value length of a deletion
+     * is -1.
+     */
+    private static void write(final DataOutputStream out, final Change change) throws IOException {
+        final byte[] key = change.getKey().getBytes(StandardCharsets.UTF_8);
+        out.writeLong(change.getSequence());
+        out.writeByte(change.getType().ordinal());
+        out.writeInt(key.length);
+        out.write(key);
+        if (change.getValue() == null) {
+            out.writeInt(DELETED);
+        } else {
+            out.writeInt(change.getValue().length);
+            out.write(change.getValue());
+        }
+    }
+
+    private static Change readChange(final DataInputStream in) throws IOException {
+        final long sequence = in.readLong();
+        final int type = in.readUnsignedByte();
+        if (type >= ChangeType.values().length) throw new IOException("unknown change type: " + type);
+        final byte[] key = new byte[in.readInt()];
+        in.readFully(key);
+        final int valueLength = in.readInt();
+        byte[] value = null;
+        if (valueLength != DELETED) {
+            value = new byte[valueLength];
+            in.readFully(value);
+        }
+        return new Change(sequence, ChangeType.values()[type], new String(key, StandardCharsets.UTF_8), value);
+    }
+
+    private static DataOutputStream open(final Path file, final boolean append) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(append
+                ? Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+                : Files.newOutputStream(file)));
+    }
+
+    private static ScheduledExecutorService newPoller() {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "changelog-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        private CountingInputStream(final InputStream in) {
+            super(new BufferedInputStream(in));
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
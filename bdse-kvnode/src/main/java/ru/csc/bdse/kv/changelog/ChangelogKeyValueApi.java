@@ -0,0 +1,236 @@
+package ru.csc.bdse.kv.changelog;
+
+import ru.csc.bdse.kv.KeyValueApi;
+import ru.csc.bdse.kv.NodeAction;
+import ru.csc.bdse.kv.NodeInfo;
+import ru.csc.bdse.kv.VersionedValue;
+import ru.csc.bdse.util.Require;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Storage unit decorator which records every successful write and delete in a {@link Changelog}, so consumers
+ * follow the storage by reading the log instead of listing and reading all keys.
+ * <p>
+ * A write to the storage and its append to the log are done under a lock of the key, one of {@value #LOCK_STRIPES},
+ * so changes of a key come in the log in the order the storage applied them. A batch locks stripes of all its keys
+ * in ascending order. Expiry of keys put with a ttl and a restore of a snapshot are not recorded.
+ */
+public class ChangelogKeyValueApi implements KeyValueApi, Closeable {
+
+    private static final int LOCK_STRIPES = 256;
+
+    private final KeyValueApi storage;
+    private final Changelog changelog;
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    public ChangelogKeyValueApi(final KeyValueApi storage, final Changelog changelog) {
+        Require.nonNull(storage, "null storage");
+        Require.nonNull(changelog, "null changelog");
+        this.storage = storage;
+        this.changelog = changelog;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public void put(final String key, final byte[] value) {
+        Require.nonNull(key, "null key");
+        final ReentrantLock lock = lockOf(key);
+        lock.lock();
+        try {
+            storage.put(key, value);
+            changelog.append(ChangeType.PUT, key, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(final String key, final byte[] value, final long ttlMillis) {
+        Require.nonNull(key, "null key");
+        final ReentrantLock lock = lockOf(key);
+        lock.lock();
+        try {
+            storage.put(key, value, ttlMillis);
+            changelog.append(ChangeType.PUT, key, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Optional<byte[]> get(final String key) {
+        return storage.get(key);
+    }
+
+    @Override
+    public Optional<VersionedValue> getVersioned(final String key) {
+        return storage.getVersioned(key);
+    }
+
+    @Override
+    public OptionalLong putIfAbsent(final String key, final byte[] value) {
+        Require.nonNull(key, "null key");
+        final ReentrantLock lock = lockOf(key);
+        lock.lock();
+        try {
+            final OptionalLong version = storage.putIfAbsent(key, value);
+            if (version.isPresent()) {
+                changelog.append(ChangeType.PUT, key, value);
+            }
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public OptionalLong putIfVersion(final String key, final byte[] value, final long version) {
+        Require.nonNull(key, "null key");
+        final ReentrantLock lock = lockOf(key);
+        lock.lock();
+        try {
+            final OptionalLong written = storage.putIfVersion(key, value, version);
+            if (written.isPresent()) {
+                changelog.append(ChangeType.PUT, key, value);
+            }
+            return written;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Set<String> getKeys(final String prefix) {
+        return storage.getKeys(prefix);
+    }
+
+    @Override
+    public List<String> getKeys(final String prefix, final String after, final int limit) {
+        return storage.getKeys(prefix, after, limit);
+    }
+
+    @Override
+    public Stream<String> streamKeys(final String prefix, final String after, final int pageSize) {
+        return storage.streamKeys(prefix, after, pageSize);
+    }
+
+    /**
+     * A deletion is recorded even if the key had no value, the storage does not tell.
+     */
+    @Override
+    public void delete(final String key) {
+        Require.nonNull(key, "null key");
+        final ReentrantLock lock = lockOf(key);
+        lock.lock();
+        try {
+            storage.delete(key);
+            changelog.append(ChangeType.DELETE, key, null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void putAll(final Map<String, byte[]> entries) {
+        Require.nonNull(entries, "null entries");
+        final List<ReentrantLock> held = lockAll(entries.keySet());
+        try {
+            storage.putAll(entries);
+            entries.forEach((key, value) -> changelog.append(ChangeType.PUT, key, value));
+        } finally {
+            held.forEach(ReentrantLock::unlock);
+        }
+    }
+
+    @Override
+    public Map<String, byte[]> getAll(final Collection<String> keys) {
+        return storage.getAll(keys);
+    }
+
+    @Override
+    public void deleteAll(final Collection<String> keys) {
+        Require.nonNull(keys, "null keys");
+        final List<ReentrantLock> held = lockAll(keys);
+        try {
+            storage.deleteAll(keys);
+            keys.forEach(key -> changelog.append(ChangeType.DELETE, key, null));
+        } finally {
+            held.forEach(ReentrantLock::unlock);
+        }
+    }
+
+    @Override
+    public Map<String, Long> getExpiryTimes(final Collection<String> keys) {
+        return storage.getExpiryTimes(keys);
+    }
+
+    @Override
+    public OptionalLong getKeyCount() {
+        return storage.getKeyCount();
+    }
+
+    @Override
+    public Set<NodeInfo> getInfo() {
+        return storage.getInfo();
+    }
+
+    @Override
+    public void action(final String node, final NodeAction action) {
+        storage.action(node, action);
+    }
+
+    public Changelog getChangelog() {
+        return changelog;
+    }
+
+    /**
+     * Returns the wrapped storage, e.g. to reach statistics of a particular engine.
+     */
+    public KeyValueApi getStorage() {
+        return storage;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            changelog.close();
+        } finally {
+            if (storage instanceof Closeable) {
+                ((Closeable) storage).close();
+            }
+        }
+    }
+
+    private ReentrantLock lockOf(final String key) {
+        return locks[stripe(key)];
+    }
+
+    /**
+     * Locks stripes of the keys in ascending order, so two batches never wait for each other's stripes.
+     */
+    private List<ReentrantLock> lockAll(final Collection<String> keys) {
+        final BitSet stripes = new BitSet(LOCK_STRIPES);
+        for (String key : keys) {
+            Require.nonNull(key, "null key");
+            stripes.set(stripe(key));
+        }
+        final List<ReentrantLock> held = new ArrayList<>(stripes.cardinality());
+        for (int i = stripes.nextSetBit(0); i >= 0; i = stripes.nextSetBit(i + 1)) {
+            locks[i].lock();
+            held.add(locks[i]);
+        }
+        return held;
+    }
+
+    private static int stripe(final String key) {
+        final int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (LOCK_STRIPES - 1);
+    }
+}
@@ -0,0 +1,12 @@
+package ru.csc.bdse.kv.changelog;
+
+/**
+ * Thrown when changes are requested from a sequence number which the {@link Changelog} has already dropped.
+ * The node answers such requests with 410, the consumer has to read the keys anew and continue from the end.
+ */
+public class TruncatedChangelogException extends RuntimeException {
+
+    public TruncatedChangelogException(final String message) {
+        super(message);
+    }
+}
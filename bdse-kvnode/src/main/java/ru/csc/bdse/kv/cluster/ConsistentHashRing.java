@@ -0,0 +1,94 @@
+package ru.csc.bdse.kv.cluster;
+
+import ru.csc.bdse.util.Require;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Immutable consistent-hash ring. Every node is placed on the ring at {@code virtualNodes} points,
+ * a key belongs to the node owning the first point at or after the hash of the key.
+ * Adding or removing a node moves only about {@code 1 / nodeCount} of keys.
+ */
+public final class ConsistentHashRing {
+
+    private final long[] points;
+    private final String[] owners;
+    private final List<String> nodes;
+
+    public ConsistentHashRing(final Collection<String> nodes, final int virtualNodes) {
+        Require.nonNull(nodes, "null nodes");
+        if (nodes.isEmpty()) throw new IllegalArgumentException("no nodes");
+        if (virtualNodes <= 0) throw new IllegalArgumentException("non-positive virtual nodes");
+
+        final TreeMap<Long, String> ring = new TreeMap<>();
+        for (String node : new TreeSet<>(nodes)) {
+            Require.nonEmpty(node, "empty node");
+            for (int i = 0; i < virtualNodes; i++) {
+                // on a collision the smaller name wins, so the ring does not depend on the order of nodes
+                ring.putIfAbsent(hash(node + "#" + i), node);
+            }
+        }
+        this.points = new long[ring.size()];
+        this.owners = new String[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, String> point : ring.entrySet()) {
+            points[i] = point.getKey();
+            owners[i] = point.getValue();
+            i++;
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(new TreeSet<>(nodes)));
+    }
+
+    /**
+     * Returns the node owning specified key.
+     */
+    public String nodeFor(final String key) {
+        return owners[pointFor(key)];
+    }
+
+    /**
+     * Returns up to {@code count} distinct nodes met walking the ring clockwise from the key,
+     * the first one is the owner of the key.
+     */
+    public List<String> nodesFor(final String key, final int count) {
+        final int limit = Math.min(count, nodes.size());
+        final List<String> result = new ArrayList<>(limit);
+        for (int i = pointFor(key), seen = 0; result.size() < limit && seen < points.length; i = (i + 1) % points.length, seen++) {
+            if (!result.contains(owners[i])) {
+                result.add(owners[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns all nodes of the ring in ascending order.
+     */
+    public List<String> nodes() {
+        return nodes;
+    }
+
+    private int pointFor(final String key) {
+        final int found = Arrays.binarySearch(points, hash(key));
+        final int index = found >= 0 ? found : -found - 1;
+        return index == points.length ? 0 : index;
+    }
+
+    /**
+     * 64-bit FNV-1a of UTF-8 bytes followed by the murmur3 finalizer, which spreads similar keys over the ring.
+     */
+    static long hash(final String value) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,311 @@
+package ru.csc.bdse.kv.cluster;
+
+import ru.csc.bdse.kv.Deadline;
+import ru.csc.bdse.kv.DeadlineExceededException;
+import ru.csc.bdse.kv.KeyValueApi;
+import ru.csc.bdse.kv.KeyValueApiHttpClient;
+import ru.csc.bdse.kv.NodeAction;
+import ru.csc.bdse.kv.NodeInfo;
+import ru.csc.bdse.kv.VersionedValue;
+import ru.csc.bdse.kv.metrics.LogLinearHistogram;
+import ru.csc.bdse.util.Require;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * Client of several endpoints serving the same data, e.g. coordinators in front of the same replicas, which cuts
+ * the tail latency of reads by hedging them.
+ * <p>
+ * A read goes to one endpoint, endpoints take turns. If it has not answered within the hedge delay, the same read
+ * is sent to the next endpoint and the first answer of the two wins, a read which failed before the delay is sent
+ * to the next endpoint at once. The delay is the {@code quantile} of the latencies of the previous {@value #WINDOW}
+ * reads, so about {@code 1 - quantile} of reads are hedged and add that much load. The delay is never shorter than
+ * {@value #MIN_HEDGE_DELAY_MICROS} microseconds: endpoints answering faster, e.g. local ones, would otherwise have
+ * nearly every read hedged. Every read has a deadline, which {@link KeyValueApiHttpClient} endpoints pass to the node,
+ * so the node which lost the race soon abandons the read.
+ * <p>
+ * Writes and listings go to the first endpoint only. The client owns the endpoints and closes those which are
+ * closeable.
+ */
+public class HedgedKeyValueApi implements KeyValueApi, Closeable {
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = 1000;
+    public static final double DEFAULT_HEDGE_QUANTILE = 0.95;
+    public static final long DEFAULT_INITIAL_HEDGE_DELAY_MILLIS = 10;
+    public static final long MIN_HEDGE_DELAY_MICROS = 1000;
+
+    static final int WINDOW = 1000;
+
+    private static final int NONE = 0;
+    private static final int PRIMARY = 1;
+    private static final int HEDGE = 2;
+
+    private final List<KeyValueApi> endpoints;
+    private final long timeoutMillis;
+    private final double hedgeQuantile;
+    private final ExecutorService executor;
+    private final AtomicInteger nextEndpoint = new AtomicInteger();
+
+    private volatile LogLinearHistogram window = new LogLinearHistogram();
+    private final AtomicLong windowReads = new AtomicLong();
+    private volatile long hedgeDelayMicros;
+
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong hedgedReads = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    public HedgedKeyValueApi(final List<? extends KeyValueApi> endpoints) {
+        this(endpoints, DEFAULT_TIMEOUT_MILLIS, DEFAULT_HEDGE_QUANTILE, DEFAULT_INITIAL_HEDGE_DELAY_MILLIS);
+    }
+
+    /**
+     * @param timeoutMillis           deadline of every read
+     * @param hedgeQuantile           share of reads expected to answer before the hedge
+     * @param initialHedgeDelayMillis delay of hedges until the first window of reads is measured,
+     *                                at least {@link #MIN_HEDGE_DELAY_MICROS}
+     */
+    public HedgedKeyValueApi(final List<? extends KeyValueApi> endpoints,
+                             final long timeoutMillis,
+                             final double hedgeQuantile,
+                             final long initialHedgeDelayMillis) {
+        Require.nonNull(endpoints, "null endpoints");
+        if (endpoints.isEmpty()) throw new IllegalArgumentException("no endpoints");
+        if (timeoutMillis <= 0) throw new IllegalArgumentException("non-positive timeout");
+        if (hedgeQuantile <= 0 || hedgeQuantile >= 1) throw new IllegalArgumentException("quantile out of (0, 1)");
+        if (initialHedgeDelayMillis < 0) throw new IllegalArgumentException("negative hedge delay");
+        this.endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+        this.timeoutMillis = timeoutMillis;
+        this.hedgeQuantile = hedgeQuantile;
+        this.hedgeDelayMicros = Math.max(MIN_HEDGE_DELAY_MICROS, TimeUnit.MILLISECONDS.toMicros(initialHedgeDelayMillis));
+        final AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "hedged-read-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void put(final String key, final byte[] value) {
+        primary().put(key, value);
+    }
+
+    @Override
+    public void put(final String key, final byte[] value, final long ttlMillis) {
+        primary().put(key, value, ttlMillis);
+    }
+
+    /**
+     * @throws DeadlineExceededException if no endpoint answered before the deadline
+     */
+    @Override
+    public Optional<byte[]> get(final String key) {
+        Require.nonNull(key, "null key");
+        return hedged((endpoint, deadline) -> endpoint instanceof KeyValueApiHttpClient
+                ? ((KeyValueApiHttpClient) endpoint).get(key, deadline.remainingMillis())
+                : endpoint.get(key));
+    }
+
+    @Override
+    public Optional<VersionedValue> getVersioned(final String key) {
+        Require.nonNull(key, "null key");
+        return hedged((endpoint, deadline) -> endpoint instanceof KeyValueApiHttpClient
+                ? ((KeyValueApiHttpClient) endpoint).getVersioned(key, deadline.remainingMillis())
+                : endpoint.getVersioned(key));
+    }
+
+    @Override
+    public OptionalLong putIfAbsent(final String key, final byte[] value) {
+        return primary().putIfAbsent(key, value);
+    }
+
+    @Override
+    public OptionalLong putIfVersion(final String key, final byte[] value, final long version) {
+        return primary().putIfVersion(key, value, version);
+    }
+
+    @Override
+    public Set<String> getKeys(final String prefix) {
+        return primary().getKeys(prefix);
+    }
+
+    @Override
+    public List<String> getKeys(final String prefix, final String after, final int limit) {
+        return primary().getKeys(prefix, after, limit);
+    }
+
+    @Override
+    public void delete(final String key) {
+        primary().delete(key);
+    }
+
+    @Override
+    public void putAll(final Map<String, byte[]> entries) {
+        primary().putAll(entries);
+    }
+
+    @Override
+    public Map<String, byte[]> getAll(final Collection<String> keys) {
+        return primary().getAll(keys);
+    }
+
+    @Override
+    public Map<String, byte[]> getAllHeads(final Collection<String> keys, final int headBytes) {
+        return primary().getAllHeads(keys, headBytes);
+    }
+
+    @Override
+    public void deleteAll(final Collection<String> keys) {
+        primary().deleteAll(keys);
+    }
+
+    @Override
+    public Set<NodeInfo> getInfo() {
+        return primary().getInfo();
+    }
+
+    @Override
+    public void action(final String node, final NodeAction action) {
+        primary().action(node, action);
+    }
+
+    public long getReadCount() {
+        return reads.get();
+    }
+
+    /**
+     * Returns the number of reads which were sent to a second endpoint.
+     */
+    public long getHedgedReadCount() {
+        return hedgedReads.get();
+    }
+
+    /**
+     * Returns the number of hedged reads answered by the second endpoint first, i.e. of hedges which paid off.
+     */
+    public long getHedgeWinCount() {
+        return hedgeWins.get();
+    }
+
+    /**
+     * Returns the current delay before a read is hedged.
+     */
+    public long getHedgeDelayMicros() {
+        return hedgeDelayMicros;
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdownNow();
+        IOException failure = null;
+        for (KeyValueApi endpoint : endpoints) {
+            if (endpoint instanceof Closeable) {
+                try {
+                    ((Closeable) endpoint).close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private KeyValueApi primary() {
+        return endpoints.get(0);
+    }
+
+    private <T> T hedged(final BiFunction<KeyValueApi, Deadline, T> read) {
+        reads.incrementAndGet();
+        final Deadline deadline = Deadline.after(timeoutMillis);
+        final int first = Math.floorMod(nextEndpoint.getAndIncrement(), endpoints.size());
+        final long startNanos = System.nanoTime();
+        final CompletableFuture<T> primary = CompletableFuture.supplyAsync(
+                () -> read.apply(endpoints.get(first), deadline), executor);
+        primary.thenRun(() -> record(System.nanoTime() - startNanos));
+
+        try {
+            return primary.get(Math.min(hedgeDelayMicros, TimeUnit.NANOSECONDS.toMicros(deadline.remainingNanos())),
+                    TimeUnit.MICROSECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            if (endpoints.size() == 1 || deadline.isExpired()) {
+                return await(primary, deadline);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DeadlineExceededException("interrupted");
+        }
+
+        hedgedReads.incrementAndGet();
+        final CompletableFuture<T> hedge = CompletableFuture.supplyAsync(
+                () -> read.apply(endpoints.get((first + 1) % endpoints.size()), deadline), executor);
+        final AtomicInteger winner = new AtomicInteger(NONE);
+        final CompletableFuture<T> answer = new CompletableFuture<>();
+        final AtomicInteger failures = new AtomicInteger();
+        primary.whenComplete((value, e) -> complete(answer, winner, PRIMARY, value, e, failures));
+        hedge.whenComplete((value, e) -> complete(answer, winner, HEDGE, value, e, failures));
+        final T value = await(answer, deadline);
+        if (winner.get() == HEDGE) {
+            hedgeWins.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Completes the answer with the first value, or with the failure once both reads failed.
+     */
+    private static <T> void complete(final CompletableFuture<T> answer,
+                                     final AtomicInteger winner,
+                                     final int read,
+                                     final T value,
+                                     final Throwable e,
+                                     final AtomicInteger failures) {
+        if (e == null) {
+            if (winner.compareAndSet(NONE, read)) {
+                answer.complete(value);
+            }
+        } else if (failures.incrementAndGet() == 2) {
+            answer.completeExceptionally(e);
+        }
+    }
+
+    private static <T> T await(final CompletableFuture<T> future, final Deadline deadline) {
+        try {
+            return future.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException("no endpoint answered in time");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause() instanceof CompletionException && e.getCause().getCause() != null
+                    ? e.getCause().getCause()
+                    : e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DeadlineExceededException("interrupted");
+        }
+    }
+
+    /**
+     * Counts the latency of a first read, a full window replaces the hedge delay with its quantile,
+     * but not below {@link #MIN_HEDGE_DELAY_MICROS}.
+     */
+    private void record(final long latencyNanos) {
+        final LogLinearHistogram current = window;
+        current.record(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+        if (windowReads.incrementAndGet() % WINDOW == 0) {
+            synchronized (this) {
+                if (window == current) {
+                    window = new LogLinearHistogram();
+                    hedgeDelayMicros = Math.max(MIN_HEDGE_DELAY_MICROS, current.snapshot().percentile(hedgeQuantile));
+                }
+            }
+        }
+    }
+}
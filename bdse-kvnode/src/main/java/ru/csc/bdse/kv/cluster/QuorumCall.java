@@ -0,0 +1,87 @@
+package ru.csc.bdse.kv.cluster;
+
+import ru.csc.bdse.kv.KeyValueApi;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Calls several replicas in parallel and lets the caller continue as soon as enough of them succeeded.
+ * Slower replicas keep running, their results are still collected for {@link #all()}.
+ */
+final class QuorumCall<T> {
+
+    private final int total;
+    private final int required;
+    private final Map<String, T> successes = new LinkedHashMap<>();
+    private final List<Throwable> failures = new ArrayList<>();
+    private final CompletableFuture<Map<String, T>> quorum = new CompletableFuture<>();
+    private final CompletableFuture<Map<String, T>> all = new CompletableFuture<>();
+
+    QuorumCall(final Map<String, ? extends KeyValueApi> replicas,
+               final int required,
+               final Function<KeyValueApi, T> call,
+               final Executor executor) {
+        if (required > replicas.size()) {
+            throw new IllegalArgumentException("quorum of " + required + " out of " + replicas.size() + " replicas");
+        }
+        this.total = replicas.size();
+        this.required = required;
+        replicas.forEach((id, replica) -> CompletableFuture
+                .supplyAsync(() -> call.apply(replica), executor)
+                .whenComplete((result, e) -> complete(id, result, e)));
+    }
+
+    /**
+     * Waits for the quorum and returns results of replicas which answered by then.
+     *
+     * @throws RuntimeException if too many replicas failed or did not answer in time
+     */
+    Map<String, T> await(final long timeoutMillis) {
+        try {
+            return quorum.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw (RuntimeException) e.getCause();
+        } catch (TimeoutException e) {
+            synchronized (this) {
+                throw new RuntimeException("quorum not reached in " + timeoutMillis + " ms: "
+                        + successes.size() + " of " + required + " replicas answered");
+            }
+        }
+    }
+
+    /**
+     * Completes when every replica answered or failed, with results of successful ones.
+     */
+    CompletableFuture<Map<String, T>> all() {
+        return all;
+    }
+
+    /**
+     * Returns results of replicas which answered so far.
+     */
+    synchronized Map<String, T> answered() {
+        return new LinkedHashMap<>(successes);
+    }
+
+    private synchronized void complete(final String id, final T result, final Throwable e) {
+        if (e == null) {
+            successes.put(id, result);
+        } else {
+            failures.add(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+        }
+        if (successes.size() >= required) {
+            quorum.complete(new LinkedHashMap<>(successes));
+        } else if (failures.size() > total - required) {
+            quorum.completeExceptionally(new RuntimeException("quorum not reached: "
+                    + failures.size() + " of " + total + " replicas failed", failures.get(0)));
+        }
+        if (successes.size() + failures.size() == total) {
+            all.complete(new LinkedHashMap<>(successes));
+        }
+    }
+}
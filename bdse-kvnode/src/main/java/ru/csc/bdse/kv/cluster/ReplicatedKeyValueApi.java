@@ -0,0 +1,444 @@
+package ru.csc.bdse.kv.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.csc.bdse.kv.KeyValueApi;
+import ru.csc.bdse.kv.NodeAction;
+import ru.csc.bdse.kv.NodeInfo;
+import ru.csc.bdse.kv.NodeStatus;
+import ru.csc.bdse.kv.VersionedValue;
+import ru.csc.bdse.util.Require;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Coordinator keeping every key on {@code n} replicas with quorum writes and reads.
+ * <p>
+ * Replicas of a key are its {@code n} successors on a {@link ConsistentHashRing}, so with {@code n} equal to
+ * the number of replicas every replica has all keys. A write is sent to all replicas of the key and succeeds
+ * when {@code w} of them acknowledged it. A read is sent to all replicas too and returns the newest value
+ * among the first {@code r} answers, with {@code w + r > n} it always sees the latest successful write.
+ * Replicas which returned an older value or no value at all are repaired in the background once
+ * all of them answered.
+ * <p>
+ * Values are stored on replicas with a version assigned by the coordinator, see {@link Versioned},
+ * and deletions are stored as tombstones. Tombstones are never purged. Conditional writes are not supported:
+ * a compare-and-set over quorums would need a consensus between replicas. Neither are puts with a ttl:
+ * replicas would expire a value independently of the tombstones guarding it.
+ * <p>
+ * Writes a replica missed, e.g. while it was taken down with {@link NodeAction#DOWN}, are kept by the coordinator
+ * as hints and replayed in the background once the replica answers again, so it catches up without waiting for
+ * reads of every missed key. Hints live in memory only, keys missed beyond {@link #MAX_HINTS_PER_REPLICA}
+ * or before a restart of the coordinator are left to read repair. Writes, hints and repairs are all conditional
+ * puts on the replica, so none of them overwrites a newer value or tombstone, e.g. a late write of another
+ * coordinator or a slow put arriving after its call timed out. A replica which already holds the same or a newer
+ * version acknowledges the write without changing it.
+ */
+public class ReplicatedKeyValueApi implements KeyValueApi, Closeable {
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+    public static final int MAX_HINTS_PER_REPLICA = 100_000;
+
+    private static final long HINT_REPLAY_INTERVAL_MILLIS = 1000;
+    private static final int HINT_REPLAY_BATCH = 1000;
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicatedKeyValueApi.class);
+
+    private final Map<String, KeyValueApi> replicas;
+    private final ConsistentHashRing ring;
+    private final int n;
+    private final int w;
+    private final int r;
+    private final long timeoutMillis;
+    private final ExecutorService executor;
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong readRepairs = new AtomicLong();
+    private final Map<String, ConcurrentMap<String, Versioned>> hints = new HashMap<>();
+    private final AtomicLong replayedHints = new AtomicLong();
+    private final ScheduledExecutorService handoff;
+
+    public ReplicatedKeyValueApi(final Map<String, ? extends KeyValueApi> replicas, final int n, final int w, final int r) {
+        this(replicas, n, w, r, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param replicas      storages by their ids, ids define the placement of keys and must be stable between restarts
+     * @param timeoutMillis how long to wait for a quorum
+     */
+    public ReplicatedKeyValueApi(final Map<String, ? extends KeyValueApi> replicas,
+                                 final int n,
+                                 final int w,
+                                 final int r,
+                                 final long timeoutMillis) {
+        Require.nonNull(replicas, "null replicas");
+        if (n <= 0 || n > replicas.size()) throw new IllegalArgumentException("n out of [1, " + replicas.size() + "]");
+        if (w <= 0 || w > n) throw new IllegalArgumentException("w out of [1, n]");
+        if (r <= 0 || r > n) throw new IllegalArgumentException("r out of [1, n]");
+        if (timeoutMillis <= 0) throw new IllegalArgumentException("non-positive timeout");
+
+        this.replicas = Collections.unmodifiableMap(new TreeMap<>(replicas));
+        this.ring = new ConsistentHashRing(this.replicas.keySet(), ShardedKeyValueApi.DEFAULT_VIRTUAL_NODES);
+        this.n = n;
+        this.w = w;
+        this.r = r;
+        this.timeoutMillis = timeoutMillis;
+        final AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "replica-call-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.replicas.keySet().forEach(id -> hints.put(id, new ConcurrentHashMap<>()));
+        this.handoff = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "hinted-handoff");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.handoff.scheduleWithFixedDelay(this::replayHints,
+                HINT_REPLAY_INTERVAL_MILLIS, HINT_REPLAY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void put(final String key, final byte[] value) {
+        Require.nonNull(key, "null key");
+        Require.nonNull(value, "null value");
+        write(key, Versioned.value(nextVersion(), value));
+    }
+
+    @Override
+    public Optional<byte[]> get(final String key) {
+        Require.nonNull(key, "null key");
+        return Optional.ofNullable(read(key)).map(Versioned::value);
+    }
+
+    /**
+     * Lists keys of at least {@code replicas - (n - r)} replicas, so every key is seen on {@code r} of its replicas,
+     * and drops keys whose newest version is a tombstone.
+     */
+    @Override
+    public Set<String> getKeys(final String prefix) {
+        Require.nonNull(prefix, "null prefix");
+        final Map<String, Set<String>> listed = scan(replica -> replica.getKeys(prefix));
+        final Set<String> candidates = new HashSet<>();
+        listed.values().forEach(candidates::addAll);
+        return live(candidates, listed.keySet());
+    }
+
+    @Override
+    public List<String> getKeys(final String prefix, final String after, final int limit) {
+        Require.nonNull(prefix, "null prefix");
+        if (limit <= 0) throw new IllegalArgumentException("non-positive limit");
+
+        final List<String> page = new ArrayList<>();
+        String cursor = after;
+        while (page.size() < limit) {
+            final String from = cursor;
+            final Map<String, List<String>> listed = scan(replica -> replica.getKeys(prefix, from, limit));
+            // the smallest keys of the union are complete: every replica listed all its keys up to them
+            final List<String> candidates = new ArrayList<>();
+            final TreeSet<String> merged = new TreeSet<>();
+            listed.values().forEach(merged::addAll);
+            for (String key : merged) {
+                if (candidates.size() == limit) break;
+                candidates.add(key);
+            }
+            if (candidates.isEmpty()) break;
+
+            final Set<String> live = live(candidates, listed.keySet());
+            for (String key : candidates) {
+                if (page.size() < limit && live.contains(key)) {
+                    page.add(key);
+                }
+            }
+            if (candidates.size() < limit) break;
+            cursor = candidates.get(candidates.size() - 1);
+        }
+        return page;
+    }
+
+    @Override
+    public void delete(final String key) {
+        Require.nonNull(key, "null key");
+        write(key, Versioned.tombstone(nextVersion()));
+    }
+
+    /**
+     * Returns info of all replicas, replicas which did not answer are reported as {@link NodeStatus#DOWN} by their ids.
+     */
+    @Override
+    public Set<NodeInfo> getInfo() {
+        final QuorumCall<Set<NodeInfo>> call = new QuorumCall<>(replicas, replicas.size(), KeyValueApi::getInfo, executor);
+        Map<String, Set<NodeInfo>> answered;
+        try {
+            answered = call.all().get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException | TimeoutException e) {
+            answered = call.answered();
+        }
+        final Set<NodeInfo> info = new HashSet<>();
+        for (String id : replicas.keySet()) {
+            final Set<NodeInfo> replicaInfo = answered.get(id);
+            if (replicaInfo == null) {
+                info.add(new NodeInfo(id, NodeStatus.DOWN));
+            } else {
+                info.addAll(replicaInfo);
+            }
+        }
+        return info;
+    }
+
+    /**
+     * Passes the action to the replica which has the node.
+     */
+    @Override
+    public void action(final String node, final NodeAction action) {
+        Require.nonNull(node, "null node");
+        for (KeyValueApi replica : replicas.values()) {
+            for (NodeInfo info : replica.getInfo()) {
+                if (info.getName().equals(node)) {
+                    replica.action(node, action);
+                    return;
+                }
+            }
+        }
+        throw new IllegalArgumentException("unknown node: " + node);
+    }
+
+    /**
+     * Number of stale replicas updated by reads so far.
+     */
+    public long getReadRepairCount() {
+        return readRepairs.get();
+    }
+
+    /**
+     * Number of writes missed by replicas and not yet replayed to them.
+     */
+    public long getPendingHintCount() {
+        long pending = 0;
+        for (Map<String, Versioned> replicaHints : hints.values()) {
+            pending += replicaHints.size();
+        }
+        return pending;
+    }
+
+    /**
+     * Number of missed writes delivered to replicas by hinted handoff so far.
+     */
+    public long getReplayedHintCount() {
+        return replayedHints.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        handoff.shutdown();
+        executor.shutdown();
+        IOException failure = null;
+        for (KeyValueApi replica : replicas.values()) {
+            if (replica instanceof Closeable) {
+                try {
+                    ((Closeable) replica).close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    private void write(final String key, final Versioned versioned) {
+        final Map<String, KeyValueApi> owners = replicasOf(key);
+        // a replica holding the same or a newer version acks too: the write is not lost, just superseded
+        final QuorumCall<Boolean> call = new QuorumCall<>(owners, w, replica -> {
+            putIfNewer(replica, key, versioned);
+            return Boolean.TRUE;
+        }, executor);
+        call.all().thenAccept(acked -> hint(key, versioned, owners.keySet(), acked.keySet()));
+        call.await(timeoutMillis);
+    }
+
+    /**
+     * Remembers the write for replicas which missed it and forgets older hints of replicas which got it.
+     */
+    private void hint(final String key, final Versioned versioned, final Set<String> owners, final Set<String> acked) {
+        for (String id : owners) {
+            final ConcurrentMap<String, Versioned> replicaHints = hints.get(id);
+            if (acked.contains(id)) {
+                replicaHints.computeIfPresent(key, (k, hint) -> hint.compareTo(versioned) <= 0 ? null : hint);
+            } else if (replicaHints.size() < MAX_HINTS_PER_REPLICA || replicaHints.containsKey(key)) {
+                replicaHints.merge(key, versioned, (a, b) -> a.compareTo(b) >= 0 ? a : b);
+            } else {
+                log.warn("too many hints for {}, write of {} is left to read repair", id, key);
+            }
+        }
+    }
+
+    /**
+     * Delivers a batch of hints to every replica which answers, values written to the replica since are kept,
+     * see {@link #putIfNewer}.
+     */
+    private void replayHints() {
+        hints.forEach((id, replicaHints) -> {
+            if (replicaHints.isEmpty()) return;
+            final Map<String, Versioned> batch = new HashMap<>();
+            for (Map.Entry<String, Versioned> hint : replicaHints.entrySet()) {
+                if (batch.size() == HINT_REPLAY_BATCH) break;
+                batch.put(hint.getKey(), hint.getValue());
+            }
+            try {
+                final KeyValueApi replica = replicas.get(id);
+                final Map<String, byte[]> current = replica.getAll(batch.keySet());
+                batch.forEach((key, hint) -> {
+                    final byte[] bytes = current.get(key);
+                    if ((bytes == null || Versioned.decode(bytes).compareTo(hint) < 0) && putIfNewer(replica, key, hint)) {
+                        replayedHints.incrementAndGet();
+                    }
+                    replicaHints.remove(key, hint);
+                });
+            } catch (RuntimeException e) {
+                log.debug("replica {} is still unavailable: {}", id, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Returns the newest version among {@code r} answers or null if none of them has the key.
+     */
+    private Versioned read(final String key) {
+        final Map<String, KeyValueApi> owners = replicasOf(key);
+        final QuorumCall<Optional<Versioned>> call = new QuorumCall<>(owners, r,
+                replica -> replica.get(key).map(Versioned::decode), executor);
+        final Versioned newest = newest(call.await(timeoutMillis).values());
+        call.all().thenAccept(answers -> repair(key, newest(answers.values()), answers, owners));
+        return newest == null || newest.isTombstone() ? null : newest;
+    }
+
+    private void repair(final String key,
+                        final Versioned newest,
+                        final Map<String, Optional<Versioned>> answers,
+                        final Map<String, KeyValueApi> owners) {
+        if (newest == null) return;
+        answers.forEach((id, answer) -> {
+            if (!answer.isPresent() || answer.get().compareTo(newest) < 0) {
+                try {
+                    if (putIfNewer(owners.get(id), key, newest)) {
+                        readRepairs.incrementAndGet();
+                    }
+                } catch (RuntimeException e) {
+                    log.warn("read repair of {} on {} failed: {}", key, id, e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes a value as stored on replicas of this coordinator to the replica unless the replica holds
+     * the same or a newer one. The write is conditional, as hint replay and read repair are, so a newer value
+     * reaching the replica in between is kept.
+     *
+     * @return whether the value was written
+     * @throws IllegalArgumentException if the value or the one on the replica is not versioned
+     */
+    public static boolean putIfNewer(final KeyValueApi replica, final String key, final byte[] encoded) {
+        Require.nonNull(replica, "null replica");
+        Require.nonNull(key, "null key");
+        Require.nonNull(encoded, "null value");
+        return putIfNewer(replica, key, Versioned.decode(encoded));
+    }
+
+    /**
+     * Writes the value to the replica unless the replica holds the same or a newer one. The write is conditional
+     * on the replica's own version of what was compared, so a newer write reaching the replica in between makes it
+     * fail and the comparison is repeated. Replicas without conditional writes get a plain put, which leaves
+     * that window open.
+     *
+     * @return whether the value was written
+     */
+    private static boolean putIfNewer(final KeyValueApi replica, final String key, final Versioned versioned) {
+        final byte[] encoded = versioned.encode();
+        while (true) {
+            final Optional<VersionedValue> current = replica.getVersioned(key);
+            if (current.isPresent() && Versioned.decode(current.get().getValue()).compareTo(versioned) >= 0) {
+                return false;
+            }
+            try {
+                if (!current.isPresent()) {
+                    if (replica.putIfAbsent(key, encoded).isPresent()) return true;
+                } else if (current.get().hasVersion()) {
+                    if (replica.putIfVersion(key, encoded, current.get().getVersion()).isPresent()) return true;
+                } else {
+                    replica.put(key, encoded);
+                    return true;
+                }
+            } catch (UnsupportedOperationException e) {
+                replica.put(key, encoded);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Calls all replicas tolerating as many failures as a quorum read tolerates for a single key.
+     */
+    private <T> Map<String, T> scan(final Function<KeyValueApi, T> call) {
+        final int required = replicas.size() - (n - r);
+        return new QuorumCall<>(replicas, required, call, executor).await(timeoutMillis);
+    }
+
+    /**
+     * Returns candidates whose newest version on the given replicas is not a tombstone. Only headers of the values
+     * are fetched, they tell the version and whether it is a tombstone.
+     */
+    private Set<String> live(final Collection<String> candidates, final Collection<String> replicaIds) {
+        if (candidates.isEmpty()) return new HashSet<>();
+        final Map<String, KeyValueApi> targets = new TreeMap<>();
+        replicaIds.forEach(id -> targets.put(id, replicas.get(id)));
+        final Map<String, Map<String, byte[]>> headers = new QuorumCall<>(targets, targets.size(),
+                replica -> replica.getAllHeads(candidates, Versioned.HEADER_SIZE), executor).await(timeoutMillis);
+
+        final Map<String, Versioned> newest = new HashMap<>();
+        headers.values().forEach(replicaHeaders -> replicaHeaders.forEach((key, bytes) ->
+                newest.merge(key, Versioned.decode(bytes), (a, b) -> a.compareTo(b) >= 0 ? a : b)));
+        final Set<String> live = new HashSet<>();
+        newest.forEach((key, versioned) -> {
+            if (!versioned.isTombstone()) {
+                live.add(key);
+            }
+        });
+        return live;
+    }
+
+    private Map<String, KeyValueApi> replicasOf(final String key) {
+        final Map<String, KeyValueApi> owners = new LinkedHashMap<>();
+        for (String id : ring.nodesFor(key, n)) {
+            owners.put(id, replicas.get(id));
+        }
+        return owners;
+    }
+
+    private static Versioned newest(final Collection<Optional<Versioned>> answers) {
+        Versioned newest = null;
+        for (Optional<Versioned> answer : answers) {
+            if (answer.isPresent() && (newest == null || answer.get().compareTo(newest) > 0)) {
+                newest = answer.get();
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Microseconds of the wall clock, but always greater than any version issued before by this coordinator.
+     */
+    private long nextVersion() {
+        final long now = System.currentTimeMillis() * 1000;
+        return clock.updateAndGet(last -> Math.max(last + 1, now));
+    }
+}
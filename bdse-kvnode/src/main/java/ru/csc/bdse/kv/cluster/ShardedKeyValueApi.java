@@ -0,0 +1,244 @@
+package ru.csc.bdse.kv.cluster;
+
+import ru.csc.bdse.kv.KeyValueApi;
+import ru.csc.bdse.kv.NodeAction;
+import ru.csc.bdse.kv.NodeInfo;
+import ru.csc.bdse.kv.VersionedValue;
+import ru.csc.bdse.util.Require;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Coordinator partitioning keys across several storages with a {@link ConsistentHashRing}.
+ * <p>
+ * Single-key operations go to the shard owning the key. Batches are split by shard and key listing is
+ * scattered to all shards, shards are called in parallel and their answers are merged.
+ * Shards may be remote nodes behind {@link ru.csc.bdse.kv.KeyValueApiHttpClient} or local storages.
+ * The coordinator owns the shards and closes those which are closeable.
+ */
+public class ShardedKeyValueApi implements KeyValueApi, Closeable {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final Map<String, KeyValueApi> shards;
+    private final ConsistentHashRing ring;
+    private final ExecutorService executor;
+
+    /**
+     * @param shards storages by their ids, ids define the placement of keys and must be stable between restarts
+     */
+    public ShardedKeyValueApi(final Map<String, ? extends KeyValueApi> shards) {
+        this(shards, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public ShardedKeyValueApi(final Map<String, ? extends KeyValueApi> shards, final int virtualNodes) {
+        Require.nonNull(shards, "null shards");
+        this.shards = Collections.unmodifiableMap(new TreeMap<>(shards));
+        this.ring = new ConsistentHashRing(this.shards.keySet(), virtualNodes);
+        final AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "shard-call-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void put(final String key, final byte[] value) {
+        Require.nonNull(key, "null key");
+        shardFor(key).put(key, value);
+    }
+
+    @Override
+    public void put(final String key, final byte[] value, final long ttlMillis) {
+        Require.nonNull(key, "null key");
+        shardFor(key).put(key, value, ttlMillis);
+    }
+
+    @Override
+    public Optional<byte[]> get(final String key) {
+        Require.nonNull(key, "null key");
+        return shardFor(key).get(key);
+    }
+
+    @Override
+    public Optional<VersionedValue> getVersioned(final String key) {
+        Require.nonNull(key, "null key");
+        return shardFor(key).getVersioned(key);
+    }
+
+    @Override
+    public OptionalLong putIfAbsent(final String key, final byte[] value) {
+        Require.nonNull(key, "null key");
+        return shardFor(key).putIfAbsent(key, value);
+    }
+
+    @Override
+    public OptionalLong putIfVersion(final String key, final byte[] value, final long version) {
+        Require.nonNull(key, "null key");
+        return shardFor(key).putIfVersion(key, value, version);
+    }
+
+    @Override
+    public Set<String> getKeys(final String prefix) {
+        Require.nonNull(prefix, "null prefix");
+        final Set<String> keys = new HashSet<>();
+        scatter(shards.values(), shard -> shard.getKeys(prefix)).forEach(keys::addAll);
+        return keys;
+    }
+
+    /**
+     * Every shard returns its own page, the merged page is the smallest {@code limit} keys of them.
+     */
+    @Override
+    public List<String> getKeys(final String prefix, final String after, final int limit) {
+        Require.nonNull(prefix, "null prefix");
+        if (limit <= 0) throw new IllegalArgumentException("non-positive limit");
+        final TreeSet<String> merged = new TreeSet<>();
+        scatter(shards.values(), shard -> shard.getKeys(prefix, after, limit)).forEach(merged::addAll);
+        final List<String> page = new ArrayList<>(Math.min(limit, merged.size()));
+        for (String key : merged) {
+            if (page.size() == limit) break;
+            page.add(key);
+        }
+        return page;
+    }
+
+    @Override
+    public void delete(final String key) {
+        Require.nonNull(key, "null key");
+        shardFor(key).delete(key);
+    }
+
+    @Override
+    public void putAll(final Map<String, byte[]> entries) {
+        final Map<String, Map<String, byte[]>> byShard = new HashMap<>();
+        entries.forEach((key, value) -> {
+            Require.nonNull(key, "null key");
+            byShard.computeIfAbsent(ring.nodeFor(key), id -> new HashMap<>()).put(key, value);
+        });
+        scatter(byShard.entrySet(), batch -> {
+            shards.get(batch.getKey()).putAll(batch.getValue());
+            return null;
+        });
+    }
+
+    @Override
+    public Map<String, byte[]> getAll(final Collection<String> keys) {
+        final Map<String, byte[]> values = new HashMap<>();
+        scatter(groupByShard(keys).entrySet(), batch -> shards.get(batch.getKey()).getAll(batch.getValue()))
+                .forEach(values::putAll);
+        return values;
+    }
+
+    @Override
+    public Map<String, byte[]> getAllHeads(final Collection<String> keys, final int headBytes) {
+        final Map<String, byte[]> heads = new HashMap<>();
+        scatter(groupByShard(keys).entrySet(), batch -> shards.get(batch.getKey()).getAllHeads(batch.getValue(), headBytes))
+                .forEach(heads::putAll);
+        return heads;
+    }
+
+    @Override
+    public void deleteAll(final Collection<String> keys) {
+        scatter(groupByShard(keys).entrySet(), batch -> {
+            shards.get(batch.getKey()).deleteAll(batch.getValue());
+            return null;
+        });
+    }
+
+    /**
+     * Returns info about nodes of all shards.
+     */
+    @Override
+    public Set<NodeInfo> getInfo() {
+        final Set<NodeInfo> info = new HashSet<>();
+        scatter(shards.values(), KeyValueApi::getInfo).forEach(info::addAll);
+        return info;
+    }
+
+    /**
+     * Passes the action to the shard which has the node.
+     */
+    @Override
+    public void action(final String node, final NodeAction action) {
+        Require.nonNull(node, "null node");
+        for (KeyValueApi shard : shards.values()) {
+            for (NodeInfo info : shard.getInfo()) {
+                if (info.getName().equals(node)) {
+                    shard.action(node, action);
+                    return;
+                }
+            }
+        }
+        throw new IllegalArgumentException("unknown node: " + node);
+    }
+
+    /**
+     * Returns id of the shard owning specified key.
+     */
+    public String shardIdFor(final String key) {
+        return ring.nodeFor(key);
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        IOException failure = null;
+        for (KeyValueApi shard : shards.values()) {
+            if (shard instanceof Closeable) {
+                try {
+                    ((Closeable) shard).close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    private KeyValueApi shardFor(final String key) {
+        return shards.get(ring.nodeFor(key));
+    }
+
+    private Map<String, List<String>> groupByShard(final Collection<String> keys) {
+        final Map<String, List<String>> byShard = new HashMap<>();
+        for (String key : keys) {
+            Require.nonNull(key, "null key");
+            byShard.computeIfAbsent(ring.nodeFor(key), id -> new ArrayList<>()).add(key);
+        }
+        return byShard;
+    }
+
+    /**
+     * Calls all targets in parallel and waits for all of them, the first failure is rethrown.
+     * A single target is called in the current thread.
+     */
+    private <T, R> List<R> scatter(final Collection<T> targets, final Function<T, R> call) {
+        if (targets.size() == 1) {
+            return Collections.singletonList(call.apply(targets.iterator().next()));
+        }
+        final List<CompletableFuture<R>> futures = new ArrayList<>(targets.size());
+        for (T target : targets) {
+            futures.add(CompletableFuture.supplyAsync(() -> call.apply(target), executor));
+        }
+        final List<R> results = new ArrayList<>(futures.size());
+        try {
+            for (CompletableFuture<R> future : futures) {
+                results.add(future.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+        return results;
+    }
+}
@@ -0,0 +1,85 @@
+package ru.csc.bdse.kv.cluster;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Value with the version it was written with, as stored on replicas.
+ * <p>
+ * Layout: {@code flags (1 byte) | version (8 bytes) | value}. A deletion is stored as a tombstone,
+ * so that an older value on a lagging replica can not resurrect the key.
+ */
+final class Versioned implements Comparable<Versioned> {
+
+    private static final byte VALUE = 0;
+    private static final byte TOMBSTONE = 1;
+    static final int HEADER_SIZE = 1 + Long.BYTES;
+
+    private final long version;
+    private final byte[] value;
+
+    private Versioned(final long version, final byte[] value) {
+        this.version = version;
+        this.value = value;
+    }
+
+    static Versioned value(final long version, final byte[] value) {
+        return new Versioned(version, value);
+    }
+
+    static Versioned tombstone(final long version) {
+        return new Versioned(version, null);
+    }
+
+    static Versioned decode(final byte[] bytes) {
+        if (bytes.length < HEADER_SIZE || (bytes[0] != VALUE && bytes[0] != TOMBSTONE)) {
+            throw new IllegalArgumentException("not a versioned value");
+        }
+        final long version = ByteBuffer.wrap(bytes, 1, Long.BYTES).getLong();
+        return bytes[0] == TOMBSTONE
+                ? tombstone(version)
+                : value(version, Arrays.copyOfRange(bytes, HEADER_SIZE, bytes.length));
+    }
+
+    byte[] encode() {
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + (value == null ? 0 : value.length));
+        buffer.put(value == null ? TOMBSTONE : VALUE).putLong(version);
+        if (value != null) {
+            buffer.put(value);
+        }
+        return buffer.array();
+    }
+
+    long version() {
+        return version;
+    }
+
+    boolean isTombstone() {
+        return value == null;
+    }
+
+    /**
+     * Null for tombstones.
+     */
+    byte[] value() {
+        return value;
+    }
+
+    /**
+     * Orders by version, equal versions written by different coordinators are ordered by content,
+     * so every replica resolves the conflict the same way.
+     */
+    @Override
+    public int compareTo(final Versioned other) {
+        final int byVersion = Long.compare(version, other.version);
+        if (byVersion != 0) return byVersion;
+        if (value == null || other.value == null) {
+            return Boolean.compare(value == null, other.value == null);
+        }
+        for (int i = 0; i < Math.min(value.length, other.value.length); i++) {
+            final int byByte = Byte.compare(value[i], other.value[i]);
+            if (byByte != 0) return byByte;
+        }
+        return Integer.compare(value.length, other.value.length);
+    }
+}
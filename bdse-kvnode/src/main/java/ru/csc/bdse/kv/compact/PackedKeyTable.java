@@ -0,0 +1,415 @@
+package ru.csc.bdse.kv.compact;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Hash table from UTF-8 encoded keys to values which keeps no object per key.
+ * <p>
+ * The table is split into {@value #STRIPES} stripes by the top bits of the key hash. A stripe appends key bytes,
+ * prefixed by their varint length, to a single {@code byte[]} arena and numbers entries: the offset of the key and
+ * the value reference of an entry sit at its number in two arrays. An open addressing table with linear probing
+ * maps the key hash to the entry number, both packed into a {@code long} slot, so most lookups compare the key bytes
+ * only once. A key costs its bytes plus about 25 bytes of arrays, while a {@code String} in a map node costs about
+ * 100 bytes before the value is counted.
+ * <p>
+ * Writes lock their stripe only. Reads take no lock: they run optimistically and are retried under a read lock
+ * if a write to the stripe interfered. Arena bytes of removed keys are reclaimed by compacting the stripe arena
+ * once they take half of it.
+ */
+final class PackedKeyTable {
+
+    static final int STRIPES = 64;
+
+    private static final int STRIPE_SHIFT = Integer.SIZE - Integer.numberOfTrailingZeros(STRIPES);
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    PackedKeyTable() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Returns the value of the key or null.
+     */
+    byte[] get(final byte[] key) {
+        final int hash = hash(key);
+        return stripe(hash).get(key, hash);
+    }
+
+    /**
+     * Associates the value with the key and returns the previous value or null.
+     */
+    byte[] put(final byte[] key, final byte[] value) {
+        final int hash = hash(key);
+        return stripe(hash).put(key, hash, value);
+    }
+
+    /**
+     * Removes the key and returns its value or null.
+     */
+    byte[] remove(final byte[] key) {
+        final int hash = hash(key);
+        return stripe(hash).remove(key, hash);
+    }
+
+    /**
+     * Passes every key to the visitor, a stripe at a time under its read lock.
+     * Keys written concurrently with the iteration may be missed.
+     */
+    void forEachKey(final KeyVisitor visitor) {
+        for (Stripe stripe : stripes) {
+            stripe.forEachKey(visitor);
+        }
+    }
+
+    long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the bytes taken by arenas and arrays of the table, not counting values.
+     */
+    long footprintBytes() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            bytes += stripe.footprintBytes();
+        }
+        return bytes;
+    }
+
+    @FunctionalInterface
+    interface KeyVisitor {
+
+        /**
+         * @param arena  bytes holding the key, valid only during the call
+         * @param offset position of the first key byte
+         * @param length number of key bytes
+         */
+        void visit(byte[] arena, int offset, int length);
+    }
+
+    private Stripe stripe(final int hash) {
+        return stripes[hash >>> STRIPE_SHIFT];
+    }
+
+    /**
+     * FNV-1a with the murmur3 finalizer, so that both the top bits picking the stripe and the low bits picking
+     * the slot are well mixed.
+     */
+    static int hash(final byte[] key) {
+        int h = 0x811c9dc5;
+        for (byte b : key) {
+            h = (h ^ (b & 0xff)) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static final class Stripe {
+
+        private static final int INITIAL_SLOTS = 16;
+        private static final int INITIAL_ARENA_BYTES = 256;
+        private static final int MIN_COMPACTED_ARENA_BYTES = 64 * 1024;
+        private static final long EMPTY = 0;
+
+        private final StampedLock lock = new StampedLock();
+        /**
+         * {@code hash << 32 | id + 1}, zero for an empty slot.
+         */
+        private long[] slots = new long[INITIAL_SLOTS];
+        private int[] keyOffsets = new int[INITIAL_SLOTS];
+        private byte[][] values = new byte[INITIAL_SLOTS][];
+        private byte[] arena = new byte[INITIAL_ARENA_BYTES];
+        private int arenaUsed;
+        private int garbageBytes;
+        private int nextId;
+        private int[] freeIds = new int[0];
+        private int freeCount;
+        private int size;
+
+        byte[] get(final byte[] key, final int hash) {
+            final long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    final byte[] value = find(key, hash);
+                    if (lock.validate(stamp)) {
+                        return value;
+                    }
+                } catch (RuntimeException e) {
+                    // arrays were replaced under the read, retry under the lock
+                }
+            }
+            final long readStamp = lock.readLock();
+            try {
+                return find(key, hash);
+            } finally {
+                lock.unlockRead(readStamp);
+            }
+        }
+
+        byte[] put(final byte[] key, final int hash, final byte[] value) {
+            final long stamp = lock.writeLock();
+            try {
+                final int slot = slotOf(key, hash);
+                if (slot >= 0) {
+                    final int id = id(slots[slot]);
+                    final byte[] previous = values[id];
+                    values[id] = value;
+                    return previous;
+                }
+                if ((size + 1) * 4L > slots.length * 3L) {
+                    resize(slots.length * 2);
+                }
+                final int id = allocateId();
+                keyOffsets[id] = append(key);
+                values[id] = value;
+                insert(((long) hash << 32) | (id + 1L));
+                size++;
+                return null;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        byte[] remove(final byte[] key, final int hash) {
+            final long stamp = lock.writeLock();
+            try {
+                final int slot = slotOf(key, hash);
+                if (slot < 0) {
+                    return null;
+                }
+                final int id = id(slots[slot]);
+                final byte[] previous = values[id];
+                garbageBytes += varintSize(keyLength(keyOffsets[id])) + keyLength(keyOffsets[id]);
+                values[id] = null;
+                releaseId(id);
+                deleteSlot(slot);
+                size--;
+                if (garbageBytes * 2L > arenaUsed && arenaUsed > MIN_COMPACTED_ARENA_BYTES) {
+                    compactArena();
+                }
+                return previous;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        void forEachKey(final KeyVisitor visitor) {
+            final long stamp = lock.readLock();
+            try {
+                for (int id = 0; id < nextId; id++) {
+                    if (values[id] != null) {
+                        final int offset = keyOffsets[id];
+                        final int length = keyLength(offset);
+                        visitor.visit(arena, offset + varintSize(length), length);
+                    }
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        int size() {
+            final long stamp = lock.readLock();
+            try {
+                return size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        long footprintBytes() {
+            final long stamp = lock.readLock();
+            try {
+                return slots.length * 8L + keyOffsets.length * 4L + values.length * 4L + arena.length
+                        + freeIds.length * 4L;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Looks the key up in fields as they are. Probing is bounded by the table size, so a read racing with
+         * a write ends either with an answer the caller validates or with an exception.
+         */
+        private byte[] find(final byte[] key, final int hash) {
+            final long[] table = slots;
+            final int mask = table.length - 1;
+            for (int i = hash & mask, probes = 0; probes < table.length; i = (i + 1) & mask, probes++) {
+                final long slot = table[i];
+                if (slot == EMPTY) {
+                    return null;
+                }
+                if ((int) (slot >>> 32) == hash) {
+                    final int id = id(slot);
+                    if (keyEquals(keyOffsets[id], key)) {
+                        return values[id];
+                    }
+                }
+            }
+            return null;
+        }
+
+        private int slotOf(final byte[] key, final int hash) {
+            final int mask = slots.length - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                final long slot = slots[i];
+                if (slot == EMPTY) {
+                    return -1;
+                }
+                if ((int) (slot >>> 32) == hash && keyEquals(keyOffsets[id(slot)], key)) {
+                    return i;
+                }
+            }
+        }
+
+        private void insert(final long entry) {
+            final int mask = slots.length - 1;
+            int i = (int) (entry >>> 32) & mask;
+            while (slots[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            slots[i] = entry;
+        }
+
+        /**
+         * Backward shift deletion: moves later entries of the probe run into the hole, so no tombstones are left.
+         */
+        private void deleteSlot(int hole) {
+            final int mask = slots.length - 1;
+            int i = hole;
+            while (true) {
+                i = (i + 1) & mask;
+                final long slot = slots[i];
+                if (slot == EMPTY) {
+                    break;
+                }
+                final int home = (int) (slot >>> 32) & mask;
+                // the entry may move to the hole unless its home lies cyclically in (hole, i]
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    slots[hole] = slot;
+                    hole = i;
+                }
+            }
+            slots[hole] = EMPTY;
+        }
+
+        private void resize(final int capacity) {
+            final long[] old = slots;
+            slots = new long[capacity];
+            for (long slot : old) {
+                if (slot != EMPTY) {
+                    insert(slot);
+                }
+            }
+        }
+
+        private int allocateId() {
+            if (freeCount > 0) {
+                return freeIds[--freeCount];
+            }
+            if (nextId == keyOffsets.length) {
+                final int capacity = keyOffsets.length + (keyOffsets.length >> 1);
+                keyOffsets = Arrays.copyOf(keyOffsets, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            return nextId++;
+        }
+
+        private void releaseId(final int id) {
+            if (freeCount == freeIds.length) {
+                freeIds = Arrays.copyOf(freeIds, Math.max(16, freeIds.length * 2));
+            }
+            freeIds[freeCount++] = id;
+        }
+
+        /**
+         * Appends the key with its length and returns its offset.
+         */
+        private int append(final byte[] key) {
+            final int required = arenaUsed + varintSize(key.length) + key.length;
+            if (required > arena.length) {
+                arena = Arrays.copyOf(arena, Math.max(required, arena.length + (arena.length >> 1)));
+            }
+            final int offset = arenaUsed;
+            int position = writeVarint(arena, offset, key.length);
+            System.arraycopy(key, 0, arena, position, key.length);
+            arenaUsed = position + key.length;
+            return offset;
+        }
+
+        /**
+         * Copies keys of live entries into a fresh arena.
+         */
+        private void compactArena() {
+            final byte[] compacted = new byte[Math.max(INITIAL_ARENA_BYTES, arenaUsed - garbageBytes)];
+            int used = 0;
+            for (int id = 0; id < nextId; id++) {
+                if (values[id] != null) {
+                    final int offset = keyOffsets[id];
+                    final int length = varintSize(keyLength(offset)) + keyLength(offset);
+                    System.arraycopy(arena, offset, compacted, used, length);
+                    keyOffsets[id] = used;
+                    used += length;
+                }
+            }
+            arena = compacted;
+            arenaUsed = used;
+            garbageBytes = 0;
+        }
+
+        private boolean keyEquals(final int offset, final byte[] key) {
+            final int length = keyLength(offset);
+            if (length != key.length) {
+                return false;
+            }
+            final int start = offset + varintSize(length);
+            for (int i = 0; i < length; i++) {
+                if (arena[start + i] != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int keyLength(final int offset) {
+            int length = 0;
+            for (int shift = 0, i = offset; shift < Integer.SIZE; shift += 7, i++) {
+                final byte b = arena[i];
+                length |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return length;
+                }
+            }
+            throw new IllegalStateException("malformed key length at " + offset);
+        }
+
+        private static int id(final long slot) {
+            return (int) slot - 1;
+        }
+
+        private static int varintSize(final int value) {
+            return (Integer.SIZE - Integer.numberOfLeadingZeros(value | 1) + 6) / 7;
+        }
+
+        private static int writeVarint(final byte[] target, int position, int value) {
+            while ((value & ~0x7f) != 0) {
+                target[position++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            target[position++] = (byte) value;
+            return position;
+        }
+    }
+}
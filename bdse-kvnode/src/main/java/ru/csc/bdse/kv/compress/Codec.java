@@ -0,0 +1,49 @@
+package ru.csc.bdse.kv.compress;
+
+import java.util.zip.Deflater;
+
+/**
+ * Compression of a stored value, its id is the first byte of the value, see {@link ValueCodec}.
+ */
+public enum Codec {
+
+    /**
+     * Value is stored as is.
+     */
+    NONE(0, 0),
+
+    /**
+     * Deflate at the fastest level: about half the ratio of {@link #DEFLATE} for a fraction of its CPU.
+     */
+    DEFLATE_FAST(1, Deflater.BEST_SPEED),
+
+    /**
+     * Deflate at the default level.
+     */
+    DEFLATE(2, Deflater.DEFAULT_COMPRESSION);
+
+    private final byte id;
+    private final int level;
+
+    Codec(final int id, final int level) {
+        this.id = (byte) id;
+        this.level = level;
+    }
+
+    byte id() {
+        return id;
+    }
+
+    int level() {
+        return level;
+    }
+
+    static Codec of(final byte id) {
+        for (Codec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("unknown codec: " + id);
+    }
+}
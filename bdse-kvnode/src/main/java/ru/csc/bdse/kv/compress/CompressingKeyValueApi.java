@@ -0,0 +1,163 @@
+package ru.csc.bdse.kv.compress;
+
+import ru.csc.bdse.kv.KeyValueApi;
+import ru.csc.bdse.kv.NodeAction;
+import ru.csc.bdse.kv.NodeInfo;
+import ru.csc.bdse.kv.VersionedValue;
+import ru.csc.bdse.util.Require;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Compresses values on the way to a storage and decompresses them on the way back, see {@link ValueCodec}.
+ * Every stored value carries its codec, so the codec and threshold may change between restarts, but the storage
+ * should not contain values written without this decorator.
+ */
+public class CompressingKeyValueApi implements KeyValueApi, Closeable {
+
+    public static final int DEFAULT_THRESHOLD_BYTES = 256;
+
+    private final KeyValueApi storage;
+    private final ValueCodec codec;
+    private final LongAdder writtenBytes = new LongAdder();
+    private final LongAdder storedBytes = new LongAdder();
+
+    public CompressingKeyValueApi(final KeyValueApi storage, final Codec codec) {
+        this(storage, codec, DEFAULT_THRESHOLD_BYTES);
+    }
+
+    public CompressingKeyValueApi(final KeyValueApi storage, final Codec codec, final int thresholdBytes) {
+        Require.nonNull(storage, "null storage");
+        this.storage = storage;
+        this.codec = new ValueCodec(codec, thresholdBytes);
+    }
+
+    @Override
+    public void put(final String key, final byte[] value) {
+        Require.nonNull(value, "null value");
+        storage.put(key, encode(value));
+    }
+
+    @Override
+    public void put(final String key, final byte[] value, final long ttlMillis) {
+        Require.nonNull(value, "null value");
+        storage.put(key, encode(value), ttlMillis);
+    }
+
+    @Override
+    public Optional<byte[]> get(final String key) {
+        return storage.get(key).map(codec::decode);
+    }
+
+    @Override
+    public Optional<VersionedValue> getVersioned(final String key) {
+        return storage.getVersioned(key)
+                .map(value -> new VersionedValue(codec.decode(value.getValue()), value.getVersion()));
+    }
+
+    @Override
+    public OptionalLong putIfAbsent(final String key, final byte[] value) {
+        Require.nonNull(value, "null value");
+        return storage.putIfAbsent(key, encode(value));
+    }
+
+    @Override
+    public OptionalLong putIfVersion(final String key, final byte[] value, final long version) {
+        Require.nonNull(value, "null value");
+        return storage.putIfVersion(key, encode(value), version);
+    }
+
+    @Override
+    public Set<String> getKeys(final String prefix) {
+        return storage.getKeys(prefix);
+    }
+
+    @Override
+    public List<String> getKeys(final String prefix, final String after, final int limit) {
+        return storage.getKeys(prefix, after, limit);
+    }
+
+    @Override
+    public Stream<String> streamKeys(final String prefix, final String after, final int pageSize) {
+        return storage.streamKeys(prefix, after, pageSize);
+    }
+
+    @Override
+    public void delete(final String key) {
+        storage.delete(key);
+    }
+
+    @Override
+    public void putAll(final Map<String, byte[]> entries) {
+        Require.nonNull(entries, "null entries");
+        final Map<String, byte[]> encoded = new HashMap<>(2 * entries.size());
+        entries.forEach((key, value) -> {
+            Require.nonNull(value, "null value");
+            encoded.put(key, encode(value));
+        });
+        storage.putAll(encoded);
+    }
+
+    @Override
+    public Map<String, byte[]> getAll(final Collection<String> keys) {
+        final Map<String, byte[]> values = storage.getAll(keys);
+        final Map<String, byte[]> decoded = new HashMap<>(2 * values.size());
+        values.forEach((key, value) -> decoded.put(key, codec.decode(value)));
+        return decoded;
+    }
+
+    @Override
+    public void deleteAll(final Collection<String> keys) {
+        storage.deleteAll(keys);
+    }
+
+    @Override
+    public Map<String, Long> getExpiryTimes(final Collection<String> keys) {
+        return storage.getExpiryTimes(keys);
+    }
+
+    @Override
+    public OptionalLong getKeyCount() {
+        return storage.getKeyCount();
+    }
+
+    @Override
+    public Set<NodeInfo> getInfo() {
+        return storage.getInfo();
+    }
+
+    @Override
+    public void action(final String node, final NodeAction action) {
+        storage.action(node, action);
+    }
+
+    /**
+     * Returns stored size of values written through this instance relative to their original size.
+     */
+    public double getCompressionRatio() {
+        final long written = writtenBytes.sum();
+        return written == 0 ? 1 : (double) storedBytes.sum() / written;
+    }
+
+    public KeyValueApi getStorage() {
+        return storage;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (storage instanceof Closeable) {
+            ((Closeable) storage).close();
+        }
+    }
+
+    private byte[] encode(final byte[] value) {
+        final byte[] encoded = codec.encode(value);
+        writtenBytes.add(value.length);
+        storedBytes.add(encoded.length);
+        return encoded;
+    }
+}
@@ -0,0 +1,118 @@
+package ru.csc.bdse.kv.compress;
+
+import ru.csc.bdse.util.Require;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes values into a self-describing form: {@code codec id | payload}. Compressed payload is
+ * {@code original length (4 bytes) | deflate stream}, so decoding allocates the result once.
+ * <p>
+ * The codec is chosen per value: values shorter than the threshold and values which do not shrink by at least
+ * an eighth, such as images or already compressed data, are stored as is with a single byte of overhead.
+ * Deflaters and inflaters are reused per thread. Instances are thread-safe.
+ */
+public final class ValueCodec {
+
+    private static final int HEADER_SIZE = 1;
+    private static final int LENGTH_SIZE = 4;
+
+    private final Codec codec;
+    private final int thresholdBytes;
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    /**
+     * @param codec          codec of values which are worth compressing
+     * @param thresholdBytes values shorter than this are never compressed
+     */
+    public ValueCodec(final Codec codec, final int thresholdBytes) {
+        Require.nonNull(codec, "null codec");
+        if (thresholdBytes < 0) throw new IllegalArgumentException("negative threshold");
+        this.codec = codec;
+        this.thresholdBytes = thresholdBytes;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(codec.level()));
+    }
+
+    public byte[] encode(final byte[] value) {
+        if (codec != Codec.NONE && value.length >= thresholdBytes) {
+            final byte[] compressed = compress(value);
+            if (compressed != null) {
+                return compressed;
+            }
+        }
+        final byte[] encoded = new byte[HEADER_SIZE + value.length];
+        encoded[0] = Codec.NONE.id();
+        System.arraycopy(value, 0, encoded, HEADER_SIZE, value.length);
+        return encoded;
+    }
+
+    /**
+     * Decodes a value encoded with any codec, whatever the codec of this instance is.
+     *
+     * @throws IllegalArgumentException if the value is not encoded
+     */
+    public byte[] decode(final byte[] encoded) {
+        if (encoded.length < HEADER_SIZE) throw new IllegalArgumentException("value without codec header");
+        final Codec valueCodec = Codec.of(encoded[0]);
+        if (valueCodec == Codec.NONE) {
+            return Arrays.copyOfRange(encoded, HEADER_SIZE, encoded.length);
+        }
+        final int length = ByteBuffer.wrap(encoded, HEADER_SIZE, LENGTH_SIZE).getInt();
+        final byte[] value = new byte[length];
+        final Inflater inflater = inflaters.get();
+        try {
+            inflater.setInput(encoded, HEADER_SIZE + LENGTH_SIZE, encoded.length - HEADER_SIZE - LENGTH_SIZE);
+            int read = 0;
+            while (read < length) {
+                final int count = inflater.inflate(value, read, length - read);
+                if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalArgumentException("truncated compressed value");
+                }
+                read += count;
+            }
+            return value;
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("corrupted compressed value", e);
+        } finally {
+            inflater.reset();
+        }
+    }
+
+    /**
+     * Returns the codec the value was encoded with.
+     */
+    public static Codec codecOf(final byte[] encoded) {
+        if (encoded.length < HEADER_SIZE) throw new IllegalArgumentException("value without codec header");
+        return Codec.of(encoded[0]);
+    }
+
+    /**
+     * Returns the encoded value or null if it does not shrink enough.
+     */
+    private byte[] compress(final byte[] value) {
+        final int limit = value.length - value.length / 8;
+        final byte[] out = new byte[HEADER_SIZE + LENGTH_SIZE + limit];
+        final Deflater deflater = deflaters.get();
+        try {
+            deflater.setInput(value);
+            deflater.finish();
+            int written = HEADER_SIZE + LENGTH_SIZE;
+            while (!deflater.finished() && written < out.length) {
+                written += deflater.deflate(out, written, out.length - written);
+            }
+            if (!deflater.finished()) {
+                return null;
+            }
+            out[0] = codec.id();
+            ByteBuffer.wrap(out, HEADER_SIZE, LENGTH_SIZE).putInt(value.length);
+            return Arrays.copyOf(out, written);
+        } finally {
+            deflater.reset();
+        }
+    }
+}
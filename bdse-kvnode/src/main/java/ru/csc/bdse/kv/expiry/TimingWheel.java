@@ -0,0 +1,114 @@
+package ru.csc.bdse.kv.expiry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel: schedules items by deadline and hands out the due ones in batches.
+ * <p>
+ * Level {@code l} has {@value #SLOTS} slots of {@code 64^l} ticks, so four levels cover {@code 64^4} ticks,
+ * about 19 days with 100 ms ticks; farther deadlines wait in the last slot and are rescheduled when it comes.
+ * An item is appended to the slot of its deadline and moved one level down when the wheel reaches its slot,
+ * so scheduling is constant time and advancing by a tick touches only items due in that tick or cascading down.
+ * Items are returned not earlier than their deadline and at most one tick later than it.
+ * Methods are synchronized, the lock is held only to move items between slots.
+ */
+public final class TimingWheel<T> {
+
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long SPAN = 1L << (BITS * LEVELS);
+
+    private final long tickMillis;
+    private final List<List<Timer<T>>> slots = new ArrayList<>(LEVELS * SLOTS);
+    private long currentTick;
+    private int size;
+
+    public TimingWheel(final long tickMillis, final long nowMillis) {
+        if (tickMillis <= 0) throw new IllegalArgumentException("non-positive tick");
+        this.tickMillis = tickMillis;
+        this.currentTick = nowMillis / tickMillis;
+        for (int i = 0; i < LEVELS * SLOTS; i++) {
+            slots.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Schedules the item, deadlines in the past are due on the next tick.
+     */
+    public synchronized void schedule(final T item, final long deadlineMillis) {
+        place(new Timer<>(item, deadlineMillis), Math.max(tick(deadlineMillis), currentTick + 1));
+        size++;
+    }
+
+    /**
+     * Moves the wheel to the given time and returns items due by then.
+     */
+    public List<T> advance(final long nowMillis) {
+        final List<T> due = new ArrayList<>();
+        synchronized (this) {
+            final long targetTick = nowMillis / tickMillis;
+            while (currentTick < targetTick) {
+                currentTick++;
+                for (int level = 1; level < LEVELS && (currentTick & ((1L << (BITS * level)) - 1)) == 0; level++) {
+                    for (Timer<T> timer : drain(level, (int) ((currentTick >>> (BITS * level)) & MASK))) {
+                        place(timer, Math.max(tick(timer.deadlineMillis), currentTick));
+                    }
+                }
+                for (Timer<T> timer : drain(0, (int) (currentTick & MASK))) {
+                    due.add(timer.item);
+                }
+            }
+            size -= due.size();
+        }
+        return due;
+    }
+
+    /**
+     * Returns the number of scheduled items.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * First tick which starts not earlier than the deadline.
+     */
+    private long tick(final long deadlineMillis) {
+        return (deadlineMillis + tickMillis - 1) / tickMillis;
+    }
+
+    private void place(final Timer<T> timer, final long tick) {
+        final long delta = tick - currentTick;
+        for (int level = 0; level < LEVELS - 1; level++) {
+            if (delta < 1L << (BITS * (level + 1))) {
+                slots.get(level * SLOTS + (int) ((tick >>> (BITS * level)) & MASK)).add(timer);
+                return;
+            }
+        }
+        final long farthest = Math.min(tick, currentTick + SPAN - 1);
+        slots.get((LEVELS - 1) * SLOTS + (int) ((farthest >>> (BITS * (LEVELS - 1))) & MASK)).add(timer);
+    }
+
+    private List<Timer<T>> drain(final int level, final int slot) {
+        final List<Timer<T>> timers = slots.get(level * SLOTS + slot);
+        if (timers.isEmpty()) {
+            return timers;
+        }
+        slots.set(level * SLOTS + slot, new ArrayList<>());
+        return timers;
+    }
+
+    private static final class Timer<T> {
+
+        private final T item;
+        private final long deadlineMillis;
+
+        private Timer(final T item, final long deadlineMillis) {
+            this.item = item;
+            this.deadlineMillis = deadlineMillis;
+        }
+    }
+}
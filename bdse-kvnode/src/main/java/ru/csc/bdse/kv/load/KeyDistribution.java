@@ -0,0 +1,17 @@
+package ru.csc.bdse.kv.load;
+
+/**
+ * How often keys of a {@link Workload} are accessed.
+ */
+public enum KeyDistribution {
+
+    /**
+     * Every key equally often.
+     */
+    UNIFORM,
+
+    /**
+     * Few hot keys take most requests, as with real users, see {@link ZipfianGenerator}.
+     */
+    ZIPFIAN
+}
@@ -0,0 +1,187 @@
+package ru.csc.bdse.kv.load;
+
+import ru.csc.bdse.kv.KeyValueApi;
+import ru.csc.bdse.kv.metrics.LogLinearHistogram;
+import ru.csc.bdse.kv.metrics.Operation;
+import ru.csc.bdse.kv.metrics.OperationStats;
+import ru.csc.bdse.util.Require;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a {@link Workload} against any {@link KeyValueApi}, usually {@link ru.csc.bdse.kv.KeyValueApiHttpClient}.
+ * <p>
+ * The load is open-loop: operations are scheduled at the target rate regardless of how fast the storage answers,
+ * and latency is measured from the scheduled start. A stalled storage therefore shows up as growing latency of
+ * every operation queued behind the stall instead of a pause of the generator (coordinated omission).
+ * The rate is sustained only while {@code threads} are enough to keep the scheduled operations in flight.
+ */
+public class LoadGenerator {
+
+    public static final String KEY_PREFIX = "user";
+
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    private final KeyValueApi api;
+    private final Workload workload;
+    private final int threads;
+    private final byte[] value;
+    private final ZipfianGenerator zipfian;
+
+    public LoadGenerator(final KeyValueApi api, final Workload workload, final int threads) {
+        Require.nonNull(api, "null api");
+        Require.nonNull(workload, "null workload");
+        if (threads <= 0) throw new IllegalArgumentException("non-positive number of threads");
+        this.api = api;
+        this.workload = workload;
+        this.threads = threads;
+        this.value = new byte[workload.getValueSize()];
+        ThreadLocalRandom.current().nextBytes(value);
+        this.zipfian = workload.getKeyDistribution() == KeyDistribution.ZIPFIAN
+                ? new ZipfianGenerator(workload.getKeyCount())
+                : null;
+    }
+
+    /**
+     * Returns the key number {@code i}, keys are of the same length so their order is the order of numbers.
+     */
+    public static String key(final long i) {
+        final String digits = Long.toString(i);
+        final StringBuilder key = new StringBuilder(KEY_PREFIX.length() + 10).append(KEY_PREFIX);
+        for (int pad = digits.length(); pad < 10; pad++) {
+            key.append('0');
+        }
+        return key.append(digits).toString();
+    }
+
+    /**
+     * Puts every key of the workload by batches in parallel, as fast as the storage takes them.
+     */
+    public void load() {
+        final AtomicInteger nextBatch = new AtomicInteger();
+        final int batches = (workload.getKeyCount() + LOAD_BATCH_SIZE - 1) / LOAD_BATCH_SIZE;
+        runWorkers(() -> {
+            int batch;
+            while ((batch = nextBatch.getAndIncrement()) < batches) {
+                final int from = batch * LOAD_BATCH_SIZE;
+                final int to = Math.min(from + LOAD_BATCH_SIZE, workload.getKeyCount());
+                final Map<String, byte[]> entries = new HashMap<>(2 * (to - from));
+                for (int i = from; i < to; i++) {
+                    entries.put(key(i), value);
+                }
+                api.putAll(entries);
+            }
+        });
+    }
+
+    /**
+     * Runs the workload at {@code opsPerSecond} for {@code durationMillis} and waits until the last operation
+     * completes. Failed operations are counted and do not stop the run.
+     */
+    public LoadReport run(final double opsPerSecond, final long durationMillis) {
+        if (opsPerSecond <= 0) throw new IllegalArgumentException("non-positive rate");
+        if (durationMillis <= 0) throw new IllegalArgumentException("non-positive duration");
+
+        final long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / opsPerSecond);
+        final long total = Math.max(1, (long) (opsPerSecond * durationMillis / 1000));
+        final LogLinearHistogram[] latencies = new LogLinearHistogram[Operation.values().length];
+        final LongAdder[] errors = new LongAdder[Operation.values().length];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LogLinearHistogram();
+            errors[i] = new LongAdder();
+        }
+
+        final AtomicLong tickets = new AtomicLong();
+        final long startNanos = System.nanoTime();
+        runWorkers(() -> {
+            long ticket;
+            while ((ticket = tickets.getAndIncrement()) < total) {
+                final long scheduled = startNanos + ticket * intervalNanos;
+                long delay;
+                while ((delay = scheduled - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(delay);
+                }
+                final Operation operation = nextOperation();
+                try {
+                    execute(operation);
+                } catch (RuntimeException e) {
+                    errors[operation.ordinal()].increment();
+                }
+                latencies[operation.ordinal()].record(System.nanoTime() - scheduled);
+            }
+        });
+        final long elapsedNanos = System.nanoTime() - startNanos;
+
+        final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            final OperationStats operationStats = new OperationStats(latencies[operation.ordinal()].snapshot(),
+                    errors[operation.ordinal()].sum(), elapsedNanos);
+            if (operationStats.getCount() > 0) {
+                stats.put(operation, operationStats);
+            }
+        }
+        return new LoadReport(opsPerSecond, elapsedNanos, stats);
+    }
+
+    private Operation nextOperation() {
+        final double choice = ThreadLocalRandom.current().nextDouble();
+        if (choice < workload.getReadProportion()) return Operation.GET;
+        if (choice < workload.getReadProportion() + workload.getUpdateProportion()) return Operation.PUT;
+        return Operation.GET_KEYS;
+    }
+
+    private void execute(final Operation operation) {
+        final String key = key(nextKey());
+        switch (operation) {
+            case GET:
+                api.get(key);
+                break;
+            case PUT:
+                api.put(key, value);
+                break;
+            case GET_KEYS:
+                api.getKeys(KEY_PREFIX, key, workload.getScanLength());
+                break;
+            default:
+                throw new IllegalStateException("unexpected operation: " + operation);
+        }
+    }
+
+    private long nextKey() {
+        return zipfian != null ? zipfian.next() : ThreadLocalRandom.current().nextInt(workload.getKeyCount());
+    }
+
+    /**
+     * Runs the task in every thread and waits for all of them, rethrowing the first failure.
+     */
+    private void runWorkers(final Runnable task) {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "load-generator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            final List<Future<?>> workers = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                workers.add(executor.submit(task));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException
+                    ? (RuntimeException) e.getCause()
+                    : new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package ru.csc.bdse.kv.load;
+
+import ru.csc.bdse.kv.metrics.Operation;
+import ru.csc.bdse.kv.metrics.OperationStats;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of {@link LoadGenerator#run}: achieved throughput and latencies per operation,
+ * measured from the scheduled start of every operation.
+ */
+public final class LoadReport {
+
+    private final double targetOpsPerSecond;
+    private final long elapsedNanos;
+    private final Map<Operation, OperationStats> operations;
+
+    LoadReport(final double targetOpsPerSecond, final long elapsedNanos, final Map<Operation, OperationStats> operations) {
+        this.targetOpsPerSecond = targetOpsPerSecond;
+        this.elapsedNanos = elapsedNanos;
+        this.operations = Collections.unmodifiableMap(operations);
+    }
+
+    public double getTargetOpsPerSecond() {
+        return targetOpsPerSecond;
+    }
+
+    public double getOpsPerSecond() {
+        return elapsedNanos <= 0 ? 0 : getCount() * 1e9 / elapsedNanos;
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    public long getCount() {
+        return operations.values().stream().mapToLong(OperationStats::getCount).sum();
+    }
+
+    public long getErrors() {
+        return operations.values().stream().mapToLong(OperationStats::getErrors).sum();
+    }
+
+    /**
+     * Returns statistics of operations which were run at least once.
+     */
+    public Map<Operation, OperationStats> getOperations() {
+        return operations;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder report = new StringBuilder(String.format(Locale.ROOT,
+                "%d ops in %d ms: %.1f ops/s of %.1f targeted, %d errors%n",
+                getCount(), getElapsedMillis(), getOpsPerSecond(), targetOpsPerSecond, getErrors()));
+        operations.forEach((operation, stats) -> report.append(String.format(Locale.ROOT,
+                "%-8s count=%d errors=%d mean=%.0fus p50=%.0fus p99=%.0fus p999=%.0fus max=%.0fus%n",
+                operation, stats.getCount(), stats.getErrors(), stats.getMeanMicros(),
+                stats.getP50Micros(), stats.getP99Micros(), stats.getP999Micros(), stats.getMaxMicros())));
+        return report.toString();
+    }
+}
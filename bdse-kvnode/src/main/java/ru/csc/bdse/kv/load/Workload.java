@@ -0,0 +1,108 @@
+package ru.csc.bdse.kv.load;
+
+import ru.csc.bdse.util.Require;
+
+/**
+ * Mix of operations run by {@link LoadGenerator} over {@code keyCount} preloaded keys, in the manner of YCSB core
+ * workloads. Reads get a value, updates put a value of {@code valueSize} bytes and scans list {@code scanLength}
+ * keys after the chosen one. Instances are immutable, every {@code with*} method returns a modified copy.
+ */
+public final class Workload {
+
+    /**
+     * 95% reads and 5% updates of Zipfian keys, like YCSB workload B.
+     */
+    public static final Workload READ_HEAVY = new Workload(0.95, 0.05, 0, 100_000, 1000, KeyDistribution.ZIPFIAN, 100);
+
+    /**
+     * 5% reads and 95% updates of Zipfian keys.
+     */
+    public static final Workload WRITE_HEAVY = new Workload(0.05, 0.95, 0, 100_000, 1000, KeyDistribution.ZIPFIAN, 100);
+
+    /**
+     * 95% scans of up to 100 keys and 5% updates, like YCSB workload E.
+     */
+    public static final Workload SCAN_HEAVY = new Workload(0, 0.05, 0.95, 100_000, 1000, KeyDistribution.ZIPFIAN, 100);
+
+    private final double readProportion;
+    private final double updateProportion;
+    private final double scanProportion;
+    private final int keyCount;
+    private final int valueSize;
+    private final KeyDistribution keyDistribution;
+    private final int scanLength;
+
+    private Workload(final double readProportion,
+                     final double updateProportion,
+                     final double scanProportion,
+                     final int keyCount,
+                     final int valueSize,
+                     final KeyDistribution keyDistribution,
+                     final int scanLength) {
+        if (readProportion < 0 || updateProportion < 0 || scanProportion < 0) {
+            throw new IllegalArgumentException("negative proportion");
+        }
+        if (Math.abs(readProportion + updateProportion + scanProportion - 1) > 1e-9) {
+            throw new IllegalArgumentException("proportions do not sum up to 1");
+        }
+        if (keyCount <= 0) throw new IllegalArgumentException("non-positive key count");
+        if (valueSize < 0) throw new IllegalArgumentException("negative value size");
+        Require.nonNull(keyDistribution, "null key distribution");
+        if (scanLength <= 0) throw new IllegalArgumentException("non-positive scan length");
+        this.readProportion = readProportion;
+        this.updateProportion = updateProportion;
+        this.scanProportion = scanProportion;
+        this.keyCount = keyCount;
+        this.valueSize = valueSize;
+        this.keyDistribution = keyDistribution;
+        this.scanLength = scanLength;
+    }
+
+    public double getReadProportion() {
+        return readProportion;
+    }
+
+    public double getUpdateProportion() {
+        return updateProportion;
+    }
+
+    public double getScanProportion() {
+        return scanProportion;
+    }
+
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    public int getValueSize() {
+        return valueSize;
+    }
+
+    public KeyDistribution getKeyDistribution() {
+        return keyDistribution;
+    }
+
+    public int getScanLength() {
+        return scanLength;
+    }
+
+    public Workload withProportions(final double read, final double update, final double scan) {
+        return new Workload(read, update, scan, keyCount, valueSize, keyDistribution, scanLength);
+    }
+
+    public Workload withKeyCount(final int keyCount) {
+        return new Workload(readProportion, updateProportion, scanProportion, keyCount, valueSize, keyDistribution, scanLength);
+    }
+
+    public Workload withValueSize(final int valueSize) {
+        return new Workload(readProportion, updateProportion, scanProportion, keyCount, valueSize, keyDistribution, scanLength);
+    }
+
+    public Workload withKeyDistribution(final KeyDistribution keyDistribution) {
+        return new Workload(readProportion, updateProportion, scanProportion, keyCount, valueSize, keyDistribution, scanLength);
+    }
+
+    public Workload withScanLength(final int scanLength) {
+        return new Workload(readProportion, updateProportion, scanProportion, keyCount, valueSize, keyDistribution, scanLength);
+    }
+}
@@ -0,0 +1,76 @@
+package ru.csc.bdse.kv.load;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Draws numbers of {@code [0, n)} with Zipfian probabilities: the {@code i}-th most popular item is chosen
+ * with probability proportional to {@code 1 / i^theta}. Follows the algorithm of Gray et al.
+ * "Quickly generating billion-record synthetic databases" as YCSB does, with the YCSB default theta of 0.99.
+ * <p>
+ * Popular items are scrambled over the whole range by a hash, so hot keys are not neighbours in key order.
+ * Drawing is constant time, the setup is linear in {@code n}. Instances are thread-safe.
+ */
+public final class ZipfianGenerator {
+
+    public static final double DEFAULT_THETA = 0.99;
+
+    private static final long FNV_OFFSET_BASIS = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 1099511628211L;
+
+    private final long n;
+    private final double theta;
+    private final double alpha;
+    private final double zetaN;
+    private final double eta;
+
+    public ZipfianGenerator(final long n) {
+        this(n, DEFAULT_THETA);
+    }
+
+    public ZipfianGenerator(final long n, final double theta) {
+        if (n <= 0) throw new IllegalArgumentException("non-positive number of items");
+        if (theta <= 0 || theta >= 1) throw new IllegalArgumentException("theta out of (0, 1)");
+        this.n = n;
+        this.theta = theta;
+        this.alpha = 1 / (1 - theta);
+        this.zetaN = zeta(n, theta);
+        this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+    }
+
+    /**
+     * Returns the next item, the most popular ones spread over the range.
+     */
+    public long next() {
+        return scramble(nextRank());
+    }
+
+    /**
+     * Returns the popularity rank of the next item, zero being the most popular.
+     */
+    public long nextRank() {
+        final double u = ThreadLocalRandom.current().nextDouble();
+        final double uz = u * zetaN;
+        if (uz < 1) return 0;
+        if (uz < 1 + Math.pow(0.5, theta)) return Math.min(1, n - 1);
+        return Math.min((long) (n * Math.pow(eta * u - eta + 1, alpha)), n - 1);
+    }
+
+    private long scramble(final long rank) {
+        long hash = FNV_OFFSET_BASIS;
+        long value = rank;
+        for (int i = 0; i < 8; i++) {
+            hash ^= value & 0xFF;
+            hash *= FNV_PRIME;
+            value >>>= 8;
+        }
+        return Math.floorMod(hash, n);
+    }
+
+    private static double zeta(final long n, final double theta) {
+        double sum = 0;
+        for (long i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,22 @@
+package ru.csc.bdse.kv.log;
+
+/**
+ * Defines when written records are forced to the disk.
+ */
+public enum FsyncPolicy {
+
+    /**
+     * Every group of writes is forced before it is acknowledged.
+     */
+    ALWAYS,
+
+    /**
+     * Writes are acknowledged immediately and forced periodically, so a crash may lose the last interval.
+     */
+    INTERVAL,
+
+    /**
+     * Writes are never forced explicitly, it is up to the operating system.
+     */
+    NEVER
+}
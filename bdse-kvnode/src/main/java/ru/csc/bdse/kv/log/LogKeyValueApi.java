@@ -0,0 +1,367 @@
+package ru.csc.bdse.kv.log;
+
+import ru.csc.bdse.kv.KeyValueApi;
+import ru.csc.bdse.kv.NodeAction;
+import ru.csc.bdse.kv.NodeInfo;
+import ru.csc.bdse.kv.NodeStatus;
+import ru.csc.bdse.kv.VersionedValue;
+import ru.csc.bdse.util.Prefix;
+import ru.csc.bdse.util.Require;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Durable implementation of the storage unit in the style of Bitcask.
+ * <p>
+ * Every write is appended to the active segment file, the in-memory index maps each live key
+ * to the location of its latest value, and values are read straight from memory-mapped segments.
+ * Writes are queued and appended by a single writer thread in groups, so one fsync covers the whole group.
+ * {@link #getVersioned(String)} returns a view of the mapping instead of a copy, so big values are served
+ * without passing through the heap.
+ * On start the index is rebuilt by scanning all segments in the order of writing.
+ * Obsolete records are never reclaimed, there is no merge of old segments yet.
+ */
+public class LogKeyValueApi implements KeyValueApi, Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 1000;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int MAX_GROUP_SIZE = 1024;
+
+    private final String name;
+    private final Path dir;
+    private final FsyncPolicy fsyncPolicy;
+    private final int segmentSize;
+    private final long syncIntervalMillis;
+
+    private final ConcurrentNavigableMap<String, Location> index = new ConcurrentSkipListMap<>();
+    private final LongAdder keyCount = new LongAdder();
+    private final List<Segment> segments = new ArrayList<>();
+    private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    private volatile boolean running = true;
+    private Segment active;
+    private long lastSyncMillis = System.currentTimeMillis();
+    private boolean dirty;
+
+    public LogKeyValueApi(final String name, final Path dir, final FsyncPolicy fsyncPolicy) {
+        this(name, dir, fsyncPolicy, DEFAULT_SEGMENT_SIZE, DEFAULT_SYNC_INTERVAL_MILLIS);
+    }
+
+    public LogKeyValueApi(final String name,
+                          final Path dir,
+                          final FsyncPolicy fsyncPolicy,
+                          final int segmentSize,
+                          final long syncIntervalMillis) {
+        Require.nonEmpty(name, "empty name");
+        Require.nonNull(dir, "null dir");
+        Require.nonNull(fsyncPolicy, "null fsync policy");
+        if (segmentSize <= Segment.HEADER_SIZE) throw new IllegalArgumentException("too small segment size");
+        if (syncIntervalMillis <= 0) throw new IllegalArgumentException("non-positive sync interval");
+
+        this.name = name;
+        this.dir = dir;
+        this.fsyncPolicy = fsyncPolicy;
+        this.segmentSize = segmentSize;
+        this.syncIntervalMillis = syncIntervalMillis;
+
+        try {
+            Files.createDirectories(dir);
+            recover();
+            active = newSegment(segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        writer = new Thread(this::writeLoop, "log-writer-" + name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void put(final String key, final byte[] value) {
+        Require.nonEmpty(key, "empty key");
+        Require.nonNull(value, "null value");
+        submit(Collections.singletonList(new Write(key, value)));
+    }
+
+    @Override
+    public Optional<byte[]> get(final String key) {
+        Require.nonEmpty(key, "empty key");
+        checkOpen();
+        return Optional.ofNullable(index.get(key)).map(Location::read);
+    }
+
+    /**
+     * Values are not versioned, the returned one is a read-only view of the memory-mapped segment.
+     * The view stays readable after {@link #close()}, segment files are never unmapped or truncated.
+     */
+    @Override
+    public Optional<VersionedValue> getVersioned(final String key) {
+        Require.nonEmpty(key, "empty key");
+        checkOpen();
+        return Optional.ofNullable(index.get(key)).map(location ->
+                new VersionedValue(location.slice(), VersionedValue.NO_VERSION));
+    }
+
+    @Override
+    public Set<String> getKeys(final String prefix) {
+        Require.nonNull(prefix, "null prefix");
+        return new HashSet<>(Prefix.subMap(index, prefix).keySet());
+    }
+
+    @Override
+    public List<String> getKeys(final String prefix, final String after, final int limit) {
+        Require.nonNull(prefix, "null prefix");
+        return Prefix.keys(index, prefix, after, limit);
+    }
+
+    @Override
+    public void delete(final String key) {
+        Require.nonEmpty(key, "empty key");
+        submit(Collections.singletonList(new Write(key, null)));
+    }
+
+    /**
+     * Queues all puts at once, so they are likely to share one group commit.
+     */
+    @Override
+    public void putAll(final Map<String, byte[]> entries) {
+        final List<Write> writes = new ArrayList<>(entries.size());
+        entries.forEach((key, value) -> {
+            Require.nonEmpty(key, "empty key");
+            Require.nonNull(value, "null value");
+            writes.add(new Write(key, value));
+        });
+        submit(writes);
+    }
+
+    @Override
+    public void deleteAll(final Collection<String> keys) {
+        final List<Write> writes = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            Require.nonEmpty(key, "empty key");
+            writes.add(new Write(key, null));
+        }
+        submit(writes);
+    }
+
+    @Override
+    public OptionalLong getKeyCount() {
+        return OptionalLong.of(keyCount.sum());
+    }
+
+    @Override
+    public Set<NodeInfo> getInfo() {
+        return Collections.singleton(new NodeInfo(name, NodeStatus.UP));
+    }
+
+    @Override
+    public void action(String node, NodeAction action) {
+        throw new RuntimeException("action not implemented now");
+    }
+
+    /**
+     * Waits for queued writes, forces them to the disk and closes segment files.
+     * Reads and writes after that throw {@link IllegalStateException}.
+     * Writes are queued under the read side of a lock which close takes the write side of to stop,
+     * so no write is queued after the writer thread drained the queue and left it waiting forever.
+     */
+    @Override
+    public void close() throws IOException {
+        closeLock.writeLock().lock();
+        try {
+            if (!running) return;
+            running = false;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        final List<Write> rejected = new ArrayList<>();
+        queue.drainTo(rejected);
+        rejected.forEach(write -> write.done.completeExceptionally(new IllegalStateException("storage is closed")));
+        synchronized (segments) {
+            for (Segment segment : segments) {
+                segment.close();
+            }
+        }
+    }
+
+    private void checkOpen() {
+        if (!running) throw new IllegalStateException("storage is closed");
+    }
+
+    private void submit(final List<Write> writes) {
+        closeLock.readLock().lock();
+        try {
+            checkOpen();
+            queue.addAll(writes);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        try {
+            for (Write write : writes) {
+                write.done.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private void writeLoop() {
+        final List<Write> group = new ArrayList<>(MAX_GROUP_SIZE);
+        while (running || !queue.isEmpty()) {
+            try {
+                final Write first = queue.poll(syncIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    group.add(first);
+                    queue.drainTo(group, MAX_GROUP_SIZE - 1);
+                    commit(group);
+                    group.clear();
+                }
+                if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+                    syncIfDue();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void commit(final List<Write> group) {
+        try {
+            final List<Location> locations = new ArrayList<>(group.size());
+            for (Write write : group) {
+                locations.add(append(write));
+            }
+            if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+                active.force();
+            } else {
+                dirty = true;
+            }
+            for (int i = 0; i < group.size(); i++) {
+                apply(group.get(i).key, locations.get(i));
+            }
+            group.forEach(write -> write.done.complete(null));
+        } catch (IOException e) {
+            group.forEach(write -> write.done.completeExceptionally(new UncheckedIOException(e)));
+        } catch (RuntimeException e) {
+            group.forEach(write -> write.done.completeExceptionally(e));
+        }
+    }
+
+    private Location append(final Write write) throws IOException {
+        final byte[] key = write.key.getBytes(StandardCharsets.UTF_8);
+        final int recordSize = Segment.recordSize(key, write.value);
+        if (!active.fits(recordSize)) {
+            active.force();
+            active = newSegment(Math.max(segmentSize, recordSize));
+        }
+        final int offset = active.append(key, write.value);
+        return write.value == null ? null : new Location(active, offset, write.value.length);
+    }
+
+    private void syncIfDue() {
+        final long now = System.currentTimeMillis();
+        if (dirty && now - lastSyncMillis >= syncIntervalMillis) {
+            active.force();
+            dirty = false;
+            lastSyncMillis = now;
+        }
+    }
+
+    private void apply(final String key, final Location location) {
+        if (location == null) {
+            if (index.remove(key) != null) {
+                keyCount.decrement();
+            }
+        } else if (index.put(key, location) == null) {
+            keyCount.increment();
+        }
+    }
+
+    private void recover() throws IOException {
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        files.sort(Comparator.comparing(LogKeyValueApi::segmentId));
+        for (Path file : files) {
+            final Segment segment = Segment.open(file, segmentId(file), (key, owner, offset, length) ->
+                    apply(key, length == Segment.TOMBSTONE ? null : new Location(owner, offset, length)));
+            synchronized (segments) {
+                segments.add(segment);
+            }
+        }
+    }
+
+    private Segment newSegment(final int capacity) throws IOException {
+        synchronized (segments) {
+            final int id = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).id() + 1;
+            final Segment segment = Segment.create(dir.resolve(String.format("%08d%s", id, SEGMENT_SUFFIX)), id, capacity);
+            segments.add(segment);
+            return segment;
+        }
+    }
+
+    private static int segmentId(final Path file) {
+        final String fileName = file.getFileName().toString();
+        return Integer.parseInt(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static final class Write {
+        private final String key;
+        private final byte[] value;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private Write(final String key, final byte[] value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static final class Location {
+        private final Segment segment;
+        private final int offset;
+        private final int length;
+
+        private Location(final Segment segment, final int offset, final int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        private byte[] read() {
+            return segment.read(offset, length);
+        }
+
+        private ByteBuffer slice() {
+            return segment.slice(offset, length);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package ru.csc.bdse.kv.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Memory-mapped append-only file of records.
+ * <p>
+ * Record layout: {@code crc32 | keyLength | valueLength | key (UTF-8) | value}, where crc32 covers everything
+ * after itself and valueLength is {@code -1} for tombstones. Appends are made by a single writer thread,
+ * reads are safe from any thread once the record is published through the index.
+ */
+final class Segment implements Closeable {
+
+    static final int HEADER_SIZE = 12;
+    static final int TOMBSTONE = -1;
+
+    interface RecordVisitor {
+        void visit(String key, Segment segment, int valueOffset, int valueLength);
+    }
+
+    private final int id;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private int size;
+
+    private Segment(final int id, final FileChannel channel, final MappedByteBuffer buffer, final int size) {
+        this.id = id;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.size = size;
+    }
+
+    /**
+     * Creates new empty segment able to hold {@code capacity} bytes.
+     */
+    static Segment create(final Path file, final int id, final int capacity) throws IOException {
+        final FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new Segment(id, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity), 0);
+    }
+
+    /**
+     * Opens existing segment and passes every valid record to the visitor in the order of writing.
+     * Scanning stops at the first torn or corrupted record, everything after it is ignored.
+     */
+    static Segment open(final Path file, final int id, final RecordVisitor visitor) throws IOException {
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        final Segment segment = new Segment(id, channel, buffer, 0);
+        segment.size = segment.scan(visitor);
+        return segment;
+    }
+
+    static int recordSize(final byte[] key, final byte[] value) {
+        return HEADER_SIZE + key.length + (value == null ? 0 : value.length);
+    }
+
+    int id() {
+        return id;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean fits(final int recordSize) {
+        return buffer.capacity() - size >= recordSize;
+    }
+
+    /**
+     * Appends record and returns offset of its value. Null value means tombstone.
+     */
+    int append(final byte[] key, final byte[] value) {
+        final int start = size;
+        final ByteBuffer record = buffer.duplicate();
+        record.position(start + 4);
+        record.putInt(key.length);
+        record.putInt(value == null ? TOMBSTONE : value.length);
+        record.put(key);
+        if (value != null) {
+            record.put(value);
+        }
+        final int end = record.position();
+
+        record.position(start + 4).limit(end);
+        final CRC32 crc = new CRC32();
+        crc.update(record);
+        buffer.putInt(start, (int) crc.getValue());
+
+        size = end;
+        return start + HEADER_SIZE + key.length;
+    }
+
+    byte[] read(final int offset, final int length) {
+        final ByteBuffer region = buffer.duplicate();
+        region.position(offset);
+        final byte[] value = new byte[length];
+        region.get(value);
+        return value;
+    }
+
+    /**
+     * Returns read-only view of the region without copying it, the view shares the mapping of the segment.
+     */
+    ByteBuffer slice(final int offset, final int length) {
+        final ByteBuffer region = buffer.duplicate();
+        region.position(offset).limit(offset + length);
+        return region.slice().asReadOnlyBuffer();
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * Forces written data and closes the file. The file keeps its full size: views returned by {@link #slice} may
+     * outlive the segment and would fault on a truncated mapping, and the zeroed tail ends the scan on open anyway.
+     */
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    private int scan(final RecordVisitor visitor) {
+        final int capacity = buffer.capacity();
+        int position = 0;
+        while (capacity - position >= HEADER_SIZE) {
+            final int storedCrc = buffer.getInt(position);
+            final int keyLength = buffer.getInt(position + 4);
+            final int valueLength = buffer.getInt(position + 8);
+            if (keyLength <= 0 || valueLength < TOMBSTONE) {
+                break;
+            }
+            final long recordSize = (long) HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+            if (recordSize > capacity - position) {
+                break;
+            }
+            final ByteBuffer record = buffer.duplicate();
+            record.position(position + 4).limit(position + (int) recordSize);
+            final CRC32 crc = new CRC32();
+            crc.update(record);
+            if ((int) crc.getValue() != storedCrc) {
+                break;
+            }
+
+            final byte[] key = new byte[keyLength];
+            record.position(position + HEADER_SIZE);
+            record.get(key);
+            visitor.visit(new String(key, StandardCharsets.UTF_8), this,
+                    position + HEADER_SIZE + keyLength, valueLength);
+            position += (int) recordSize;
+        }
+        return position;
+    }
+}
@@ -0,0 +1,91 @@
+package ru.csc.bdse.kv.lsm;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bloom filter over UTF-8 encoded keys, used to skip SSTables which definitely do not contain a key.
+ * Probe positions are derived from one 64-bit hash by double hashing.
+ */
+final class BloomFilter {
+
+    private static final int BITS_PER_KEY = 10;
+    private static final int HASHES = 7;
+
+    private final long[] words;
+    private final int hashes;
+    private final long bitCount;
+
+    private BloomFilter(final long[] words, final int hashes) {
+        this.words = words;
+        this.hashes = hashes;
+        this.bitCount = (long) words.length * Long.SIZE;
+    }
+
+    /**
+     * Creates empty filter with about 1% false positive rate for specified number of keys.
+     */
+    static BloomFilter create(final long expectedKeys) {
+        final long bits = Math.max(Long.SIZE, expectedKeys * BITS_PER_KEY);
+        final long wordCount = Math.min((bits + Long.SIZE - 1) / Long.SIZE, Integer.MAX_VALUE - 8);
+        return new BloomFilter(new long[(int) wordCount], HASHES);
+    }
+
+    static BloomFilter read(final ByteBuffer buffer) {
+        final int hashes = buffer.getInt();
+        final long[] words = new long[buffer.getInt()];
+        buffer.asLongBuffer().get(words);
+        return new BloomFilter(words, hashes);
+    }
+
+    int serializedSize() {
+        return 8 + words.length * Long.BYTES;
+    }
+
+    void write(final ByteBuffer buffer) {
+        buffer.putInt(hashes);
+        buffer.putInt(words.length);
+        for (long word : words) {
+            buffer.putLong(word);
+        }
+    }
+
+    void add(final byte[] key) {
+        final long hash = hash(key);
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            final long bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(final byte[] key) {
+        final long hash = hash(key);
+        final int h1 = (int) hash;
+        final int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < hashes; i++) {
+            final long bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+            if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * FNV-1a followed by the MurmurHash3 finalizer to spread the bits.
+     */
+    private static long hash(final byte[] key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,500 @@
+package ru.csc.bdse.kv.lsm;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.csc.bdse.kv.KeyValueApi;
+import ru.csc.bdse.kv.NodeAction;
+import ru.csc.bdse.kv.NodeInfo;
+import ru.csc.bdse.kv.NodeStatus;
+import ru.csc.bdse.kv.log.FsyncPolicy;
+import ru.csc.bdse.util.Prefix;
+import ru.csc.bdse.util.Require;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Implementation of the storage unit as a log-structured merge tree.
+ * <p>
+ * Writes go to the write-ahead log and the sorted memtable. A full memtable becomes immutable and is
+ * flushed in background to an SSTable, after that its log is deleted. The table takes the id of the log, so a log
+ * left behind by a failed delete is recognized on start as covered by a table and is not replayed again. Flushes go
+ * in the order of memtables, the first failed flush stops later ones and fails writes, so no table is ever newer
+ * than an unflushed log. Reads look through the memtable,
+ * memtables being flushed and SSTables from the newest to the oldest, and the prefix listing is a merged
+ * range scan over all of them. Deletes are written as tombstones which shadow older values until
+ * a compaction involving the oldest table drops them.
+ * <p>
+ * Compaction is size-tiered: a run of at least {@link #MIN_COMPACTION_RUN} adjacent tables of similar
+ * size is merged into one table on the compaction thread pool.
+ */
+public class LsmKeyValueApi implements KeyValueApi, Closeable {
+
+    public static final long DEFAULT_MEMTABLE_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_COMPACTION_THREADS = 1;
+
+    private static final Logger log = LoggerFactory.getLogger(LsmKeyValueApi.class);
+
+    private static final String WAL_SUFFIX = ".wal";
+    private static final int MAX_FLUSHING_MEMTABLES = 4;
+    private static final int MIN_COMPACTION_RUN = 4;
+    private static final int MAX_COMPACTION_RUN = 32;
+    private static final double TIER_RATIO = 2.0;
+
+    private final String name;
+    private final Path dir;
+    private final FsyncPolicy fsyncPolicy;
+    private final long memtableSize;
+
+    private final Object writeLock = new Object();
+    private final ReadWriteLock tablesLock = new ReentrantReadWriteLock();
+    private final ExecutorService flusher;
+    private final ExecutorService compactor;
+    private final AtomicLong nextFileId = new AtomicLong();
+    private final Set<SSTable> compacting = new HashSet<>();
+
+    private volatile Memtable memtable;
+    /* newest first, replaced on change */
+    private volatile List<Memtable> flushing = Collections.emptyList();
+    /* newest first, replaced on change */
+    private volatile List<SSTable> tables = Collections.emptyList();
+    private volatile boolean running = true;
+    private volatile Exception flushFailure;
+
+    public LsmKeyValueApi(final String name, final Path dir, final FsyncPolicy fsyncPolicy) {
+        this(name, dir, fsyncPolicy, DEFAULT_MEMTABLE_SIZE, DEFAULT_COMPACTION_THREADS);
+    }
+
+    public LsmKeyValueApi(final String name,
+                          final Path dir,
+                          final FsyncPolicy fsyncPolicy,
+                          final long memtableSize,
+                          final int compactionThreads) {
+        Require.nonEmpty(name, "empty name");
+        Require.nonNull(dir, "null dir");
+        Require.nonNull(fsyncPolicy, "null fsync policy");
+        if (memtableSize <= 0) throw new IllegalArgumentException("non-positive memtable size");
+        if (compactionThreads <= 0) throw new IllegalArgumentException("non-positive compaction threads");
+
+        this.name = name;
+        this.dir = dir;
+        this.fsyncPolicy = fsyncPolicy;
+        this.memtableSize = memtableSize;
+        this.flusher = Executors.newSingleThreadExecutor(r -> daemon(r, "lsm-flusher-" + name));
+        this.compactor = Executors.newFixedThreadPool(compactionThreads, r -> daemon(r, "lsm-compactor-" + name));
+
+        try {
+            Files.createDirectories(dir);
+            recover();
+            memtable = newMemtable();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        scheduleCompaction();
+    }
+
+    @Override
+    public void put(final String key, final byte[] value) {
+        Require.nonEmpty(key, "empty key");
+        Require.nonNull(value, "null value");
+        write(key, value);
+    }
+
+    @Override
+    public Optional<byte[]> get(final String key) {
+        Require.nonEmpty(key, "empty key");
+        tablesLock.readLock().lock();
+        try {
+            byte[] value = memtable.entries().get(key);
+            for (Iterator<Memtable> it = flushing.iterator(); value == null && it.hasNext(); ) {
+                value = it.next().entries().get(key);
+            }
+            for (Iterator<SSTable> it = tables.iterator(); value == null && it.hasNext(); ) {
+                value = it.next().get(key);
+            }
+            return value == null || Memtable.isTombstone(value) ? Optional.empty() : Optional.of(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            tablesLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<String> getKeys(final String prefix) {
+        Require.nonNull(prefix, "null prefix");
+        final Set<String> keys = new HashSet<>();
+        scanKeys(prefix, null, Integer.MAX_VALUE, keys);
+        return keys;
+    }
+
+    @Override
+    public List<String> getKeys(final String prefix, final String after, final int limit) {
+        Require.nonNull(prefix, "null prefix");
+        if (limit <= 0) throw new IllegalArgumentException("non-positive limit");
+        final List<String> keys = new ArrayList<>(Math.min(limit, 1024));
+        scanKeys(prefix, after, limit, keys);
+        return keys;
+    }
+
+    @Override
+    public void delete(final String key) {
+        Require.nonEmpty(key, "empty key");
+        write(key, Memtable.TOMBSTONE);
+    }
+
+    @Override
+    public void putAll(final Map<String, byte[]> entries) {
+        entries.forEach((key, value) -> {
+            Require.nonEmpty(key, "empty key");
+            Require.nonNull(value, "null value");
+        });
+        synchronized (writeLock) {
+            entries.forEach(this::write);
+        }
+    }
+
+    @Override
+    public void deleteAll(final Collection<String> keys) {
+        keys.forEach(key -> Require.nonEmpty(key, "empty key"));
+        synchronized (writeLock) {
+            keys.forEach(key -> write(key, Memtable.TOMBSTONE));
+        }
+    }
+
+    @Override
+    public Set<NodeInfo> getInfo() {
+        return Collections.singleton(new NodeInfo(name, NodeStatus.UP));
+    }
+
+    @Override
+    public void action(String node, NodeAction action) {
+        throw new RuntimeException("action not implemented now");
+    }
+
+    /**
+     * Waits for background flushes and compactions and closes all files.
+     * The current memtable is not flushed, it is restored from its write-ahead log on the next start.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            if (!running) return;
+            running = false;
+        }
+        awaitTermination(flusher);
+        awaitTermination(compactor);
+        memtable.wal().close();
+        for (SSTable table : tables) {
+            table.close();
+        }
+    }
+
+    /**
+     * Merges live keys with the prefix greater than {@code after} from all memtables and tables,
+     * in ascending order, until {@code limit} keys are collected.
+     */
+    private void scanKeys(final String prefix, final String after, final int limit, final Collection<String> keys) {
+        final String upperBound = Prefix.upperBound(prefix).orElse(null);
+        final boolean fromAfter = after != null && after.compareTo(prefix) >= 0;
+        final String from = fromAfter ? after : prefix;
+        if (upperBound != null && from.compareTo(upperBound) >= 0) {
+            return;
+        }
+        tablesLock.readLock().lock();
+        try {
+            final List<Iterator<Map.Entry<String, byte[]>>> sources = new ArrayList<>();
+            sources.add(range(memtable, from, upperBound));
+            for (Memtable immutable : flushing) {
+                sources.add(range(immutable, from, upperBound));
+            }
+            for (SSTable table : tables) {
+                sources.add(table.iterator(from, upperBound));
+            }
+            final Iterator<Map.Entry<String, byte[]>> merged = new MergingIterator(sources);
+            while (merged.hasNext() && keys.size() < limit) {
+                final Map.Entry<String, byte[]> entry = merged.next();
+                if (!Memtable.isTombstone(entry.getValue()) && !(fromAfter && entry.getKey().equals(after))) {
+                    keys.add(entry.getKey());
+                }
+            }
+        } finally {
+            tablesLock.readLock().unlock();
+        }
+    }
+
+    private static Iterator<Map.Entry<String, byte[]>> range(final Memtable memtable,
+                                                            final String from,
+                                                            final String to) {
+        final NavigableMap<String, byte[]> entries = to == null
+                ? memtable.entries().tailMap(from, true)
+                : memtable.entries().subMap(from, true, to, false);
+        return entries.entrySet().iterator();
+    }
+
+    private void write(final String key, final byte[] value) {
+        synchronized (writeLock) {
+            if (!running) throw new IllegalStateException("storage is closed");
+            checkFlushed();
+            try {
+                memtable.put(key, value);
+                if (memtable.sizeBytes() >= memtableSize) {
+                    // writes stall until the flusher catches up, so memory stays bounded
+                    while (flushing.size() >= MAX_FLUSHING_MEMTABLES) {
+                        writeLock.wait();
+                        checkFlushed();
+                    }
+                    rotate();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private void checkFlushed() {
+        final Exception failure = flushFailure;
+        if (failure != null) {
+            throw new IllegalStateException("flush of memtable failed, restart to recover from write-ahead logs", failure);
+        }
+    }
+
+    /**
+     * Makes current memtable immutable and schedules its flush. Called under write lock.
+     */
+    private void rotate() throws IOException {
+        final Memtable full = memtable;
+        final List<Memtable> newFlushing = new ArrayList<>(flushing.size() + 1);
+        newFlushing.add(full);
+        newFlushing.addAll(flushing);
+        // readers look at the memtable first, so the full one has to be published as flushing before
+        flushing = newFlushing;
+        memtable = newMemtable();
+        flusher.execute(() -> flush(full));
+    }
+
+    private void flush(final Memtable immutable) {
+        if (flushFailure != null) {
+            // a table of this memtable would be newer than the unflushed one before it
+            return;
+        }
+        try {
+            final SSTable table = SSTable.write(dir, immutable.id(), immutable.id(),
+                    immutable.entries().entrySet().iterator(), immutable.entries().size(), false);
+            tablesLock.writeLock().lock();
+            try {
+                final List<SSTable> newTables = new ArrayList<>(tables.size() + 1);
+                newTables.add(table);
+                newTables.addAll(tables);
+                tables = newTables;
+                final List<Memtable> newFlushing = new ArrayList<>(flushing);
+                newFlushing.remove(immutable);
+                flushing = newFlushing;
+            } finally {
+                tablesLock.writeLock().unlock();
+            }
+        } catch (IOException | RuntimeException e) {
+            // the memtable stays readable and is restored from its log on the next start
+            log.error("Flush of memtable to SSTable failed", e);
+            flushFailure = e;
+        }
+        synchronized (writeLock) {
+            writeLock.notifyAll();
+        }
+        if (flushFailure != null) {
+            return;
+        }
+        try {
+            immutable.wal().delete();
+        } catch (IOException e) {
+            // the table covers the id of the log, so it is skipped and deleted on the next start
+            log.warn("Delete of flushed write-ahead log failed", e);
+        }
+        scheduleCompaction();
+    }
+
+    private void scheduleCompaction() {
+        synchronized (compacting) {
+            if (!running) return;
+            final List<SSTable> run = pickCompactionRun(tables);
+            if (!run.isEmpty()) {
+                compacting.addAll(run);
+                try {
+                    compactor.execute(() -> compact(run));
+                } catch (RejectedExecutionException e) {
+                    compacting.removeAll(run);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the newest run of adjacent tables of similar size which are not being compacted already.
+     */
+    private List<SSTable> pickCompactionRun(final List<SSTable> candidates) {
+        for (int start = 0; start < candidates.size(); start++) {
+            if (compacting.contains(candidates.get(start))) continue;
+            long min = candidates.get(start).sizeBytes();
+            long max = min;
+            int end = start + 1;
+            while (end < candidates.size() && end - start < MAX_COMPACTION_RUN) {
+                final SSTable next = candidates.get(end);
+                final long newMin = Math.min(min, next.sizeBytes());
+                final long newMax = Math.max(max, next.sizeBytes());
+                if (compacting.contains(next) || newMax > TIER_RATIO * newMin) break;
+                min = newMin;
+                max = newMax;
+                end++;
+            }
+            if (end - start >= MIN_COMPACTION_RUN) {
+                return new ArrayList<>(candidates.subList(start, end));
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    private void compact(final List<SSTable> run) {
+        try {
+            final SSTable newest = run.get(0);
+            final SSTable oldest = run.get(run.size() - 1);
+            final List<SSTable> current = tables;
+            // nothing older can appear later, so tombstones are useless once the oldest table is merged
+            final boolean dropTombstones = current.get(current.size() - 1) == oldest;
+
+            final List<Iterator<Map.Entry<String, byte[]>>> sources = new ArrayList<>(run.size());
+            long expectedCount = 0;
+            for (SSTable table : run) {
+                sources.add(table.iterator("", null));
+                expectedCount += table.entryCount();
+            }
+            // the merged table takes the place of the newest input, so ordering by id stays valid
+            final SSTable merged = SSTable.write(dir, newest.id(), oldest.coveredFromId(),
+                    new MergingIterator(sources), expectedCount, dropTombstones);
+
+            tablesLock.writeLock().lock();
+            try {
+                final List<SSTable> newTables = new ArrayList<>(tables);
+                final int position = newTables.indexOf(newest);
+                newTables.removeAll(run);
+                newTables.add(position, merged);
+                tables = newTables;
+            } finally {
+                tablesLock.writeLock().unlock();
+            }
+            newest.close();
+            for (SSTable table : run.subList(1, run.size())) {
+                table.delete();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Compaction of SSTables failed", e);
+        } finally {
+            synchronized (compacting) {
+                compacting.removeAll(run);
+            }
+        }
+        scheduleCompaction();
+    }
+
+    private void recover() throws IOException {
+        final List<SSTable> found = new ArrayList<>();
+        final List<Path> logs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                final String fileName = file.getFileName().toString();
+                if (fileName.endsWith(SSTable.SUFFIX)) {
+                    found.add(SSTable.open(file, fileId(file, SSTable.SUFFIX)));
+                } else if (fileName.endsWith(WAL_SUFFIX)) {
+                    logs.add(file);
+                } else if (fileName.endsWith(".tmp")) {
+                    Files.delete(file);
+                }
+            }
+        }
+
+        found.sort(Comparator.comparingLong(SSTable::id).reversed());
+        final List<SSTable> live = new ArrayList<>();
+        long coveredFrom = Long.MAX_VALUE;
+        for (SSTable table : found) {
+            if (table.id() >= coveredFrom) {
+                // input of a compaction which was interrupted after the merged table had been written
+                table.delete();
+            } else {
+                live.add(table);
+                coveredFrom = table.coveredFromId();
+            }
+            nextFileId.set(Math.max(nextFileId.get(), table.id() + 1));
+        }
+        logs.sort(Comparator.comparingLong(file -> fileId(file, WAL_SUFFIX)));
+        final List<Path> unflushed = new ArrayList<>();
+        for (Path file : logs) {
+            final long id = fileId(file, WAL_SUFFIX);
+            nextFileId.set(Math.max(nextFileId.get(), id + 1));
+            if (live.stream().anyMatch(table -> table.coveredFromId() <= id && id <= table.id())) {
+                // flushed already, only the delete failed
+                Files.delete(file);
+            } else {
+                unflushed.add(file);
+            }
+        }
+        tables = live;
+
+        if (!unflushed.isEmpty()) {
+            final NavigableMap<String, byte[]> replayed = new TreeMap<>();
+            for (Path file : unflushed) {
+                WriteAheadLog.replay(file, replayed::put);
+            }
+            if (!replayed.isEmpty()) {
+                final long id = nextFileId.getAndIncrement();
+                // the table covers the replayed logs too, unless older tables have greater ids
+                final long newestTableId = live.isEmpty() ? -1 : live.get(0).id();
+                final long logsFrom = Math.max(fileId(unflushed.get(0), WAL_SUFFIX), newestTableId + 1);
+                final SSTable table = SSTable.write(dir, id, logsFrom, replayed.entrySet().iterator(),
+                        replayed.size(), false);
+                live.add(0, table);
+            }
+            for (Path file : unflushed) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private Memtable newMemtable() throws IOException {
+        final long id = nextFileId.getAndIncrement();
+        return new Memtable(id, WriteAheadLog.create(dir.resolve(String.format("%016d%s", id, WAL_SUFFIX)), fsyncPolicy));
+    }
+
+    private static long fileId(final Path file, final String suffix) {
+        final String fileName = file.getFileName().toString();
+        return Long.parseLong(fileName.substring(0, fileName.length() - suffix.length()));
+    }
+
+    private static Thread daemon(final Runnable runnable, final String name) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static void awaitTermination(final ExecutorService executor) {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
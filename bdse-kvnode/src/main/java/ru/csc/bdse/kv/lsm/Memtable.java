@@ -0,0 +1,62 @@
+package ru.csc.bdse.kv.lsm;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sorted in-memory buffer of recent writes backed by its own write-ahead log.
+ * Deleted keys are kept as {@link #TOMBSTONE} to shadow older values in SSTables.
+ */
+final class Memtable {
+
+    /**
+     * Marker value of deleted key, compared by identity.
+     */
+    static final byte[] TOMBSTONE = new byte[0];
+
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final ConcurrentNavigableMap<String, byte[]> entries = new ConcurrentSkipListMap<>();
+    private final AtomicLong sizeBytes = new AtomicLong();
+    private final long id;
+    private final WriteAheadLog wal;
+
+    Memtable(final long id, final WriteAheadLog wal) {
+        this.id = id;
+        this.wal = wal;
+    }
+
+    static boolean isTombstone(final byte[] value) {
+        return value == TOMBSTONE;
+    }
+
+    /**
+     * Logs and applies the write, should not be called concurrently.
+     */
+    void put(final String key, final byte[] value) throws IOException {
+        wal.append(key, value);
+        entries.put(key, value);
+        sizeBytes.addAndGet(ENTRY_OVERHEAD + 2L * key.length() + value.length);
+    }
+
+    ConcurrentNavigableMap<String, byte[]> entries() {
+        return entries;
+    }
+
+    long sizeBytes() {
+        return sizeBytes.get();
+    }
+
+    /**
+     * Returns the id of the write-ahead log, which the SSTable flushed from the memtable takes.
+     */
+    long id() {
+        return id;
+    }
+
+    WriteAheadLog wal() {
+        return wal;
+    }
+}
@@ -0,0 +1,65 @@
+package ru.csc.bdse.kv.lsm;
+
+import java.util.*;
+
+/**
+ * Merges sorted entry iterators into one sorted iterator without duplicate keys.
+ * Sources are ordered from the newest to the oldest, and for equal keys the entry of the newest source wins.
+ */
+final class MergingIterator implements Iterator<Map.Entry<String, byte[]>> {
+
+    private final PriorityQueue<Source> queue = new PriorityQueue<>();
+
+    MergingIterator(final List<Iterator<Map.Entry<String, byte[]>>> sources) {
+        for (int i = 0; i < sources.size(); i++) {
+            final Iterator<Map.Entry<String, byte[]>> iterator = sources.get(i);
+            if (iterator.hasNext()) {
+                queue.add(new Source(i, iterator, iterator.next()));
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !queue.isEmpty();
+    }
+
+    @Override
+    public Map.Entry<String, byte[]> next() {
+        final Source newest = queue.poll();
+        if (newest == null) throw new NoSuchElementException();
+        final Map.Entry<String, byte[]> result = newest.head;
+        advance(newest);
+        while (!queue.isEmpty() && queue.peek().head.getKey().equals(result.getKey())) {
+            advance(queue.poll());
+        }
+        return result;
+    }
+
+    private void advance(final Source source) {
+        if (source.iterator.hasNext()) {
+            source.head = source.iterator.next();
+            queue.add(source);
+        }
+    }
+
+    private static final class Source implements Comparable<Source> {
+        private final int priority;
+        private final Iterator<Map.Entry<String, byte[]>> iterator;
+        private Map.Entry<String, byte[]> head;
+
+        private Source(final int priority,
+                       final Iterator<Map.Entry<String, byte[]>> iterator,
+                       final Map.Entry<String, byte[]> head) {
+            this.priority = priority;
+            this.iterator = iterator;
+            this.head = head;
+        }
+
+        @Override
+        public int compareTo(final Source other) {
+            final int byKey = head.getKey().compareTo(other.head.getKey());
+            return byKey != 0 ? byKey : Integer.compare(priority, other.priority);
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package ru.csc.bdse.kv.lsm;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable sorted file of entries.
+ * <p>
+ * File layout: {@code data blocks | block index | bloom filter | footer}. A data block is a run of
+ * {@code keyLength | key (UTF-8) | valueLength | value} entries, valueLength is {@code -1} for tombstones.
+ * The block index keeps the first key, offset and length of every block, it is loaded into memory with
+ * the bloom filter, so a point lookup reads at most one block. The footer also stores the lowest id of
+ * tables merged into this one, which lets recovery discard inputs of an interrupted compaction.
+ */
+final class SSTable implements Closeable {
+
+    static final String SUFFIX = ".sst";
+
+    private static final int BLOCK_SIZE = 4096;
+    private static final int FOOTER_SIZE = 48;
+    private static final long MAGIC = 0x62647365_73737462L;
+
+    private final long id;
+    private final long coveredFromId;
+    private final Path file;
+    private final FileChannel channel;
+    private final long entryCount;
+    private final long sizeBytes;
+    private final String[] blockKeys;
+    private final long[] blockOffsets;
+    private final int[] blockLengths;
+    private final BloomFilter bloomFilter;
+
+    private SSTable(final long id,
+                    final long coveredFromId,
+                    final Path file,
+                    final FileChannel channel,
+                    final long entryCount,
+                    final long sizeBytes,
+                    final String[] blockKeys,
+                    final long[] blockOffsets,
+                    final int[] blockLengths,
+                    final BloomFilter bloomFilter) {
+        this.id = id;
+        this.coveredFromId = coveredFromId;
+        this.file = file;
+        this.channel = channel;
+        this.entryCount = entryCount;
+        this.sizeBytes = sizeBytes;
+        this.blockKeys = blockKeys;
+        this.blockOffsets = blockOffsets;
+        this.blockLengths = blockLengths;
+        this.bloomFilter = bloomFilter;
+    }
+
+    static Path path(final Path dir, final long id) {
+        return dir.resolve(String.format("%016d%s", id, SUFFIX));
+    }
+
+    /**
+     * Writes sorted entries to the table with specified id, replacing an existing file atomically.
+     *
+     * @param expectedCount  upper bound of the number of entries, used to size the bloom filter
+     * @param coveredFromId  lowest id of tables whose data the new table contains
+     * @param dropTombstones whether tombstones may be omitted because there is no older data to shadow
+     */
+    static SSTable write(final Path dir,
+                         final long id,
+                         final long coveredFromId,
+                         final Iterator<Map.Entry<String, byte[]>> entries,
+                         final long expectedCount,
+                         final boolean dropTombstones) throws IOException {
+        final Path file = path(dir, id);
+        final Path tmp = dir.resolve(file.getFileName() + ".tmp");
+        final BloomFilter bloomFilter = BloomFilter.create(expectedCount);
+        final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        final DataOutputStream indexOut = new DataOutputStream(index);
+        final ByteArrayOutputStream block = new ByteArrayOutputStream(2 * BLOCK_SIZE);
+        final DataOutputStream blockOut = new DataOutputStream(block);
+
+        long position = 0;
+        long count = 0;
+        int blockCount = 0;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024)) {
+            while (entries.hasNext()) {
+                final Map.Entry<String, byte[]> entry = entries.next();
+                final boolean tombstone = Memtable.isTombstone(entry.getValue());
+                if (tombstone && dropTombstones) {
+                    continue;
+                }
+                final byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                if (block.size() == 0) {
+                    indexOut.writeInt(key.length);
+                    indexOut.write(key);
+                    indexOut.writeLong(position);
+                }
+                blockOut.writeInt(key.length);
+                blockOut.write(key);
+                if (tombstone) {
+                    blockOut.writeInt(-1);
+                } else {
+                    blockOut.writeInt(entry.getValue().length);
+                    blockOut.write(entry.getValue());
+                }
+                bloomFilter.add(key);
+                count++;
+
+                if (block.size() >= BLOCK_SIZE) {
+                    position += flushBlock(block, indexOut, out);
+                    blockCount++;
+                }
+            }
+            if (block.size() > 0) {
+                position += flushBlock(block, indexOut, out);
+                blockCount++;
+            }
+
+            final long indexOffset = position;
+            index.writeTo(out);
+            final ByteBuffer tail = ByteBuffer.allocate(bloomFilter.serializedSize() + FOOTER_SIZE);
+            bloomFilter.write(tail);
+            tail.putLong(indexOffset);
+            tail.putInt(index.size());
+            tail.putInt(blockCount);
+            tail.putLong(indexOffset + index.size());
+            tail.putLong(count);
+            tail.putLong(coveredFromId);
+            tail.putLong(MAGIC);
+            out.write(tail.array());
+        }
+
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return open(file, id);
+    }
+
+    static SSTable open(final Path file, final long id) throws IOException {
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            final long size = channel.size();
+            if (size < FOOTER_SIZE) throw new IOException("truncated table " + file);
+            final ByteBuffer footer = read(channel, size - FOOTER_SIZE, FOOTER_SIZE);
+            final long indexOffset = footer.getLong();
+            final int indexLength = footer.getInt();
+            final int blockCount = footer.getInt();
+            final long bloomOffset = footer.getLong();
+            final long entryCount = footer.getLong();
+            final long coveredFromId = footer.getLong();
+            if (footer.getLong() != MAGIC) throw new IOException("corrupted table " + file);
+
+            final String[] blockKeys = new String[blockCount];
+            final long[] blockOffsets = new long[blockCount];
+            final int[] blockLengths = new int[blockCount];
+            final ByteBuffer index = read(channel, indexOffset, indexLength);
+            for (int i = 0; i < blockCount; i++) {
+                blockKeys[i] = readString(index);
+                blockOffsets[i] = index.getLong();
+                blockLengths[i] = index.getInt();
+            }
+            final BloomFilter bloomFilter = BloomFilter.read(
+                    read(channel, bloomOffset, (int) (size - FOOTER_SIZE - bloomOffset)));
+
+            return new SSTable(id, coveredFromId, file, channel, entryCount, size,
+                    blockKeys, blockOffsets, blockLengths, bloomFilter);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    long id() {
+        return id;
+    }
+
+    long coveredFromId() {
+        return coveredFromId;
+    }
+
+    long entryCount() {
+        return entryCount;
+    }
+
+    long sizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * Returns value of the key, {@link Memtable#TOMBSTONE} if the key is deleted or null if the table
+     * knows nothing about it.
+     */
+    byte[] get(final String key) throws IOException {
+        if (!bloomFilter.mightContain(key.getBytes(StandardCharsets.UTF_8))) {
+            return null;
+        }
+        final int blockIndex = floorBlock(key);
+        if (blockIndex < 0) {
+            return null;
+        }
+        final ByteBuffer block = readBlock(blockIndex);
+        while (block.hasRemaining()) {
+            final int comparison = readString(block).compareTo(key);
+            final int valueLength = block.getInt();
+            if (comparison == 0) {
+                return readValue(block, valueLength);
+            }
+            if (comparison > 0) {
+                return null;
+            }
+            block.position(block.position() + Math.max(valueLength, 0));
+        }
+        return null;
+    }
+
+    /**
+     * Returns entries with keys in range {@code [from, to)} in sorted order, tombstones included.
+     * Null {@code to} means there is no upper bound.
+     */
+    Iterator<Map.Entry<String, byte[]>> iterator(final String from, final String to) {
+        return new RangeIterator(from, to);
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int floorBlock(final String key) {
+        final int found = Arrays.binarySearch(blockKeys, key);
+        return found >= 0 ? found : -found - 2;
+    }
+
+    private ByteBuffer readBlock(final int blockIndex) throws IOException {
+        return read(channel, blockOffsets[blockIndex], blockLengths[blockIndex]);
+    }
+
+    private static long flushBlock(final ByteArrayOutputStream block,
+                                   final DataOutputStream indexOut,
+                                   final OutputStream out) throws IOException {
+        final int length = block.size();
+        indexOut.writeInt(length);
+        block.writeTo(out);
+        block.reset();
+        return length;
+    }
+
+    private static ByteBuffer read(final FileChannel channel, final long offset, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("unexpected end of table");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readValue(final ByteBuffer buffer, final int valueLength) {
+        if (valueLength < 0) {
+            return Memtable.TOMBSTONE;
+        }
+        final byte[] value = new byte[valueLength];
+        buffer.get(value);
+        return value;
+    }
+
+    private final class RangeIterator implements Iterator<Map.Entry<String, byte[]>> {
+
+        private final String from;
+        private final String to;
+        private int blockIndex;
+        private ByteBuffer block;
+        private Map.Entry<String, byte[]> next;
+
+        private RangeIterator(final String from, final String to) {
+            this.from = from;
+            this.to = to;
+            this.blockIndex = Math.max(floorBlock(from), 0);
+            this.next = advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, byte[]> next() {
+            if (next == null) throw new NoSuchElementException();
+            final Map.Entry<String, byte[]> result = next;
+            next = advance();
+            return result;
+        }
+
+        private Map.Entry<String, byte[]> advance() {
+            try {
+                while (true) {
+                    if (block == null || !block.hasRemaining()) {
+                        if (blockIndex >= blockKeys.length) {
+                            return null;
+                        }
+                        block = readBlock(blockIndex++);
+                    }
+                    final String key = readString(block);
+                    final byte[] value = readValue(block, block.getInt());
+                    if (to != null && key.compareTo(to) >= 0) {
+                        blockIndex = blockKeys.length;
+                        block = null;
+                        return null;
+                    }
+                    if (key.compareTo(from) >= 0) {
+                        return new AbstractMap.SimpleImmutableEntry<>(key, value);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
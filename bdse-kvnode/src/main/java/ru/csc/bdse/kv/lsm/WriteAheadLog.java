@@ -0,0 +1,127 @@
+package ru.csc.bdse.kv.lsm;
+
+import ru.csc.bdse.kv.log.FsyncPolicy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of a memtable, it is deleted once the memtable is flushed to an SSTable.
+ * <p>
+ * Record layout: {@code crc32 | keyLength | valueLength | key (UTF-8) | value},
+ * where crc32 covers everything after itself and valueLength is {@code -1} for tombstones.
+ */
+final class WriteAheadLog implements Closeable {
+
+    private static final int HEADER_SIZE = 12;
+    private static final long SYNC_INTERVAL_MILLIS = 1000;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final FsyncPolicy fsyncPolicy;
+    private long lastSyncMillis = System.currentTimeMillis();
+
+    private WriteAheadLog(final Path file, final FileChannel channel, final FsyncPolicy fsyncPolicy) {
+        this.file = file;
+        this.channel = channel;
+        this.fsyncPolicy = fsyncPolicy;
+    }
+
+    static WriteAheadLog create(final Path file, final FsyncPolicy fsyncPolicy) throws IOException {
+        return new WriteAheadLog(file,
+                FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE),
+                fsyncPolicy);
+    }
+
+    /**
+     * Passes every valid record to the consumer in the order of writing, tombstones are passed as
+     * {@link Memtable#TOMBSTONE}. Replay stops at the first torn or corrupted record.
+     */
+    static void replay(final Path file, final BiConsumer<String, byte[]> consumer) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        while (buffer.remaining() >= HEADER_SIZE) {
+            final int start = buffer.position();
+            final int storedCrc = buffer.getInt();
+            final int keyLength = buffer.getInt();
+            final int valueLength = buffer.getInt();
+            if (keyLength <= 0 || valueLength < -1
+                    || (long) keyLength + Math.max(valueLength, 0) > buffer.remaining()) {
+                return;
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(buffer.array(), start + 4, HEADER_SIZE - 4 + keyLength + Math.max(valueLength, 0));
+            if ((int) crc.getValue() != storedCrc) {
+                return;
+            }
+            final byte[] key = new byte[keyLength];
+            buffer.get(key);
+            final byte[] value;
+            if (valueLength < 0) {
+                value = Memtable.TOMBSTONE;
+            } else {
+                value = new byte[valueLength];
+                buffer.get(value);
+            }
+            consumer.accept(new String(key, StandardCharsets.UTF_8), value);
+        }
+    }
+
+    /**
+     * Appends record, should not be called concurrently.
+     */
+    void append(final String key, final byte[] value) throws IOException {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final boolean tombstone = Memtable.isTombstone(value);
+        final ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length + (tombstone ? 0 : value.length));
+        record.putInt(0);
+        record.putInt(keyBytes.length);
+        record.putInt(tombstone ? -1 : value.length);
+        record.put(keyBytes);
+        if (!tombstone) {
+            record.put(value);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, record.capacity() - 4);
+        record.putInt(0, (int) crc.getValue());
+        record.flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+
+        switch (fsyncPolicy) {
+            case ALWAYS:
+                channel.force(false);
+                break;
+            case INTERVAL:
+                final long now = System.currentTimeMillis();
+                if (now - lastSyncMillis >= SYNC_INTERVAL_MILLIS) {
+                    channel.force(false);
+                    lastSyncMillis = now;
+                }
+                break;
+            case NEVER:
+                break;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file);
+    }
+}
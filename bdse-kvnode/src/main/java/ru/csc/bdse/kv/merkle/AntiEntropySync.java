@@ -0,0 +1,147 @@
+package ru.csc.bdse.kv.merkle;
+
+import ru.csc.bdse.kv.KeyValueApi;
+import ru.csc.bdse.kv.cluster.ReplicatedKeyValueApi;
+import ru.csc.bdse.util.Require;
+
+import java.util.*;
+
+/**
+ * Makes the target node hold the same entries as the source one, moving only the entries which differ.
+ * <p>
+ * Both trees are descended level by level from the root, only children of nodes with different hashes are
+ * compared, so the number of hashes fetched grows with the number of differing leaves and the depth, not with the
+ * number of keys. Entries of the differing leaves are then compared by their hashes and the ones missing or
+ * different on the target are resolved according to the {@link SyncMode}, in batches.
+ * <p>
+ * By default nodes are replicas of a {@link ReplicatedKeyValueApi}: a source entry is written only if it is newer
+ * than the target one, with {@link ReplicatedKeyValueApi#putIfNewer}, and entries the source lacks are kept,
+ * so syncing the other way round too makes both nodes equal. {@link SyncMode#SOURCE_WINS} makes the target a copy
+ * of the source instead, for nodes with unversioned values.
+ * <p>
+ * Writes to either node during the run may be missed or, if the source changes a key after it was compared,
+ * copied in a newer version, a next run repairs what is left.
+ */
+public class AntiEntropySync {
+
+    public static final int NODES_PER_REQUEST = 4096;
+    public static final int LEAVES_PER_REQUEST = 1024;
+    public static final int KEYS_PER_BATCH = 1000;
+
+    private final KeyValueApi source;
+    private final MerkleTreeApi sourceTree;
+    private final KeyValueApi target;
+    private final MerkleTreeApi targetTree;
+    private final SyncMode mode;
+
+    public AntiEntropySync(final KeyValueApi source, final MerkleTreeApi sourceTree,
+                           final KeyValueApi target, final MerkleTreeApi targetTree) {
+        this(source, sourceTree, target, targetTree, SyncMode.NEWER_WINS);
+    }
+
+    public AntiEntropySync(final KeyValueApi source, final MerkleTreeApi sourceTree,
+                           final KeyValueApi target, final MerkleTreeApi targetTree,
+                           final SyncMode mode) {
+        Require.nonNull(source, "null source");
+        Require.nonNull(sourceTree, "null source tree");
+        Require.nonNull(target, "null target");
+        Require.nonNull(targetTree, "null target tree");
+        Require.nonNull(mode, "null mode");
+        this.source = source;
+        this.sourceTree = sourceTree;
+        this.target = target;
+        this.targetTree = targetTree;
+        this.mode = mode;
+    }
+
+    public SyncReport run() {
+        final long start = System.currentTimeMillis();
+        final int depth = sourceTree.getMerkleDepth();
+        if (depth != targetTree.getMerkleDepth()) {
+            throw new IllegalArgumentException("trees of depth " + depth + " and " + targetTree.getMerkleDepth()
+                    + " cannot be compared");
+        }
+        long nodesCompared = 0;
+        int[] level = {1};
+        for (int d = 0; level.length > 0; d++) {
+            nodesCompared += level.length;
+            final int[] differing = differingNodes(level);
+            if (d == depth) {
+                level = differing;
+                break;
+            }
+            level = new int[differing.length * 2];
+            for (int i = 0; i < differing.length; i++) {
+                level[2 * i] = 2 * differing[i];
+                level[2 * i + 1] = 2 * differing[i] + 1;
+            }
+        }
+
+        long keysCopied = 0;
+        long keysDeleted = 0;
+        for (int from = 0; from < level.length; from += LEAVES_PER_REQUEST) {
+            final int[] leaves = Arrays.copyOfRange(level, from, Math.min(level.length, from + LEAVES_PER_REQUEST));
+            final Map<String, Long> sourceEntries = sourceTree.getLeafEntries(leaves);
+            final Map<String, Long> targetEntries = targetTree.getLeafEntries(leaves);
+            final List<String> copied = new ArrayList<>();
+            sourceEntries.forEach((key, hash) -> {
+                if (!hash.equals(targetEntries.get(key))) {
+                    copied.add(key);
+                }
+            });
+            for (int i = 0; i < copied.size(); i += KEYS_PER_BATCH) {
+                keysCopied += copy(source.getAll(copied.subList(i, Math.min(copied.size(), i + KEYS_PER_BATCH))));
+            }
+            if (mode != SyncMode.SOURCE_WINS) continue;
+
+            final List<String> deleted = new ArrayList<>();
+            targetEntries.keySet().forEach(key -> {
+                if (!sourceEntries.containsKey(key)) {
+                    deleted.add(key);
+                }
+            });
+            for (int i = 0; i < deleted.size(); i += KEYS_PER_BATCH) {
+                target.deleteAll(deleted.subList(i, Math.min(deleted.size(), i + KEYS_PER_BATCH)));
+            }
+            keysDeleted += deleted.size();
+        }
+        return new SyncReport(nodesCompared, level.length, keysCopied, keysDeleted,
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Writes source values to the target according to the mode and returns how many of them were written.
+     */
+    private long copy(final Map<String, byte[]> values) {
+        if (mode == SyncMode.SOURCE_WINS) {
+            target.putAll(values);
+            return values.size();
+        }
+        long written = 0;
+        for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+            if (ReplicatedKeyValueApi.putIfNewer(target, entry.getKey(), entry.getValue())) {
+                written++;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Returns the nodes whose hashes differ, fetching hashes in requests of up to {@value #NODES_PER_REQUEST}.
+     */
+    private int[] differingNodes(final int[] nodes) {
+        final int[] differing = new int[nodes.length];
+        int count = 0;
+        for (int from = 0; from < nodes.length; from += NODES_PER_REQUEST) {
+            final int[] chunk = Arrays.copyOfRange(nodes, from, Math.min(nodes.length, from + NODES_PER_REQUEST));
+            final long[] sourceHashes = sourceTree.getMerkleHashes(chunk);
+            final long[] targetHashes = targetTree.getMerkleHashes(chunk);
+            for (int i = 0; i < chunk.length; i++) {
+                if (sourceHashes[i] != targetHashes[i]) {
+                    differing[count++] = chunk[i];
+                }
+            }
+        }
+        return Arrays.copyOf(differing, count);
+    }
+}
@@ -0,0 +1,384 @@
+package ru.csc.bdse.kv.merkle;
+
+import ru.csc.bdse.kv.KeyValueApi;
+import ru.csc.bdse.kv.NodeAction;
+import ru.csc.bdse.kv.NodeInfo;
+import ru.csc.bdse.kv.VersionedValue;
+import ru.csc.bdse.util.Require;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Storage unit decorator which keeps a {@link MerkleTree} of the stored entries up to date, so that nodes with
+ * the same data can find where they diverge by comparing trees, see {@link AntiEntropySync}.
+ * <p>
+ * A write reads the previous value of the key to take its hash out of the tree, the read, the write and the update
+ * of the tree are done under a lock of the key, one of {@value #LOCK_STRIPES}. The tree is built by a scan of
+ * the storage when the decorator is created and after {@link #rebuild()}.
+ * <p>
+ * Keys put with a ttl are left out: they expire on every node by itself, so they are neither in the tree nor
+ * in {@link #getLeafEntries}. Keys which already have a ttl when the tree is built are recognized by
+ * {@link KeyValueApi#getExpiryTimes}.
+ */
+public class MerkleKeyValueApi implements KeyValueApi, MerkleTreeApi, Closeable {
+
+    public static final int DEFAULT_DEPTH = 16;
+
+    private static final int LOCK_STRIPES = 256;
+    private static final int PAGE_SIZE = 1000;
+    private static final int MIN_PRUNED_EXPIRING = 1024;
+
+    private final KeyValueApi storage;
+    private final MerkleTree tree;
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+    /**
+     * Keys put with a ttl and the time they expire at, pruned when the map doubles.
+     */
+    private final ConcurrentMap<String, Long> expiring = new ConcurrentHashMap<>();
+    private volatile int pruneAt = MIN_PRUNED_EXPIRING;
+
+    public MerkleKeyValueApi(final KeyValueApi storage) {
+        this(storage, DEFAULT_DEPTH);
+    }
+
+    public MerkleKeyValueApi(final KeyValueApi storage, final int depth) {
+        Require.nonNull(storage, "null storage");
+        this.storage = storage;
+        this.tree = new MerkleTree(depth);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        build();
+    }
+
+    @Override
+    public void put(final String key, final byte[] value) {
+        Require.nonNull(key, "null key");
+        final ReentrantLock lock = lockOf(key);
+        lock.lock();
+        try {
+            final Optional<byte[]> previous = tracked(key);
+            storage.put(key, value);
+            untrack(key, previous);
+            tree.add(key, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(final String key, final byte[] value, final long ttlMillis) {
+        Require.nonNull(key, "null key");
+        final ReentrantLock lock = lockOf(key);
+        lock.lock();
+        try {
+            final Optional<byte[]> previous = tracked(key);
+            storage.put(key, value, ttlMillis);
+            untrack(key, previous);
+            expiring.put(key, System.currentTimeMillis() + ttlMillis);
+        } finally {
+            lock.unlock();
+        }
+        if (expiring.size() >= pruneAt) {
+            pruneExpiring();
+        }
+    }
+
+    @Override
+    public Optional<byte[]> get(final String key) {
+        return storage.get(key);
+    }
+
+    @Override
+    public Optional<VersionedValue> getVersioned(final String key) {
+        return storage.getVersioned(key);
+    }
+
+    @Override
+    public OptionalLong putIfAbsent(final String key, final byte[] value) {
+        Require.nonNull(key, "null key");
+        final ReentrantLock lock = lockOf(key);
+        lock.lock();
+        try {
+            final OptionalLong version = storage.putIfAbsent(key, value);
+            if (version.isPresent()) {
+                // the key had no value or an expired one, neither is in the tree
+                expiring.remove(key);
+                tree.add(key, value);
+            }
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public OptionalLong putIfVersion(final String key, final byte[] value, final long version) {
+        Require.nonNull(key, "null key");
+        final ReentrantLock lock = lockOf(key);
+        lock.lock();
+        try {
+            final Optional<byte[]> previous = tracked(key);
+            final OptionalLong written = storage.putIfVersion(key, value, version);
+            if (written.isPresent()) {
+                untrack(key, previous);
+                tree.add(key, value);
+            }
+            return written;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Set<String> getKeys(final String prefix) {
+        return storage.getKeys(prefix);
+    }
+
+    @Override
+    public List<String> getKeys(final String prefix, final String after, final int limit) {
+        return storage.getKeys(prefix, after, limit);
+    }
+
+    @Override
+    public Stream<String> streamKeys(final String prefix, final String after, final int pageSize) {
+        return storage.streamKeys(prefix, after, pageSize);
+    }
+
+    @Override
+    public void delete(final String key) {
+        Require.nonNull(key, "null key");
+        final ReentrantLock lock = lockOf(key);
+        lock.lock();
+        try {
+            final Optional<byte[]> previous = tracked(key);
+            storage.delete(key);
+            untrack(key, previous);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void putAll(final Map<String, byte[]> entries) {
+        Require.nonNull(entries, "null entries");
+        final List<ReentrantLock> held = lockAll(entries.keySet());
+        try {
+            final Map<String, byte[]> previous = tracked(entries.keySet());
+            storage.putAll(entries);
+            entries.forEach((key, value) -> {
+                untrack(key, Optional.ofNullable(previous.get(key)));
+                tree.add(key, value);
+            });
+        } finally {
+            held.forEach(ReentrantLock::unlock);
+        }
+    }
+
+    @Override
+    public Map<String, byte[]> getAll(final Collection<String> keys) {
+        return storage.getAll(keys);
+    }
+
+    @Override
+    public void deleteAll(final Collection<String> keys) {
+        Require.nonNull(keys, "null keys");
+        final List<ReentrantLock> held = lockAll(keys);
+        try {
+            final Map<String, byte[]> previous = tracked(keys);
+            storage.deleteAll(keys);
+            new HashSet<>(keys).forEach(key -> untrack(key, Optional.ofNullable(previous.get(key))));
+        } finally {
+            held.forEach(ReentrantLock::unlock);
+        }
+    }
+
+    @Override
+    public Map<String, Long> getExpiryTimes(final Collection<String> keys) {
+        return storage.getExpiryTimes(keys);
+    }
+
+    @Override
+    public OptionalLong getKeyCount() {
+        return storage.getKeyCount();
+    }
+
+    @Override
+    public Set<NodeInfo> getInfo() {
+        return storage.getInfo();
+    }
+
+    @Override
+    public void action(final String node, final NodeAction action) {
+        storage.action(node, action);
+    }
+
+    @Override
+    public int getMerkleDepth() {
+        return tree.getDepth();
+    }
+
+    @Override
+    public long[] getMerkleHashes(final int[] nodes) {
+        Require.nonNull(nodes, "null nodes");
+        final long[] hashes = new long[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            hashes[i] = tree.hash(nodes[i]);
+        }
+        return hashes;
+    }
+
+    /**
+     * Scans keys of the storage, which costs a pass over all keys however few leaves are asked for,
+     * but reads only values of the keys in those leaves.
+     */
+    @Override
+    public Map<String, Long> getLeafEntries(final int[] leaves) {
+        Require.nonNull(leaves, "null leaves");
+        final Set<Integer> wanted = new HashSet<>();
+        for (int leaf : leaves) {
+            if (leaf < (1 << tree.getDepth()) || leaf >= (2 << tree.getDepth())) {
+                throw new IllegalArgumentException("no leaf " + leaf);
+            }
+            wanted.add(leaf);
+        }
+        final Map<String, Long> entries = new HashMap<>();
+        final List<String> page = new ArrayList<>(PAGE_SIZE);
+        storage.streamKeys("", PAGE_SIZE)
+                .filter(key -> wanted.contains(tree.leafOf(key)) && !expiring.containsKey(key))
+                .forEach(key -> {
+                    page.add(key);
+                    if (page.size() == PAGE_SIZE) {
+                        hashEntries(page, entries);
+                    }
+                });
+        hashEntries(page, entries);
+        return entries;
+    }
+
+    /**
+     * Builds the tree anew from the storage, e.g. after its content was replaced by a snapshot.
+     * Writes wait until the tree is built.
+     */
+    public void rebuild() {
+        final List<ReentrantLock> held = new ArrayList<>(LOCK_STRIPES);
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+            held.add(lock);
+        }
+        try {
+            tree.clear();
+            expiring.clear();
+            build();
+        } finally {
+            held.forEach(ReentrantLock::unlock);
+        }
+    }
+
+    /**
+     * Returns the wrapped storage, e.g. to reach statistics of a particular engine.
+     */
+    public KeyValueApi getStorage() {
+        return storage;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (storage instanceof Closeable) {
+            ((Closeable) storage).close();
+        }
+    }
+
+    /**
+     * Adds entries of the storage to the tree, keys the storage reports a ttl for are only remembered
+     * as expiring, e.g. ones restored from a snapshot.
+     */
+    private void build() {
+        final List<String> page = new ArrayList<>(PAGE_SIZE);
+        storage.streamKeys("", PAGE_SIZE).forEach(key -> {
+            page.add(key);
+            if (page.size() == PAGE_SIZE) {
+                addEntries(page);
+            }
+        });
+        addEntries(page);
+        pruneAt = Math.max(MIN_PRUNED_EXPIRING, expiring.size() * 2);
+    }
+
+    private void addEntries(final List<String> keys) {
+        final Map<String, byte[]> values = storage.getAll(keys);
+        final Map<String, Long> expiryTimes = storage.getExpiryTimes(values.keySet());
+        values.forEach((key, value) -> {
+            final Long expiresAt = expiryTimes.get(key);
+            if (expiresAt == null) {
+                tree.add(key, value);
+            } else {
+                expiring.put(key, expiresAt);
+            }
+        });
+        keys.clear();
+    }
+
+    private void hashEntries(final List<String> keys, final Map<String, Long> entries) {
+        storage.getAll(keys).forEach((key, value) -> entries.put(key, MerkleTree.entryHash(key, value)));
+        keys.clear();
+    }
+
+    /**
+     * Returns the value of the key which is in the tree, none for a key put with a ttl.
+     */
+    private Optional<byte[]> tracked(final String key) {
+        return expiring.containsKey(key) ? Optional.empty() : storage.get(key);
+    }
+
+    private Map<String, byte[]> tracked(final Collection<String> keys) {
+        return storage.getAll(keys.stream().filter(key -> !expiring.containsKey(key)).collect(Collectors.toList()));
+    }
+
+    private void untrack(final String key, final Optional<byte[]> previous) {
+        expiring.remove(key);
+        previous.ifPresent(value -> tree.remove(key, value));
+    }
+
+    /**
+     * Forgets keys whose ttl passed, the storage does not return them any more.
+     */
+    private void pruneExpiring() {
+        final long now = System.currentTimeMillis();
+        expiring.values().removeIf(expiresAt -> expiresAt <= now);
+        pruneAt = Math.max(MIN_PRUNED_EXPIRING, expiring.size() * 2);
+    }
+
+    private ReentrantLock lockOf(final String key) {
+        return locks[stripe(key)];
+    }
+
+    /**
+     * Locks stripes of the keys in ascending order, so two batches never wait for each other's stripes.
+     */
+    private List<ReentrantLock> lockAll(final Collection<String> keys) {
+        final BitSet stripes = new BitSet(LOCK_STRIPES);
+        for (String key : keys) {
+            Require.nonNull(key, "null key");
+            stripes.set(stripe(key));
+        }
+        final List<ReentrantLock> held = new ArrayList<>(stripes.cardinality());
+        for (int i = stripes.nextSetBit(0); i >= 0; i = stripes.nextSetBit(i + 1)) {
+            locks[i].lock();
+            held.add(locks[i]);
+        }
+        return held;
+    }
+
+    private static int stripe(final String key) {
+        final int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (LOCK_STRIPES - 1);
+    }
+}
@@ -0,0 +1,100 @@
+package ru.csc.bdse.kv.merkle;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hash tree over key ranges which is updated on every write instead of being recomputed.
+ * <p>
+ * Keys are spread over {@code 2^depth} leaves by their hash. Nodes are numbered as in a binary heap: the root is 1,
+ * children of node {@code n} are {@code 2n} and {@code 2n + 1}, so leaves are {@code 2^depth .. 2^(depth + 1) - 1}.
+ * The hash of a node is the sum of 64-bit hashes of all entries below it, so a write adds the difference of the old
+ * and the new entry hash to the {@code depth + 1} nodes on the path from its leaf and takes no lock. Two nodes with
+ * the same entries have the same tree whatever the order of writes; sums of random 64-bit hashes collide as rarely
+ * as the hashes themselves, which is enough against accidental divergence.
+ */
+public final class MerkleTree {
+
+    public static final int MAX_DEPTH = 24;
+
+    private final int depth;
+    private final AtomicLongArray nodes;
+
+    public MerkleTree(final int depth) {
+        if (depth < 0 || depth > MAX_DEPTH) throw new IllegalArgumentException("depth out of [0, " + MAX_DEPTH + "]");
+        this.depth = depth;
+        this.nodes = new AtomicLongArray(2 << depth);
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Returns the number of the leaf the key belongs to.
+     */
+    public int leafOf(final String key) {
+        final long hash = hash(key.getBytes(StandardCharsets.UTF_8), 0);
+        return (1 << depth) + (depth == 0 ? 0 : (int) (hash >>> (Long.SIZE - depth)));
+    }
+
+    /**
+     * Returns the hash of the node, zero for a node without entries.
+     *
+     * @throws IllegalArgumentException if there is no node with the number
+     */
+    public long hash(final int node) {
+        if (node < 1 || node >= nodes.length()) throw new IllegalArgumentException("no node " + node);
+        return nodes.get(node);
+    }
+
+    public void add(final String key, final byte[] value) {
+        update(leafOf(key), entryHash(key, value));
+    }
+
+    public void remove(final String key, final byte[] value) {
+        update(leafOf(key), -entryHash(key, value));
+    }
+
+    /**
+     * Forgets all entries.
+     */
+    public void clear() {
+        for (int i = 0; i < nodes.length(); i++) {
+            nodes.set(i, 0);
+        }
+    }
+
+    /**
+     * Returns the hash of the entry, the same on every node.
+     */
+    public static long entryHash(final String key, final byte[] value) {
+        return mix(hash(key.getBytes(StandardCharsets.UTF_8), 0) * 31 + hash(value, 0x9e3779b97f4a7c15L));
+    }
+
+    private void update(final int leaf, final long delta) {
+        for (int node = leaf; node > 0; node >>>= 1) {
+            nodes.addAndGet(node, delta);
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a with the murmur3 finalizer.
+     */
+    private static long hash(final byte[] bytes, final long seed) {
+        long h = 0xcbf29ce484222325L ^ seed;
+        for (byte b : bytes) {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
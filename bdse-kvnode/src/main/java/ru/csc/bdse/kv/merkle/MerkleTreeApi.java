@@ -0,0 +1,24 @@
+package ru.csc.bdse.kv.merkle;
+
+import java.util.Map;
+
+/**
+ * Access to the {@link MerkleTree} of a node, locally or over HTTP, for {@link AntiEntropySync}.
+ */
+public interface MerkleTreeApi {
+
+    /**
+     * Returns the depth of the tree, trees of different depth cannot be compared.
+     */
+    int getMerkleDepth();
+
+    /**
+     * Returns hashes of the nodes by their numbers, see {@link MerkleTree}.
+     */
+    long[] getMerkleHashes(int[] nodes);
+
+    /**
+     * Returns keys of the leaves with hashes of their entries, see {@link MerkleTree#entryHash}.
+     */
+    Map<String, Long> getLeafEntries(int[] leaves);
+}
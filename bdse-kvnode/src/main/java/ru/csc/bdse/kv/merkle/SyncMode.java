@@ -0,0 +1,22 @@
+package ru.csc.bdse.kv.merkle;
+
+import ru.csc.bdse.kv.cluster.ReplicatedKeyValueApi;
+
+/**
+ * Defines how {@link AntiEntropySync} resolves entries which differ between the source and the target.
+ */
+public enum SyncMode {
+
+    /**
+     * Values are versioned by {@link ReplicatedKeyValueApi} and a source entry is written only if it is newer
+     * than the target one, with a conditional put. Entries the source lacks are kept: deletions are stored
+     * as tombstones and replicate as values.
+     */
+    NEWER_WINS,
+
+    /**
+     * The target is made a copy of the source: differing entries are overwritten and entries the source lacks
+     * are deleted. Only for nodes with unversioned values, on replicas it may undo newer writes.
+     */
+    SOURCE_WINS
+}
@@ -0,0 +1,51 @@
+package ru.csc.bdse.kv.merkle;
+
+/**
+ * Outcome of an {@link AntiEntropySync} run.
+ */
+public final class SyncReport {
+
+    private final long nodesCompared;
+    private final long differingLeaves;
+    private final long keysCopied;
+    private final long keysDeleted;
+    private final long millis;
+
+    public SyncReport(final long nodesCompared, final long differingLeaves, final long keysCopied,
+                      final long keysDeleted, final long millis) {
+        this.nodesCompared = nodesCompared;
+        this.differingLeaves = differingLeaves;
+        this.keysCopied = keysCopied;
+        this.keysDeleted = keysDeleted;
+        this.millis = millis;
+    }
+
+    /**
+     * Returns the number of tree nodes whose hashes were compared.
+     */
+    public long getNodesCompared() {
+        return nodesCompared;
+    }
+
+    public long getDifferingLeaves() {
+        return differingLeaves;
+    }
+
+    public long getKeysCopied() {
+        return keysCopied;
+    }
+
+    public long getKeysDeleted() {
+        return keysDeleted;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    @Override
+    public String toString() {
+        return "SyncReport{nodesCompared=" + nodesCompared + ", differingLeaves=" + differingLeaves
+                + ", keysCopied=" + keysCopied + ", keysDeleted=" + keysDeleted + ", millis=" + millis + '}';
+    }
+}
@@ -0,0 +1,60 @@
+package ru.csc.bdse.kv.metrics;
+
+/**
+ * Immutable copy of a {@link LogLinearHistogram}, serialized to JSON by the metrics endpoint.
+ */
+public final class HistogramSnapshot {
+
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long max;
+
+    HistogramSnapshot(final long[] counts, final long count, final long sum, final long max) {
+        this.counts = counts;
+        this.count = count;
+        this.sum = sum;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public long getP50() {
+        return percentile(0.5);
+    }
+
+    public long getP99() {
+        return percentile(0.99);
+    }
+
+    public long getP999() {
+        return percentile(0.999);
+    }
+
+    /**
+     * Returns a value which at least the given share of recorded values do not exceed, up to the bucket precision.
+     */
+    public long percentile(final double quantile) {
+        if (quantile < 0 || quantile > 1) throw new IllegalArgumentException("quantile out of [0, 1]");
+        if (count == 0) return 0;
+        final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(LogLinearHistogram.highestValue(i), max);
+            }
+        }
+        return max;
+    }
+}
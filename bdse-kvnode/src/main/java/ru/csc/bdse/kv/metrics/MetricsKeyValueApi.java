@@ -0,0 +1,299 @@
+package ru.csc.bdse.kv.metrics;
+
+import ru.csc.bdse.kv.KeyValueApi;
+import ru.csc.bdse.kv.NodeAction;
+import ru.csc.bdse.kv.NodeInfo;
+import ru.csc.bdse.kv.VersionedValue;
+import ru.csc.bdse.util.Require;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Measures every data operation of a storage: latency histograms and failures per {@link Operation}
+ * and sizes of values written and read. Recording takes no locks and allocates nothing,
+ * so it does not distort what it measures. Info and actions are passed through unmeasured.
+ */
+public class MetricsKeyValueApi implements KeyValueApi, Closeable {
+
+    private final KeyValueApi storage;
+    private final long startNanos = System.nanoTime();
+    private final LogLinearHistogram[] latencies = new LogLinearHistogram[Operation.values().length];
+    private final LongAdder[] errors = new LongAdder[Operation.values().length];
+    private final LogLinearHistogram writtenValueBytes = new LogLinearHistogram();
+    private final LogLinearHistogram readValueBytes = new LogLinearHistogram();
+
+    public MetricsKeyValueApi(final KeyValueApi storage) {
+        Require.nonNull(storage, "null storage");
+        this.storage = storage;
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LogLinearHistogram();
+            errors[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public void put(final String key, final byte[] value) {
+        final long start = System.nanoTime();
+        try {
+            storage.put(key, value);
+            writtenValueBytes.record(value.length);
+        } catch (RuntimeException e) {
+            failed(Operation.PUT);
+            throw e;
+        } finally {
+            completed(Operation.PUT, start);
+        }
+    }
+
+    @Override
+    public void put(final String key, final byte[] value, final long ttlMillis) {
+        final long start = System.nanoTime();
+        try {
+            storage.put(key, value, ttlMillis);
+            writtenValueBytes.record(value.length);
+        } catch (RuntimeException e) {
+            failed(Operation.PUT);
+            throw e;
+        } finally {
+            completed(Operation.PUT, start);
+        }
+    }
+
+    @Override
+    public Optional<byte[]> get(final String key) {
+        final long start = System.nanoTime();
+        try {
+            final Optional<byte[]> value = storage.get(key);
+            if (value.isPresent()) {
+                readValueBytes.record(value.get().length);
+            }
+            return value;
+        } catch (RuntimeException e) {
+            failed(Operation.GET);
+            throw e;
+        } finally {
+            completed(Operation.GET, start);
+        }
+    }
+
+    @Override
+    public Optional<VersionedValue> getVersioned(final String key) {
+        final long start = System.nanoTime();
+        try {
+            final Optional<VersionedValue> value = storage.getVersioned(key);
+            if (value.isPresent()) {
+                readValueBytes.record(value.get().getLength());
+            }
+            return value;
+        } catch (RuntimeException e) {
+            failed(Operation.GET_VERSIONED);
+            throw e;
+        } finally {
+            completed(Operation.GET_VERSIONED, start);
+        }
+    }
+
+    @Override
+    public OptionalLong putIfAbsent(final String key, final byte[] value) {
+        final long start = System.nanoTime();
+        try {
+            final OptionalLong version = storage.putIfAbsent(key, value);
+            if (version.isPresent()) {
+                writtenValueBytes.record(value.length);
+            }
+            return version;
+        } catch (RuntimeException e) {
+            failed(Operation.PUT_IF_ABSENT);
+            throw e;
+        } finally {
+            completed(Operation.PUT_IF_ABSENT, start);
+        }
+    }
+
+    @Override
+    public OptionalLong putIfVersion(final String key, final byte[] value, final long version) {
+        final long start = System.nanoTime();
+        try {
+            final OptionalLong written = storage.putIfVersion(key, value, version);
+            if (written.isPresent()) {
+                writtenValueBytes.record(value.length);
+            }
+            return written;
+        } catch (RuntimeException e) {
+            failed(Operation.PUT_IF_VERSION);
+            throw e;
+        } finally {
+            completed(Operation.PUT_IF_VERSION, start);
+        }
+    }
+
+    @Override
+    public Set<String> getKeys(final String prefix) {
+        final long start = System.nanoTime();
+        try {
+            return storage.getKeys(prefix);
+        } catch (RuntimeException e) {
+            failed(Operation.GET_KEYS);
+            throw e;
+        } finally {
+            completed(Operation.GET_KEYS, start);
+        }
+    }
+
+    @Override
+    public List<String> getKeys(final String prefix, final String after, final int limit) {
+        final long start = System.nanoTime();
+        try {
+            return storage.getKeys(prefix, after, limit);
+        } catch (RuntimeException e) {
+            failed(Operation.GET_KEYS);
+            throw e;
+        } finally {
+            completed(Operation.GET_KEYS, start);
+        }
+    }
+
+    /**
+     * Measures creation of the stream only, pages of storages which list lazily are fetched unmeasured.
+     */
+    @Override
+    public Stream<String> streamKeys(final String prefix, final String after, final int pageSize) {
+        final long start = System.nanoTime();
+        try {
+            return storage.streamKeys(prefix, after, pageSize);
+        } catch (RuntimeException e) {
+            failed(Operation.GET_KEYS);
+            throw e;
+        } finally {
+            completed(Operation.GET_KEYS, start);
+        }
+    }
+
+    @Override
+    public void delete(final String key) {
+        final long start = System.nanoTime();
+        try {
+            storage.delete(key);
+        } catch (RuntimeException e) {
+            failed(Operation.DELETE);
+            throw e;
+        } finally {
+            completed(Operation.DELETE, start);
+        }
+    }
+
+    @Override
+    public void putAll(final Map<String, byte[]> entries) {
+        final long start = System.nanoTime();
+        try {
+            storage.putAll(entries);
+            for (byte[] value : entries.values()) {
+                writtenValueBytes.record(value.length);
+            }
+        } catch (RuntimeException e) {
+            failed(Operation.PUT_ALL);
+            throw e;
+        } finally {
+            completed(Operation.PUT_ALL, start);
+        }
+    }
+
+    @Override
+    public Map<String, byte[]> getAll(final Collection<String> keys) {
+        final long start = System.nanoTime();
+        try {
+            final Map<String, byte[]> values = storage.getAll(keys);
+            for (byte[] value : values.values()) {
+                readValueBytes.record(value.length);
+            }
+            return values;
+        } catch (RuntimeException e) {
+            failed(Operation.GET_ALL);
+            throw e;
+        } finally {
+            completed(Operation.GET_ALL, start);
+        }
+    }
+
+    @Override
+    public void deleteAll(final Collection<String> keys) {
+        final long start = System.nanoTime();
+        try {
+            storage.deleteAll(keys);
+        } catch (RuntimeException e) {
+            failed(Operation.DELETE_ALL);
+            throw e;
+        } finally {
+            completed(Operation.DELETE_ALL, start);
+        }
+    }
+
+    @Override
+    public Map<String, Long> getExpiryTimes(final Collection<String> keys) {
+        return storage.getExpiryTimes(keys);
+    }
+
+    @Override
+    public Set<NodeInfo> getInfo() {
+        return storage.getInfo();
+    }
+
+    @Override
+    public void action(final String node, final NodeAction action) {
+        storage.action(node, action);
+    }
+
+    /**
+     * Returns statistics of operations which were called at least once.
+     */
+    public Map<Operation, OperationStats> getOperationStats() {
+        final long elapsedNanos = System.nanoTime() - startNanos;
+        final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            final HistogramSnapshot snapshot = latencies[operation.ordinal()].snapshot();
+            if (snapshot.getCount() > 0) {
+                stats.put(operation, new OperationStats(snapshot, errors[operation.ordinal()].sum(), elapsedNanos));
+            }
+        }
+        return stats;
+    }
+
+    public HistogramSnapshot getWrittenValueBytes() {
+        return writtenValueBytes.snapshot();
+    }
+
+    public HistogramSnapshot getReadValueBytes() {
+        return readValueBytes.snapshot();
+    }
+
+    /**
+     * Passes the count kept by the storage unmeasured.
+     */
+    @Override
+    public OptionalLong getKeyCount() {
+        return storage.getKeyCount();
+    }
+
+    public KeyValueApi getStorage() {
+        return storage;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (storage instanceof Closeable) {
+            ((Closeable) storage).close();
+        }
+    }
+
+    private void failed(final Operation operation) {
+        errors[operation.ordinal()].increment();
+    }
+
+    private void completed(final Operation operation, final long startNanos) {
+        latencies[operation.ordinal()].record(System.nanoTime() - startNanos);
+    }
+}
@@ -0,0 +1,17 @@
+package ru.csc.bdse.kv.metrics;
+
+/**
+ * Operations of {@link ru.csc.bdse.kv.KeyValueApi} measured by {@link MetricsKeyValueApi}.
+ */
+public enum Operation {
+    PUT,
+    GET,
+    GET_VERSIONED,
+    PUT_IF_ABSENT,
+    PUT_IF_VERSION,
+    GET_KEYS,
+    DELETE,
+    PUT_ALL,
+    GET_ALL,
+    DELETE_ALL
+}
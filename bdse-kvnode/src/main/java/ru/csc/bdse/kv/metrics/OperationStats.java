@@ -0,0 +1,60 @@
+package ru.csc.bdse.kv.metrics;
+
+/**
+ * Throughput, latencies in microseconds and failures of one operation, serialized to JSON by the metrics endpoint.
+ */
+public final class OperationStats {
+
+    private final HistogramSnapshot latencyNanos;
+    private final long errors;
+    private final long elapsedNanos;
+
+    /**
+     * @param latencyNanos latencies of calls in nanoseconds
+     * @param errors       number of failed calls
+     * @param elapsedNanos time since measuring started
+     */
+    public OperationStats(final HistogramSnapshot latencyNanos, final long errors, final long elapsedNanos) {
+        this.latencyNanos = latencyNanos;
+        this.errors = errors;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Number of completed calls, failed ones included.
+     */
+    public long getCount() {
+        return latencyNanos.getCount();
+    }
+
+    /**
+     * Average throughput since measuring started.
+     */
+    public double getPerSecond() {
+        return elapsedNanos <= 0 ? 0 : latencyNanos.getCount() * 1e9 / elapsedNanos;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public double getMeanMicros() {
+        return latencyNanos.getMean() / 1000;
+    }
+
+    public double getP50Micros() {
+        return latencyNanos.getP50() / 1000.0;
+    }
+
+    public double getP99Micros() {
+        return latencyNanos.getP99() / 1000.0;
+    }
+
+    public double getP999Micros() {
+        return latencyNanos.getP999() / 1000.0;
+    }
+
+    public double getMaxMicros() {
+        return latencyNanos.getMax() / 1000.0;
+    }
+}
@@ -0,0 +1,70 @@
+package ru.csc.bdse.kv.offheap;
+
+/**
+ * Snapshot of off-heap arena usage.
+ */
+public class ArenaStats {
+
+    private final long reservedBytes;
+    private final long usedBytes;
+    private final long payloadBytes;
+    private final int slabCount;
+
+    ArenaStats(final long reservedBytes, final long usedBytes, final long payloadBytes, final int slabCount) {
+        this.reservedBytes = reservedBytes;
+        this.usedBytes = usedBytes;
+        this.payloadBytes = payloadBytes;
+        this.slabCount = slabCount;
+    }
+
+    /**
+     * Returns direct memory held by slabs.
+     */
+    public long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    /**
+     * Returns memory of allocated chunks, including headers and rounding to the size class.
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Returns total length of stored values.
+     */
+    public long getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    public int getSlabCount() {
+        return slabCount;
+    }
+
+    /**
+     * Returns share of reserved memory lost to rounding inside chunks.
+     */
+    public double getInternalFragmentation() {
+        return reservedBytes == 0 ? 0 : (double) (usedBytes - payloadBytes) / reservedBytes;
+    }
+
+    /**
+     * Returns share of reserved memory in free chunks.
+     */
+    public double getExternalFragmentation() {
+        return reservedBytes == 0 ? 0 : (double) (reservedBytes - usedBytes) / reservedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ArenaStats{" +
+                "reservedBytes=" + reservedBytes +
+                ", usedBytes=" + usedBytes +
+                ", payloadBytes=" + payloadBytes +
+                ", slabCount=" + slabCount +
+                ", internalFragmentation=" + getInternalFragmentation() +
+                ", externalFragmentation=" + getExternalFragmentation() +
+                '}';
+    }
+}
@@ -0,0 +1,168 @@
+package ru.csc.bdse.kv.offheap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.csc.bdse.kv.KeyValueApi;
+import ru.csc.bdse.kv.NodeAction;
+import ru.csc.bdse.kv.NodeInfo;
+import ru.csc.bdse.kv.NodeStatus;
+import ru.csc.bdse.util.Prefix;
+import ru.csc.bdse.util.Require;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-memory implementation of the storage unit which keeps values off the heap.
+ * <p>
+ * Values are copied into a {@link SlabArena}, the heap holds only the sorted key index with a {@code long}
+ * handle per key, so the garbage collector does not have to trace or copy value bytes.
+ * A background task compacts the arena: values are moved out of sparse slabs, which are then released.
+ */
+public class OffHeapKeyValueApi implements KeyValueApi, Closeable {
+
+    public static final long DEFAULT_COMPACTION_INTERVAL_MILLIS = 10_000;
+    public static final double DEFAULT_SPARSE_SLAB_RATIO = 0.5;
+
+    private static final Logger log = LoggerFactory.getLogger(OffHeapKeyValueApi.class);
+
+    private final String name;
+    private final double sparseSlabRatio;
+    private final SlabArena arena = new SlabArena();
+    private final ConcurrentNavigableMap<String, Long> index = new ConcurrentSkipListMap<>();
+    private final LongAdder keyCount = new LongAdder();
+    private final ScheduledExecutorService compactor;
+
+    public OffHeapKeyValueApi(final String name) {
+        this(name, DEFAULT_COMPACTION_INTERVAL_MILLIS, DEFAULT_SPARSE_SLAB_RATIO);
+    }
+
+    public OffHeapKeyValueApi(final String name, final long compactionIntervalMillis, final double sparseSlabRatio) {
+        Require.nonEmpty(name, "empty name");
+        if (compactionIntervalMillis <= 0) throw new IllegalArgumentException("non-positive compaction interval");
+        if (sparseSlabRatio <= 0 || sparseSlabRatio > 1) throw new IllegalArgumentException("invalid sparse slab ratio");
+        this.name = name;
+        this.sparseSlabRatio = sparseSlabRatio;
+        this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "offheap-compactor-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(this::compactQuietly,
+                compactionIntervalMillis, compactionIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void put(final String key, final byte[] value) {
+        Require.nonEmpty(key, "empty key");
+        Require.nonNull(value, "null value");
+        final Long previous = index.put(key, arena.allocate(value));
+        if (previous != null) {
+            arena.free(previous);
+        } else {
+            keyCount.increment();
+        }
+    }
+
+    @Override
+    public Optional<byte[]> get(final String key) {
+        Require.nonEmpty(key, "empty key");
+        while (true) {
+            final Long handle = index.get(key);
+            if (handle == null) {
+                return Optional.empty();
+            }
+            final byte[] value = arena.read(handle);
+            if (value != null) {
+                return Optional.of(value);
+            }
+            // the value has just been replaced or moved, look up the new handle
+        }
+    }
+
+    @Override
+    public Set<String> getKeys(final String prefix) {
+        Require.nonNull(prefix, "null prefix");
+        return new HashSet<>(Prefix.subMap(index, prefix).keySet());
+    }
+
+    @Override
+    public List<String> getKeys(final String prefix, final String after, final int limit) {
+        Require.nonNull(prefix, "null prefix");
+        return Prefix.keys(index, prefix, after, limit);
+    }
+
+    @Override
+    public void delete(final String key) {
+        Require.nonEmpty(key, "empty key");
+        final Long previous = index.remove(key);
+        if (previous != null) {
+            arena.free(previous);
+            keyCount.decrement();
+        }
+    }
+
+    @Override
+    public OptionalLong getKeyCount() {
+        return OptionalLong.of(keyCount.sum());
+    }
+
+    @Override
+    public Set<NodeInfo> getInfo() {
+        return Collections.singleton(new NodeInfo(name, NodeStatus.UP));
+    }
+
+    @Override
+    public void action(String node, NodeAction action) {
+        throw new RuntimeException("action not implemented now");
+    }
+
+    /**
+     * Returns current usage and fragmentation of off-heap memory.
+     */
+    public ArenaStats getArenaStats() {
+        return arena.stats();
+    }
+
+    /**
+     * Moves values out of sparse slabs and releases them.
+     */
+    public void compact() {
+        if (!arena.beginEvacuation(sparseSlabRatio)) {
+            return;
+        }
+        for (Map.Entry<String, Long> entry : index.entrySet()) {
+            final long handle = entry.getValue();
+            if (!arena.isEvacuating(handle)) continue;
+            final byte[] value = arena.read(handle);
+            if (value == null) continue;
+            final long moved = arena.allocate(value);
+            if (index.replace(entry.getKey(), handle, moved)) {
+                arena.free(handle);
+            } else {
+                arena.free(moved);
+            }
+        }
+        arena.releaseEvacuated();
+    }
+
+    @Override
+    public void close() {
+        compactor.shutdownNow();
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+            log.debug("Off-heap arena of {}: {}", name, arena.stats());
+        } catch (RuntimeException e) {
+            log.error("Compaction of off-heap arena failed", e);
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package ru.csc.bdse.kv.offheap;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Off-heap memory for values, made of 1 MB direct buffers (slabs) cut into chunks of one size class.
+ * <p>
+ * Size classes are powers of two from {@link #MIN_CHUNK_SIZE} up to the slab size, bigger values get a slab
+ * of their own. Every chunk starts with a header {@code valueLength | generation}. A value is addressed by
+ * a {@code long} handle packing generation (24 bits), size class (5 bits), slab (20 bits) and chunk (15 bits),
+ * the generation detects handles whose chunk has been freed and reused.
+ * <p>
+ * Allocation and freeing take the write lock of the size class, reads are optimistic and fall back to
+ * the read lock only when they race with a write to the same class.
+ */
+final class SlabArena {
+
+    static final int SLAB_SIZE = 1 << 20;
+    static final int MIN_CHUNK_SIZE = 32;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int FREED = -1;
+
+    private static final int CHUNK_BITS = 15;
+    private static final int SLAB_BITS = 20;
+    private static final int CLASS_BITS = 5;
+    private static final int GENERATION_BITS = 24;
+
+    private final SizeClass[] classes;
+    private final int largeClass;
+    private final AtomicInteger generations = new AtomicInteger();
+    private final AtomicLong reservedBytes = new AtomicLong();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final AtomicLong payloadBytes = new AtomicLong();
+
+    SlabArena() {
+        final List<SizeClass> sizeClasses = new ArrayList<>();
+        for (int chunkSize = MIN_CHUNK_SIZE; chunkSize <= SLAB_SIZE; chunkSize <<= 1) {
+            sizeClasses.add(new SizeClass(sizeClasses.size(), chunkSize));
+        }
+        largeClass = sizeClasses.size();
+        sizeClasses.add(new SizeClass(largeClass, 0));
+        classes = sizeClasses.toArray(new SizeClass[0]);
+    }
+
+    /**
+     * Copies value to the arena and returns its handle.
+     */
+    long allocate(final byte[] value) {
+        final SizeClass sizeClass = classFor(value.length + HEADER_SIZE);
+        // zero is skipped, as it is what a chunk of a fresh slab holds
+        final int generation = 1 + (generations.getAndIncrement() & Integer.MAX_VALUE) % ((1 << GENERATION_BITS) - 1);
+        final long stamp = sizeClass.lock.writeLock();
+        try {
+            final Slab slab = sizeClass.slabWithFreeChunk(value.length + HEADER_SIZE);
+            final int chunk = slab.free[--slab.freeCount];
+            slab.live++;
+            final int offset = chunk * slab.chunkSize;
+            slab.buffer.putInt(offset, value.length);
+            slab.buffer.putInt(offset + 4, generation);
+            final ByteBuffer target = slab.buffer.duplicate();
+            target.position(offset + HEADER_SIZE);
+            target.put(value);
+
+            usedBytes.addAndGet(slab.chunkSize);
+            payloadBytes.addAndGet(value.length);
+            return handle(generation, sizeClass.index, slab.index, chunk);
+        } finally {
+            sizeClass.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Returns copy of the value or null if the handle is stale.
+     */
+    byte[] read(final long handle) {
+        final SizeClass sizeClass = classes[classOf(handle)];
+        final long optimistic = sizeClass.lock.tryOptimisticRead();
+        if (optimistic != 0) {
+            final byte[] value = sizeClass.read(handle);
+            if (sizeClass.lock.validate(optimistic)) {
+                return value;
+            }
+        }
+        final long stamp = sizeClass.lock.readLock();
+        try {
+            return sizeClass.read(handle);
+        } finally {
+            sizeClass.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Returns the chunk of the handle to its slab, stale handles are ignored.
+     */
+    void free(final long handle) {
+        final SizeClass sizeClass = classes[classOf(handle)];
+        final long stamp = sizeClass.lock.writeLock();
+        try {
+            final Slab slab = sizeClass.slab(slabOf(handle));
+            final int chunk = chunkOf(handle);
+            if (slab == null || slab.buffer.getInt(chunk * slab.chunkSize + 4) != generationOf(handle)) {
+                return;
+            }
+            final int offset = chunk * slab.chunkSize;
+            payloadBytes.addAndGet(-slab.buffer.getInt(offset));
+            usedBytes.addAndGet(-slab.chunkSize);
+            slab.buffer.putInt(offset + 4, FREED);
+            slab.free[slab.freeCount++] = chunk;
+            slab.live--;
+            if (sizeClass.chunkSize == 0) {
+                sizeClass.release(slab);
+            }
+        } finally {
+            sizeClass.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Stops allocation in the sparsest slabs of every size class whose live chunks would fit into fewer slabs.
+     * Values in such slabs are expected to be moved elsewhere, after that the slabs are released
+     * by {@link #releaseEvacuated()}.
+     *
+     * @param maxLiveRatio share of live chunks below which a slab is considered sparse
+     * @return whether any slab is being evacuated
+     */
+    boolean beginEvacuation(final double maxLiveRatio) {
+        boolean evacuating = false;
+        for (SizeClass sizeClass : classes) {
+            if (sizeClass.chunkSize == 0) continue;
+            final long stamp = sizeClass.lock.writeLock();
+            try {
+                evacuating |= sizeClass.beginEvacuation(maxLiveRatio);
+            } finally {
+                sizeClass.lock.unlockWrite(stamp);
+            }
+        }
+        return evacuating;
+    }
+
+    boolean isEvacuating(final long handle) {
+        final Slab slab = classes[classOf(handle)].slab(slabOf(handle));
+        return slab != null && slab.evacuating;
+    }
+
+    /**
+     * Releases evacuating slabs without live chunks.
+     */
+    void releaseEvacuated() {
+        for (SizeClass sizeClass : classes) {
+            final long stamp = sizeClass.lock.writeLock();
+            try {
+                for (Slab slab : sizeClass.slabs) {
+                    if (slab != null && slab.evacuating && slab.live == 0) {
+                        sizeClass.release(slab);
+                    }
+                }
+            } finally {
+                sizeClass.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    ArenaStats stats() {
+        int slabCount = 0;
+        for (SizeClass sizeClass : classes) {
+            for (Slab slab : sizeClass.slabs) {
+                if (slab != null) slabCount++;
+            }
+        }
+        return new ArenaStats(reservedBytes.get(), usedBytes.get(), payloadBytes.get(), slabCount);
+    }
+
+    private SizeClass classFor(final int size) {
+        if (size > SLAB_SIZE) {
+            return classes[largeClass];
+        }
+        final int index = 32 - Integer.numberOfLeadingZeros(Math.max(size, MIN_CHUNK_SIZE) - 1)
+                - Integer.numberOfTrailingZeros(MIN_CHUNK_SIZE);
+        return classes[index];
+    }
+
+    private static long handle(final int generation, final int sizeClass, final int slab, final int chunk) {
+        return ((long) generation << (CLASS_BITS + SLAB_BITS + CHUNK_BITS))
+                | ((long) sizeClass << (SLAB_BITS + CHUNK_BITS))
+                | ((long) slab << CHUNK_BITS)
+                | chunk;
+    }
+
+    private static int generationOf(final long handle) {
+        return (int) (handle >>> (CLASS_BITS + SLAB_BITS + CHUNK_BITS));
+    }
+
+    private static int classOf(final long handle) {
+        return (int) (handle >>> (SLAB_BITS + CHUNK_BITS)) & ((1 << CLASS_BITS) - 1);
+    }
+
+    private static int slabOf(final long handle) {
+        return (int) (handle >>> CHUNK_BITS) & ((1 << SLAB_BITS) - 1);
+    }
+
+    private static int chunkOf(final long handle) {
+        return (int) handle & ((1 << CHUNK_BITS) - 1);
+    }
+
+    private final class SizeClass {
+
+        private final int index;
+        /* zero for the class of large values, which get a slab of exact size each */
+        private final int chunkSize;
+        private final StampedLock lock = new StampedLock();
+        private final Deque<Integer> releasedSlots = new ArrayDeque<>();
+        /* replaced on growth, so optimistic readers never see a partially copied array */
+        private volatile Slab[] slabs = new Slab[0];
+        private Slab current;
+
+        private SizeClass(final int index, final int chunkSize) {
+            this.index = index;
+            this.chunkSize = chunkSize;
+        }
+
+        private Slab slab(final int slabIndex) {
+            final Slab[] snapshot = slabs;
+            return slabIndex < snapshot.length ? snapshot[slabIndex] : null;
+        }
+
+        /**
+         * Reads without locking, so the result is only trusted after validation of the lock stamp.
+         * Any garbage seen in a racing write must not lead to an exception.
+         */
+        private byte[] read(final long handle) {
+            final Slab slab = slab(slabOf(handle));
+            if (slab == null) {
+                return null;
+            }
+            final int offset = chunkOf(handle) * slab.chunkSize;
+            if (offset + HEADER_SIZE > slab.buffer.capacity()
+                    || slab.buffer.getInt(offset + 4) != generationOf(handle)) {
+                return null;
+            }
+            final int length = slab.buffer.getInt(offset);
+            if (length < 0 || length > slab.chunkSize - HEADER_SIZE) {
+                return null;
+            }
+            final ByteBuffer source = slab.buffer.duplicate();
+            source.position(offset + HEADER_SIZE);
+            final byte[] value = new byte[length];
+            source.get(value);
+            return value;
+        }
+
+        private Slab slabWithFreeChunk(final int size) {
+            if (chunkSize == 0) {
+                return newSlab(size, 1);
+            }
+            if (current != null && current.freeCount > 0 && !current.evacuating) {
+                return current;
+            }
+            for (Slab slab : slabs) {
+                if (slab != null && slab.freeCount > 0 && !slab.evacuating) {
+                    return current = slab;
+                }
+            }
+            return current = newSlab(SLAB_SIZE, SLAB_SIZE / chunkSize);
+        }
+
+        private Slab newSlab(final int capacity, final int chunks) {
+            final int slot;
+            if (!releasedSlots.isEmpty()) {
+                slot = releasedSlots.pop();
+            } else {
+                slot = slabs.length;
+                if (slot >= 1 << SLAB_BITS) throw new IllegalStateException("too many slabs");
+            }
+            final Slab slab = new Slab(slot, ByteBuffer.allocateDirect(capacity), capacity / chunks, chunks);
+            final Slab[] grown = slot < slabs.length ? slabs.clone() : Arrays.copyOf(slabs, slot + 1);
+            grown[slot] = slab;
+            slabs = grown;
+            reservedBytes.addAndGet(capacity);
+            return slab;
+        }
+
+        private void release(final Slab slab) {
+            final Slab[] shrunk = slabs.clone();
+            shrunk[slab.index] = null;
+            slabs = shrunk;
+            releasedSlots.push(slab.index);
+            if (current == slab) {
+                current = null;
+            }
+            reservedBytes.addAndGet(-slab.buffer.capacity());
+        }
+
+        private boolean beginEvacuation(final double maxLiveRatio) {
+            final List<Slab> candidates = new ArrayList<>();
+            long live = 0;
+            long capacity = 0;
+            for (Slab slab : slabs) {
+                if (slab == null || slab.evacuating) continue;
+                candidates.add(slab);
+                live += slab.live;
+                capacity += slab.chunks;
+            }
+            candidates.sort(Comparator.comparingInt(slab -> slab.live));
+            boolean evacuating = false;
+            for (Slab slab : candidates) {
+                // keep a quarter of a slab as headroom, so that evacuation does not have to allocate new slabs
+                if ((double) slab.live / slab.chunks >= maxLiveRatio
+                        || capacity - slab.chunks < live + slab.chunks / 4) {
+                    break;
+                }
+                slab.evacuating = true;
+                capacity -= slab.chunks;
+                evacuating = true;
+            }
+            if (current != null && current.evacuating) {
+                current = null;
+            }
+            return evacuating;
+        }
+    }
+
+    private static final class Slab {
+
+        private final int index;
+        private final ByteBuffer buffer;
+        private final int chunkSize;
+        private final int chunks;
+        private final int[] free;
+        private int freeCount;
+        private int live;
+        private volatile boolean evacuating;
+
+        private Slab(final int index, final ByteBuffer buffer, final int chunkSize, final int chunks) {
+            this.index = index;
+            this.buffer = buffer;
+            this.chunkSize = chunkSize;
+            this.chunks = chunks;
+            this.free = new int[chunks];
+            // lower chunks are handed out first
+            for (int i = 0; i < chunks; i++) {
+                free[i] = chunks - 1 - i;
+            }
+            this.freeCount = chunks;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package ru.csc.bdse.kv.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of a storage.
+ * <p>
+ * File layout: {@code blocks | block index | footer}. A block is a run of
+ * {@code keyLength | key (UTF-8) | version | expiresAt | valueLength | value} entries of about {@value #BLOCK_SIZE} bytes.
+ * The index keeps offset, length, entry count and CRC32 of every block, the footer keeps the index position,
+ * its CRC32 and the total entry count. Blocks are independent, so they are memory-mapped and decoded in parallel
+ * on load and restoring runs at disk speed.
+ */
+public final class SnapshotFile {
+
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int INDEX_ENTRY_SIZE = 20;
+    private static final int FOOTER_SIZE = 32;
+    private static final long MAGIC = 0x62647365_736e7032L;
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Receives entries of a snapshot being read, concurrently from several threads.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(String key, byte[] value, long version, long expiresAt);
+    }
+
+    /**
+     * Entry written to a snapshot.
+     */
+    public static final class Entry {
+
+        private final String key;
+        private final byte[] value;
+        private final long version;
+        private final long expiresAt;
+
+        /**
+         * @param expiresAt time in milliseconds when the entry expires, zero if it does not
+         */
+        public Entry(final String key, final byte[] value, final long version, final long expiresAt) {
+            this.key = key;
+            this.value = value;
+            this.version = version;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Writes entries to the file, replacing an existing one atomically.
+     */
+    public static SnapshotInfo write(final Path file, final Iterator<Entry> entries) throws IOException {
+        final long start = System.currentTimeMillis();
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        final DataOutputStream indexOut = new DataOutputStream(index);
+        final ByteArrayOutputStream block = new ByteArrayOutputStream(2 * BLOCK_SIZE);
+        final DataOutputStream blockOut = new DataOutputStream(block);
+
+        long position = 0;
+        long count = 0;
+        int blockCount = 0;
+        int blockEntries = 0;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), 64 * 1024)) {
+            while (entries.hasNext()) {
+                final Entry entry = entries.next();
+                final byte[] key = entry.key.getBytes(StandardCharsets.UTF_8);
+                blockOut.writeInt(key.length);
+                blockOut.write(key);
+                blockOut.writeLong(entry.version);
+                blockOut.writeLong(entry.expiresAt);
+                blockOut.writeInt(entry.value.length);
+                blockOut.write(entry.value);
+                blockEntries++;
+                count++;
+
+                if (block.size() >= BLOCK_SIZE) {
+                    position += flushBlock(block, blockEntries, position, indexOut, out);
+                    blockCount++;
+                    blockEntries = 0;
+                }
+            }
+            if (block.size() > 0) {
+                position += flushBlock(block, blockEntries, position, indexOut, out);
+                blockCount++;
+            }
+
+            index.writeTo(out);
+            final ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            footer.putLong(position);
+            footer.putInt(blockCount);
+            footer.putInt((int) crc(ByteBuffer.wrap(index.toByteArray())));
+            footer.putLong(count);
+            footer.putLong(MAGIC);
+            out.write(footer.array());
+        }
+
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return new SnapshotInfo(count, Files.size(file), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Checks the file and passes its entries to the consumer, blocks are decoded in parallel.
+     * Nothing is passed if the index is corrupted, but entries of intact blocks may be passed
+     * before a corrupted block is found.
+     *
+     * @throws IOException if the file is missing, truncated or corrupted
+     */
+    public static SnapshotInfo read(final Path file, final EntryConsumer consumer) throws IOException {
+        final long start = System.currentTimeMillis();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < FOOTER_SIZE) throw new IOException("truncated snapshot " + file);
+            final ByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, size - FOOTER_SIZE, FOOTER_SIZE);
+            final long indexOffset = footer.getLong();
+            final int blockCount = footer.getInt();
+            final int indexCrc = footer.getInt();
+            final long entryCount = footer.getLong();
+            if (footer.getLong() != MAGIC) throw new IOException("corrupted snapshot " + file);
+            if (indexOffset < 0 || blockCount < 0 || indexOffset + (long) blockCount * INDEX_ENTRY_SIZE != size - FOOTER_SIZE) {
+                throw new IOException("corrupted snapshot " + file);
+            }
+
+            final ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, blockCount * INDEX_ENTRY_SIZE);
+            if ((int) crc(index.duplicate()) != indexCrc) throw new IOException("corrupted snapshot index " + file);
+            final long[] offsets = new long[blockCount];
+            final int[] lengths = new int[blockCount];
+            final int[] counts = new int[blockCount];
+            final int[] crcs = new int[blockCount];
+            for (int i = 0; i < blockCount; i++) {
+                offsets[i] = index.getLong();
+                lengths[i] = index.getInt();
+                counts[i] = index.getInt();
+                crcs[i] = index.getInt();
+            }
+
+            final AtomicLong read = new AtomicLong();
+            try {
+                IntStream.range(0, blockCount).parallel().forEach(i -> {
+                    try {
+                        final ByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY, offsets[i], lengths[i]);
+                        if ((int) crc(block.duplicate()) != crcs[i]) {
+                            throw new IOException("corrupted block " + i + " of snapshot " + file);
+                        }
+                        for (int entry = 0; entry < counts[i]; entry++) {
+                            final byte[] key = new byte[block.getInt()];
+                            block.get(key);
+                            final long version = block.getLong();
+                            final long expiresAt = block.getLong();
+                            final byte[] value = new byte[block.getInt()];
+                            block.get(value);
+                            consumer.accept(new String(key, StandardCharsets.UTF_8), value, version, expiresAt);
+                        }
+                        read.addAndGet(counts[i]);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            if (read.get() != entryCount) throw new IOException("corrupted snapshot " + file);
+            return new SnapshotInfo(entryCount, size, System.currentTimeMillis() - start);
+        }
+    }
+
+    private static long flushBlock(final ByteArrayOutputStream block,
+                                   final int entries,
+                                   final long position,
+                                   final DataOutputStream indexOut,
+                                   final OutputStream out) throws IOException {
+        final int length = block.size();
+        final byte[] bytes = block.toByteArray();
+        indexOut.writeLong(position);
+        indexOut.writeInt(length);
+        indexOut.writeInt(entries);
+        indexOut.writeInt((int) crc(ByteBuffer.wrap(bytes)));
+        out.write(bytes);
+        block.reset();
+        return length;
+    }
+
+    private static long crc(final ByteBuffer buffer) {
+        final CRC32 crc = new CRC32();
+        crc.update(buffer);
+        return crc.getValue();
+    }
+}
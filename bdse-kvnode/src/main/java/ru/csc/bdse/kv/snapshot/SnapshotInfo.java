@@ -0,0 +1,34 @@
+package ru.csc.bdse.kv.snapshot;
+
+/**
+ * Size of a written or restored snapshot and how long it took.
+ */
+public final class SnapshotInfo {
+
+    private final long entries;
+    private final long bytes;
+    private final long millis;
+
+    public SnapshotInfo(final long entries, final long bytes, final long millis) {
+        this.entries = entries;
+        this.bytes = bytes;
+        this.millis = millis;
+    }
+
+    public long getEntries() {
+        return entries;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    @Override
+    public String toString() {
+        return entries + " entries, " + bytes + " bytes in " + millis + " ms";
+    }
+}
@@ -0,0 +1,22 @@
+package ru.csc.bdse.kv.snapshot;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Storage whose whole state can be saved to a file and loaded back, see {@link SnapshotFile}.
+ */
+public interface Snapshottable {
+
+    /**
+     * Writes every entry to the file, replacing an existing one atomically. Writes are not stopped meanwhile.
+     */
+    SnapshotInfo snapshot(Path file) throws IOException;
+
+    /**
+     * Replaces the whole content of the storage with the snapshot.
+     *
+     * @throws IOException if the file is missing, truncated or corrupted, the storage is unchanged then
+     */
+    SnapshotInfo restore(Path file) throws IOException;
+}
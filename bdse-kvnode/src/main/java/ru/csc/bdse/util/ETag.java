@@ -0,0 +1,31 @@
+package ru.csc.bdse.util;
+
+/**
+ * Formats versions of values as strong entity tags and parses them back from {@code If-Match} headers.
+ */
+public class ETag {
+
+    private ETag() {
+
+    }
+
+    public static String format(final long version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * @throws IllegalArgumentException if the tag is not a quoted version, weak tags never match
+     */
+    public static long parse(final String tag) {
+        Require.nonNull(tag, "null tag");
+        final String trimmed = tag.trim();
+        if (trimmed.length() < 3 || trimmed.charAt(0) != '"' || trimmed.charAt(trimmed.length() - 1) != '"') {
+            throw new IllegalArgumentException("bad entity tag: " + tag);
+        }
+        try {
+            return Long.parseLong(trimmed.substring(1, trimmed.length() - 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad entity tag: " + tag);
+        }
+    }
+}
@@ -12,6 +12,18 @@ public class Env {
     }
 
     public static final String KVNODE_NAME = "KVNODE_NAME";
+    public static final String KVNODE_ENGINE = "KVNODE_ENGINE";
+    public static final String KVNODE_DATA_DIR = "KVNODE_DATA_DIR";
+    public static final String KVNODE_FSYNC = "KVNODE_FSYNC";
+    public static final String KVNODE_SNAPSHOT = "KVNODE_SNAPSHOT";
+    public static final String KVNODE_COMPRESSION = "KVNODE_COMPRESSION";
+    public static final String KVNODE_COMPRESSION_THRESHOLD = "KVNODE_COMPRESSION_THRESHOLD";
+    public static final String KVNODE_CHANGELOG = "KVNODE_CHANGELOG";
+    public static final String KVNODE_MERKLE_DEPTH = "KVNODE_MERKLE_DEPTH";
+    public static final String KVNODE_STORAGE_THREADS = "KVNODE_STORAGE_THREADS";
+    public static final String KVNODE_SHARDS = "KVNODE_SHARDS";
+    public static final String KVNODE_REPLICAS = "KVNODE_REPLICAS";
+    public static final String KVNODE_QUORUM = "KVNODE_QUORUM";
 
     public static Optional<String> get(final String name) {
         return Optional.ofNullable(System.getenv(name));
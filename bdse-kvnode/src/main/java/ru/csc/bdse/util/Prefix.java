@@ -0,0 +1,84 @@
+package ru.csc.bdse.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+/**
+ * Helpers for prefix queries over sorted key spaces.
+ */
+public class Prefix {
+
+    private Prefix() {
+
+    }
+
+    /**
+     * Returns the smallest string which is greater than every string starting with specified prefix,
+     * or empty if there is no such string (prefix is empty or consists only of {@code Character.MAX_VALUE}).
+     */
+    public static Optional<String> upperBound(final String prefix) {
+        Require.nonNull(prefix, "null prefix");
+        for (int i = prefix.length() - 1; i >= 0; i--) {
+            final char c = prefix.charAt(i);
+            if (c != Character.MAX_VALUE) {
+                return Optional.of(prefix.substring(0, i) + (char) (c + 1));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Returns a view of the portion of specified map whose keys start with specified prefix.
+     * Cost of the lookup is logarithmic, iteration over the view touches only matching keys.
+     */
+    public static <V> NavigableMap<String, V> subMap(final NavigableMap<String, V> map, final String prefix) {
+        return upperBound(prefix)
+                .map(upper -> map.subMap(prefix, true, upper, false))
+                .orElseGet(() -> map.tailMap(prefix, true));
+    }
+
+    /**
+     * Returns up to {@code limit} keys of specified map which start with specified prefix and are greater than
+     * {@code after}, in ascending order. Null {@code after} means the page starts from the first matching key.
+     */
+    public static <V> List<String> keys(final NavigableMap<String, V> map,
+                                        final String prefix,
+                                        final String after,
+                                        final int limit) {
+        return keys(map, prefix, after, limit, value -> true);
+    }
+
+    /**
+     * Same as {@link #keys(NavigableMap, String, String, int)}, but skips keys whose values are not accepted
+     * by the filter, e.g. expired ones.
+     */
+    public static <V> List<String> keys(final NavigableMap<String, V> map,
+                                        final String prefix,
+                                        final String after,
+                                        final int limit,
+                                        final Predicate<? super V> filter) {
+        if (limit <= 0) throw new IllegalArgumentException("non-positive limit");
+        final NavigableMap<String, V> range = subMap(map, prefix);
+        final NavigableMap<String, V> page;
+        if (after == null || after.compareTo(prefix) < 0) {
+            page = range;
+        } else if (upperBound(prefix).map(upper -> after.compareTo(upper) >= 0).orElse(false)) {
+            return Collections.emptyList();
+        } else {
+            page = range.tailMap(after, false);
+        }
+        final List<String> keys = new ArrayList<>(Math.min(limit, 1024));
+        for (Map.Entry<String, V> entry : page.entrySet()) {
+            if (keys.size() >= limit) break;
+            if (filter.test(entry.getValue())) {
+                keys.add(entry.getKey());
+            }
+        }
+        return keys;
+    }
+}